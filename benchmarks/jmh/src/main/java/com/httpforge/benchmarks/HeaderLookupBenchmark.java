@@ -0,0 +1,47 @@
+package com.httpforge.benchmarks;
+
+import com.httpforge.http.HttpParser;
+import com.httpforge.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+/**
+ * HttpRequest.getHeader on the 30-header browser request.
+ * lookups are case-insensitive, so the name is deliberately cased differently from the wire.
+ */
+@State(Scope.Thread)
+public class HeaderLookupBenchmark extends BenchmarkDefaults {
+
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        request = HttpParser.parse(new ByteArrayInputStream(RequestCorpus.BROWSER_GET.bytes()));
+    }
+
+    @Benchmark
+    public String getHost() {
+        return request.getHeader("host");
+    }
+
+    @Benchmark
+    public String getConnection() {
+        // looked up on every request by ConnectionHandler
+        return request.getHeader("connection");
+    }
+
+    @Benchmark
+    public String getMissing() {
+        return request.getHeader("content-length");
+    }
+
+    @Benchmark
+    public Map<String, String> getHeaders() {
+        return request.getHeaders();
+    }
+}
@@ -0,0 +1,36 @@
+package com.httpforge.benchmarks;
+
+import com.httpforge.http.HttpParser;
+import com.httpforge.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * HttpParser.parse over in-memory request bytes, no sockets involved.
+ */
+@State(Scope.Thread)
+public class HttpParserBenchmark extends BenchmarkDefaults {
+
+    @Param({"SMALL_GET", "BROWSER_GET", "LARGE_POST"})
+    public RequestCorpus corpus;
+
+    private ByteArrayInputStream input;
+
+    @Setup
+    public void setUp() {
+        input = new ByteArrayInputStream(corpus.bytes());
+    }
+
+    @Benchmark
+    public HttpRequest parse() throws IOException, HttpParser.HttpParseException {
+        // rewind instead of allocating a new stream, so only the parser's allocations are measured
+        input.reset();
+        return HttpParser.parse(input);
+    }
+}
@@ -0,0 +1,86 @@
+package com.httpforge.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * raw request bytes the benchmarks feed through the parser.
+ * shapes are taken from real traffic: a bare curl GET, a browser navigation with ~30 headers,
+ * and an API POST with a 64 KiB JSON body.
+ */
+public enum RequestCorpus {
+    SMALL_GET(
+            "GET /hello HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "User-Agent: curl/8.4.0\r\n" +
+            "Accept: */*\r\n" +
+            "\r\n"
+    ),
+    BROWSER_GET(browserRequest()),
+    LARGE_POST(largePost(64 * 1024));
+
+    private final byte[] bytes;
+
+    RequestCorpus(String raw) {
+        this.bytes = raw.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    private static String browserRequest() {
+        StringBuilder raw = new StringBuilder();
+        raw.append("GET /echo?utm_source=newsletter&utm_medium=email HTTP/1.1\r\n");
+        raw.append("Host: localhost:8080\r\n");
+        raw.append("Connection: keep-alive\r\n");
+        raw.append("sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n");
+        raw.append("sec-ch-ua-mobile: ?0\r\n");
+        raw.append("sec-ch-ua-platform: \"Linux\"\r\n");
+        raw.append("Upgrade-Insecure-Requests: 1\r\n");
+        raw.append("User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) ")
+                .append("Chrome/124.0.0.0 Safari/537.36\r\n");
+        raw.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,")
+                .append("image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n");
+        raw.append("Sec-Fetch-Site: none\r\n");
+        raw.append("Sec-Fetch-Mode: navigate\r\n");
+        raw.append("Sec-Fetch-User: ?1\r\n");
+        raw.append("Sec-Fetch-Dest: document\r\n");
+        raw.append("Accept-Encoding: gzip, deflate, br, zstd\r\n");
+        raw.append("Accept-Language: en-US,en;q=0.9,de;q=0.8\r\n");
+        raw.append("Cache-Control: max-age=0\r\n");
+        raw.append("Cookie: session=4f2a9c1e7b3d4a5f8e6c2b1a9d7f3e5c; theme=dark; ")
+                .append("_ga=GA1.1.1234567890.1700000000; _gid=GA1.1.987654321.1700000000\r\n");
+        raw.append("DNT: 1\r\n");
+        raw.append("Priority: u=0, i\r\n");
+        raw.append("Referer: https://example.com/articles/httpforge-internals\r\n");
+        raw.append("If-None-Match: \"33a64df551425fcc55e4d42a148795d9f25f89d4\"\r\n");
+        raw.append("If-Modified-Since: Wed, 21 Oct 2015 07:28:00 GMT\r\n");
+        raw.append("X-Forwarded-For: 203.0.113.195, 70.41.3.18, 150.172.238.178\r\n");
+        raw.append("X-Forwarded-Proto: https\r\n");
+        raw.append("X-Request-Id: 7b0c9f3e-2d1a-4c8b-9e6f-5a4d3c2b1a0f\r\n");
+        raw.append("traceparent: 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01\r\n");
+        raw.append("Origin: https://example.com\r\n");
+        raw.append("Pragma: no-cache\r\n");
+        raw.append("Via: 1.1 edge-proxy\r\n");
+        raw.append("X-Client-Version: 3.14.1\r\n");
+        raw.append("\r\n");
+        return raw.toString();
+    }
+
+    private static String largePost(int bodySize) {
+        StringBuilder body = new StringBuilder(bodySize);
+        body.append("{\"items\":[");
+        int i = 0;
+        while (body.length() < bodySize - 64) {
+            body.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\"}");
+            i++;
+        }
+        body.append("]}");
+        return "POST /data HTTP/1.1\r\n" +
+                "Host: localhost:8080\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "\r\n" +
+                body;
+    }
+}
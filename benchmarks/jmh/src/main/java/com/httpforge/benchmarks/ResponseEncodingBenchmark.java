@@ -0,0 +1,42 @@
+package com.httpforge.benchmarks;
+
+import com.httpforge.http.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * HttpResponse.toBytes for typical bodies, plus the builder path handlers go through.
+ */
+@State(Scope.Thread)
+public class ResponseEncodingBenchmark extends BenchmarkDefaults {
+
+    @Param({"14", "2048", "65536"})
+    public int bodySize;
+
+    private String body;
+    private HttpResponse response;
+
+    @Setup
+    public void setUp() {
+        body = "x".repeat(bodySize);
+        response = HttpResponse.builder()
+                .status(200, "OK")
+                .header("Content-Type", "text/plain")
+                .header("Connection", "keep-alive")
+                .body(body)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return response.toBytes();
+    }
+
+    @Benchmark
+    public byte[] buildAndEncode() {
+        return HttpResponse.ok(body).toBytes();
+    }
+}
@@ -0,0 +1,56 @@
+package com.httpforge.benchmarks;
+
+import com.httpforge.http.HttpRequest;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.routing.Router;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+
+/**
+ * Router.route with a route table about the size of a small service.
+ * handlers return a prebuilt response so only lookup cost is measured.
+ */
+@State(Scope.Thread)
+public class RouterBenchmark extends BenchmarkDefaults {
+
+    private Router router;
+    private HttpRequest hit;
+    private HttpRequest hitWithQuery;
+    private HttpRequest miss;
+
+    @Setup
+    public void setUp() {
+        HttpResponse response = HttpResponse.ok("ok");
+        router = new Router();
+        String[] resources = {"users", "orders", "products", "carts", "sessions", "invoices", "reports"};
+        for (String resource : resources) {
+            router.addRoute("GET", "/api/" + resource, request -> response);
+            router.addRoute("POST", "/api/" + resource, request -> response);
+            router.addRoute("GET", "/api/" + resource + "/search", request -> response);
+        }
+        router.addRoute("GET", "/hello", request -> response);
+
+        hit = new HttpRequest("GET", "/api/orders/search", new HashMap<>(), "");
+        hitWithQuery = new HttpRequest("GET", "/api/orders/search?q=pending&page=3", new HashMap<>(), "");
+        miss = new HttpRequest("GET", "/api/unknown", new HashMap<>(), "");
+    }
+
+    @Benchmark
+    public HttpResponse routeHit() {
+        return router.route(hit);
+    }
+
+    @Benchmark
+    public HttpResponse routeHitWithQuery() {
+        return router.route(hitWithQuery);
+    }
+
+    @Benchmark
+    public HttpResponse routeMiss() {
+        return router.route(miss);
+    }
+}
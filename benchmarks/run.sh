@@ -51,18 +51,10 @@ echo ""
 echo -e "${BLUE}Testing servers: ${SERVERS[*]}${NC}"
 echo ""
 
-# Check if hey is installed
-if ! command -v hey &> /dev/null; then
-    echo -e "${RED}✗${NC} 'hey' is not installed!"
-    echo ""
-    echo "Install hey:"
-    echo "  • With Go: go install github.com/rakyll/hey@latest"
-    echo "  • Or download from: https://github.com/rakyll/hey/releases"
-    echo ""
-    exit 1
-fi
+JAR=../target/httpforge-1.0-SNAPSHOT.jar
+LOADGEN="java -cp $JAR com.httpforge.loadgen.LoadGenerator"
 
-echo -e "${GREEN}✓${NC} Using 'hey' for benchmarking"
+echo -e "${GREEN}✓${NC} Using the built-in load generator (com.httpforge.loadgen)"
 
 # Create results directory
 mkdir -p "$RESULTS_DIR"
@@ -78,7 +70,7 @@ start_server() {
 
     # Start server and capture output to a log file for debugging
     local log_file="${RESULTS_DIR}/${server_type}_server.log"
-    java -jar ../target/httpforge-1.0-SNAPSHOT.jar "$server_type" > "$log_file" 2>&1 &
+    java -jar $JAR "$server_type" > "$log_file" 2>&1 &
     SERVER_PID=$!
     sleep 3
 
@@ -121,19 +113,20 @@ stop_server() {
 run_benchmark() {
     local server_type=$1
     local concurrency=$2
-    local output_file="${RESULTS_DIR}/${server_type}_c${concurrency}.txt"
+    local output_file="${RESULTS_DIR}/${server_type}_c${concurrency}.json"
 
     echo "  Running: $REQUESTS requests, $concurrency concurrent"
-    hey -n $REQUESTS -c $concurrency http://localhost:$PORT/hello > "$output_file" 2>&1
+    $LOADGEN --url http://localhost:$PORT/hello -n $REQUESTS -c $concurrency --out "$output_file" > /dev/null 2>&1
 
-    # Extract key metrics
-    local rps=$(grep "Requests/sec:" "$output_file" | awk '{print $2}')
-    local avg=$(grep "Average:" "$output_file" | awk '{print $2}')
-    local p50=$(grep "50%" "$output_file" | awk '{print $2}')
-    local p95=$(grep "95%" "$output_file" | awk '{print $2}')
-    local p99=$(grep "99%" "$output_file" | awk '{print $2}')
+    # Extract key metrics (serviceTimeMs is what hey reported; latencyMs is corrected for coordinated omission)
+    local rps=$(grep '"throughput"' "$output_file" | grep -o '[0-9.]*')
+    local avg=$(grep '"serviceTimeMs"' "$output_file" | sed 's/.*"mean": \([0-9.]*\).*/\1/')
+    local p50=$(grep '"serviceTimeMs"' "$output_file" | sed 's/.*"p50": \([0-9.]*\).*/\1/')
+    local p95=$(grep '"serviceTimeMs"' "$output_file" | sed 's/.*"p95": \([0-9.]*\).*/\1/')
+    local p99=$(grep '"serviceTimeMs"' "$output_file" | sed 's/.*"p99": \([0-9.]*\).*/\1/')
+    local p99c=$(grep '"latencyMs"' "$output_file" | sed 's/.*"p99": \([0-9.]*\).*/\1/')
 
-    echo "    → RPS: $rps, Avg: $avg, p50: $p50, p95: $p95, p99: $p99"
+    echo "    → RPS: $rps, Avg: ${avg}ms, p50: ${p50}ms, p95: ${p95}ms, p99: ${p99}ms (corrected p99: ${p99c}ms)"
 }
 
 
@@ -175,6 +168,6 @@ echo "Results saved to: $RESULTS_DIR/"
 echo ""
 echo "To view results:"
 echo "  • Raw data: ls $RESULTS_DIR/"
-echo "  • Summary: cat $RESULTS_DIR/*.txt | grep 'Requests/sec'"
+echo "  • Summary: grep throughput $RESULTS_DIR/*.json"
 echo ""
 
@@ -1,26 +1,169 @@
 package com.httpforge;
 
+import com.httpforge.cluster.ClusterSupervisor;
 import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.ClusterMetrics;
 import com.httpforge.metrics.Metrics;
+import com.httpforge.metrics.MetricsJson;
+import com.httpforge.metrics.MetricsRecorder;
+import com.httpforge.metrics.MetricsStream;
+import com.httpforge.proxy.ReverseProxy;
+import com.httpforge.routing.FanOut;
+import com.httpforge.routing.FanOutException;
 import com.httpforge.routing.Router;
 import com.httpforge.server.*;
+import com.httpforge.tls.TlsContext;
+import com.httpforge.tracing.Tracer;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static void main(String[] args) throws IOException {
+        // -Dhttpforge.port, so a second instance can run next to the first, e.g. as an upstream
+        int port = Integer.getInteger("httpforge.port", 8080);
+
+        // cluster [strategy]: this process only starts and restarts workers that serve
+        if (args.length > 0 && args[0].equalsIgnoreCase("cluster")) {
+            runCluster(args.length > 1 ? args[1].toLowerCase() : "pool", port);
+            return;
+        }
+
+        Router router = createRouter();
+
+        // optional reverse proxy, everything under -Dhttpforge.proxy.prefix not otherwise routed
+        ReverseProxy proxy = ReverseProxy.fromSystemProperties();
+        if (proxy != null) {
+            router.addProxyRoute(System.getProperty("httpforge.proxy.prefix", "/"), proxy);
+        }
+
+        // Choose server type from command line or default to thread
+        String serverType = args.length > 0 ? args[0].toLowerCase() : "thread";
+        ServerStrategy server = createServer(serverType, port, router);
+        if (server == null) {
+            System.err.println("Unknown server type: " + serverType);
+            System.err.println("Usage: java Main [single|thread|pool|hybrid|cluster [single|thread|pool|hybrid]]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Starting: " + server.getName());
+        // loaded here so a bad key store fails at startup, not on the first connection
+        if (TlsContext.getDefault() != null) {
+            System.out.println("TLS on, from " + System.getProperty("httpforge.tls.keyStore"));
+        }
+
+        // optional synthetic traffic through the same routes, so the JIT is done before the port opens
+        Warmup warmup = Warmup.fromSystemProperties();
+        if (warmup != null) {
+            System.out.println("Warming up" + (Metrics.getInstance().isClassDataSharing() ? " (CDS on)" : ""));
+            Warmup.Result result = warmup.run(router);
+            // none of it was real traffic
+            Metrics.getInstance().reset();
+            Metrics.getInstance().recordWarmup(result.requests, result.durationMs, result.compileMs);
+            System.out.println("Warm: " + result);
+            if (Boolean.getBoolean("httpforge.warmup.exit")) {
+                // the CDS archive run: -XX:ArchiveClassesAtExit dumps every class loaded so far
+                System.exit(0);
+            }
+        }
+
+        // optional on-disk time series, survives the process for post-mortems
+        MetricsRecorder recorder = MetricsRecorder.fromSystemProperties(Metrics.getInstance());
+        if (recorder != null) {
+            recorder.start();
+        }
+
+        // a worker started by the cluster supervisor shares its numbers with the others
+        Integer worker = Integer.getInteger("httpforge.cluster.worker");
+        ClusterMetrics cluster = null;
+        if (worker != null) {
+            cluster = ClusterMetrics.open(Path.of(System.getProperty("httpforge.cluster.metricsFile")));
+            cluster.startPublishing(worker, Metrics.getInstance(), Long.getLong("httpforge.cluster.publishMs", 1000L));
+            Metrics.getInstance().registerCluster(cluster);
+            System.out.println("Worker " + worker + " of a cluster of " + cluster.getWorkers());
+        }
+        ClusterMetrics clusterMetrics = cluster;
+
+        // Add shutdown hook for graceful shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\nShutting down server...");
+            server.stop();
+            if (proxy != null) {
+                proxy.close();
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+            if (clusterMetrics != null) {
+                clusterMetrics.close();
+            }
+        }));
+
+        server.start();
+    }
+
+    private static void runCluster(String serverType, int port) throws IOException {
+        if (createServer(serverType, port, new Router()) == null) {
+            System.err.println("Unknown cluster worker type: " + serverType);
+            System.err.println("Usage: java Main cluster [single|thread|pool|hybrid]");
+            System.exit(1);
+            return;
+        }
+        ClusterSupervisor supervisor = ClusterSupervisor.fromSystemProperties(serverType, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\nStopping cluster workers...");
+            supervisor.stop();
+        }));
+        supervisor.start();
+    }
+
+    /**
+     * the demo routes every server strategy serves.
+     */
+    public static Router createRouter() {
         Router router = new Router();
 
         // routes
-        router.addRoute("GET", "/", request ->
-            HttpResponse.ok("Welcome to HTTPForge!\n")
-        );
+        // responses never change once built, so a fixed one can be built once and returned
+        // every time - the connection adds its Connection header while writing, not to a copy
+        HttpResponse welcome = HttpResponse.ok("Welcome to HTTPForge!\n");
+        router.addRoute("GET", "/", request -> welcome);
 
+        HttpResponse hello = HttpResponse.ok("Hello, World!\n");
         router.addRoute("GET", "/hello", request -> {
             try { Thread.sleep(20); } catch (InterruptedException ignored) {} // Simulate a DB call
-            return HttpResponse.ok("Hello, World!\n");
+            return hello;
+        });
+
+        // the same 20ms "DB call", but nothing waits for it: the hybrid pool serves other
+        // connections on this worker until the response is ready
+        Executor in20ms = CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS);
+        router.addAsyncRoute("GET", "/hello-async", request ->
+            CompletableFuture.supplyAsync(() -> HttpResponse.ok("Hello, World!\n"), in20ms)
+        );
+
+        // three simulated backends called in parallel: ~40ms in total rather than 90ms
+        router.addRoute("GET", "/aggregate", request -> {
+            try (FanOut fanOut = FanOut.open(request)) {
+                FanOut.Subtask<String> user = fanOut.fork("user", () -> backend("user", 20));
+                FanOut.Subtask<String> orders = fanOut.fork("orders", () -> backend("orders", 30));
+                FanOut.Subtask<String> recommendations = fanOut.fork("recommendations", () -> backend("recommendations", 40));
+                fanOut.join();
+                return HttpResponse.ok(user.get() + orders.get() + recommendations.get());
+            } catch (FanOutException e) {
+                return e.isTimeout()
+                        ? new HttpResponse(504, "Gateway Timeout", new HashMap<>(), e.getMessage() + "\n")
+                        : new HttpResponse(502, "Bad Gateway", new HashMap<>(), e.getMessage() + "\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return HttpResponse.serviceUnavailable();
+            }
         });
 
         router.addRoute("GET", "/echo", request -> {
@@ -36,63 +179,102 @@ public class Main {
         });
 
         router.addRoute("GET", "/metrics", request -> {
-            Metrics metrics = Metrics.getInstance();
-
-            // Build JSON manually (avoiding external dependencies)
-            StringBuilder json = new StringBuilder();
-            json.append("{\n");
-            json.append("  \"totalRequests\": ").append(metrics.getTotalRequests()).append(",\n");
-            json.append("  \"activeConnections\": ").append(metrics.getActiveConnections()).append(",\n");
-            json.append("  \"latency\": {\n");
-            json.append("    \"min\": ").append(String.format("%.2f", metrics.getMinLatency())).append(",\n");
-            json.append("    \"max\": ").append(String.format("%.2f", metrics.getMaxLatency())).append(",\n");
-            json.append("    \"avg\": ").append(String.format("%.2f", metrics.getAverageLatency())).append(",\n");
-            json.append("    \"p50\": ").append(String.format("%.2f", metrics.getLatencyPercentile(50))).append(",\n");
-            json.append("    \"p95\": ").append(String.format("%.2f", metrics.getLatencyPercentile(95))).append(",\n");
-            json.append("    \"p99\": ").append(String.format("%.2f", metrics.getLatencyPercentile(99))).append("\n");
-            json.append("  }\n");
-            json.append("}");
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Content-Type", "application/json");
+
+            return new HttpResponse(200, "OK", headers, MetricsJson.render(Metrics.getInstance()));
+        });
+
+        // the same numbers, live: server-sent events, or a WebSocket on the same path
+        router.addRoute("GET", "/metrics/stream", request -> MetricsStream.getDefault().sseResponse());
+        router.addWebSocketRoute("/metrics/stream", MetricsStream.getDefault().webSocketHandler());
+
+        router.addRoute("GET", "/debug/traces", request -> {
+            // slowest N sampled requests, e.g. /debug/traces?limit=50
+            int limit = queryInt(request.getPath(), "limit", 20);
 
             Map<String, String> headers = new HashMap<>();
             headers.put("Content-Type", "application/json");
 
-            return new HttpResponse(200, "OK", headers, json.toString());
+            return new HttpResponse(200, "OK", headers, Tracer.getInstance().toJson(limit));
         });
 
-        int port = 8080;
+        // for load balancer health checks: answering at all is the check
+        HttpResponse healthy = HttpResponse.ok("OK\n");
+        router.addRoute("GET", "/health", request -> healthy);
 
-        // Choose server type from command line or default to thread
-        String serverType = args.length > 0 ? args[0].toLowerCase() : "thread";
-        ServerStrategy server;
+        // the control plane, served on the pool's control lane when it has one
+        router.setPriority("/health", Router.Priority.CONTROL);
+        router.setPriority("/metrics", Router.Priority.CONTROL);
+        router.setPriority("/metrics/stream", Router.Priority.CONTROL);
+        router.setPriority("/debug/traces", Router.Priority.CONTROL);
+
+        return router;
+    }
 
+    /**
+     * the server for a strategy name as used on the command line, or null if unknown.
+     */
+    public static ServerStrategy createServer(String serverType, int port, Router router) {
         switch (serverType) {
             case "single":
-                server = new SingleThreadServer(port, router);
-                break;
+                return new SingleThreadServer(port, router);
             case "thread":
-                server = new ThreadPerRequestServer(port, router);
-                break;
+                return new ThreadPerRequestServer(port, router);
             case "pool":
-                server = new ThreadPoolServer(port, router);
-                break;
-            case "nio":
-                server = new NioServer(port, router);
-                break;
+                return new ThreadPoolServer(port, router, poolConfig());
+            case "hybrid":
+                return new ThreadPoolServer(port, router, poolConfig().withIdlePoller());
             default:
-                System.err.println("Unknown server type: " + serverType);
-                System.err.println("Usage: java Main [single|thread|pool|nio]");
-                System.exit(1);
-                return;
+                return null;
         }
+    }
 
-        System.out.println("Starting: " + server.getName());
+    /**
+     * the pool preset, plus queue-delay shedding when -Dhttpforge.pool.codelTargetMs is set
+     * (interval from -Dhttpforge.pool.codelIntervalMs, default 100), and live resizing with
+     * -Dhttpforge.pool.autoscale=min-max, e.g. 2-64. the control lane has
+     * -Dhttpforge.pool.controlThreads threads, default 2, 0 for none.
+     */
+    private static ThreadPoolServer.ThreadPoolConfig poolConfig() {
+        ThreadPoolServer.ThreadPoolConfig config = ThreadPoolServer.ThreadPoolConfig.forIOBound();
+        long codelTarget = Long.getLong("httpforge.pool.codelTargetMs", 0);
+        if (codelTarget > 0) {
+            config = config.withCoDel(codelTarget, Long.getLong("httpforge.pool.codelIntervalMs", 100));
+        }
+        String autoscale = System.getProperty("httpforge.pool.autoscale");
+        if (autoscale != null) {
+            String[] bounds = autoscale.split("-");
+            config = config.withAutoscaler(Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim()));
+        }
+        int controlThreads = Integer.getInteger("httpforge.pool.controlThreads", 2);
+        if (controlThreads > 0) {
+            // control requests are quick: a short queue, past which something is wrong anyway
+            config = config.withControlLane(controlThreads, 64);
+        }
+        return config;
+    }
 
-        // Add shutdown hook for graceful shutdown
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\nShutting down server...");
-            server.stop();
-        }));
+    // a downstream call that takes delayMs
+    private static String backend(String name, long delayMs) throws InterruptedException {
+        Thread.sleep(delayMs);
+        return name + ": ok\n";
+    }
 
-        server.start();
+    private static int queryInt(String path, String name, int defaultValue) {
+        int query = path.indexOf('?');
+        if (query == -1) {
+            return defaultValue;
+        }
+        for (String param : path.substring(query + 1).split("&")) {
+            if (param.startsWith(name + "=")) {
+                try {
+                    return Integer.parseInt(param.substring(name.length() + 1));
+                } catch (NumberFormatException e) {
+                    return defaultValue;
+                }
+            }
+        }
+        return defaultValue;
     }
 }
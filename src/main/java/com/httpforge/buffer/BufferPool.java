@@ -0,0 +1,278 @@
+package com.httpforge.buffer;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * pooled direct ByteBuffers for connection I/O, in a few size classes.
+ *
+ * buffers are cut from 1 MiB direct slabs: native memory is allocated in a few large pieces
+ * and never freed, and socket reads and writes need no copy through a temporary direct
+ * buffer. a borrow is served, in order, from:
+ * <ul>
+ *   <li>the size class's shared free list</li>
+ *   <li>a new slab, while the class is under its slab limit</li>
+ *   <li>a plain heap buffer, counted as overflow, once the limit is reached</li>
+ * </ul>
+ * there's no per-thread cache in front of the free list: threads come and go here (one per
+ * connection in the thread-per-request server, pool threads timing out or scaled down), and
+ * the buffers in a dead thread's cache would be lost to the pool for good.
+ *
+ * leak detection, -Dhttpforge.buffers.leakDetection:
+ * <ul>
+ *   <li>off - the default</li>
+ *   <li>on - a borrowed buffer that becomes unreachable without release() is counted as a leak</li>
+ *   <li>paranoid - the same, and the borrowing stack trace is printed</li>
+ * </ul>
+ */
+public final class BufferPool {
+    public static final int SMALL = 4 * 1024;
+    public static final int MEDIUM = 16 * 1024;
+    public static final int LARGE = 64 * 1024;
+    static final int SLAB_BYTES = 1024 * 1024;
+
+    enum LeakDetection { OFF, ON, PARANOID }
+
+    private static final BufferPool DEFAULT = new BufferPool(
+            Integer.getInteger("httpforge.buffers.maxSlabs", 16),
+            LeakDetection.valueOf(System.getProperty("httpforge.buffers.leakDetection", "off").toUpperCase()));
+
+    private final SizeClass[] classes;
+    private final LeakDetection leakDetection;
+    private final Cleaner cleaner;
+    private final LongAdder leaks = new LongAdder();
+    private final Runnable onLeak;
+
+    /**
+     * @param maxSlabs slabs per size class before borrows overflow to the heap
+     */
+    BufferPool(int maxSlabs, LeakDetection leakDetection) {
+        this(maxSlabs, leakDetection, () -> { });
+    }
+
+    /**
+     * with onLeak run on the cleaner's thread after each leak is counted, so a test can wait
+     * for one. package-private for the tests.
+     */
+    BufferPool(int maxSlabs, LeakDetection leakDetection, Runnable onLeak) {
+        this.classes = new SizeClass[] {
+                new SizeClass(SMALL, maxSlabs), new SizeClass(MEDIUM, maxSlabs), new SizeClass(LARGE, maxSlabs)
+        };
+        this.leakDetection = leakDetection;
+        this.onLeak = onLeak;
+        this.cleaner = leakDetection != LeakDetection.OFF ? Cleaner.create() : null;
+    }
+
+    /**
+     * the pool shared by every connection in the process.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * borrows a cleared buffer of at least minCapacity bytes, at most LARGE.
+     * it must be given back with {@link PooledBuffer#release()}.
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        SizeClass sizeClass = classes[classIndex(minCapacity)];
+        PooledBuffer buffer = sizeClass.take();
+        sizeClass.borrows.increment();
+        sizeClass.inUse.incrementAndGet();
+        buffer.buffer().clear();
+        buffer.borrowed(this, track(buffer, sizeClass));
+        return buffer;
+    }
+
+    // called by PooledBuffer.release()
+    void release(PooledBuffer buffer) {
+        SizeClass sizeClass = buffer.sizeClass();
+        sizeClass.inUse.decrementAndGet();
+        if (buffer.isOverflow()) {
+            // heap buffer from a full class, left to the GC
+            return;
+        }
+        sizeClass.give(buffer);
+    }
+
+    private LeakCheck track(PooledBuffer buffer, SizeClass sizeClass) {
+        if (cleaner == null) {
+            return null;
+        }
+        Throwable site = leakDetection == LeakDetection.PARANOID
+                ? new Throwable("Buffer of " + sizeClass.bufferSize + " bytes borrowed here") : null;
+        // must not reference the buffer, or it would never become unreachable
+        LeakCheck check = new LeakCheck(sizeClass, leaks, onLeak, site);
+        check.cleanable = cleaner.register(buffer, check);
+        return check;
+    }
+
+    private int classIndex(int minCapacity) {
+        for (int i = 0; i < classes.length; i++) {
+            if (minCapacity <= classes[i].bufferSize) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No buffer size class holds " + minCapacity + " bytes");
+    }
+
+    /**
+     * per size class occupancy, smallest first.
+     */
+    public Stats[] stats() {
+        Stats[] stats = new Stats[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            stats[i] = classes[i].stats();
+        }
+        return stats;
+    }
+
+    /**
+     * buffers borrowed and never released, found once the GC collected them; 0 unless leak
+     * detection is on.
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return cleaner != null;
+    }
+
+    /**
+     * buffers borrowed right now, over all size classes.
+     */
+    public int inUse() {
+        int total = 0;
+        for (SizeClass sizeClass : classes) {
+            total += sizeClass.inUse.get();
+        }
+        return total;
+    }
+
+    /**
+     * one size class: its shared free list and the slabs it carves buffers from.
+     */
+    static final class SizeClass {
+        final int bufferSize;
+        private final int maxSlabs;
+        private final ArrayDeque<PooledBuffer> free = new ArrayDeque<>();
+        // guarded by free
+        private int slabs;
+        final AtomicInteger inUse = new AtomicInteger();
+        final LongAdder borrows = new LongAdder();
+        final LongAdder overflows = new LongAdder();
+
+        SizeClass(int bufferSize, int maxSlabs) {
+            this.bufferSize = bufferSize;
+            this.maxSlabs = maxSlabs;
+        }
+
+        PooledBuffer take() {
+            synchronized (free) {
+                PooledBuffer buffer = free.pollLast();
+                if (buffer != null) {
+                    return buffer;
+                }
+                if (slabs < maxSlabs) {
+                    carveSlab();
+                    return free.pollLast();
+                }
+            }
+            overflows.increment();
+            return new PooledBuffer(ByteBuffer.allocate(bufferSize), this, true);
+        }
+
+        void give(PooledBuffer buffer) {
+            synchronized (free) {
+                free.addLast(buffer);
+            }
+        }
+
+        // under the free lock
+        private void carveSlab() {
+            ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+            for (int offset = 0; offset + bufferSize <= SLAB_BYTES; offset += bufferSize) {
+                free.addLast(new PooledBuffer(slab.slice(offset, bufferSize), this, false));
+            }
+            slabs++;
+        }
+
+        Stats stats() {
+            int slabCount;
+            int freeCount;
+            synchronized (free) {
+                slabCount = slabs;
+                freeCount = free.size();
+            }
+            return new Stats(bufferSize, slabCount, slabCount * (SLAB_BYTES / bufferSize),
+                    inUse.get(), freeCount, borrows.sum(), overflows.sum());
+        }
+    }
+
+    /**
+     * runs when a borrowed buffer became unreachable, or on release() to unregister it.
+     */
+    static final class LeakCheck implements Runnable {
+        private final SizeClass sizeClass;
+        private final LongAdder leaks;
+        private final Runnable onLeak;
+        private final Throwable site;
+        private Cleaner.Cleanable cleanable;
+        private volatile boolean released;
+
+        LeakCheck(SizeClass sizeClass, LongAdder leaks, Runnable onLeak, Throwable site) {
+            this.sizeClass = sizeClass;
+            this.leaks = leaks;
+            this.onLeak = onLeak;
+            this.site = site;
+        }
+
+        // the buffer came back: drop the registration without counting a leak
+        void released() {
+            released = true;
+            cleanable.clean();
+        }
+
+        @Override
+        public void run() {
+            if (released) {
+                return;
+            }
+            leaks.increment();
+            sizeClass.inUse.decrementAndGet();
+            System.err.println("LEAK: a " + sizeClass.bufferSize + " byte buffer was never released" +
+                    (site == null ? " (-Dhttpforge.buffers.leakDetection=paranoid shows where it was borrowed)" : ""));
+            if (site != null) {
+                site.printStackTrace();
+            }
+            onLeak.run();
+        }
+    }
+
+    /**
+     * occupancy of one size class.
+     */
+    public static final class Stats {
+        public final int bufferSize;
+        public final int slabs;
+        public final int capacity;
+        public final int inUse;
+        public final int free;
+        public final long borrows;
+        public final long overflows;
+
+        Stats(int bufferSize, int slabs, int capacity, int inUse, int free, long borrows, long overflows) {
+            this.bufferSize = bufferSize;
+            this.slabs = slabs;
+            this.capacity = capacity;
+            this.inUse = inUse;
+            this.free = free;
+            this.borrows = borrows;
+            this.overflows = overflows;
+        }
+    }
+}
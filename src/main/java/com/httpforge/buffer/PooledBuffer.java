@@ -0,0 +1,61 @@
+package com.httpforge.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a buffer borrowed from a {@link BufferPool}. the same instance goes back to the pool on
+ * release() and is handed out again, so don't keep it, or its ByteBuffer, past that.
+ */
+public final class PooledBuffer {
+    private final ByteBuffer buffer;
+    private final BufferPool.SizeClass sizeClass;
+    // a heap buffer handed out because the size class had no slabs left
+    private final boolean overflow;
+    private BufferPool pool;
+    private BufferPool.LeakCheck leakCheck;
+
+    PooledBuffer(ByteBuffer buffer, BufferPool.SizeClass sizeClass, boolean overflow) {
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.overflow = overflow;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * gives the buffer back to its pool.
+     *
+     * @throws IllegalStateException if it was already released
+     */
+    public void release() {
+        BufferPool owner = pool;
+        if (owner == null) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        pool = null;
+        if (leakCheck != null) {
+            leakCheck.released();
+            leakCheck = null;
+        }
+        owner.release(this);
+    }
+
+    void borrowed(BufferPool pool, BufferPool.LeakCheck leakCheck) {
+        this.pool = pool;
+        this.leakCheck = leakCheck;
+    }
+
+    BufferPool.SizeClass sizeClass() {
+        return sizeClass;
+    }
+
+    boolean isOverflow() {
+        return overflow;
+    }
+}
@@ -0,0 +1,263 @@
+package com.httpforge.cluster;
+
+import com.httpforge.Main;
+import com.httpforge.metrics.ClusterMetrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * runs a server as N worker JVMs on one port, and restarts any that die.
+ *
+ * one JVM stops scaling at some point: a bigger heap means longer pauses, and every
+ * safepoint stops every request thread at once. workers are separate processes, each with
+ * its own heap and GC, all listening on the same port with SO_REUSEPORT so the kernel
+ * spreads connections over them. they're started with this JVM's options and class path,
+ * plus their worker number and the {@link ClusterMetrics} file they publish into, which is
+ * how /metrics on any of them reports the whole cluster.
+ *
+ * a worker that exits is started again right away, unless it had been up less than 10
+ * seconds: then it waits, 1 second doubling up to 30, so one that can't start doesn't spin.
+ *
+ * from system properties:
+ * <ul>
+ *   <li>httpforge.cluster.workers - worker processes, default a quarter of the CPUs, at least 2</li>
+ *   <li>httpforge.cluster.metricsFile - the shared metrics file, default a new temporary file</li>
+ *   <li>httpforge.cluster.publishMs - how often workers publish into it, default 1000</li>
+ * </ul>
+ */
+public class ClusterSupervisor {
+    private static final long STABLE_AFTER_MS = 10_000;
+    private static final long FIRST_RESTART_DELAY_MS = 1_000;
+    private static final long MAX_RESTART_DELAY_MS = 30_000;
+    private static final long STOP_TIMEOUT_MS = 10_000;
+
+    private final int workers;
+    private final String serverType;
+    private final int port;
+    private final Path metricsFile;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    // under the lock
+    private final Process[] processes;
+    private final long[] startedAt;
+    private final long[] restartDelayMs;
+    private boolean running;
+
+    private ClusterMetrics metrics;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param serverType the strategy each worker runs, as on the command line
+     * @param port the port every worker listens on; not 0, they have to agree on it
+     */
+    public ClusterSupervisor(int workers, String serverType, int port, Path metricsFile) {
+        if (workers <= 0 || port <= 0) {
+            throw new IllegalArgumentException("Workers and port must be positive");
+        }
+        this.workers = workers;
+        this.serverType = serverType;
+        this.port = port;
+        this.metricsFile = metricsFile;
+        this.processes = new Process[workers];
+        this.startedAt = new long[workers];
+        this.restartDelayMs = new long[workers];
+    }
+
+    public static ClusterSupervisor fromSystemProperties(String serverType, int port) throws IOException {
+        String file = System.getProperty("httpforge.cluster.metricsFile");
+        return new ClusterSupervisor(
+                Integer.getInteger("httpforge.cluster.workers", Math.max(2, Runtime.getRuntime().availableProcessors() / 4)),
+                serverType,
+                port,
+                file != null ? Path.of(file) : Files.createTempFile("httpforge-cluster-", ".metrics"));
+    }
+
+    /**
+     * starts the workers, then supervises them until stop().
+     */
+    public void start() throws IOException {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                throw new IOException("Cluster mode needs SO_REUSEPORT, which this platform doesn't support");
+            }
+        }
+        metrics = ClusterMetrics.create(metricsFile, workers);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lock.lock();
+        try {
+            running = true;
+            for (int worker = 0; worker < workers; worker++) {
+                launch(worker);
+            }
+        } finally {
+            lock.unlock();
+        }
+        System.out.println(">> Cluster of " + workers + " " + serverType + " workers on port " + port
+                + ", metrics in " + metricsFile);
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * stops every worker, the way a shutdown hook would be run: politely, then forcibly
+     * after 10 seconds.
+     */
+    public void stop() {
+        List<Process> running = new ArrayList<>();
+        lock.lock();
+        try {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+            for (Process process : processes) {
+                if (process != null) {
+                    running.add(process);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdownNow();
+        // SIGTERM: each worker's shutdown hook stops its server
+        running.forEach(Process::destroy);
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (Process process : running) {
+            try {
+                if (!process.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        metrics.close();
+        try {
+            Files.deleteIfExists(metricsFile);
+        } catch (IOException e) {
+            System.err.println("Error deleting cluster metrics file: " + e.getMessage());
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * the pid of each worker's current process, -1 for one being restarted.
+     */
+    public long[] getWorkerPids() {
+        lock.lock();
+        try {
+            long[] pids = new long[workers];
+            for (int worker = 0; worker < workers; worker++) {
+                Process process = processes[worker];
+                pids[worker] = process != null && process.isAlive() ? process.pid() : -1;
+            }
+            return pids;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the command line a worker is started with.
+     */
+    List<String> command(int worker) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-agentlib:jdwp") || argument.startsWith("-Xrunjdwp")
+                    || argument.startsWith("-Dhttpforge.cluster.") || argument.startsWith("-Dhttpforge.port=")) {
+                // a debugger port can only be bound once, and these are set per worker below
+                continue;
+            }
+            if (argument.startsWith("-Dhttpforge.metrics.file=")) {
+                // a recorder file each, the ring can't take two writers
+                argument = argument + "." + worker;
+            }
+            command.add(argument);
+        }
+        command.add("-Dhttpforge.port=" + port);
+        command.add("-Dhttpforge.listen.reusePort=true");
+        command.add("-Dhttpforge.cluster.worker=" + worker);
+        command.add("-Dhttpforge.cluster.metricsFile=" + metricsFile.toAbsolutePath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add(serverType);
+        return command;
+    }
+
+    // under the lock
+    private void launch(int worker) {
+        if (!running) {
+            return;
+        }
+        Process process;
+        try {
+            process = new ProcessBuilder(command(worker)).inheritIO().start();
+        } catch (IOException e) {
+            System.err.println("Error starting worker " + worker + ": " + e.getMessage());
+            processes[worker] = null;
+            scheduleRestart(worker, 0);
+            return;
+        }
+        processes[worker] = process;
+        startedAt[worker] = System.currentTimeMillis();
+        process.onExit().thenAccept(exited -> exited(worker, exited));
+    }
+
+    private void exited(int worker, Process process) {
+        lock.lock();
+        try {
+            if (!running || processes[worker] != process) {
+                return;
+            }
+            long uptime = System.currentTimeMillis() - startedAt[worker];
+            System.err.println("Worker " + worker + " (pid " + process.pid() + ") exited with code "
+                    + process.exitValue() + " after " + uptime + "ms, restarting");
+            metrics.recordRestart(worker);
+            scheduleRestart(worker, uptime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under the lock
+    private void scheduleRestart(int worker, long uptime) {
+        long delay = 0;
+        if (uptime < STABLE_AFTER_MS) {
+            // dying at startup: back off
+            delay = Math.min(MAX_RESTART_DELAY_MS, Math.max(FIRST_RESTART_DELAY_MS, restartDelayMs[worker] * 2));
+        }
+        restartDelayMs[worker] = delay;
+        scheduler.schedule(() -> {
+            lock.lock();
+            try {
+                launch(worker);
+            } finally {
+                lock.unlock();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,308 @@
+package com.httpforge.http;
+
+import com.httpforge.buffer.BufferPool;
+import com.httpforge.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * the read side of a connection, for {@link HttpParser}.
+ *
+ * reads go into a buffer borrowed from a {@link BufferPool}, and only while there are bytes
+ * to read: once a request has been parsed and nothing more is buffered, the buffer goes back
+ * to the pool. bytes that arrived beyond the current request (pipelining) stay buffered for
+ * the next one, so one instance must be used for the whole connection.
+ *
+ * also counts the bytes read and notices the first byte of each request: the parser blocks
+ * through keep-alive idle time, so "parse started" really means "first byte arrived".
+ */
+public final class HttpInput implements AutoCloseable {
+    private static final int LINE_SIZE = 256;
+
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    // null while nothing is buffered; in read mode otherwise, position..limit unread
+    private PooledBuffer pooled;
+    private ByteBuffer buffer;
+    // the current line copied out of the buffer; grows for a long line, and is back to the
+    // default size once the request has been read
+    private byte[] line = new byte[LINE_SIZE];
+    // recycled for every request on the connection, created on first use
+    private HttpRequest request;
+    private long bytesRead;
+    private Runnable firstByteListener;
+    private boolean waitingForFirstByte;
+
+    public HttpInput(ReadableByteChannel channel, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * called when the first byte of a request arrives, see {@link #awaitNextRequest()}.
+     */
+    public void setFirstByteListener(Runnable listener) {
+        this.firstByteListener = listener;
+    }
+
+    /**
+     * starts waiting for the next request; the listener fires on its first byte, right away
+     * if it's already buffered.
+     */
+    public void awaitNextRequest() {
+        waitingForFirstByte = true;
+        if (hasBuffered()) {
+            firstByte();
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * whether bytes of a further request have already been read.
+     */
+    public boolean hasBuffered() {
+        return buffer != null && buffer.hasRemaining();
+    }
+
+    /**
+     * raw bytes, for a protocol that takes over the connection after an HTTP/1.1 request
+     * (HTTP/2): what's buffered first, then at most one read from the channel.
+     *
+     * @return the number of bytes copied, or -1 at end of stream
+     */
+    public int read(byte[] dst, int offset, int length) throws IOException {
+        if (!hasBuffered() && read() == -1) {
+            return -1;
+        }
+        int n = Math.min(length, buffer.remaining());
+        buffer.get(dst, offset, n);
+        releaseIfDrained();
+        return n;
+    }
+
+    /**
+     * copies up to count bytes, what's buffered first, straight from the buffer to out: the
+     * reverse proxy relaying a body without holding all of it. a long body is read in the
+     * medium size class rather than a line's small one.
+     *
+     * @return the number of bytes copied, less than count only at end of stream
+     */
+    public long transferTo(WritableByteChannel out, long count) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            if (!hasBuffered()) {
+                if (pooled == null && count - copied > BufferPool.SMALL) {
+                    pooled = pool.acquire(BufferPool.MEDIUM);
+                    buffer = pooled.buffer().flip();
+                }
+                if (read() == -1) {
+                    break;
+                }
+            }
+            int n = (int) Math.min(buffer.remaining(), count - copied);
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + n);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.limit(limit);
+            copied += n;
+        }
+        releaseIfDrained();
+        return copied;
+    }
+
+    /**
+     * gives the buffer back to the pool unless it still holds unread bytes.
+     */
+    public void releaseIfDrained() {
+        if (pooled != null && !buffer.hasRemaining()) {
+            release();
+        }
+    }
+
+    /**
+     * the parser is done with a request: gives the buffer back unless the next request has
+     * started arriving, and drops a line buffer that a long line made larger. nothing the
+     * size of the largest request seen stays with a connection that sits idle.
+     */
+    void endRequest() {
+        releaseIfDrained();
+        if (line.length > LINE_SIZE) {
+            line = new byte[LINE_SIZE];
+        }
+    }
+
+    /**
+     * gives the buffer back, dropping anything unread. the connection is done.
+     */
+    @Override
+    public void close() {
+        if (pooled != null) {
+            release();
+        }
+    }
+
+    // one read into an empty buffer; at end of stream the buffer goes back
+    private int read() throws IOException {
+        int n;
+        try {
+            n = fill();
+        } catch (HttpParser.HttpParseException e) {
+            // can't happen: fill() only grows a buffer that's full
+            throw new IOException(e);
+        }
+        if (n == -1) {
+            close();
+        }
+        return n;
+    }
+
+    private void release() {
+        pooled.release();
+        pooled = null;
+        buffer = null;
+    }
+
+    /**
+     * the request object the parser refills for every request on this connection.
+     */
+    HttpRequest request() {
+        if (request == null) {
+            request = new HttpRequest();
+        }
+        return request;
+    }
+
+    /**
+     * the next line without its CRLF (or bare LF), decoded as UTF-8. at end of stream, the
+     * partial line read so far, or null if there's none.
+     *
+     * @throws HttpParser.HttpParseException if the line doesn't fit the largest buffer
+     */
+    public String readLine() throws IOException, HttpParser.HttpParseException {
+        int length = nextLine();
+        return length < 0 ? null : new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * like readLine(), but leaves the line's bytes in {@link #line()} instead of decoding them.
+     *
+     * @return the line's length, or -1 at end of stream with nothing read
+     */
+    int nextLine() throws IOException, HttpParser.HttpParseException {
+        int scanned = 0;
+        while (true) {
+            if (buffer != null) {
+                int start = buffer.position();
+                int end = buffer.limit();
+                for (int i = start + scanned; i < end; i++) {
+                    if (buffer.get(i) == '\n') {
+                        int length = i - start;
+                        if (length > 0 && buffer.get(i - 1) == '\r') {
+                            length--;
+                        }
+                        copyOut(start, length);
+                        buffer.position(i + 1);
+                        return length;
+                    }
+                }
+                scanned = end - start;
+            }
+            if (fill() == -1) {
+                if (!hasBuffered()) {
+                    return -1;
+                }
+                int length = buffer.remaining();
+                copyOut(buffer.position(), length);
+                buffer.position(buffer.limit());
+                return length;
+            }
+        }
+    }
+
+    /**
+     * the bytes of the line nextLine() just returned, valid until the next read.
+     */
+    byte[] line() {
+        return line;
+    }
+
+    /**
+     * reads exactly length bytes and decodes them as UTF-8. a body longer than the line
+     * buffer gets an array of its own, for this request only.
+     *
+     * @throws HttpParser.HttpParseException if the stream ends first
+     */
+    String readString(int length) throws IOException, HttpParser.HttpParseException {
+        byte[] bytes = length <= line.length ? line : new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            if (!hasBuffered() && fill() == -1) {
+                throw new HttpParser.HttpParseException("Unexpected end of stream while reading body");
+            }
+            int n = Math.min(buffer.remaining(), length - copied);
+            buffer.get(bytes, copied, n);
+            copied += n;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void copyOut(int offset, int length) {
+        if (line.length < length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        buffer.get(offset, line, 0, length);
+    }
+
+    // reads more bytes after the unread ones, borrowing or growing the buffer as needed
+    private int fill() throws IOException, HttpParser.HttpParseException {
+        if (pooled == null) {
+            pooled = pool.acquire(BufferPool.SMALL);
+            buffer = pooled.buffer().flip();
+        } else if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            grow();
+        }
+        buffer.compact();
+        int n;
+        try {
+            n = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (n > 0) {
+            bytesRead += n;
+            if (waitingForFirstByte) {
+                firstByte();
+            }
+        }
+        return n;
+    }
+
+    // the buffer is full of one unfinished line: move it into the next size class up
+    private void grow() throws HttpParser.HttpParseException {
+        int capacity = buffer.capacity();
+        if (capacity >= BufferPool.LARGE) {
+            throw new HttpParser.HttpParseException("Request line or header longer than " + capacity + " bytes");
+        }
+        PooledBuffer larger = pool.acquire(capacity + 1);
+        larger.buffer().put(buffer).flip();
+        pooled.release();
+        pooled = larger;
+        buffer = larger.buffer();
+    }
+
+    private void firstByte() {
+        waitingForFirstByte = false;
+        if (firstByteListener != null) {
+            firstByteListener.run();
+        }
+    }
+}
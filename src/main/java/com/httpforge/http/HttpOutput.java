@@ -0,0 +1,261 @@
+package com.httpforge.http;
+
+import com.httpforge.buffer.BufferPool;
+import com.httpforge.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * the write side of a connection: encodes a response straight into a buffer borrowed from a
+ * {@link BufferPool} and writes it out, without building the whole response as a String and
+ * a byte[] first like {@link HttpResponse#toBytes()}. a response larger than the buffer goes
+ * out in several writes. the buffer is only borrowed for the duration of write().
+ */
+public final class HttpOutput {
+    private final WritableByteChannel channel;
+    private final BufferPool pool;
+    // valid during write() only
+    private ByteBuffer buffer;
+    private long written;
+
+    public HttpOutput(WritableByteChannel channel, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * writes the response, same bytes as toBytes().
+     *
+     * @return the number of bytes written
+     */
+    public long write(HttpResponse response) throws IOException {
+        return write(response, null);
+    }
+
+    /**
+     * writes the response with a Connection header, in place of any the handler set. the
+     * response itself isn't touched, so a handler may return the same instance every time.
+     *
+     * @param connection the Connection header's value, or null to write the headers as they are
+     * @return the number of bytes written
+     */
+    public long write(HttpResponse response, String connection) throws IOException {
+        HttpResponse.BodyStream bodyStream = response.getBodyStream();
+        PooledBuffer pooled = pool.acquire(BufferPool.MEDIUM);
+        buffer = pooled.buffer();
+        written = 0;
+        try {
+            putAscii("HTTP/1.1 ");
+            putStatus(response.getStatusCode());
+            put((byte) ' ');
+            putUtf8(response.getReasonPhrase());
+            putCrlf();
+            boolean framed = false;
+            for (Map.Entry<String, String> header : response.headerMap().entrySet()) {
+                if (connection == null || !header.getKey().equalsIgnoreCase("Connection")) {
+                    putHeader(header.getKey(), header.getValue());
+                }
+                framed |= header.getKey().equalsIgnoreCase("Content-Length");
+            }
+            if (connection != null) {
+                putHeader("Connection", connection);
+            }
+            boolean chunked = bodyStream != null && !framed;
+            if (chunked) {
+                putHeader("Transfer-Encoding", "chunked");
+            }
+            putCrlf();
+            putUtf8(response.getBody());
+            flush();
+            if (bodyStream != null) {
+                // straight from the source's buffer to the channel, the pooled one isn't needed
+                ChunkedChannel chunks = chunked ? new ChunkedChannel() : null;
+                long copied = bodyStream.transferTo(chunked ? chunks : channel);
+                written += copied;
+                if (chunked) {
+                    chunks.finish();
+                }
+            }
+            return written;
+        } finally {
+            if (bodyStream != null) {
+                bodyStream.close();
+            }
+            buffer = null;
+            pooled.release();
+        }
+    }
+
+    /**
+     * writes a request to another server, for the reverse proxy: request line, the headers as
+     * given and the body. the caller sets Content-Length and Connection.
+     *
+     * @return the number of bytes written
+     */
+    public long write(HttpRequest request) throws IOException {
+        PooledBuffer pooled = pool.acquire(BufferPool.MEDIUM);
+        buffer = pooled.buffer();
+        written = 0;
+        try {
+            putAscii(request.getMethod());
+            put((byte) ' ');
+            putUtf8(request.getPath());
+            putAscii(" HTTP/1.1");
+            putCrlf();
+            for (int i = 0; i < request.headerCount(); i++) {
+                putHeader(request.headerName(i), request.headerValue(i));
+            }
+            putCrlf();
+            putUtf8(request.getBody());
+            flush();
+            return written;
+        } finally {
+            buffer = null;
+            pooled.release();
+        }
+    }
+
+    /**
+     * writes raw bytes, for a protocol that takes over the connection (HTTP/2 frames).
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * writes all of src, e.g. a WebSocket frame encoded once and sent to many connections.
+     */
+    public void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private void putHeader(String name, String value) throws IOException {
+        putUtf8(name);
+        put((byte) ':');
+        put((byte) ' ');
+        putUtf8(value);
+        putCrlf();
+    }
+
+    private void putStatus(int code) throws IOException {
+        if (code < 100 || code > 999) {
+            putAscii(String.valueOf(code));
+            return;
+        }
+        put((byte) ('0' + code / 100));
+        put((byte) ('0' + code / 10 % 10));
+        put((byte) ('0' + code % 10));
+    }
+
+    private void putCrlf() throws IOException {
+        put((byte) '\r');
+        put((byte) '\n');
+    }
+
+    private void putAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    // UTF-8 by hand, so nothing is allocated; unpaired surrogates become '?' like String.getBytes()
+    private void putUtf8(String s) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    buffer.put((byte) (0xF0 | codePoint >> 18));
+                    buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    put((byte) '?');
+                }
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // frames each write as one chunk; the size line and CRLFs go through the pooled buffer,
+    // a chunk's closing CRLF together with the next size line
+    private final class ChunkedChannel implements WritableByteChannel {
+        private boolean inChunk;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (length == 0) {
+                // a zero-length chunk would end the body
+                return 0;
+            }
+            if (inChunk) {
+                putCrlf();
+            }
+            putAscii(Integer.toHexString(length));
+            putCrlf();
+            flush();
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            inChunk = true;
+            return length;
+        }
+
+        void finish() throws IOException {
+            if (inChunk) {
+                putCrlf();
+            }
+            putAscii("0\r\n\r\n");
+            flush();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // the connection's channel stays open
+        }
+    }
+}
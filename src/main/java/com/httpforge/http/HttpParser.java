@@ -1,14 +1,27 @@
 package com.httpforge.http;
 
-import java.io.BufferedReader;
+import com.httpforge.buffer.BufferPool;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class HttpParser {
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    // the start of the HTTP/2 connection preface reads as a request line, "PRI * HTTP/2.0"
+    private static final byte[] HTTP_2_0 = "HTTP/2.0".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    // names most clients send, handed out as constants the first time they're seen on a connection
+    private static final String[] KNOWN_HEADERS = {
+            "Host", "User-Agent", "Accept", "Accept-Encoding", "Accept-Language", "Connection",
+            "Content-Length", "Content-Type", "Cookie", "Referer", "Cache-Control", "Pragma",
+            "Upgrade-Insecure-Requests", "Origin", "Authorization", "If-None-Match", "If-Modified-Since",
+            "Sec-Fetch-Dest", "Sec-Fetch-Mode", "Sec-Fetch-Site", "Sec-Fetch-User", "DNT",
+            "traceparent", "X-Request-Timeout", "X-Forwarded-For"
+    };
 
     /**
      * Parses an HTTP request from an input stream.
@@ -19,93 +32,301 @@ public class HttpParser {
      * @throws HttpParseException if the request is malformed
      */
     public static HttpRequest parse(InputStream inputStream) throws IOException, HttpParseException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        return parse(inputStream, null);
+    }
+
+    /**
+     * Parses an HTTP request, calling back between the headers and the body.
+     * Reads ahead of the request, so anything after it in the stream is lost; a connection
+     * serving several requests should parse from one {@link HttpInput} instead.
+     *
+     * @param inputStream the input stream containing the HTTP request
+     * @param onHeadersComplete run once the blank line after the headers has been read, before
+     *                          any of the body; may be null. used to switch read deadlines
+     * @return parsed HttpRequest object
+     * @throws IOException if I/O error occurs
+     * @throws HttpParseException if the request is malformed
+     */
+    public static HttpRequest parse(InputStream inputStream, Runnable onHeadersComplete)
+            throws IOException, HttpParseException {
+        try (HttpInput input = new HttpInput(StreamChannels.reader(inputStream), BufferPool.getDefault())) {
+            // the input goes away with this call, nothing is going to recycle its request
+            return parse(input, onHeadersComplete).snapshot();
+        }
+    }
 
-        String requestLine = reader.readLine();
-        if (requestLine == null || requestLine.trim().isEmpty()) {
+    /**
+     * Parses the next HTTP request on a connection. The input's pooled buffer is given back
+     * afterwards unless it already holds the start of the next request.
+     * The request returned is the input's recycled instance, see {@link HttpRequest}: it is
+     * overwritten by the next call.
+     *
+     * @param input the connection's read side
+     * @param onHeadersComplete run once the blank line after the headers has been read, before
+     *                          any of the body; may be null. used to switch read deadlines
+     * @return parsed HttpRequest object
+     * @throws IOException if I/O error occurs
+     * @throws HttpParseException if the request is malformed
+     */
+    public static HttpRequest parse(HttpInput input, Runnable onHeadersComplete)
+            throws IOException, HttpParseException {
+        try {
+            return parseRequest(input, onHeadersComplete);
+        } finally {
+            input.endRequest();
+        }
+    }
+
+    /**
+     * Parses the status line and headers of a response from another server, for the reverse
+     * proxy. The body is left in the input, framed by the headers.
+     *
+     * @return the response without its body
+     * @throws IOException if I/O error occurs, or the server closed before a status line
+     * @throws HttpParseException if the response is malformed
+     */
+    public static HttpResponse parseResponseHead(HttpInput input) throws IOException, HttpParseException {
+        String statusLine = input.readLine();
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before a response");
+        }
+        // "HTTP/1.1 200 OK", the reason phrase may be empty
+        if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/1.") || statusLine.charAt(8) != ' ') {
+            throw new HttpParseException("Invalid status line: " + statusLine);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new HttpParseException("Invalid status line: " + statusLine, e);
+        }
+        String reason = statusLine.length() > 13 ? statusLine.substring(13) : "";
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = input.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon == -1) {
+                throw new HttpParseException("Invalid header format: " + line);
+            }
+            headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed inside response headers");
+        }
+        return new HttpResponse(status, reason, headers, null);
+    }
+
+    private static HttpRequest parseRequest(HttpInput reader, Runnable onHeadersComplete)
+            throws IOException, HttpParseException {
+        // works on the line's bytes: a String is only made for what the request keeps, and not
+        // even then when the previous request on the connection had the same bytes in that place
+        int length = reader.nextLine();
+        byte[] line = reader.line();
+        if (length < 0 || isBlank(line, length)) {
             throw new HttpParseException("Empty request line");
         }
 
         // expecting exactly 3 parts: METHOD PATH HTTP_VERSION
         // e.g., "GET /index.html HTTP/1.1"
-        String[] requestParts = requestLine.split("\\s+");
-        if (requestParts.length != 3) {
-            throw new HttpParseException("Invalid request line format: " + requestLine);
+        int methodEnd = tokenEnd(line, 0, length);
+        int pathStart = skipSpaces(line, methodEnd, length);
+        int pathEnd = tokenEnd(line, pathStart, length);
+        int versionStart = skipSpaces(line, pathEnd, length);
+        int versionEnd = tokenEnd(line, versionStart, length);
+        if (methodEnd == 0 || pathStart == pathEnd || versionStart == versionEnd
+                || skipSpaces(line, versionEnd, length) != length) {
+            throw new HttpParseException("Invalid request line format: " + decode(line, 0, length));
         }
 
-        String method = requestParts[0].toUpperCase();
-        String path = requestParts[1];
-        String httpVersion = requestParts[2];
-
         // validate HTTP version
-        if (!httpVersion.startsWith("HTTP/1.1")) {
-            throw new HttpParseException("Invalid HTTP version: " + httpVersion);
+        if (!startsWith(line, versionStart, versionEnd, HTTP_1_1) && !isPreface(line, methodEnd, versionStart, versionEnd)) {
+            throw new HttpParseException("Invalid HTTP version: " + decode(line, versionStart, versionEnd - versionStart));
+        }
+
+        HttpRequest request = reader.request();
+        String method = method(line, methodEnd);
+        String path = reuse(request.getPath(), line, pathStart, pathEnd - pathStart);
+        if (path == null) {
+            path = decode(line, pathStart, pathEnd - pathStart);
         }
+        request.reset(method, path);
 
         // parse headers
-        Map<String, String> headers = new HashMap<>();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (line.trim().isEmpty()) {
+        int index = 0;
+        while ((length = reader.nextLine()) >= 0) {
+            line = reader.line();
+            if (isBlank(line, length)) {
                 // empty line indicates end of headers
                 break;
             }
 
-            int colonIndex = line.indexOf(':');
+            int colonIndex = indexOf(line, length, (byte) ':');
             if (colonIndex == -1) {
-                throw new HttpParseException("Invalid header format: " + line);
+                throw new HttpParseException("Invalid header format: " + decode(line, 0, length));
             }
 
-            String headerName = line.substring(0, colonIndex).trim();
-            String headerValue = line.substring(colonIndex + 1).trim();
+            int nameStart = trimStart(line, 0, colonIndex);
+            int nameEnd = trimEnd(line, nameStart, colonIndex);
+            int valueStart = trimStart(line, colonIndex + 1, length);
+            int valueEnd = trimEnd(line, valueStart, length);
 
-            // we've getHeaderCaseInsensitive to handle case-insensitivity of HTTP headers
-            headers.put(headerName, headerValue);
+            String name = reuse(request.previousHeaderName(index), line, nameStart, nameEnd - nameStart);
+            if (name == null) {
+                name = knownHeader(line, nameStart, nameEnd - nameStart);
+            }
+            String value = reuse(request.previousHeaderValue(index), line, valueStart, valueEnd - valueStart);
+            if (value == null) {
+                value = decode(line, valueStart, valueEnd - valueStart);
+            }
+            request.addHeader(name, value);
+            index++;
+        }
+
+        if (onHeadersComplete != null) {
+            onHeadersComplete.run();
         }
 
         // Parse body (if present)
-        String body = "";
-        String contentLengthStr = getHeaderCaseInsensitive(headers, "Content-Length");
+        String contentLengthStr = request.getHeader("Content-Length");
 
         if (contentLengthStr != null) {
             try {
                 // content length indicates how many bytes to read for the body
                 int contentLength = Integer.parseInt(contentLengthStr);
                 if (contentLength > 0) {
-                    char[] bodyChars = new char[contentLength];
-                    int totalRead = 0;
-                    while (totalRead < contentLength) {
-                        // IMPORTANT: read may return less than requested, so we loop until we read enough
-                        // the source of SLOWLORIS attacks
-                        // it happens when the client sends data very slowly, so we must keep reading until we get all the expected bytes
-                        int read = reader.read(bodyChars, totalRead, contentLength - totalRead);
-                        if (read == -1) {
-                            throw new HttpParseException("Unexpected end of stream while reading body");
-                        }
-                        totalRead += read;
-                    }
-                    body = new String(bodyChars);
+                    // Content-Length counts bytes. read may return less than requested, so
+                    // readString loops until it has them all - a client sending very slowly
+                    // (slow POST) is cut off by the body deadline, not here
+                    request.setBody(reader.readString(contentLength));
                 }
             } catch (NumberFormatException e) {
                 throw new HttpParseException("Invalid Content-Length value: " + contentLengthStr);
             }
         }
 
-        return new HttpRequest(method, path, headers, body);
+        return request;
     }
 
-    /**
-     * retrieves header value in a case-insensitive manner.
-     * HTTP header names are case-insensitive per RFC 7230.
-     */
-    private static String getHeaderCaseInsensitive(Map<String, String> headers, String headerName) {
-        // we could have just lowercased all headers when parsing, but this is more general approach
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            if (entry.getKey().equalsIgnoreCase(headerName)) {
-                return entry.getValue();
+    // the method upper-cased, as one of the constants when it's a standard one
+    private static String method(byte[] line, int length) {
+        for (String method : METHODS) {
+            if (method.length() == length && equalsIgnoreCase(method, line, 0, length)) {
+                return method;
+            }
+        }
+        return decode(line, 0, length).toUpperCase();
+    }
+
+    private static String knownHeader(byte[] line, int start, int length) {
+        for (String name : KNOWN_HEADERS) {
+            if (matches(name, line, start, length)) {
+                return name;
+            }
+        }
+        return decode(line, start, length);
+    }
+
+    // previous when it has exactly these bytes, otherwise null
+    private static String reuse(String previous, byte[] line, int start, int length) {
+        return previous != null && matches(previous, line, start, length) ? previous : null;
+    }
+
+    // ASCII only: anything else is decoded and compared as a new String, i.e. never matches here
+    private static boolean matches(String s, byte[] line, int start, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = line[start + i];
+            if (b < 0 || s.charAt(i) != b) {
+                return false;
             }
         }
-        return null;
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(String s, byte[] line, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = line[start + i];
+            if (b < 0 || Character.toUpperCase((char) b) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] line, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(byte[] line, int start, int length) {
+        return new String(line, start, length, StandardCharsets.UTF_8);
+    }
+
+    // the request line splits on whitespace runs, like split("\\s+")
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == '\f';
+    }
+
+    private static int tokenEnd(byte[] line, int from, int length) {
+        while (from < length && !isSpace(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int skipSpaces(byte[] line, int from, int length) {
+        while (from < length && isSpace(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    // trimming drops control characters and spaces, like String.trim()
+    private static boolean isTrimmed(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static int trimStart(byte[] line, int from, int to) {
+        while (from < to && isTrimmed(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] line, int from, int to) {
+        while (to > from && isTrimmed(line[to - 1])) {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        return trimStart(line, 0, length) == length;
+    }
+
+    private static int indexOf(byte[] line, int length, byte b) {
+        for (int i = 0; i < length; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // PRI * HTTP/2.0, left to the caller to switch the connection over
+    private static boolean isPreface(byte[] line, int methodEnd, int versionStart, int versionEnd) {
+        return methodEnd == 3 && line[0] == 'P' && line[1] == 'R' && line[2] == 'I'
+                && startsWith(line, versionStart, versionEnd, HTTP_2_0);
     }
 
     public static class HttpParseException extends Exception {
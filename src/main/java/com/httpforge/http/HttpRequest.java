@@ -1,25 +1,56 @@
 package com.httpforge.http;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * every HTTP request received by the server is represented by this class.
  * every request has a method (GET, POST, etc), a path (/index.html), headers, and an optional body.
+ *
+ * requests built with the constructor never change. the ones the server parses on a keep-alive
+ * connection are recycled: the connection's {@link HttpInput} owns one instance and the parser
+ * resets and refills it for every request, so serving a request allocates no request object,
+ * header map or entries. such a request is only valid until the handler returns (or its async
+ * response completes); a handler that keeps it longer, e.g. hands it to another thread, must
+ * keep {@link #snapshot()} instead.
  */
 public class HttpRequest {
-    private final String method;
-    private final String path;
-    private final Map<String, String> headers;
-    private final String body;
+    private static final int INITIAL_HEADERS = 16;
+
+    private final boolean recycled;
+    private String method;
+    private String path;
+    // parallel arrays rather than a map: no entry objects, and a recycled request keeps them
+    private String[] headerNames;
+    private String[] headerValues;
+    private int headerCount;
+    private String body;
 
     public HttpRequest(String method, String path, Map<String, String> headers, String body) {
+        this.recycled = false;
         this.method = method;
         this.path = path;
-        this.headers = headers != null ? new HashMap<>(headers) : new HashMap<>();
+        int size = headers != null ? headers.size() : 0;
+        this.headerNames = new String[size];
+        this.headerValues = new String[size];
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                headerNames[headerCount] = entry.getKey();
+                headerValues[headerCount++] = entry.getValue();
+            }
+        }
         this.body = body != null ? body : "";
     }
 
+    // the reusable instance of one connection, see HttpInput#request()
+    HttpRequest() {
+        this.recycled = true;
+        this.headerNames = new String[INITIAL_HEADERS];
+        this.headerValues = new String[INITIAL_HEADERS];
+        this.body = "";
+    }
+
     public String getMethod() {
         return method;
     }
@@ -30,15 +61,19 @@ public class HttpRequest {
 
     public Map<String, String> getHeaders() {
         // return a soft copy to prevent external modification
-        return new HashMap<>(headers);
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(headerNames[i], headerValues[i]);
+        }
+        return headers;
     }
 
     public String getHeader(String name) {
         // we don't want to lose how the headers were originally cased
-        // that's why we iterate instead of just doing headers.get(name)
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            if (entry.getKey().equalsIgnoreCase(name)) {
-                return entry.getValue();
+        // that's why we compare each name instead of looking it up
+        for (int i = 0; i < headerCount; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
             }
         }
         return null;
@@ -48,9 +83,81 @@ public class HttpRequest {
         return body;
     }
 
+    /**
+     * whether this is a connection's reusable instance, see the class comment.
+     */
+    public boolean isRecycled() {
+        return recycled;
+    }
+
+    /**
+     * a request that stays valid after the handler returns: this one if it's never reused,
+     * otherwise an independent copy.
+     */
+    public HttpRequest snapshot() {
+        if (!recycled) {
+            return this;
+        }
+        return new HttpRequest(method, path, getHeaders(), body);
+    }
+
     @Override
     public String toString() {
         return String.format("HttpRequest{method='%s', path='%s', headers=%d, bodyLength=%d}",
-                method, path, headers.size(), body.length());
+                method, path, headerCount, body.length());
+    }
+
+    // --- filled in by HttpParser, recycled instances only ---
+
+    void reset(String method, String path) {
+        this.method = method;
+        this.path = path;
+        this.headerCount = 0;
+        this.body = "";
+    }
+
+    /**
+     * a repeated name replaces the earlier value, as a map would.
+     */
+    void addHeader(String name, String value) {
+        for (int i = 0; i < headerCount; i++) {
+            if (headerNames[i].equals(name)) {
+                headerValues[i] = value;
+                return;
+            }
+        }
+        if (headerCount == headerNames.length) {
+            headerNames = Arrays.copyOf(headerNames, headerCount * 2);
+            headerValues = Arrays.copyOf(headerValues, headerCount * 2);
+        }
+        headerNames[headerCount] = name;
+        headerValues[headerCount++] = value;
+    }
+
+    void setBody(String body) {
+        this.body = body;
+    }
+
+    // in order, without a map, for HttpOutput
+    int headerCount() {
+        return headerCount;
+    }
+
+    String headerName(int index) {
+        return headerNames[index];
+    }
+
+    String headerValue(int index) {
+        return headerValues[index];
+    }
+
+    // what the previous request on the connection had at this position, so that the parser can
+    // hand out the same String again when a keep-alive client repeats itself
+    String previousHeaderName(int index) {
+        return index < headerNames.length ? headerNames[index] : null;
+    }
+
+    String previousHeaderValue(int index) {
+        return index < headerValues.length ? headerValues[index] : null;
     }
 }
@@ -1,5 +1,7 @@
 package com.httpforge.http;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,12 +16,52 @@ public class HttpResponse {
     private final String reasonPhrase;
     private final Map<String, String> headers;
     private final String body;
+    private final BodyStream bodyStream;
 
+    /**
+     * a body that isn't given adds a Content-Length for the body, as the builder does, so
+     * that the response can be followed by another on a keep-alive connection.
+     */
     public HttpResponse(int statusCode, String reasonPhrase, Map<String, String> headers, String body) {
+        this(statusCode, reasonPhrase, withContentLength(headers, body), body, null);
+    }
+
+    // takes the map as is, for the builder that hands over its own
+    private HttpResponse(int statusCode, String reasonPhrase, Map<String, String> headers, String body,
+                         BodyStream bodyStream) {
         this.statusCode = statusCode;
         this.reasonPhrase = reasonPhrase;
-        this.headers = headers != null ? new HashMap<>(headers) : new HashMap<>();
+        this.headers = headers;
         this.body = body != null ? body : "";
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * a body that's copied to the client while it's read from somewhere else, rather than held
+     * in a String: the reverse proxy's upstream responses, server-sent events. without a
+     * Content-Length header it goes out chunked.
+     */
+    public interface BodyStream {
+        /**
+         * copies the whole body to out.
+         *
+         * @return the number of bytes copied
+         */
+        long transferTo(WritableByteChannel out) throws IOException;
+
+        /**
+         * called once the response is done with, whether or not the body was copied.
+         */
+        void close();
+
+        /**
+         * whether the body runs until the client goes away (an event stream) rather than to
+         * an end. it's written on a virtual thread of its own, so it doesn't hold a worker,
+         * and the connection closes after it.
+         */
+        default boolean isLongLived() {
+            return false;
+        }
     }
 
     public int getStatusCode() {
@@ -39,6 +81,19 @@ public class HttpResponse {
         return body;
     }
 
+    /**
+     * the streamed body, or null when the body is the String. a response with one can be
+     * written only once.
+     */
+    public BodyStream getBodyStream() {
+        return bodyStream;
+    }
+
+    // no copy, for HttpOutput
+    Map<String, String> headerMap() {
+        return headers;
+    }
+
     /**
      * serializes the HTTP response to raw bytes following HTTP/1.1 specification.
      * format:
@@ -92,10 +147,22 @@ public class HttpResponse {
      *     .build();
      */
     public static class Builder {
+        // Content-Length values up to this many bytes are shared constants
+        private static final String[] SMALL_LENGTHS = new String[4096];
+
+        static {
+            for (int i = 0; i < SMALL_LENGTHS.length; i++) {
+                SMALL_LENGTHS[i] = String.valueOf(i);
+            }
+        }
+
         private int statusCode = 200;
         private String reasonPhrase = "OK";
         private Map<String, String> headers = new HashMap<>();
         private String body = "";
+        private BodyStream bodyStream;
+        // build() gave the map to the response; copy it before changing anything again
+        private boolean shared;
 
         public Builder status(int code, String phrase) {
             this.statusCode = code;
@@ -104,7 +171,7 @@ public class HttpResponse {
         }
 
         public Builder header(String name, String value) {
-            this.headers.put(name, value);
+            ownHeaders().put(name, value);
             return this;
         }
 
@@ -115,15 +182,74 @@ public class HttpResponse {
                 // lets say the body is "hello, 世界"("hello, " + "world" in Chinese)
                 // "hello, " is 7 bytes, "世" is 3 bytes, "界" is 3 bytes
                 // total 13 bytes, so Content-Length should be 13.
-                this.headers.put("Content-Length", String.valueOf(body.getBytes(StandardCharsets.UTF_8).length));
+                // counted from the chars, without encoding the body just to measure it
+                ownHeaders().put("Content-Length", contentLength(body));
 
             }
             return this;
         }
 
+        /**
+         * a body copied from elsewhere while the response is written, in place of body(String).
+         */
+        public Builder stream(BodyStream bodyStream) {
+            this.bodyStream = bodyStream;
+            return this;
+        }
+
         public HttpResponse build() {
-            return new HttpResponse(statusCode, reasonPhrase, headers, body);
+            shared = true;
+            return new HttpResponse(statusCode, reasonPhrase, headers, body, bodyStream);
+        }
+
+        private Map<String, String> ownHeaders() {
+            if (shared) {
+                headers = new HashMap<>(headers);
+                shared = false;
+            }
+            return headers;
+        }
+
+        private static String contentLength(String body) {
+            int length = utf8Length(body);
+            return length < SMALL_LENGTHS.length ? SMALL_LENGTHS[length] : String.valueOf(length);
+        }
+
+        // same count as getBytes(UTF_8).length, unpaired surrogates included (one '?' byte)
+        private static int utf8Length(String s) {
+            int length = s.length();
+            int bytes = length;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    if (c < 0x800) {
+                        bytes += 1;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        // 4 bytes for the pair
+                        bytes += 2;
+                        i++;
+                    } else if (!Character.isSurrogate(c)) {
+                        bytes += 2;
+                    }
+                }
+            }
+            return bytes;
+        }
+    }
+
+    // a copy of the handler's headers, plus Content-Length for a body that has none
+    private static Map<String, String> withContentLength(Map<String, String> headers, String body) {
+        Map<String, String> copy = headers != null ? new HashMap<>(headers) : new HashMap<>();
+        if (body == null || body.isEmpty()) {
+            return copy;
+        }
+        for (String name : copy.keySet()) {
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) {
+                return copy;
+            }
         }
+        copy.put("Content-Length", Builder.contentLength(body));
+        return copy;
     }
 
     public static Builder builder() {
@@ -0,0 +1,120 @@
+package com.httpforge.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * channels over a plain socket's streams, for {@link HttpInput} and {@link HttpOutput}.
+ *
+ * not java.nio.channels.Channels.newChannel(): on JDK 21 those adapters block inside a
+ * synchronized block, which pins a virtual thread to its carrier for the whole read. with
+ * one carrier per core, a handful of idle keep-alive connections is enough to stall every
+ * other virtual thread. these are used by one thread at a time, so they need no lock.
+ *
+ * buffers without a backing array (the pooled direct ones) are copied through a small byte[].
+ */
+public final class StreamChannels {
+    // big enough for a typical request or response in one go
+    private static final int SCRATCH_BYTES = 2048;
+
+    private StreamChannels() {
+    }
+
+    public static ReadableByteChannel reader(InputStream in) {
+        return new Reader(in);
+    }
+
+    public static WritableByteChannel writer(OutputStream out) {
+        return new Writer(out);
+    }
+
+    private static final class Reader implements ReadableByteChannel {
+        private final InputStream in;
+        private byte[] scratch;
+        private boolean open = true;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        // blocks at most once, like a socket channel read
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (dst.hasArray()) {
+                int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                }
+                return n;
+            }
+            if (scratch == null) {
+                scratch = new byte[SCRATCH_BYTES];
+            }
+            int n = in.read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+            if (n > 0) {
+                dst.put(scratch, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            in.close();
+        }
+    }
+
+    private static final class Writer implements WritableByteChannel {
+        private final OutputStream out;
+        private byte[] scratch;
+        private boolean open = true;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        // writes everything, like a blocking socket channel
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int total = src.remaining();
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), total);
+                src.position(src.limit());
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[SCRATCH_BYTES];
+                }
+                while (src.hasRemaining()) {
+                    int n = Math.min(scratch.length, src.remaining());
+                    src.get(scratch, 0, n);
+                    out.write(scratch, 0, n);
+                }
+            }
+            out.flush();
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.httpforge.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * what the HPACK decoder and encoder share (RFC 7541): the static table, the dynamic table
+ * and the prefixed integer coding.
+ */
+final class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    // an entry's size is its name and value lengths plus this overhead
+    private static final int ENTRY_OVERHEAD = 32;
+
+    // index 1 to 61, appendix A
+    static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""},
+    };
+
+    private Hpack() {
+    }
+
+    /**
+     * the dynamic table: newest entry first, evicting the oldest once over its size limit.
+     */
+    static final class DynamicTable {
+        private final ArrayDeque<String[]> entries = new ArrayDeque<>();
+        private int size;
+        private int maxSize = DEFAULT_TABLE_SIZE;
+
+        int length() {
+            return entries.size();
+        }
+
+        int maxSize() {
+            return maxSize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict();
+        }
+
+        /**
+         * an entry larger than the whole table empties it and isn't added.
+         */
+        void add(String name, String value) {
+            entries.addFirst(new String[] {name, value});
+            size += entrySize(name, value);
+            evict();
+        }
+
+        // 1 is the newest
+        String[] get(int index) {
+            Iterator<String[]> it = entries.iterator();
+            for (int i = 1; i < index; i++) {
+                it.next();
+            }
+            return it.next();
+        }
+
+        private void evict() {
+            while (size > maxSize) {
+                String[] oldest = entries.removeLast();
+                size -= entrySize(oldest[0], oldest[1]);
+            }
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * decodes an integer with an n-bit prefix (section 5.1) starting at pos[0], which moves
+     * past it.
+     */
+    static int readInt(byte[] block, int end, int[] pos, int prefixBits) throws Http2Exception {
+        int max = (1 << prefixBits) - 1;
+        int value = block[pos[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= end) {
+                throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Truncated integer");
+            }
+            int b = block[pos[0]++] & 0xFF;
+            value += (b & 0x7F) << shift;
+            if (value < 0 || shift > 21) {
+                throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Integer overflow");
+            }
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * writes an integer with an n-bit prefix; flags are the bits above the prefix in the
+     * first byte.
+     */
+    static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
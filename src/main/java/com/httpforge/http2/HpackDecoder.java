@@ -0,0 +1,103 @@
+package com.httpforge.http2;
+
+/**
+ * decodes header blocks (RFC 7541). one per connection: the dynamic table carries over from
+ * block to block, so every block must be decoded in the order it arrived, even ones whose
+ * stream is refused.
+ */
+final class HpackDecoder {
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable();
+    // what we allow the encoder, our SETTINGS_HEADER_TABLE_SIZE
+    private final int maxTableSize;
+    private final StringBuilder chars = new StringBuilder();
+    private final int[] pos = new int[1];
+
+    interface Listener {
+        void header(String name, String value) throws Http2Exception;
+    }
+
+    HpackDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        table.setMaxSize(maxTableSize);
+    }
+
+    /**
+     * @throws Http2Exception a COMPRESSION_ERROR for a malformed block, or whatever the
+     *                        listener throws
+     */
+    void decode(byte[] block, int offset, int length, Listener listener) throws Http2Exception {
+        int end = offset + length;
+        pos[0] = offset;
+        boolean headerSeen = false;
+        while (pos[0] < end) {
+            int b = block[pos[0]] & 0xFF;
+            if ((b & 0x80) != 0) {
+                // indexed field
+                String[] field = field(Hpack.readInt(block, end, pos, 7));
+                listener.header(field[0], field[1]);
+                headerSeen = true;
+            } else if ((b & 0x40) != 0) {
+                // literal with incremental indexing
+                String[] field = literal(block, end, 6);
+                table.add(field[0], field[1]);
+                listener.header(field[0], field[1]);
+                headerSeen = true;
+            } else if ((b & 0x20) != 0) {
+                // dynamic table size update, only before the first field
+                if (headerSeen) {
+                    throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Table size update after a header");
+                }
+                int size = Hpack.readInt(block, end, pos, 5);
+                if (size > maxTableSize) {
+                    throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Table size " + size + " over the limit");
+                }
+                table.setMaxSize(size);
+            } else {
+                // literal without indexing, or never indexed: same wire format
+                String[] field = literal(block, end, 4);
+                listener.header(field[0], field[1]);
+                headerSeen = true;
+            }
+        }
+    }
+
+    private String[] literal(byte[] block, int end, int prefixBits) throws Http2Exception {
+        int nameIndex = Hpack.readInt(block, end, pos, prefixBits);
+        String name = nameIndex == 0 ? string(block, end) : field(nameIndex)[0];
+        String value = string(block, end);
+        return new String[] {name, value};
+    }
+
+    private String[] field(int index) throws Http2Exception {
+        if (index >= 1 && index <= Hpack.STATIC_TABLE.length) {
+            return Hpack.STATIC_TABLE[index - 1];
+        }
+        int dynamic = index - Hpack.STATIC_TABLE.length;
+        if (index == 0 || dynamic > table.length()) {
+            throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Invalid header index " + index);
+        }
+        return table.get(dynamic);
+    }
+
+    // a string literal: Huffman flag, length, octets (taken as ISO-8859-1)
+    private String string(byte[] block, int end) throws Http2Exception {
+        if (pos[0] >= end) {
+            throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int length = Hpack.readInt(block, end, pos, 7);
+        if (length > end - pos[0]) {
+            throw Http2Exception.connection(Http2Exception.COMPRESSION_ERROR, "String longer than the block");
+        }
+        chars.setLength(0);
+        if (huffman) {
+            Huffman.decode(block, pos[0], length, chars);
+        } else {
+            for (int i = pos[0]; i < pos[0] + length; i++) {
+                chars.append((char) (block[i] & 0xFF));
+            }
+        }
+        pos[0] += length;
+        return chars.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.httpforge.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * encodes header blocks (RFC 7541). one per connection, used under the connection's write
+ * lock, since blocks must reach the peer in the order they were encoded.
+ *
+ * a field already in a table is sent as its index, one or two bytes. anything else is sent as
+ * a plain (not Huffman coded) literal and added to the dynamic table, so a header repeated on
+ * later responses, say content-type, costs one byte from then on. values that change with
+ * every response aren't indexed, they'd only push useful entries out.
+ */
+final class HpackEncoder {
+    private static final Set<String> NOT_INDEXED = Set.of("content-length", "date", "etag", "last-modified");
+    // must never be indexed by anyone along the way, section 7.1.3
+    private static final Set<String> SENSITIVE = Set.of("set-cookie", "authorization");
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable();
+    // a size change not yet announced to the decoder, or -1
+    private int pendingSizeUpdate = -1;
+
+    /**
+     * applies the peer's SETTINGS_HEADER_TABLE_SIZE. we never use more than the default.
+     */
+    void setMaxTableSize(int peerLimit) {
+        int size = Math.min(peerLimit, Hpack.DEFAULT_TABLE_SIZE);
+        if (size != table.maxSize()) {
+            table.setMaxSize(size);
+            pendingSizeUpdate = size;
+        }
+    }
+
+    /**
+     * call before the first field of every block.
+     */
+    void beginBlock(ByteArrayOutputStream out) {
+        if (pendingSizeUpdate >= 0) {
+            Hpack.writeInt(out, 0x20, 5, pendingSizeUpdate);
+            pendingSizeUpdate = -1;
+        }
+    }
+
+    /**
+     * @param name lower case, as HTTP/2 requires
+     */
+    void encode(String name, String value, ByteArrayOutputStream out) {
+        int nameIndex = 0;
+        for (int i = 0; i < Hpack.STATIC_TABLE.length; i++) {
+            String[] entry = Hpack.STATIC_TABLE[i];
+            if (entry[0].equals(name)) {
+                if (entry[1].equals(value)) {
+                    Hpack.writeInt(out, 0x80, 7, i + 1);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = i + 1;
+                }
+            }
+        }
+        for (int i = 1; i <= table.length(); i++) {
+            String[] entry = table.get(i);
+            if (entry[0].equals(name)) {
+                if (entry[1].equals(value)) {
+                    Hpack.writeInt(out, 0x80, 7, Hpack.STATIC_TABLE.length + i);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = Hpack.STATIC_TABLE.length + i;
+                }
+            }
+        }
+
+        if (SENSITIVE.contains(name)) {
+            Hpack.writeInt(out, 0x10, 4, nameIndex);
+        } else if (NOT_INDEXED.contains(name) || !isAscii(name) || !isAscii(value)) {
+            // the table counts octets, which is only the String length for ASCII
+            Hpack.writeInt(out, 0x00, 4, nameIndex);
+        } else {
+            Hpack.writeInt(out, 0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Hpack.writeInt(out, 0x00, 7, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
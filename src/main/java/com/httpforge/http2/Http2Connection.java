@@ -0,0 +1,1004 @@
+package com.httpforge.http2;
+
+import com.httpforge.http.HttpInput;
+import com.httpforge.http.HttpOutput;
+import com.httpforge.http.HttpRequest;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * one HTTP/2 connection over cleartext (h2c, RFC 7540), after the client either sent the
+ * connection preface straight away (prior knowledge) or asked to upgrade an HTTP/1.1 request.
+ *
+ * the thread that calls serve reads frames until the connection ends. every request stream
+ * runs on its own virtual thread and goes through the same {@link Router} as HTTP/1.1, so a
+ * slow handler holds up only its own stream. responses share the socket under a write lock:
+ * a response's headers and String body are written whole, a streamed body (a proxied one, an
+ * event stream) a write at a time, DATA within the peer's flow control windows, and a stream
+ * whose window is used up waits without holding the lock.
+ *
+ * not supported: server push, priorities (read and ignored), CONNECT.
+ */
+public final class Http2Connection {
+    /**
+     * streams a client may have open at once, -Dhttpforge.h2.maxConcurrentStreams. more are
+     * refused with RST_STREAM, the client retries them.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_STREAMS = Integer.getInteger("httpforge.h2.maxConcurrentStreams", 256);
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // what's left of the preface once HttpParser has read it as a request line and an empty header block
+    private static final int PREFACE_TAIL = "SM\r\n\r\n".length();
+
+    // frame types, section 6
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    // settings, section 6.5.2
+    private static final int HEADER_TABLE_SIZE = 0x1;
+    private static final int ENABLE_PUSH = 0x2;
+    private static final int MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int INITIAL_WINDOW_SIZE = 0x4;
+    private static final int MAX_FRAME_SIZE = 0x5;
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    // the default in both directions; we never announce a larger one, nor send larger frames
+    private static final int FRAME_SIZE = 16384;
+    private static final int MAX_ALLOWED_FRAME_SIZE = 16777215;
+    private static final int DEFAULT_WINDOW = 65535;
+    // a header block split over CONTINUATION frames is collected up to this size
+    private static final int MAX_HEADER_BLOCK = 256 * 1024;
+    // not allowed in HTTP/2 (section 8.1.2.2), dropped from HTTP/1.1 style responses
+    private static final Set<String> CONNECTION_HEADERS =
+            Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    /**
+     * what the connection tells the HTTP/1.1 side, which owns the socket and its deadlines.
+     */
+    public interface Listener {
+        /**
+         * waiting for the next frame. idle when no stream is open, i.e. nothing is owed to the client.
+         */
+        void awaitingFrame(boolean idle);
+
+        /**
+         * a frame header arrived, the payload follows.
+         */
+        void readingFrame();
+
+        /**
+         * a stream's response was written. called on the stream's thread.
+         */
+        void responded(HttpRequest request, HttpResponse response, long durationMs);
+    }
+
+    private final HttpInput in;
+    private final HttpOutput out;
+    private final Router router;
+    private final Listener listener;
+    private final int maxConcurrentStreams;
+    private final Metrics metrics = Metrics.getInstance();
+    private final ExecutorService handlers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
+
+    // --- reader thread only ---
+    private final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final RequestHeaders requestHeaders = new RequestHeaders();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+    private final byte[] payload = new byte[FRAME_SIZE];
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    // the stream whose header block continues in CONTINUATION frames, or 0
+    private int continuedStream;
+    private int continuedFlags;
+    private int lastStreamId;
+    private int receiveWindow = DEFAULT_WINDOW;
+
+    // open streams: receiving the request, or its handler is running
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    // --- under writeLock: everything that decides what goes out, and in what order ---
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition windowOpened = writeLock.newCondition();
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final ByteArrayOutputStream responseBlock = new ByteArrayOutputStream();
+    private final byte[] frame = new byte[FRAME_HEADER_LENGTH + FRAME_SIZE];
+    private int sendWindow = DEFAULT_WINDOW;
+    private int initialStreamWindow = DEFAULT_WINDOW;
+    private int peerFrameSize = FRAME_SIZE;
+    private boolean closed;
+
+    public Http2Connection(HttpInput in, HttpOutput out, Router router, Listener listener) {
+        this(in, out, router, listener, DEFAULT_MAX_CONCURRENT_STREAMS);
+    }
+
+    Http2Connection(HttpInput in, HttpOutput out, Router router, Listener listener, int maxConcurrentStreams) {
+        this.in = in;
+        this.out = out;
+        this.router = router;
+        this.listener = listener;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * whether HttpParser just read the start of the prior knowledge preface, "PRI * HTTP/2.0".
+     */
+    public static boolean isPreface(HttpRequest request) {
+        return "PRI".equals(request.getMethod()) && "*".equals(request.getPath());
+    }
+
+    /**
+     * whether the request asks to switch to h2c, with settings we can read (section 3.2).
+     */
+    public static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("Upgrade");
+        String settings = request.getHeader("HTTP2-Settings");
+        if (upgrade == null || settings == null) {
+            return false;
+        }
+        boolean h2c = false;
+        for (String protocol : upgrade.split(",")) {
+            h2c |= protocol.trim().equalsIgnoreCase("h2c");
+        }
+        return h2c && decodeSettings(settings) != null;
+    }
+
+    /**
+     * serves the connection after the parser took "PRI * HTTP/2.0" for a request line.
+     * returns when the connection is done; the caller closes the socket.
+     */
+    public void servePriorKnowledge() throws IOException {
+        byte[] tail = new byte[PREFACE_TAIL];
+        readFully(tail, tail.length);
+        if (!Arrays.equals(tail, 0, tail.length, PREFACE, PREFACE.length - PREFACE_TAIL, PREFACE.length)) {
+            throw new IOException("Invalid HTTP/2 connection preface");
+        }
+        metrics.recordHttp2Opened();
+        try {
+            writeSettings();
+            serve();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * switches an HTTP/1.1 connection to h2c. the request that asked becomes stream 1 and is
+     * answered over HTTP/2, then the client sends its preface and carries on with frames.
+     */
+    public void serveUpgrade(HttpRequest request) throws IOException {
+        byte[] switching = ("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        out.write(switching, 0, switching.length);
+        metrics.recordHttp2Opened();
+        try {
+            byte[] settings = decodeSettings(request.getHeader("HTTP2-Settings"));
+            try {
+                applySettings(settings, settings.length);
+            } catch (Http2Exception e) {
+                writeGoAway(e);
+                return;
+            }
+            writeSettings();
+
+            lastStreamId = 1;
+            Stream stream = new Stream(1, initialStreamWindow);
+            stream.remoteClosed = true;
+            streams.put(1, stream);
+            metrics.recordStreamOpened();
+            dispatch(stream, request.snapshot());
+
+            byte[] preface = new byte[PREFACE.length];
+            readFully(preface, preface.length);
+            if (!Arrays.equals(preface, PREFACE)) {
+                throw new IOException("Invalid HTTP/2 connection preface");
+            }
+            serve();
+        } finally {
+            shutdown();
+        }
+    }
+
+    // the frame loop; the client's first frame must be its SETTINGS
+    private void serve() throws IOException {
+        boolean settingsSeen = false;
+        while (true) {
+            listener.awaitingFrame(streams.isEmpty());
+            if (!readFrameHeader()) {
+                return;
+            }
+            listener.readingFrame();
+            int length = (frameHeader[0] & 0xFF) << 16 | (frameHeader[1] & 0xFF) << 8 | frameHeader[2] & 0xFF;
+            int type = frameHeader[3] & 0xFF;
+            int flags = frameHeader[4] & 0xFF;
+            int streamId = readInt(frameHeader, 5) & 0x7FFFFFFF;
+            try {
+                if (length > FRAME_SIZE) {
+                    throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                readFully(payload, length);
+                if (!settingsSeen && type != SETTINGS) {
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "First frame is not SETTINGS");
+                }
+                settingsSeen = true;
+                if (continuedStream != 0 && (type != CONTINUATION || streamId != continuedStream)) {
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+                }
+                onFrame(type, flags, streamId, length);
+            } catch (Http2Exception e) {
+                if (e.isConnectionError()) {
+                    System.err.println("HTTP/2 connection error: " + e.getMessage());
+                    writeGoAway(e);
+                    return;
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, int length) throws IOException, Http2Exception {
+        switch (type) {
+            case DATA -> onData(flags, streamId, length);
+            case HEADERS -> onHeaders(flags, streamId, length);
+            case PRIORITY -> {
+                requireStream(streamId, "PRIORITY");
+                if (length != 5) {
+                    throw Http2Exception.stream(streamId, Http2Exception.FRAME_SIZE_ERROR, "PRIORITY of " + length + " bytes");
+                }
+            }
+            case RST_STREAM -> onReset(streamId, length);
+            case SETTINGS -> onSettings(flags, streamId, length);
+            case PUSH_PROMISE ->
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            case PING -> onPing(flags, streamId, length);
+            case GOAWAY -> {
+                // the client sends nothing new; the streams it has open still get their responses
+                if (streamId != 0) {
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "GOAWAY on a stream");
+                }
+            }
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, length);
+            case CONTINUATION -> onContinuation(flags, streamId, length);
+            default -> {
+                // unknown frame types are ignored, section 4.1
+            }
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, int length) throws IOException, Http2Exception {
+        requireStream(streamId, "HEADERS");
+        int start = 0;
+        int end = length;
+        if ((flags & PADDED) != 0) {
+            end -= padding(length);
+            start++;
+        }
+        if ((flags & PRIORITY_FLAG) != 0) {
+            start += 5;
+        }
+        if (start > end) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "HEADERS too short");
+        }
+        if ((flags & END_HEADERS) != 0) {
+            onHeaderBlock(streamId, flags, payload, start, end - start);
+            return;
+        }
+        headerBlock.reset();
+        headerBlock.write(payload, start, end - start);
+        continuedStream = streamId;
+        continuedFlags = flags;
+    }
+
+    private void onContinuation(int flags, int streamId, int length) throws IOException, Http2Exception {
+        if (continuedStream == 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+        }
+        if (headerBlock.size() + length > MAX_HEADER_BLOCK) {
+            throw Http2Exception.connection(Http2Exception.ENHANCE_YOUR_CALM, "Header block over " + MAX_HEADER_BLOCK + " bytes");
+        }
+        headerBlock.write(payload, 0, length);
+        if ((flags & END_HEADERS) != 0) {
+            continuedStream = 0;
+            onHeaderBlock(streamId, continuedFlags, headerBlock.toByteArray(), 0, headerBlock.size());
+        }
+    }
+
+    // a complete header block: a new request, or the trailers of one whose body was sent
+    private void onHeaderBlock(int streamId, int flags, byte[] block, int offset, int length)
+            throws IOException, Http2Exception {
+        Stream stream = streams.get(streamId);
+        boolean trailers = stream != null;
+        // decoded even when the stream is refused: the dynamic table has to stay in step
+        requestHeaders.begin(trailers);
+        decoder.decode(block, offset, length, requestHeaders);
+        boolean endStream = (flags & END_STREAM) != 0;
+
+        if (trailers) {
+            if (stream.remoteClosed) {
+                throw Http2Exception.stream(streamId, Http2Exception.STREAM_CLOSED, "HEADERS after the end of the stream");
+            }
+            if (!endStream || requestHeaders.error != null) {
+                throw Http2Exception.stream(streamId, Http2Exception.PROTOCOL_ERROR, "Invalid trailers");
+            }
+            stream.remoteClosed = true;
+            dispatch(stream, stream.request(requestHeaders));
+            return;
+        }
+        if (streamId % 2 == 0 || streamId <= lastStreamId) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Stream " + streamId + " can't be opened");
+        }
+        lastStreamId = streamId;
+        if (streams.size() >= maxConcurrentStreams) {
+            throw Http2Exception.stream(streamId, Http2Exception.REFUSED_STREAM, "Over " + maxConcurrentStreams + " streams");
+        }
+        requestHeaders.requireRequest();
+        if (requestHeaders.error != null) {
+            throw Http2Exception.stream(streamId, Http2Exception.PROTOCOL_ERROR, requestHeaders.error);
+        }
+
+        stream = new Stream(streamId, initialStreamWindow);
+        stream.headers(requestHeaders);
+        streams.put(streamId, stream);
+        metrics.recordStreamOpened();
+        if (endStream) {
+            stream.remoteClosed = true;
+            dispatch(stream, stream.request(null));
+        }
+    }
+
+    private void onData(int flags, int streamId, int length) throws IOException, Http2Exception {
+        requireStream(streamId, "DATA");
+        // the whole frame counts against the windows, padding included
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "DATA over the connection window");
+        }
+        if (receiveWindow <= DEFAULT_WINDOW / 2) {
+            writeWindowUpdate(0, DEFAULT_WINDOW - receiveWindow);
+            receiveWindow = DEFAULT_WINDOW;
+        }
+
+        int start = 0;
+        int end = length;
+        if ((flags & PADDED) != 0) {
+            end -= padding(length);
+            start++;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.remoteClosed) {
+            if (streamId > lastStreamId) {
+                throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            throw Http2Exception.stream(streamId, Http2Exception.STREAM_CLOSED, "DATA after the end of the stream");
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            throw Http2Exception.stream(streamId, Http2Exception.FLOW_CONTROL_ERROR, "DATA over the stream window");
+        }
+        stream.body.write(payload, start, end - start);
+
+        if ((flags & END_STREAM) != 0) {
+            stream.remoteClosed = true;
+            dispatch(stream, stream.request(null));
+        } else if (stream.receiveWindow <= DEFAULT_WINDOW / 2) {
+            writeWindowUpdate(streamId, DEFAULT_WINDOW - stream.receiveWindow);
+            stream.receiveWindow = DEFAULT_WINDOW;
+        }
+    }
+
+    private void onReset(int streamId, int length) throws Http2Exception {
+        requireStream(streamId, "RST_STREAM");
+        if (length != 4) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM of " + length + " bytes");
+        }
+        if (streamId > lastStreamId) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            metrics.recordStreamReset();
+            close(stream);
+        }
+    }
+
+    private void onSettings(int flags, int streamId, int length) throws IOException, Http2Exception {
+        if (streamId != 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & ACK) != 0) {
+            if (length != 0) {
+                throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ack with a payload");
+            }
+            return;
+        }
+        applySettings(payload, length);
+        writeFrame(SETTINGS, ACK, 0, payload, 0);
+    }
+
+    private void applySettings(byte[] settings, int length) throws Http2Exception {
+        if (length % 6 != 0) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS of " + length + " bytes");
+        }
+        writeLock.lock();
+        try {
+            for (int i = 0; i < length; i += 6) {
+                int id = (settings[i] & 0xFF) << 8 | settings[i + 1] & 0xFF;
+                long value = readInt(settings, i + 2) & 0xFFFFFFFFL;
+                switch (id) {
+                    case HEADER_TABLE_SIZE -> encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    case ENABLE_PUSH -> {
+                        if (value > 1) {
+                            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "ENABLE_PUSH " + value);
+                        }
+                    }
+                    case INITIAL_WINDOW_SIZE -> {
+                        if (value > Integer.MAX_VALUE) {
+                            throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE " + value);
+                        }
+                        // applies to the streams already open too, section 6.9.2
+                        int delta = (int) value - initialStreamWindow;
+                        initialStreamWindow = (int) value;
+                        for (Stream stream : streams.values()) {
+                            if ((long) stream.sendWindow + delta > Integer.MAX_VALUE) {
+                                throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Stream window over 2^31-1");
+                            }
+                            stream.sendWindow += delta;
+                        }
+                        windowOpened.signalAll();
+                    }
+                    case MAX_FRAME_SIZE -> {
+                        if (value < FRAME_SIZE || value > MAX_ALLOWED_FRAME_SIZE) {
+                            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value);
+                        }
+                        peerFrameSize = (int) Math.min(value, FRAME_SIZE);
+                    }
+                    default -> {
+                        // MAX_CONCURRENT_STREAMS limits pushes, which we don't make; others are ignored
+                    }
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, int length) throws IOException, Http2Exception {
+        if (streamId != 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "PING on a stream");
+        }
+        if (length != 8) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "PING of " + length + " bytes");
+        }
+        if ((flags & ACK) == 0) {
+            writeFrame(PING, ACK, 0, payload, 8);
+        }
+    }
+
+    private void onWindowUpdate(int streamId, int length) throws Http2Exception {
+        if (length != 4) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + length + " bytes");
+        }
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+            }
+            throw Http2Exception.stream(streamId, Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+        }
+        writeLock.lock();
+        try {
+            if (streamId == 0) {
+                if ((long) sendWindow + increment > Integer.MAX_VALUE) {
+                    throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Connection window over 2^31-1");
+                }
+                sendWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    // a stream we already finished; the update was on its way
+                    return;
+                }
+                if ((long) stream.sendWindow + increment > Integer.MAX_VALUE) {
+                    throw Http2Exception.stream(streamId, Http2Exception.FLOW_CONTROL_ERROR, "Stream window over 2^31-1");
+                }
+                stream.sendWindow += increment;
+            }
+            windowOpened.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // the request is complete: run it through the router on the stream's own thread
+    private void dispatch(Stream stream, HttpRequest request) {
+        stream.startMillis = System.currentTimeMillis();
+        stream.dispatched = true;
+        metrics.recordRequestStart();
+        stream.task = handlers.submit(() -> {
+            CompletableFuture<HttpResponse> future;
+            try {
+                future = router.routeAsync(request).toCompletableFuture();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            if (future.isDone()) {
+                respond(stream, request, future);
+            } else {
+                // an async handler: its stream gets a thread again only to write the response
+                stream.pending = future;
+                CompletableFuture<HttpResponse> pending = future;
+                future.whenCompleteAsync((response, failure) -> respond(stream, request, pending), handlers);
+            }
+        });
+    }
+
+    private void respond(Stream stream, HttpRequest request, CompletableFuture<HttpResponse> future) {
+        HttpResponse response;
+        try {
+            response = future.join();
+        } catch (RuntimeException e) {
+            if (stream.reset) {
+                // cancelled by the client's RST_STREAM
+                stream.end(metrics);
+                return;
+            }
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("Handler failed: " + cause);
+            response = HttpResponse.internalServerError();
+        }
+        try {
+            writeResponse(stream, response);
+        } catch (IOException e) {
+            // the connection is gone; the reader thread sees it too and cleans up
+        } finally {
+            long duration = System.currentTimeMillis() - stream.startMillis;
+            if (stream.end(metrics) && !stream.reset) {
+                listener.responded(request, response, duration);
+            }
+            if (streams.remove(stream.id, stream)) {
+                metrics.recordStreamClosed();
+            }
+        }
+    }
+
+    private void writeResponse(Stream stream, HttpResponse response) throws IOException {
+        HttpResponse.BodyStream bodyStream = response.getBodyStream();
+        try {
+            byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+            writeLock.lock();
+            try {
+                if (closed || stream.reset) {
+                    return;
+                }
+                responseBlock.reset();
+                encoder.beginBlock(responseBlock);
+                encoder.encode(":status", String.valueOf(response.getStatusCode()), responseBlock);
+                for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+                    String name = header.getKey().toLowerCase(Locale.ROOT);
+                    if (!CONNECTION_HEADERS.contains(name)) {
+                        encoder.encode(name, header.getValue(), responseBlock);
+                    }
+                }
+                writeHeaderBlock(stream.id, body.length == 0 && bodyStream == null);
+                if (body.length > 0 && !writeData(stream, ByteBuffer.wrap(body), bodyStream == null)) {
+                    return;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (bodyStream != null) {
+                // frame by frame as it comes (a proxied body, an event stream), the lock only
+                // held per write so that other streams' responses go out in between
+                bodyStream.transferTo(new DataChannel(stream));
+                writeLock.lock();
+                try {
+                    if (!closed && !stream.reset) {
+                        writeData(stream, ByteBuffer.allocate(0), true);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } finally {
+            if (bodyStream != null) {
+                bodyStream.close();
+            }
+        }
+    }
+
+    /**
+     * DATA frames for the bytes, as the flow control windows allow; an empty buffer with
+     * endStream sends an empty frame that ends the stream. call with the write lock held.
+     *
+     * @return false if the stream or the connection ended while waiting for window
+     */
+    private boolean writeData(Stream stream, ByteBuffer data, boolean endStream) throws IOException {
+        do {
+            int n = Math.min(data.remaining(), Math.min(peerFrameSize, Math.min(sendWindow, stream.sendWindow)));
+            if (n <= 0 && data.hasRemaining()) {
+                // gives the lock up until a WINDOW_UPDATE or SETTINGS arrives
+                windowOpened.awaitUninterruptibly();
+                if (closed || stream.reset) {
+                    return false;
+                }
+                continue;
+            }
+            boolean last = endStream && n == data.remaining();
+            data.get(frame, FRAME_HEADER_LENGTH, n);
+            putFrameHeader(n, DATA, last ? END_STREAM : 0, stream.id);
+            out.write(frame, 0, FRAME_HEADER_LENGTH + n);
+            sendWindow -= n;
+            stream.sendWindow -= n;
+        } while (data.hasRemaining());
+        return true;
+    }
+
+    // HEADERS, then CONTINUATION frames if the block doesn't fit; nothing may go in between
+    private void writeHeaderBlock(int streamId, boolean endStream) throws IOException {
+        byte[] block = responseBlock.toByteArray();
+        int offset = 0;
+        int type = HEADERS;
+        do {
+            int n = Math.min(block.length - offset, peerFrameSize);
+            boolean last = offset + n == block.length;
+            int flags = (last ? END_HEADERS : 0) | (type == HEADERS && endStream ? END_STREAM : 0);
+            System.arraycopy(block, offset, frame, FRAME_HEADER_LENGTH, n);
+            putFrameHeader(n, type, flags, streamId);
+            out.write(frame, 0, FRAME_HEADER_LENGTH + n);
+            offset += n;
+            type = CONTINUATION;
+        } while (offset < block.length);
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        byte[] code = new byte[4];
+        putInt(code, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, code, 4);
+        metrics.recordStreamReset();
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            close(stream);
+        }
+    }
+
+    // a stream reset, or left over when the connection ends: its handler is interrupted, and
+    // a response waiting for window gives up
+    private void close(Stream stream) {
+        stream.reset = true;
+        metrics.recordStreamClosed();
+        cancel(stream.task);
+        cancel(stream.pending);
+        writeLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        if (stream.dispatched) {
+            // the handler may never get to respond(), it could be cancelled before it ran
+            stream.end(metrics);
+        }
+    }
+
+    private static void cancel(Future<?> work) {
+        if (work != null) {
+            work.cancel(true);
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] settings = new byte[6];
+        settings[1] = MAX_CONCURRENT_STREAMS;
+        putInt(settings, 2, maxConcurrentStreams);
+        writeFrame(SETTINGS, 0, 0, settings, settings.length);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] bytes = new byte[4];
+        putInt(bytes, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, bytes, 4);
+    }
+
+    private void writeGoAway(Http2Exception e) throws IOException {
+        byte[] bytes = new byte[8];
+        putInt(bytes, 0, lastStreamId);
+        putInt(bytes, 4, e.getErrorCode());
+        writeFrame(GOAWAY, 0, 0, bytes, 8);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] bytes, int length) throws IOException {
+        writeLock.lock();
+        try {
+            System.arraycopy(bytes, 0, frame, FRAME_HEADER_LENGTH, length);
+            putFrameHeader(length, type, flags, streamId);
+            out.write(frame, 0, FRAME_HEADER_LENGTH + length);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void putFrameHeader(int length, int type, int flags, int streamId) {
+        frame[0] = (byte) (length >>> 16);
+        frame[1] = (byte) (length >>> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        putInt(frame, 5, streamId);
+    }
+
+    // the connection is over: nothing more is written, handlers still running are interrupted
+    private void shutdown() {
+        writeLock.lock();
+        try {
+            closed = true;
+            windowOpened.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        handlers.shutdownNow();
+        for (Stream stream : streams.values()) {
+            if (streams.remove(stream.id, stream)) {
+                close(stream);
+            }
+        }
+        metrics.recordHttp2Closed();
+    }
+
+    // false at a clean end of stream between frames
+    private boolean readFrameHeader() throws IOException {
+        int n = in.read(frameHeader, 0, FRAME_HEADER_LENGTH);
+        if (n == -1) {
+            return false;
+        }
+        if (n < FRAME_HEADER_LENGTH) {
+            readFully(frameHeader, n, FRAME_HEADER_LENGTH - n);
+        }
+        return true;
+    }
+
+    private void readFully(byte[] dst, int length) throws IOException {
+        readFully(dst, 0, length);
+    }
+
+    private void readFully(byte[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(dst, offset, length);
+            if (n == -1) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // the pad length of a PADDED frame, in its first byte, checked against the frame
+    private int padding(int length) throws Http2Exception {
+        if (length == 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Padded frame without a pad length");
+        }
+        int padding = payload[0] & 0xFF;
+        if (padding >= length) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Padding longer than the frame");
+        }
+        return padding;
+    }
+
+    private static void requireStream(int streamId, String type) throws Http2Exception {
+        if (streamId == 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, type + " on stream 0");
+        }
+    }
+
+    // base64url SETTINGS payload of an Upgrade request, or null if it isn't one
+    private static byte[] decodeSettings(String value) {
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(value.trim());
+            return settings.length % 6 == 0 ? settings : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * a streamed response body's bytes as DATA frames on its stream, never ending it.
+     */
+    private final class DataChannel implements WritableByteChannel {
+        private final Stream stream;
+
+        DataChannel(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n = src.remaining();
+            if (n == 0) {
+                return 0;
+            }
+            writeLock.lock();
+            try {
+                if (closed || stream.reset || !writeData(stream, src, false)) {
+                    // the client reset the stream: whatever produces the body stops here
+                    throw new ClosedChannelException();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && !stream.reset;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Stream {
+        final int id;
+        // request side, reader thread only
+        boolean remoteClosed;
+        int receiveWindow = DEFAULT_WINDOW;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String method;
+        String path;
+        Map<String, String> headers;
+        // response side, under writeLock
+        int sendWindow;
+        boolean dispatched;
+        // the handler's thread, and an async handler's pending response
+        volatile Future<?> task;
+        volatile Future<?> pending;
+        volatile boolean reset;
+        long startMillis;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        // the window is read on the reader thread, the only one that changes it
+        Stream(int id, int sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+
+        void headers(RequestHeaders decoded) {
+            method = decoded.method;
+            path = decoded.path;
+            headers = decoded.fields;
+            if (decoded.authority != null && !headers.containsKey("host")) {
+                headers.put("host", decoded.authority);
+            }
+        }
+
+        HttpRequest request(RequestHeaders trailers) {
+            // trailers go in with the headers, HttpRequest has nowhere else to put them
+            if (trailers != null) {
+                headers.putAll(trailers.fields);
+            }
+            return new HttpRequest(method, path, headers, body.toString(StandardCharsets.UTF_8));
+        }
+
+        // true the first time: a request is counted as ended exactly once, however it ends
+        boolean end(Metrics metrics) {
+            if (!ended.compareAndSet(false, true)) {
+                return false;
+            }
+            metrics.recordRequestEnd(System.currentTimeMillis() - startMillis);
+            return true;
+        }
+    }
+
+    // collects a request's header block; what's wrong is noted rather than thrown, so that the
+    // rest of the block is still decoded into the dynamic table
+    private static final class RequestHeaders implements HpackDecoder.Listener {
+        String method;
+        String scheme;
+        String path;
+        String authority;
+        Map<String, String> fields;
+        String error;
+        private boolean trailers;
+        private boolean regularSeen;
+
+        void begin(boolean trailers) {
+            this.trailers = trailers;
+            method = scheme = path = authority = error = null;
+            fields = new HashMap<>();
+            regularSeen = false;
+        }
+
+        @Override
+        public void header(String name, String value) {
+            if (error != null) {
+                return;
+            }
+            if (name.startsWith(":")) {
+                if (trailers || regularSeen) {
+                    error = "Pseudo-header " + name + " after the regular ones";
+                    return;
+                }
+                switch (name) {
+                    case ":method" -> method = pseudo(method, name, value);
+                    case ":scheme" -> scheme = pseudo(scheme, name, value);
+                    case ":path" -> path = pseudo(path, name, value);
+                    case ":authority" -> authority = pseudo(authority, name, value);
+                    default -> error = "Unknown pseudo-header " + name;
+                }
+                return;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase(Locale.ROOT))) {
+                error = "Upper case header name " + name;
+            } else if (CONNECTION_HEADERS.contains(name) || name.equals("te") && !value.equals("trailers")) {
+                error = "Connection-specific header " + name;
+            } else {
+                // split cookies go back together as one header, section 8.1.2.5
+                fields.merge(name, value, (a, b) -> a + (name.equals("cookie") ? "; " : ", ") + b);
+            }
+        }
+
+        // once the block is decoded: a request needs all three, section 8.1.2.3
+        void requireRequest() {
+            if (error == null && (method == null || scheme == null || path == null || path.isEmpty())) {
+                error = "Missing :method, :scheme or :path";
+            }
+        }
+
+        private String pseudo(String current, String name, String value) {
+            if (current != null) {
+                error = "Repeated " + name;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.httpforge.http2;
+
+/**
+ * a protocol violation by the peer. a connection error ends the connection with GOAWAY, a
+ * stream error only resets its stream with RST_STREAM (RFC 7540 section 5.4).
+ */
+final class Http2Exception extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    // error codes, RFC 7540 section 7
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private final int errorCode;
+    // 0 for a connection error
+    private final int streamId;
+
+    private Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    static Http2Exception connection(int errorCode, String message) {
+        return new Http2Exception(errorCode, 0, message);
+    }
+
+    static Http2Exception stream(int streamId, int errorCode, String message) {
+        return new Http2Exception(errorCode, streamId, message);
+    }
+
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    boolean isConnectionError() {
+        return streamId == 0;
+    }
+}
@@ -0,0 +1,24 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * emitted when a connection reaches a ConnectionHandler.
+ * off by default because it fires once per connection, enable it in the recording settings.
+ */
+@Name("com.httpforge.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({"HTTPForge", "Connection"})
+@Description("A client connection was handed to a connection handler")
+@Enabled(false)
+@StackTrace(false)
+public class ConnectionAcceptedEvent extends Event {
+    @Label("Remote Address")
+    public String remoteAddress;
+}
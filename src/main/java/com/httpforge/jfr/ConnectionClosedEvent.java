@@ -0,0 +1,39 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * spans the whole life of a connection, from handler start to socket close.
+ * off by default, like {@link ConnectionAcceptedEvent}.
+ */
+@Name("com.httpforge.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"HTTPForge", "Connection"})
+@Description("A client connection was closed, duration is the connection lifetime")
+@Enabled(false)
+@StackTrace(false)
+public class ConnectionClosedEvent extends Event {
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Requests Served")
+    public int requests;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+    @Label("Close Reason")
+    public String reason;
+}
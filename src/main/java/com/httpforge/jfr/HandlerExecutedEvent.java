@@ -0,0 +1,26 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * time spent in the route handler, including route lookup.
+ */
+@Name("com.httpforge.HandlerExecuted")
+@Label("Handler Executed")
+@Category({"HTTPForge", "Request"})
+@Description("A route handler produced a response")
+@Threshold("50 ms")
+@StackTrace(false)
+public class HandlerExecutedEvent extends Event {
+    @Label("Route")
+    public String route;
+
+    @Label("Status")
+    public int status;
+}
@@ -0,0 +1,32 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * time from the first byte of a request to a fully parsed HttpRequest.
+ * keep-alive idle time before the first byte is not included.
+ */
+@Name("com.httpforge.RequestParsed")
+@Label("Request Parsed")
+@Category({"HTTPForge", "Request"})
+@Description("Request line, headers and body were read and parsed")
+@Threshold("10 ms")
+@StackTrace(false)
+public class RequestParsedEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
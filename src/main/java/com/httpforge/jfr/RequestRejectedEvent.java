@@ -0,0 +1,25 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * a connection was turned away because the server is overloaded.
+ * these are rare and always interesting, so there's no threshold.
+ */
+@Name("com.httpforge.RequestRejected")
+@Label("Request Rejected")
+@Category({"HTTPForge", "Overload"})
+@Description("A connection was rejected or shed because the server is overloaded")
+@StackTrace(false)
+public class RequestRejectedEvent extends Event {
+    @Label("Policy")
+    public String policy;
+
+    @Label("Reason")
+    public String reason;
+}
@@ -0,0 +1,26 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * route lookup result. lookups are a single map get, so this is off by default.
+ */
+@Name("com.httpforge.RequestRouted")
+@Label("Request Routed")
+@Category({"HTTPForge", "Request"})
+@Description("A request was matched against the route table")
+@Enabled(false)
+@StackTrace(false)
+public class RequestRoutedEvent extends Event {
+    @Label("Route")
+    public String route;
+
+    @Label("Matched")
+    public boolean matched;
+}
@@ -0,0 +1,38 @@
+package com.httpforge.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * time to serialize and write a response. a slow write usually means a slow client
+ * or a full socket send buffer.
+ */
+@Name("com.httpforge.ResponseWritten")
+@Label("Response Written")
+@Category({"HTTPForge", "Request"})
+@Description("A response was serialized and flushed to the socket")
+@Threshold("10 ms")
+@StackTrace(false)
+public class ResponseWrittenEvent extends Event {
+    @Label("Route")
+    public String route;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Request Duration")
+    @Description("Time from parsed request to flushed response")
+    @Timespan(Timespan.NANOSECONDS)
+    public long requestDuration;
+}
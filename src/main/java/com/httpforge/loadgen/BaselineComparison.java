@@ -0,0 +1,155 @@
+package com.httpforge.loadgen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * compares a directory of {@link ComparisonHarness} results against a baseline directory,
+ * file by file, and flags anything that got worse by more than a threshold percentage.
+ *
+ * the files are our own output, so the handful of numbers we need are pulled out with
+ * patterns instead of a JSON parser. a number that isn't there, or a baseline run with no
+ * current result, is an error rather than a pass: a renamed field or a strategy that stopped
+ * running mustn't get through the gate unnoticed.
+ */
+public class BaselineComparison {
+    private static final Pattern THROUGHPUT = Pattern.compile("\"throughput\": ([0-9.]+)");
+    private static final Pattern LATENCY_P99 = Pattern.compile("\"latencyMs\": \\{[^}]*\"p99\": ([0-9.]+)");
+    private static final Pattern ALLOCATION = Pattern.compile("\"allocatedBytesPerRequest\": ([0-9.]+)");
+    private static final Pattern SUCCESS_RATE = Pattern.compile("\"successRate\": ([0-9.]+)");
+
+    /**
+     * one metric of one run, current vs baseline.
+     */
+    public static class Delta {
+        public final String run;
+        public final String metric;
+        public final double baseline;
+        public final double current;
+        public final boolean regression;
+
+        Delta(String run, String metric, double baseline, double current, boolean regression) {
+            this.run = run;
+            this.metric = metric;
+            this.baseline = baseline;
+            this.current = current;
+            this.regression = regression;
+        }
+
+        public double changePercent() {
+            return baseline != 0 ? (current - baseline) * 100.0 / baseline : 0.0;
+        }
+    }
+
+    private final double thresholdPercent;
+    private final List<Delta> deltas = new ArrayList<>();
+    private final List<String> missing = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private BaselineComparison(double thresholdPercent) {
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    public static BaselineComparison compare(Path currentDir, Path baselineDir, double thresholdPercent) throws IOException {
+        BaselineComparison comparison = new BaselineComparison(thresholdPercent);
+        List<Path> runs = runs(currentDir);
+        for (Path base : runs(baselineDir)) {
+            if (!Files.exists(currentDir.resolve(base.getFileName()))) {
+                comparison.errors.add(base.getFileName() + ": in the baseline, but no current result");
+            }
+        }
+        for (Path run : runs) {
+            Path base = baselineDir.resolve(run.getFileName());
+            if (!Files.exists(base)) {
+                comparison.missing.add(run.getFileName().toString());
+                continue;
+            }
+            comparison.compareRun(run.getFileName().toString().replace(".json", ""),
+                    Files.readString(run), Files.readString(base));
+        }
+        return comparison;
+    }
+
+    private static List<Path> runs(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().matches(".+_c[0-9]+\\.json")).sorted().toList();
+        }
+    }
+
+    void compareRun(String run, String current, String baseline) {
+        double limit = thresholdPercent / 100.0;
+        compareMetric(run, "throughput", THROUGHPUT, current, baseline, (now, base) -> now < base * (1 - limit));
+        compareMetric(run, "p99Ms", LATENCY_P99, current, baseline, (now, base) -> now > base * (1 + limit));
+        compareMetric(run, "bytesPerRequest", ALLOCATION, current, baseline, (now, base) -> now > base * (1 + limit));
+        // success rate is already a percentage: compare in points, not relative change
+        compareMetric(run, "successRate", SUCCESS_RATE, current, baseline, (now, base) -> now < base - thresholdPercent);
+    }
+
+    private void compareMetric(String run, String metric, Pattern pattern, String current, String baseline,
+                               Worse worse) {
+        Matcher now = pattern.matcher(current);
+        Matcher base = pattern.matcher(baseline);
+        boolean inCurrent = now.find();
+        boolean inBaseline = base.find();
+        if (!inCurrent || !inBaseline) {
+            errors.add(run + ": no " + metric + " in the " + (inCurrent ? "baseline" : "current result"));
+            return;
+        }
+        double value = Double.parseDouble(now.group(1));
+        double baseValue = Double.parseDouble(base.group(1));
+        deltas.add(new Delta(run, metric, baseValue, value, worse.test(value, baseValue)));
+    }
+
+    public List<Delta> getDeltas() {
+        return deltas;
+    }
+
+    public boolean hasRegressions() {
+        return deltas.stream().anyMatch(d -> d.regression);
+    }
+
+    /**
+     * a metric or a run that should have been compared and couldn't be.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Baseline comparison (threshold %.1f%%)%n", thresholdPercent));
+        out.append(String.format("  %-14s %-16s %12s %12s %9s%n", "run", "metric", "baseline", "current", "change"));
+        for (Delta delta : deltas) {
+            out.append(String.format("  %-14s %-16s %12.2f %12.2f %+8.1f%%%s%n",
+                    delta.run, delta.metric, delta.baseline, delta.current, delta.changePercent(),
+                    delta.regression ? "  REGRESSION" : ""));
+        }
+        for (String run : missing) {
+            out.append("  ").append(run).append(": no baseline\n");
+        }
+        for (String error : errors) {
+            out.append("  ERROR ").append(error).append('\n');
+        }
+        long regressions = deltas.stream().filter(d -> d.regression).count();
+        out.append(regressions == 0 ? "No regressions" : regressions + " regression(s)");
+        if (!errors.isEmpty()) {
+            out.append(", ").append(errors.size()).append(" error(s)");
+        }
+        return out.toString();
+    }
+
+    // whether current is worse than baseline by more than the threshold
+    private interface Worse {
+        boolean test(double current, double baseline);
+    }
+}
@@ -0,0 +1,287 @@
+package com.httpforge.loadgen;
+
+import com.httpforge.Main;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.server.ServerStrategy;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * runs every server strategy in-process, one after the other, each on an ephemeral port,
+ * against a matrix of concurrency levels. each (strategy, concurrency) pair writes one JSON
+ * file, plus an index.json listing them, which is what the web dashboard loads.
+ *
+ * CPU, allocation and GC figures are for the whole JVM, so they include the load generator.
+ * it does the same work for every strategy, so comparisons stay fair, but absolute numbers
+ * are higher than the server alone would show.
+ *
+ * usage: java -cp httpforge.jar com.httpforge.loadgen.ComparisonHarness
+ *          [--servers single,thread,pool] [--concurrency 1,10,50,100,200] [--duration 5s]
+ *          [--warmup 1s] [--path /hello] [--out web/public/data/runs]
+ *          [--baseline dir] [--threshold 10]
+ *        java -cp httpforge.jar com.httpforge.loadgen.ComparisonHarness --compare dir --baseline dir
+ */
+public class ComparisonHarness {
+    private static final long SERVER_START_TIMEOUT_MS = 5000;
+
+    private List<String> servers = List.of("single", "thread", "pool");
+    private List<Integer> concurrencyLevels = List.of(1, 10, 50, 100, 200);
+    private long durationMs = 5000;
+    private long warmupMs = 1000;
+    private String path = "/hello";
+    private Path outputDir = Path.of("web/public/data/runs");
+
+    ComparisonHarness() {
+    }
+
+    ComparisonHarness(List<String> servers, List<Integer> concurrencyLevels, long durationMs, long warmupMs,
+                      String path, Path outputDir) {
+        this.servers = servers;
+        this.concurrencyLevels = concurrencyLevels;
+        this.durationMs = durationMs;
+        this.warmupMs = warmupMs;
+        this.path = path;
+        this.outputDir = outputDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // the per-request stdout line would dominate the numbers
+        if (System.getProperty("httpforge.accessLog") == null) {
+            System.setProperty("httpforge.accessLog", "false");
+        }
+
+        ComparisonHarness harness = new ComparisonHarness();
+        Path baseline = null;
+        Path compareOnly = null;
+        double threshold = 10.0;
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + flag);
+                System.exit(1);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--servers": harness.servers = List.of(value.split(",")); break;
+                case "--concurrency": harness.concurrencyLevels = parseInts(value); break;
+                case "--duration": harness.durationMs = LoadConfig.parseDuration(value); break;
+                case "--warmup": harness.warmupMs = LoadConfig.parseDuration(value); break;
+                case "--path": harness.path = value; break;
+                case "--out": harness.outputDir = Path.of(value); break;
+                case "--baseline": baseline = Path.of(value); break;
+                case "--compare": compareOnly = Path.of(value); break;
+                case "--threshold": threshold = Double.parseDouble(value); break;
+                default:
+                    System.err.println("Unknown flag: " + flag);
+                    System.exit(1);
+            }
+        }
+
+        Path results = compareOnly;
+        if (results == null) {
+            harness.runAll();
+            results = harness.outputDir;
+        }
+        if (baseline != null) {
+            BaselineComparison comparison = BaselineComparison.compare(results, baseline, threshold);
+            System.out.println(comparison.report());
+            if (comparison.hasErrors()) {
+                System.exit(1);
+            }
+            if (comparison.hasRegressions()) {
+                System.exit(2);
+            }
+        }
+    }
+
+    private static List<Integer> parseInts(String value) {
+        List<Integer> ints = new ArrayList<>();
+        for (String part : value.split(",")) {
+            ints.add(Integer.parseInt(part.trim()));
+        }
+        return ints;
+    }
+
+    /**
+     * runs the whole matrix and writes the result files plus index.json.
+     */
+    public List<Path> runAll() throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+        List<Path> written = new ArrayList<>();
+        for (String server : servers) {
+            for (int concurrency : concurrencyLevels) {
+                String json = runOne(server, concurrency);
+                Path file = outputDir.resolve(fileName(server, concurrency));
+                Files.writeString(file, json + "\n");
+                written.add(file);
+            }
+        }
+        writeIndex(written);
+        System.out.println("Results written to " + outputDir);
+        return written;
+    }
+
+    static String fileName(String server, int concurrency) {
+        return server + "_c" + concurrency + ".json";
+    }
+
+    /**
+     * starts a fresh server, loads it, stops it, and returns the result as JSON.
+     */
+    String runOne(String serverType, int concurrency) throws IOException, InterruptedException {
+        ServerStrategy server = Main.createServer(serverType, 0, Main.createRouter());
+        if (server == null) {
+            throw new IllegalArgumentException("Unknown server type: " + serverType);
+        }
+        Metrics.getInstance().reset();
+
+        Thread serverThread = startServer(server);
+        try {
+            LoadConfig config = LoadConfig.builder()
+                    .host("localhost")
+                    .port(server.getLocalPort())
+                    .path(path)
+                    .connections(concurrency)
+                    .durationMs(durationMs)
+                    .warmupMs(warmupMs)
+                    .build();
+
+            System.out.printf("%-8s c=%-5d ", serverType, concurrency);
+            LoadGenerator generator = new LoadGenerator(config);
+            // resource counters are read around the whole run; warmup is scaled out below
+            ResourceUsage before = ResourceUsage.now();
+            LoadResult result = generator.run();
+            ResourceUsage used = ResourceUsage.now().minus(before);
+
+            System.out.printf("%10.2f req/s  p50 %8.2fms  p99 %8.2fms  errors %d%n",
+                    result.getThroughput(),
+                    result.getServiceTime().getValueAtPercentile(50) / 1000.0,
+                    result.getLatency().getValueAtPercentile(99) / 1000.0,
+                    result.getErrorCount());
+            return toJson(serverType, server.getName(), concurrency, result, used);
+        } finally {
+            server.stop();
+            serverThread.join(SERVER_START_TIMEOUT_MS);
+        }
+    }
+
+    private static Thread startServer(ServerStrategy server) throws IOException, InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Server failed: " + e.getMessage());
+            }
+        }, "harness-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while (server.getLocalPort() <= 0) {
+            if (!thread.isAlive() || System.currentTimeMillis() > deadline) {
+                server.stop();
+                throw new IOException("Server did not start: " + server.getName());
+            }
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+
+    private String toJson(String serverType, String serverName, int concurrency, LoadResult result, ResourceUsage used) {
+        long total = result.getCompleted() + result.getErrorCount();
+        double successRate = total > 0 ? result.getCompleted() * 100.0 / total : 0.0;
+        long wallNanos = (durationMs + warmupMs) * 1_000_000L;
+        int cores = Runtime.getRuntime().availableProcessors();
+        // allocation is counted over warmup too; scale it to requests sent over the same window
+        double requestsIncludingWarmup = result.getCompleted() * (double) (durationMs + warmupMs) / durationMs;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"strategy\": \"").append(serverType).append("\",\n");
+        json.append("  \"server\": \"").append(serverName).append("\",\n");
+        json.append("  \"concurrency\": ").append(concurrency).append(",\n");
+        json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"cores\": ").append(cores).append(",\n");
+        json.append("  \"successRate\": ").append(format(successRate)).append(",\n");
+        json.append("  \"cpuMs\": ").append(used.cpuNanos / 1_000_000).append(",\n");
+        json.append("  \"cpuUtilization\": ").append(format(used.cpuNanos * 100.0 / wallNanos / cores)).append(",\n");
+        json.append("  \"allocatedBytes\": ").append(used.allocatedBytes).append(",\n");
+        json.append("  \"allocatedBytesPerRequest\": ").append(requestsIncludingWarmup > 0
+                ? Math.round(used.allocatedBytes / requestsIncludingWarmup) : 0).append(",\n");
+        json.append("  \"gcCount\": ").append(used.gcCount).append(",\n");
+        json.append("  \"gcTimeMs\": ").append(used.gcTimeMs).append(",\n");
+        json.append("  \"load\": ").append(result.toJson().replace("\n", "\n  ")).append("\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    private void writeIndex(List<Path> files) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"generatedAt\": ").append(System.currentTimeMillis()).append(",\n");
+        json.append("  \"runs\": [");
+        for (int i = 0; i < files.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append('"').append(files.get(i).getFileName()).append('"');
+        }
+        json.append("]\n}\n");
+        Files.writeString(outputDir.resolve("index.json"), json.toString());
+    }
+
+    // a JSON number whatever the default locale, which may write a decimal comma
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * process-wide CPU, allocation and GC counters at one point in time.
+     */
+    private static final class ResourceUsage {
+        final long cpuNanos;
+        final long allocatedBytes;
+        final long gcCount;
+        final long gcTimeMs;
+
+        private ResourceUsage(long cpuNanos, long allocatedBytes, long gcCount, long gcTimeMs) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+        }
+
+        static ResourceUsage now() {
+            long cpu = 0;
+            if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+                cpu = Math.max(0, os.getProcessCpuTime());
+            }
+            long allocated = 0;
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported()) {
+                allocated = Math.max(0, threads.getTotalThreadAllocatedBytes());
+            }
+            long gcCount = 0;
+            long gcTime = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcTime += Math.max(0, gc.getCollectionTime());
+            }
+            return new ResourceUsage(cpu, allocated, gcCount, gcTime);
+        }
+
+        ResourceUsage minus(ResourceUsage earlier) {
+            return new ResourceUsage(
+                    cpuNanos - earlier.cpuNanos,
+                    // cumulative since JVM start, including threads that already exited
+                    allocatedBytes - earlier.allocatedBytes,
+                    gcCount - earlier.gcCount,
+                    gcTimeMs - earlier.gcTimeMs);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.httpforge.loadgen;
+
+import java.net.URI;
+
+/**
+ * what to send, how hard and for how long.
+ */
+public class LoadConfig {
+
+    public enum Mode {
+        CLOSED, // each connection sends its next request when the previous one completes (like hey/ab)
+        OPEN    // requests are scheduled at a constant arrival rate, whether or not the server keeps up
+    }
+
+    private final String host;
+    private final int port;
+    private final String path;
+    private final String method;
+    private final String body;
+    private final Mode mode;
+    private final int connections;
+    private final double rate;
+    private final long durationMs;
+    private final long warmupMs;
+    private final long maxRequests;
+    private final boolean keepAlive;
+    private final int pipelineDepth;
+    private final int timeoutMs;
+
+    private LoadConfig(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.path = builder.path;
+        this.method = builder.method;
+        this.body = builder.body;
+        this.mode = builder.mode;
+        this.connections = builder.connections;
+        this.rate = builder.rate;
+        this.durationMs = builder.durationMs;
+        this.warmupMs = builder.warmupMs;
+        this.maxRequests = builder.maxRequests;
+        this.keepAlive = builder.keepAlive;
+        this.pipelineDepth = builder.pipelineDepth;
+        this.timeoutMs = builder.timeoutMs;
+    }
+
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public String getPath() { return path; }
+    public String getMethod() { return method; }
+    public String getBody() { return body; }
+    public Mode getMode() { return mode; }
+    public int getConnections() { return connections; }
+    public double getRate() { return rate; }
+    public long getDurationMs() { return durationMs; }
+    public long getWarmupMs() { return warmupMs; }
+    public long getMaxRequests() { return maxRequests; }
+    public boolean isKeepAlive() { return keepAlive; }
+    public int getPipelineDepth() { return pipelineDepth; }
+    public int getTimeoutMs() { return timeoutMs; }
+
+    public String getTarget() {
+        return "http://" + host + ":" + port + path;
+    }
+
+    /**
+     * expected gap between two requests on one connection when a rate is set, 0 otherwise.
+     * this is what the coordinated omission correction back-fills against.
+     */
+    public long expectedIntervalNanos() {
+        return rate > 0 ? (long) (1_000_000_000L * connections / rate) : 0;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * parses command line flags, e.g.
+     * --url http://localhost:8080/hello --mode open --rate 2000 --connections 50 --duration 30s
+     */
+    public static LoadConfig fromArgs(String[] args) {
+        Builder builder = builder();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--url": builder.url(value); break;
+                case "--method": builder.method(value); break;
+                case "--body": builder.body(value); break;
+                case "--mode": builder.mode(Mode.valueOf(value.toUpperCase())); break;
+                case "--connections": case "-c": builder.connections(Integer.parseInt(value)); break;
+                case "--rate": case "-R": builder.rate(Double.parseDouble(value)); break;
+                case "--duration": case "-d": builder.durationMs(parseDuration(value)); break;
+                case "--warmup": builder.warmupMs(parseDuration(value)); break;
+                case "--requests": case "-n": builder.maxRequests(Long.parseLong(value)); break;
+                case "--keepalive": builder.keepAlive(Boolean.parseBoolean(value)); break;
+                case "--pipeline": builder.pipelineDepth(Integer.parseInt(value)); break;
+                case "--timeout": builder.timeoutMs((int) parseDuration(value)); break;
+                default: throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
+        }
+        return builder.build();
+    }
+
+    // "500ms", "30s", "2m" or plain milliseconds
+    static long parseDuration(String value) {
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2));
+        }
+        if (value.endsWith("s")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+        }
+        if (value.endsWith("m")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 60_000;
+        }
+        return Long.parseLong(value);
+    }
+
+    public static class Builder {
+        private String host = "localhost";
+        private int port = 8080;
+        private String path = "/hello";
+        private String method = "GET";
+        private String body = "";
+        private Mode mode = Mode.CLOSED;
+        private int connections = 10;
+        private double rate = 0;
+        private long durationMs = 10_000;
+        private long warmupMs = 0;
+        private long maxRequests = 0;
+        private boolean keepAlive = true;
+        private int pipelineDepth = 1;
+        private int timeoutMs = 10_000;
+
+        public Builder url(String url) {
+            URI uri = URI.create(url);
+            if (!"http".equals(uri.getScheme())) {
+                throw new IllegalArgumentException("Only http:// URLs are supported: " + url);
+            }
+            this.host = uri.getHost();
+            this.port = uri.getPort() == -1 ? 80 : uri.getPort();
+            String rawPath = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            this.path = uri.getRawQuery() == null ? rawPath : rawPath + "?" + uri.getRawQuery();
+            return this;
+        }
+
+        public Builder host(String host) { this.host = host; return this; }
+        public Builder port(int port) { this.port = port; return this; }
+        public Builder path(String path) { this.path = path; return this; }
+        public Builder method(String method) { this.method = method.toUpperCase(); return this; }
+        public Builder body(String body) { this.body = body != null ? body : ""; return this; }
+        public Builder mode(Mode mode) { this.mode = mode; return this; }
+        public Builder connections(int connections) { this.connections = connections; return this; }
+        public Builder rate(double requestsPerSecond) { this.rate = requestsPerSecond; return this; }
+        public Builder durationMs(long durationMs) { this.durationMs = durationMs; return this; }
+        public Builder warmupMs(long warmupMs) { this.warmupMs = warmupMs; return this; }
+        public Builder maxRequests(long maxRequests) { this.maxRequests = maxRequests; return this; }
+        public Builder keepAlive(boolean keepAlive) { this.keepAlive = keepAlive; return this; }
+        public Builder pipelineDepth(int depth) { this.pipelineDepth = depth; return this; }
+        public Builder timeoutMs(int timeoutMs) { this.timeoutMs = timeoutMs; return this; }
+
+        public LoadConfig build() {
+            if (connections <= 0) {
+                throw new IllegalArgumentException("Connections must be positive");
+            }
+            if (mode == Mode.OPEN && rate <= 0) {
+                throw new IllegalArgumentException("Open-loop mode needs a --rate");
+            }
+            if (pipelineDepth <= 0) {
+                throw new IllegalArgumentException("Pipeline depth must be positive");
+            }
+            if (!keepAlive && pipelineDepth > 1) {
+                throw new IllegalArgumentException("Pipelining needs keep-alive connections");
+            }
+            if (durationMs <= 0 && maxRequests <= 0) {
+                throw new IllegalArgumentException("Set a duration or a request count");
+            }
+            return new LoadConfig(this);
+        }
+    }
+}
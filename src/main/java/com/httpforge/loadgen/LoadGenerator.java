@@ -0,0 +1,355 @@
+package com.httpforge.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * in-JVM HTTP/1.1 load generator, so benchmarks don't depend on hey/wrk being installed.
+ *
+ * every connection is a virtual thread (two when pipelining: one writes, one reads). in
+ * closed-loop mode a connection sends its next request when the previous response is in;
+ * in open-loop mode each connection follows a fixed send schedule and latency is measured
+ * from the scheduled time, so a server stall shows up in the numbers instead of quietly
+ * slowing the generator down (coordinated omission).
+ *
+ * usage: java -cp httpforge.jar com.httpforge.loadgen.LoadGenerator --url http://localhost:8080/hello
+ *          [--mode closed|open] [--rate 2000] [-c 50] [-d 30s] [-n 10000] [--warmup 5s]
+ *          [--keepalive true|false] [--pipeline 1] [--timeout 10s] [--method GET] [--body ...]
+ *          [--out result.json] [--json]
+ */
+public class LoadGenerator {
+    private static final long RECONNECT_BACKOFF_MS = 10;
+
+    private final LoadConfig config;
+    private final byte[] request;
+    private final LoadResult result;
+    private final AtomicLong issued = new AtomicLong();
+
+    private volatile boolean stopped;
+    private long measureFromNanos;
+    private long deadlineNanos;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.request = buildRequest(config);
+        this.result = new LoadResult(config);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> flags = new ArrayList<>();
+        Path out = null;
+        boolean json = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--out") && i + 1 < args.length) {
+                out = Path.of(args[++i]);
+            } else if (args[i].equals("--json")) {
+                json = true;
+            } else {
+                flags.add(args[i]);
+            }
+        }
+
+        LoadConfig config;
+        try {
+            config = LoadConfig.fromArgs(flags.toArray(new String[0]));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator --url http://host:port/path [--mode closed|open] [--rate N]"
+                    + " [-c N] [-d 30s] [-n N] [--warmup 5s] [--keepalive true|false] [--pipeline N]"
+                    + " [--timeout 10s] [--method GET] [--body text] [--out file] [--json]");
+            System.exit(1);
+            return;
+        }
+
+        LoadResult result = new LoadGenerator(config).run();
+        if (out != null) {
+            Files.writeString(out, result.toJson() + "\n");
+        }
+        System.out.println(json ? result.toJson() : result.toSummary());
+    }
+
+    /**
+     * runs until the duration is up or the request count is reached, then returns the results.
+     */
+    public LoadResult run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureFromNanos = start + TimeUnit.MILLISECONDS.toNanos(config.getWarmupMs());
+        deadlineNanos = config.getDurationMs() > 0
+                ? measureFromNanos + TimeUnit.MILLISECONDS.toNanos(config.getDurationMs())
+                : Long.MAX_VALUE;
+
+        long interval = config.expectedIntervalNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.getConnections(); i++) {
+                // stagger the schedules so connections don't all fire on the same tick
+                long firstSend = start + (interval * i) / config.getConnections();
+                executor.execute(() -> runConnection(new Schedule(firstSend, interval)));
+            }
+        }
+        result.setElapsedNanos(System.nanoTime() - Math.min(measureFromNanos, System.nanoTime()));
+        return result;
+    }
+
+    /**
+     * stops a running generator early; in-flight requests are still read.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private boolean running() {
+        return !stopped && System.nanoTime() < deadlineNanos;
+    }
+
+    // maxRequests counts only measured requests, warmup is free
+    private boolean claim(long intendedNanos) {
+        if (config.getMaxRequests() <= 0 || intendedNanos < measureFromNanos) {
+            return true;
+        }
+        if (issued.incrementAndGet() > config.getMaxRequests()) {
+            stopped = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void runConnection(Schedule schedule) {
+        try {
+            connectLoop(schedule);
+        } finally {
+            if (config.getMode() == LoadConfig.Mode.OPEN) {
+                result.recordMissed(schedule.missedUntil(Math.min(deadlineNanos, System.nanoTime())));
+            }
+        }
+    }
+
+    private void connectLoop(Schedule schedule) {
+        while (running()) {
+            try (Socket socket = new Socket()) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(config.getTimeoutMs());
+                socket.connect(new InetSocketAddress(config.getHost(), config.getPort()), config.getTimeoutMs());
+                result.recordConnect();
+                if (config.getPipelineDepth() == 1) {
+                    runSequential(socket, schedule);
+                } else {
+                    runPipelined(socket, schedule);
+                }
+            } catch (ConnectException e) {
+                recordError("connect");
+                backoff();
+            } catch (SocketTimeoutException e) {
+                recordError("timeout");
+            } catch (IOException e) {
+                recordError("io");
+                backoff();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * one request at a time. returns when the server wants the connection closed.
+     */
+    private void runSequential(Socket socket, Schedule schedule) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        ResponseReader reader = new ResponseReader(new BufferedInputStream(socket.getInputStream()));
+        while (running()) {
+            long intended = schedule.next();
+            if (!running() || !claim(intended)) {
+                return;
+            }
+            long sent = System.nanoTime();
+            out.write(request);
+            out.flush();
+            reader.next();
+            record(reader, intended, sent, System.nanoTime());
+            if (reader.isCloseAfter() || !config.isKeepAlive()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * up to pipelineDepth requests in flight: this thread writes, a second one reads and
+     * matches responses to send times in order.
+     */
+    private void runPipelined(Socket socket, Schedule schedule) throws IOException, InterruptedException {
+        OutputStream out = socket.getOutputStream();
+        ResponseReader reader = new ResponseReader(new BufferedInputStream(socket.getInputStream()));
+        Semaphore window = new Semaphore(config.getPipelineDepth());
+        BlockingQueue<long[]> inFlight = new ArrayBlockingQueue<>(config.getPipelineDepth());
+        boolean[] writerDone = new boolean[1];
+        IOException[] readError = new IOException[1];
+
+        Thread readerThread = Thread.ofVirtual().name("loadgen-reader").start(() -> {
+            try {
+                while (true) {
+                    long[] times = inFlight.poll(10, TimeUnit.MILLISECONDS);
+                    if (times == null) {
+                        synchronized (writerDone) {
+                            if (writerDone[0] && inFlight.isEmpty()) {
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                    reader.next();
+                    record(reader, times[0], times[1], System.nanoTime());
+                    window.release();
+                    if (reader.isCloseAfter()) {
+                        throw new IOException("Server closed a pipelined connection");
+                    }
+                }
+            } catch (IOException e) {
+                readError[0] = e;
+                closeQuietly(socket);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            while (running() && readerThread.isAlive()) {
+                long intended = schedule.next();
+                if (!running() || !claim(intended)) {
+                    break;
+                }
+                while (!window.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    if (!readerThread.isAlive()) {
+                        break;
+                    }
+                }
+                if (!readerThread.isAlive()) {
+                    break;
+                }
+                long sent = System.nanoTime();
+                out.write(request);
+                out.flush();
+                inFlight.put(new long[] {intended, sent});
+            }
+        } catch (IOException e) {
+            if (readError[0] == null) {
+                throw e;
+            }
+        } finally {
+            synchronized (writerDone) {
+                writerDone[0] = true;
+            }
+            readerThread.join();
+        }
+        if (readError[0] != null) {
+            throw readError[0];
+        }
+    }
+
+    private void record(ResponseReader reader, long intended, long sent, long done) {
+        if (intended >= measureFromNanos) {
+            result.recordResponse(reader.getStatus(), reader.getBytes(), intended, sent, done);
+        }
+    }
+
+    private void recordError(String type) {
+        if (System.nanoTime() >= measureFromNanos) {
+            result.recordError(type);
+        }
+    }
+
+    private void backoff() {
+        if (running()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RECONNECT_BACKOFF_MS));
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already failing
+        }
+    }
+
+    static byte[] buildRequest(LoadConfig config) {
+        byte[] body = config.getBody().getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder();
+        head.append(config.getMethod()).append(' ').append(config.getPath()).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(config.getHost()).append(':').append(config.getPort()).append("\r\n");
+        head.append("User-Agent: httpforge-loadgen\r\n");
+        // spelled out either way: the server only keeps a connection open when asked to
+        head.append("Connection: ").append(config.isKeepAlive() ? "keep-alive" : "close").append("\r\n");
+        if (body.length > 0) {
+            head.append("Content-Type: text/plain\r\n");
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] request = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+    /**
+     * when the next request on a connection is due. without a rate every request is due
+     * immediately; with one, open loop keeps the original schedule even when it falls behind
+     * (the backlog is the point), closed loop just paces and never catches up.
+     */
+    private final class Schedule {
+        private final long interval;
+        private long nextSend;
+
+        Schedule(long firstSend, long interval) {
+            this.nextSend = firstSend;
+            this.interval = interval;
+        }
+
+        long next() {
+            long now = System.nanoTime();
+            if (interval <= 0) {
+                return now;
+            }
+            if (config.getMode() == LoadConfig.Mode.CLOSED && nextSend < now) {
+                nextSend = now;
+            }
+            long intended = nextSend;
+            nextSend += interval;
+            while ((now = System.nanoTime()) < intended && !stopped) {
+                LockSupport.parkNanos(intended - now);
+            }
+            return intended;
+        }
+
+        /**
+         * scheduled sends between the next one and {@code end} that never went out, e.g.
+         * because the connection sat in the server's accept queue the whole run.
+         */
+        long missedUntil(long end) {
+            long from = Math.max(nextSend, measureFromNanos);
+            if (interval <= 0 || end <= from) {
+                return 0;
+            }
+            return (end - from + interval - 1) / interval;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.httpforge.loadgen;
+
+import com.httpforge.metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * what a load run measured. latencies are microseconds.
+ *
+ * two histograms are kept: {@code serviceTime} is measured from when a request was actually
+ * written, {@code latency} from when it should have been sent. in open-loop mode the second
+ * one is the honest number - a stalled server delays the sends behind it, and that delay is
+ * part of what a real user would see. in closed-loop mode there is no schedule, so the
+ * corrected numbers are back-filled from the expected interval instead (coordinated omission).
+ */
+public class LoadResult {
+    private final LoadConfig config;
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private volatile long elapsedNanos;
+
+    LoadResult(LoadConfig config) {
+        this.config = config;
+    }
+
+    void recordResponse(int status, long bytes, long intendedNanos, long sentNanos, long doneNanos) {
+        completed.increment();
+        bytesRead.add(bytes);
+        statusCodes.computeIfAbsent(status, s -> new LongAdder()).increment();
+        serviceTime.record(Math.max(0, (doneNanos - sentNanos) / 1000));
+        latency.record(Math.max(0, (doneNanos - intendedNanos) / 1000));
+    }
+
+    void recordError(String type) {
+        errors.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+
+    void recordConnect() {
+        connects.increment();
+    }
+
+    void recordMissed(long count) {
+        missed.add(count);
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public LoadConfig getConfig() {
+        return config;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    /**
+     * open loop only: scheduled requests that were never sent because their connection was
+     * still stuck on an earlier one when the run ended. not in the histograms - a non-zero
+     * value means the latency numbers are a lower bound.
+     */
+    public long getMissed() {
+        return missed.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public Map<String, Long> getErrors() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        errors.forEach((type, count) -> snapshot.put(type, count.sum()));
+        return snapshot;
+    }
+
+    public Map<Integer, Long> getStatusCodes() {
+        Map<Integer, Long> snapshot = new TreeMap<>();
+        statusCodes.forEach((status, count) -> snapshot.put(status, count.sum()));
+        return snapshot;
+    }
+
+    public double getThroughput() {
+        return elapsedNanos > 0 ? completed.sum() * 1_000_000_000.0 / elapsedNanos : 0.0;
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * latency corrected for coordinated omission.
+     */
+    public LatencyHistogram getLatency() {
+        if (config.getMode() == LoadConfig.Mode.OPEN) {
+            return latency;
+        }
+        // closed loop: without a target rate, assume the connection would have kept its
+        // median pace had the server not stalled
+        long expectedMicros = config.expectedIntervalNanos() / 1000;
+        if (expectedMicros <= 0) {
+            expectedMicros = serviceTime.getValueAtPercentile(50);
+        }
+        return expectedMicros > 0 ? serviceTime.copyCorrectedForCoordinatedOmission(expectedMicros) : serviceTime;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"tool\": \"httpforge-loadgen\",\n");
+        json.append("  \"target\": \"").append(config.getTarget()).append("\",\n");
+        json.append("  \"method\": \"").append(config.getMethod()).append("\",\n");
+        json.append("  \"mode\": \"").append(config.getMode().name().toLowerCase()).append("\",\n");
+        json.append("  \"connections\": ").append(config.getConnections()).append(",\n");
+        json.append("  \"rate\": ").append(format(config.getRate())).append(",\n");
+        json.append("  \"keepAlive\": ").append(config.isKeepAlive()).append(",\n");
+        json.append("  \"pipelineDepth\": ").append(config.getPipelineDepth()).append(",\n");
+        json.append("  \"durationMs\": ").append(elapsedNanos / 1_000_000).append(",\n");
+        json.append("  \"requests\": ").append(getCompleted()).append(",\n");
+        json.append("  \"missed\": ").append(getMissed()).append(",\n");
+        json.append("  \"connects\": ").append(getConnects()).append(",\n");
+        json.append("  \"bytesRead\": ").append(bytesRead.sum()).append(",\n");
+        json.append("  \"throughput\": ").append(format(getThroughput())).append(",\n");
+        json.append("  \"errors\": {");
+        appendCounts(json, getErrors());
+        json.append("},\n");
+        json.append("  \"statusCodes\": {");
+        appendCounts(json, getStatusCodes());
+        json.append("},\n");
+        json.append("  \"serviceTimeMs\": ");
+        appendPercentiles(json, serviceTime);
+        json.append(",\n");
+        json.append("  \"latencyMs\": ");
+        appendPercentiles(json, getLatency());
+        json.append("\n}");
+        return json.toString();
+    }
+
+    /**
+     * one-screen summary for humans.
+     */
+    public String toSummary() {
+        LatencyHistogram corrected = getLatency();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%s %s, %s loop, %d connections%s%n",
+                config.getMethod(), config.getTarget(), config.getMode().name().toLowerCase(),
+                config.getConnections(),
+                config.getRate() > 0 ? String.format(", target %.0f req/s", config.getRate()) : ""));
+        out.append(String.format("  requests:   %d in %.2fs (%.2f req/s), %d errors%n",
+                getCompleted(), elapsedNanos / 1e9, getThroughput(), getErrorCount()));
+        if (getMissed() > 0) {
+            out.append(String.format("  missed:     %d scheduled requests never sent (server not keeping up)%n",
+                    getMissed()));
+        }
+        out.append(String.format("  %-10s %10s %10s%n", "", "service", "corrected"));
+        for (double p : new double[] {50, 90, 99, 99.9, 100}) {
+            out.append(String.format("  %-10s %8.2fms %8.2fms%n",
+                    p == 100 ? "max" : "p" + (p == (long) p ? String.valueOf((long) p) : String.valueOf(p)),
+                    serviceTime.getValueAtPercentile(p) / 1000.0,
+                    corrected.getValueAtPercentile(p) / 1000.0));
+        }
+        out.append("  status codes: ").append(getStatusCodes());
+        if (!errors.isEmpty()) {
+            out.append("\n  errors: ").append(getErrors());
+        }
+        return out.toString();
+    }
+
+    private static void appendCounts(StringBuilder json, Map<?, Long> counts) {
+        boolean first = true;
+        for (Map.Entry<?, Long> entry : counts.entrySet()) {
+            json.append(first ? "" : ", ");
+            json.append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+    }
+
+    private static void appendPercentiles(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\": ").append(histogram.getCount());
+        json.append(", \"mean\": ").append(format(histogram.getMean() / 1000.0));
+        json.append(", \"p50\": ").append(millis(histogram, 50));
+        json.append(", \"p75\": ").append(millis(histogram, 75));
+        json.append(", \"p90\": ").append(millis(histogram, 90));
+        json.append(", \"p95\": ").append(millis(histogram, 95));
+        json.append(", \"p99\": ").append(millis(histogram, 99));
+        json.append(", \"p999\": ").append(millis(histogram, 99.9));
+        json.append(", \"p9999\": ").append(millis(histogram, 99.99));
+        json.append(", \"max\": ").append(format(histogram.getMax() / 1000.0));
+        json.append('}');
+    }
+
+    private static String millis(LatencyHistogram histogram, double percentile) {
+        return format(histogram.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
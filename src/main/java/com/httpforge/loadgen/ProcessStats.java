@@ -0,0 +1,49 @@
+package com.httpforge.loadgen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * RSS, thread count and open file descriptors of a process, read from /proc.
+ * works for the current JVM or any other pid we can see; every value is -1 off Linux
+ * or when the process is gone.
+ */
+final class ProcessStats {
+    final long rssBytes;
+    final int threads;
+    final int fds;
+
+    private ProcessStats(long rssBytes, int threads, int fds) {
+        this.rssBytes = rssBytes;
+        this.threads = threads;
+        this.fds = fds;
+    }
+
+    static ProcessStats of(long pid) {
+        Path proc = Path.of("/proc", String.valueOf(pid));
+        long rss = -1;
+        int threads = -1;
+        try {
+            for (String line : Files.readAllLines(proc.resolve("status"))) {
+                // "VmRSS:    123456 kB", "Threads:  42"
+                if (line.startsWith("VmRSS:")) {
+                    rss = Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                } else if (line.startsWith("Threads:")) {
+                    threads = Integer.parseInt(line.substring(8).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return new ProcessStats(-1, -1, -1);
+        }
+
+        int fds = -1;
+        try (Stream<Path> entries = Files.list(proc.resolve("fd"))) {
+            fds = (int) entries.count();
+        } catch (IOException e) {
+            // not our process, or it just exited
+        }
+        return new ProcessStats(rss, threads, fds);
+    }
+}
@@ -0,0 +1,134 @@
+package com.httpforge.loadgen;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * just enough of an HTTP/1.1 response parser to find where each response ends:
+ * status code, Content-Length or chunked body, and whether the server is closing.
+ * the body is skipped, not kept - we only care about timing and byte counts.
+ */
+class ResponseReader {
+    private final InputStream in;
+    private final byte[] line = new byte[8192];
+
+    private int status;
+    private long bytes;
+    private boolean closeAfter;
+
+    ResponseReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * reads one full response off the stream.
+     */
+    void next() throws IOException {
+        bytes = 0;
+        closeAfter = false;
+
+        String statusLine = readLine();
+        // "HTTP/1.1 200 OK"
+        if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/1.")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        status = Integer.parseInt(statusLine.substring(9, 12));
+
+        long contentLength = -1;
+        boolean chunked = false;
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                chunked = true;
+            } else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+                closeAfter = true;
+            }
+        }
+
+        if (chunked) {
+            skipChunked();
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            // no framing: the body runs until the server closes the connection
+            skipToEof();
+            closeAfter = true;
+        }
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    boolean isCloseAfter() {
+        return closeAfter;
+    }
+
+    private void skipChunked() throws IOException {
+        while (true) {
+            String sizeLine = readLine();
+            int extension = sizeLine.indexOf(';');
+            long size = Long.parseLong(extension == -1 ? sizeLine.trim() : sizeLine.substring(0, extension).trim(), 16);
+            if (size == 0) {
+                // trailers until the empty line
+                while (!readLine().isEmpty()) {
+                    // ignore
+                }
+                return;
+            }
+            skip(size);
+            readLine(); // CRLF after the chunk
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            int n = in.read(line, 0, (int) Math.min(line.length, count));
+            if (n == -1) {
+                throw new EOFException("Connection closed mid-body");
+            }
+            count -= n;
+            bytes += n;
+        }
+    }
+
+    private void skipToEof() throws IOException {
+        int n;
+        while ((n = in.read(line)) != -1) {
+            bytes += n;
+        }
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            bytes++;
+            if (b == '\n') {
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (length == line.length) {
+                throw new IOException("Response line too long");
+            }
+            line[length++] = (byte) b;
+        }
+        throw new EOFException("Connection closed by server");
+    }
+}
@@ -0,0 +1,334 @@
+package com.httpforge.loadgen;
+
+import com.httpforge.Main;
+import com.httpforge.metrics.LatencyHistogram;
+import com.httpforge.server.ServerStrategy;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * connection-scale soak: opens thousands of keep-alive connections that sit mostly idle,
+ * plus a trickle of active traffic on a few more, and samples the server's RSS, heap,
+ * threads, open file descriptors and the active requests' latency once per interval.
+ *
+ * idle connections send one request every --idle-interval to stay inside the server's
+ * keep-alive timeout (0 = never; the server's idle expiry then shows up as closes).
+ *
+ * the server either runs in this JVM (--server pool) or is a separate process
+ * (--url http://host:port/ --pid 1234). in-process numbers include the client side:
+ * twice the file descriptors, and the heap of both. use a separate process to size nodes.
+ *
+ * usage: java -cp httpforge.jar com.httpforge.loadgen.SoakBenchmark --server pool
+ *          [--connections 10000] [--ramp 10s] [--idle-interval 4s] [--active 4] [--rate 50]
+ *          [--duration 60s] [--sample 1s] [--path /] [--out soak.json]
+ */
+public class SoakBenchmark {
+    private String serverType;
+    private String host = "localhost";
+    private int port = 8080;
+    private long pid = ProcessHandle.current().pid();
+    private String path = "/";
+    private int idleConnections = 10_000;
+    private long rampMs = 10_000;
+    private long idleIntervalMs = 4000;
+    private int activeConnections = 4;
+    private double activeRate = 50;
+    private long durationMs = 60_000;
+    private long sampleMs = 1000;
+    private int timeoutMs = 10_000;
+    private Path out;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder serverCloses = new LongAdder();
+    private final LongAdder idleRequests = new LongAdder();
+    private final LongAdder activeErrors = new LongAdder();
+    private final LatencyHistogram activeLatency = new LatencyHistogram();
+    private final List<String> samples = new ArrayList<>();
+
+    private volatile boolean running = true;
+    private byte[] request;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("httpforge.accessLog") == null) {
+            System.setProperty("httpforge.accessLog", "false");
+        }
+        SoakBenchmark soak;
+        try {
+            soak = fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        String json = soak.run();
+        if (soak.out != null) {
+            Files.writeString(soak.out, json + "\n");
+            System.out.println("Samples written to " + soak.out);
+        }
+    }
+
+    static SoakBenchmark fromArgs(String[] args) {
+        SoakBenchmark soak = new SoakBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--server": soak.serverType = value; break;
+                case "--url":
+                    URI uri = URI.create(value);
+                    soak.host = uri.getHost();
+                    soak.port = uri.getPort() == -1 ? 80 : uri.getPort();
+                    soak.path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                    break;
+                case "--pid": soak.pid = Long.parseLong(value); break;
+                case "--path": soak.path = value; break;
+                case "--connections": case "-c": soak.idleConnections = Integer.parseInt(value); break;
+                case "--ramp": soak.rampMs = LoadConfig.parseDuration(value); break;
+                case "--idle-interval": soak.idleIntervalMs = LoadConfig.parseDuration(value); break;
+                case "--active": soak.activeConnections = Integer.parseInt(value); break;
+                case "--rate": soak.activeRate = Double.parseDouble(value); break;
+                case "--duration": case "-d": soak.durationMs = LoadConfig.parseDuration(value); break;
+                case "--sample": soak.sampleMs = LoadConfig.parseDuration(value); break;
+                case "--timeout": soak.timeoutMs = (int) LoadConfig.parseDuration(value); break;
+                case "--out": soak.out = Path.of(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
+        }
+        return soak;
+    }
+
+    /**
+     * runs the soak and returns the samples as JSON.
+     */
+    public String run() throws IOException, InterruptedException {
+        ServerStrategy server = null;
+        Thread serverThread = null;
+        if (serverType != null) {
+            server = Main.createServer(serverType, 0, Main.createRouter());
+            if (server == null) {
+                throw new IllegalArgumentException("Unknown server type: " + serverType);
+            }
+            ServerStrategy started = server;
+            serverThread = new Thread(() -> {
+                try {
+                    started.start();
+                } catch (IOException e) {
+                    System.err.println("Server failed: " + e.getMessage());
+                }
+            }, "soak-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            while (server.getLocalPort() <= 0 && serverThread.isAlive()) {
+                Thread.sleep(5);
+            }
+            port = server.getLocalPort();
+        }
+        request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        System.out.printf("Soak: %d idle + %d active connections against %s:%d for %ds%n",
+                idleConnections, activeConnections, host, port, durationMs / 1000);
+        System.out.printf("%6s %7s %8s %9s %9s %7s %7s %9s %9s %7s%n",
+                "t(s)", "open", "failed", "rss(MB)", "heap(MB)", "threads", "fds", "p50(ms)", "p99(ms)", "errors");
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < activeConnections; i++) {
+                long interval = (long) (1_000_000_000L * activeConnections / activeRate);
+                long first = start + interval * i / activeConnections;
+                clients.execute(() -> runActive(first, interval, end));
+            }
+            // ramp the idle connections in evenly rather than as one SYN flood
+            Thread ramp = Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < idleConnections && running; i++) {
+                    long due = start + TimeUnit.MILLISECONDS.toNanos(rampMs) * i / Math.max(1, idleConnections);
+                    parkUntil(due);
+                    clients.execute(() -> runIdle(end));
+                }
+            });
+
+            long[] previous = new long[0];
+            long nextSample = start + TimeUnit.MILLISECONDS.toNanos(sampleMs);
+            while (System.nanoTime() < end) {
+                parkUntil(Math.min(nextSample, end));
+                previous = sample(start, previous);
+                nextSample += TimeUnit.MILLISECONDS.toNanos(sampleMs);
+            }
+            running = false;
+            ramp.join();
+            clients.shutdownNow();
+        } finally {
+            if (server != null) {
+                server.stop();
+                serverThread.join(5000);
+            }
+        }
+        return toJson();
+    }
+
+    private void runIdle(long end) {
+        while (running && System.nanoTime() < end) {
+            try (Socket socket = connect()) {
+                openConnections.incrementAndGet();
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    ResponseReader reader = new ResponseReader(new BufferedInputStream(socket.getInputStream()));
+                    if (idleIntervalMs <= 0) {
+                        // never send: wait until the server gives up on us
+                        while (socket.getInputStream().read() != -1) {
+                            // nothing expected
+                        }
+                    }
+                    while (running && idleIntervalMs > 0) {
+                        // jittered so thousands of connections don't wake on the same tick
+                        long sleep = idleIntervalMs / 2 + ThreadLocalRandom.current().nextLong(idleIntervalMs / 2 + 1);
+                        Thread.sleep(sleep);
+                        out.write(request);
+                        out.flush();
+                        reader.next();
+                        idleRequests.increment();
+                        if (reader.isCloseAfter()) {
+                            break;
+                        }
+                    }
+                } finally {
+                    openConnections.decrementAndGet();
+                }
+                if (running) {
+                    serverCloses.increment();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    connectFailures.increment();
+                    parkUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void runActive(long firstSend, long interval, long end) {
+        long intended = firstSend;
+        while (running && intended < end) {
+            try (Socket socket = connect()) {
+                OutputStream out = socket.getOutputStream();
+                ResponseReader reader = new ResponseReader(new BufferedInputStream(socket.getInputStream()));
+                while (running && intended < end) {
+                    parkUntil(intended);
+                    out.write(request);
+                    out.flush();
+                    reader.next();
+                    // open loop: measured from the scheduled send, so a server that can't
+                    // keep up with connection churn shows up here
+                    activeLatency.record((System.nanoTime() - intended) / 1000);
+                    intended += interval;
+                    if (reader.isCloseAfter()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    activeErrors.increment();
+                    intended += interval;
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private long[] sample(long start, long[] previous) {
+        long[] buckets = activeLatency.bucketCounts();
+        long[] interval = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            interval[i] = buckets[i] - (previous.length > 0 ? previous[i] : 0);
+        }
+        ProcessStats stats = ProcessStats.of(pid);
+        boolean inProcess = pid == ProcessHandle.current().pid();
+        long heap = inProcess ? ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() : -1;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double p50 = LatencyHistogram.valueAtPercentile(interval, 50) / 1000.0;
+        double p99 = LatencyHistogram.valueAtPercentile(interval, 99) / 1000.0;
+
+        System.out.printf("%6.0f %7d %8d %9.1f %9.1f %7d %7d %9.2f %9.2f %7d%n",
+                seconds, openConnections.get(), connectFailures.sum(), mb(stats.rssBytes), mb(heap),
+                stats.threads, stats.fds, p50, p99, activeErrors.sum());
+        samples.add(String.format(Locale.ROOT,
+                "{\"t\": %.1f, \"openConnections\": %d, \"connectFailures\": %d, \"serverCloses\": %d, "
+                        + "\"idleRequests\": %d, \"rssMb\": %.1f, \"heapUsedMb\": %.1f, \"threads\": %d, \"fds\": %d, "
+                        + "\"activeP50\": %.2f, \"activeP99\": %.2f, \"activeMax\": %.2f, \"activeErrors\": %d}",
+                seconds, openConnections.get(), connectFailures.sum(), serverCloses.sum(), idleRequests.sum(),
+                mb(stats.rssBytes), mb(heap), stats.threads, stats.fds, p50, p99,
+                LatencyHistogram.valueAtPercentile(interval, 100) / 1000.0, activeErrors.sum()));
+        return buckets;
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"server\": \"").append(serverType != null ? serverType : "external").append("\",\n");
+        json.append("  \"target\": \"http://").append(host).append(':').append(port).append(path).append("\",\n");
+        json.append("  \"idleConnections\": ").append(idleConnections).append(",\n");
+        json.append("  \"idleIntervalMs\": ").append(idleIntervalMs).append(",\n");
+        json.append("  \"activeConnections\": ").append(activeConnections).append(",\n");
+        json.append("  \"activeRate\": ").append(String.format(Locale.ROOT, "%.2f", activeRate)).append(",\n");
+        json.append("  \"durationMs\": ").append(durationMs).append(",\n");
+        json.append("  \"sampleMs\": ").append(sampleMs).append(",\n");
+        json.append("  \"samples\": [");
+        for (int i = 0; i < samples.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ").append(samples.get(i));
+        }
+        json.append(samples.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    private static double mb(long bytes) {
+        return bytes < 0 ? -1 : bytes / (1024.0 * 1024.0);
+    }
+
+    private static void parkUntil(long deadlineNanos) {
+        long now;
+        while ((now = System.nanoTime()) < deadlineNanos) {
+            LockSupport.parkNanos(deadlineNanos - now);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.httpforge.metrics;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the metrics of every worker process in a cluster, in one memory-mapped file: each worker
+ * publishes its own {@link Metrics} into its slot, and any of them can read all the slots
+ * back and merge them, so whichever worker a /metrics request lands on reports the whole
+ * cluster.
+ *
+ * <pre>
+ * header: magic(8) version(4) workers(4) slotSize(4) pad(4) createdAtMillis(8) = 64 bytes padded
+ * slot:   sequence(8) pid(8) startedAtMillis(8) updatedAtMillis(8) totalRequests(8)
+ *         requestsPerSecond(8, double bits) activeConnections(8) rejections(8)
+ *         latencySum(8) latencyMax(8) latency buckets(8 each) restarts(8)
+ * </pre>
+ * a slot is a seqlock: the worker makes its sequence odd, writes, then makes it even again,
+ * and a reader that sees it odd or changed reads again. restarts is the supervisor's, and
+ * outside the seqlock.
+ *
+ * a worker that replaces a dead one carries on from the counters it left in the slot, so the
+ * cluster's totals and histogram don't go backwards on a restart; what the dead worker did
+ * after its last publish is lost.
+ */
+public final class ClusterMetrics implements AutoCloseable {
+    public static final long MAGIC = 0x4846_434C_5553_5452L; // "HFCLUSTR"
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_WORKERS = 12;
+    private static final int OFFSET_SLOT_SIZE = 16;
+    private static final int OFFSET_CREATED_AT = 24;
+
+    // within a slot
+    private static final int SEQUENCE = 0;
+    private static final int PID = 8;
+    private static final int STARTED_AT = 16;
+    private static final int UPDATED_AT = 24;
+    private static final int TOTAL_REQUESTS = 32;
+    private static final int REQUESTS_PER_SECOND = 40;
+    private static final int ACTIVE_CONNECTIONS = 48;
+    private static final int REJECTIONS = 56;
+    private static final int LATENCY_SUM = 64;
+    private static final int LATENCY_MAX = 72;
+    private static final int LATENCY_BUCKETS = 80;
+    private static final int RESTARTS = LATENCY_BUCKETS + LatencyHistogram.BUCKET_COUNT * 8;
+    static final int SLOT_SIZE = RESTARTS + 8;
+
+    // the sequence and restarts are read and written across processes: volatile accesses
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path path;
+    private final int workers;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private ScheduledExecutorService publisher;
+
+    // publisher thread only: what a dead predecessor left in the slot, and the last publish
+    private long baseRequests;
+    private long baseRejections;
+    private long baseLatencySum;
+    private long baseLatencyMax;
+    private long[] baseLatency = new long[LatencyHistogram.BUCKET_COUNT];
+    private long startedAt;
+    private long previousRequests;
+    private long previousNanos;
+
+    private ClusterMetrics(Path path, int workers, FileChannel channel, MappedByteBuffer mapped) {
+        this.path = path;
+        this.workers = workers;
+        this.channel = channel;
+        this.mapped = mapped;
+    }
+
+    /**
+     * creates the file for a cluster of this many workers, replacing whatever was there.
+     * called by the supervisor before it starts them.
+     */
+    public static ClusterMetrics create(Path path, int workers) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Workers must be positive");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) workers * SLOT_SIZE);
+        // a new file reads as zeros: every slot empty
+        mapped.putInt(OFFSET_VERSION, VERSION);
+        mapped.putInt(OFFSET_WORKERS, workers);
+        mapped.putInt(OFFSET_SLOT_SIZE, SLOT_SIZE);
+        mapped.putLong(OFFSET_CREATED_AT, System.currentTimeMillis());
+        LONGS.setVolatile(mapped, OFFSET_MAGIC, MAGIC);
+        return new ClusterMetrics(path, workers, channel, mapped);
+    }
+
+    /**
+     * maps a file the supervisor created.
+     */
+    public static ClusterMetrics open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if ((long) LONGS.getVolatile(header, OFFSET_MAGIC) != MAGIC || header.getInt(OFFSET_VERSION) != VERSION
+                || header.getInt(OFFSET_SLOT_SIZE) != SLOT_SIZE) {
+            channel.close();
+            throw new IOException("Not a cluster metrics file, or a different version: " + path);
+        }
+        int workers = header.getInt(OFFSET_WORKERS);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) workers * SLOT_SIZE);
+        return new ClusterMetrics(path, workers, channel, mapped);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * publishes this process's metrics into the worker's slot now and then every interval,
+     * from a daemon thread.
+     */
+    public void startPublishing(int worker, Metrics metrics, long intervalMs) {
+        takeOver(worker);
+        publish(worker, metrics);
+        publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(() -> {
+            try {
+                publish(worker, metrics);
+            } catch (RuntimeException e) {
+                // never let one bad snapshot stop publishing
+                System.err.println("Error publishing cluster metrics: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * claims a slot for this process, keeping what a previous worker left in it as the base
+     * for its own counters.
+     */
+    void takeOver(int worker) {
+        checkWorker(worker);
+        WorkerStats previous = readSlot(worker);
+        if (previous != null && previous.pid != 0) {
+            baseRequests = previous.totalRequests;
+            baseRejections = previous.rejections;
+            baseLatencySum = previous.latencySum;
+            baseLatencyMax = previous.latencyMax;
+            baseLatency = previous.latency;
+        }
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * writes the slot once. called on the publisher thread, or directly by tests.
+     */
+    void publish(int worker, Metrics metrics) {
+        checkWorker(worker);
+        LatencyHistogram latency = metrics.getRequestLatencyHistogram();
+        long[] buckets = latency.bucketCounts();
+        long requests = metrics.getTotalRequests();
+        long nanos = System.nanoTime();
+        double perSecond = previousNanos == 0 ? 0 : Math.max(0, requests - previousRequests) * 1e9 / (nanos - previousNanos);
+        previousRequests = requests;
+        previousNanos = nanos;
+
+        int slot = slotOffset(worker);
+        long sequence = (long) LONGS.getVolatile(mapped, slot + SEQUENCE);
+        LONGS.setVolatile(mapped, slot + SEQUENCE, sequence + 1);
+        // a volatile store doesn't keep the plain stores below from moving ahead of it: without
+        // the fence a reader could see new data next to the old, even, sequence
+        VarHandle.storeStoreFence();
+        mapped.putLong(slot + PID, ProcessHandle.current().pid());
+        mapped.putLong(slot + STARTED_AT, startedAt);
+        mapped.putLong(slot + UPDATED_AT, System.currentTimeMillis());
+        mapped.putLong(slot + TOTAL_REQUESTS, baseRequests + requests);
+        mapped.putLong(slot + REQUESTS_PER_SECOND, Double.doubleToRawLongBits(perSecond));
+        mapped.putLong(slot + ACTIVE_CONNECTIONS, metrics.getActiveConnections());
+        mapped.putLong(slot + REJECTIONS, baseRejections + metrics.getTotalRejections());
+        mapped.putLong(slot + LATENCY_SUM, baseLatencySum + latency.getSum());
+        mapped.putLong(slot + LATENCY_MAX, Math.max(baseLatencyMax, latency.getMax()));
+        for (int i = 0; i < buckets.length; i++) {
+            mapped.putLong(slot + LATENCY_BUCKETS + i * 8, baseLatency[i] + buckets[i]);
+        }
+        LONGS.setVolatile(mapped, slot + SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * counts a restart of the worker. the supervisor's; the workers never write it.
+     */
+    public void recordRestart(int worker) {
+        checkWorker(worker);
+        int offset = slotOffset(worker) + RESTARTS;
+        LONGS.setVolatile(mapped, offset, (long) LONGS.getVolatile(mapped, offset) + 1);
+    }
+
+    /**
+     * every worker's last published numbers, and the cluster's merged from them.
+     */
+    public Snapshot read() {
+        List<WorkerStats> stats = new ArrayList<>(workers);
+        for (int worker = 0; worker < workers; worker++) {
+            WorkerStats slot = readSlot(worker);
+            if (slot != null) {
+                stats.add(slot);
+            }
+        }
+        return new Snapshot(workers, stats);
+    }
+
+    // a consistent copy of the slot, or null if it was being written every time we looked
+    private WorkerStats readSlot(int worker) {
+        int slot = slotOffset(worker);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long before = (long) LONGS.getVolatile(mapped, slot + SEQUENCE);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            WorkerStats stats = new WorkerStats(worker);
+            stats.pid = mapped.getLong(slot + PID);
+            stats.startedAtMs = mapped.getLong(slot + STARTED_AT);
+            stats.updatedAtMs = mapped.getLong(slot + UPDATED_AT);
+            stats.totalRequests = mapped.getLong(slot + TOTAL_REQUESTS);
+            stats.requestsPerSecond = Double.longBitsToDouble(mapped.getLong(slot + REQUESTS_PER_SECOND));
+            stats.activeConnections = mapped.getLong(slot + ACTIVE_CONNECTIONS);
+            stats.rejections = mapped.getLong(slot + REJECTIONS);
+            stats.latencySum = mapped.getLong(slot + LATENCY_SUM);
+            stats.latencyMax = mapped.getLong(slot + LATENCY_MAX);
+            for (int i = 0; i < stats.latency.length; i++) {
+                stats.latency[i] = mapped.getLong(slot + LATENCY_BUCKETS + i * 8);
+            }
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getVolatile(mapped, slot + SEQUENCE) == before) {
+                stats.restarts = (long) LONGS.getVolatile(mapped, slot + RESTARTS);
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    private void checkWorker(int worker) {
+        if (worker < 0 || worker >= workers) {
+            throw new IllegalArgumentException("No worker " + worker + " in a cluster of " + workers);
+        }
+    }
+
+    private static int slotOffset(int worker) {
+        return HEADER_SIZE + worker * SLOT_SIZE;
+    }
+
+    @Override
+    public void close() {
+        if (publisher != null) {
+            publisher.shutdownNow();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing cluster metrics file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * one worker's slot as last published.
+     */
+    public static final class WorkerStats {
+        public final int worker;
+        // 0 until the worker first publishes
+        public long pid;
+        public long startedAtMs;
+        public long updatedAtMs;
+        public long totalRequests;
+        public double requestsPerSecond;
+        public long activeConnections;
+        public long rejections;
+        public long restarts;
+        long latencySum;
+        long latencyMax;
+        final long[] latency = new long[LatencyHistogram.BUCKET_COUNT];
+
+        WorkerStats(int worker) {
+            this.worker = worker;
+        }
+
+        public boolean isAlive() {
+            return pid != 0 && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        }
+    }
+
+    /**
+     * the cluster at one moment: counters summed and latency histograms merged over every
+     * worker's slot, the current rate and connections over the live ones.
+     */
+    public static final class Snapshot {
+        private final int workers;
+        private final List<WorkerStats> stats;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long totalRequests;
+        private long rejections;
+        private long activeConnections;
+        private double requestsPerSecond;
+        private int alive;
+
+        Snapshot(int workers, List<WorkerStats> stats) {
+            this.workers = workers;
+            this.stats = Collections.unmodifiableList(stats);
+            for (WorkerStats worker : stats) {
+                totalRequests += worker.totalRequests;
+                rejections += worker.rejections;
+                latency.add(worker.latency, worker.latencySum, worker.latencyMax);
+                if (worker.isAlive()) {
+                    alive++;
+                    activeConnections += worker.activeConnections;
+                    requestsPerSecond += worker.requestsPerSecond;
+                }
+            }
+        }
+
+        public int getWorkers() { return workers; }
+        public int getAliveWorkers() { return alive; }
+        public long getTotalRequests() { return totalRequests; }
+        public long getRejections() { return rejections; }
+        public long getActiveConnections() { return activeConnections; }
+        public double getRequestsPerSecond() { return requestsPerSecond; }
+        public List<WorkerStats> getWorkerStats() { return stats; }
+
+        /**
+         * the merged request latency histogram, in microseconds.
+         */
+        public LatencyHistogram getLatency() { return latency; }
+    }
+}
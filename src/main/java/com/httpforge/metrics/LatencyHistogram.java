@@ -0,0 +1,198 @@
+package com.httpforge.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free log-linear histogram for latency-like values (HdrHistogram style).
+ * values below 32 get their own bucket; above that every power of two is split into
+ * 32 linear sub-buckets, so any recorded value is reported within ~3% of its real value.
+ * recording is a couple of atomic increments, so it's safe to call from request threads.
+ * the unit is whatever the caller records (we use microseconds).
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 32
+    // highest exponent we track is 2^62, anything above is clamped into the last bucket
+    private static final int MAX_EXPONENT = 62;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * records a single value. negative values are clamped to 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * records a value and back-fills the samples a stalled closed-loop client never sent.
+     * if a request took 10x the expected interval, the 9 requests that "should" have been
+     * issued in between would have seen value - interval, value - 2*interval, ... latencies.
+     * this is the coordinated omission correction from HdrHistogram.
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    /**
+     * post-hoc version of {@link #recordWithExpectedInterval}: a new histogram where every
+     * recorded value is back-filled as if it had been recorded with the expected interval.
+     */
+    public LatencyHistogram copyCorrectedForCoordinatedOmission(long expectedInterval) {
+        LatencyHistogram corrected = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            long value = i == bucketIndex(maxValue.get()) ? maxValue.get() : highestEquivalentValue(i);
+            for (long c = 0; c < count; c++) {
+                corrected.recordWithExpectedInterval(value, expectedInterval);
+            }
+        }
+        return corrected;
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0.0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return highest value equivalent to the bucket holding the given percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * percentile over raw bucket counts, e.g. the difference of two {@link #bucketCounts()} copies
+     * to get the distribution of a single interval.
+     */
+    public static long valueAtPercentile(long[] bucketCounts, double percentile) {
+        long count = 0;
+        for (long c : bucketCounts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= target) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(bucketCounts.length - 1);
+    }
+
+    /**
+     * copies the raw bucket counts, e.g. to persist or ship them to another process.
+     */
+    public long[] bucketCounts() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public long getSum() {
+        return totalSum.get();
+    }
+
+    /**
+     * merges raw counts (see {@link #bucketCounts()}) into this histogram.
+     */
+    public void add(long[] bucketCounts, long sum, long max) {
+        long added = 0;
+        for (int i = 0; i < Math.min(bucketCounts.length, BUCKET_COUNT); i++) {
+            if (bucketCounts[i] != 0) {
+                counts.addAndGet(i, bucketCounts[i]);
+                added += bucketCounts[i];
+            }
+        }
+        totalCount.addAndGet(added);
+        totalSum.addAndGet(sum);
+        maxValue.accumulateAndGet(max, Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) Math.min((value >>> shift) - SUB_BUCKET_COUNT, SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        return (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
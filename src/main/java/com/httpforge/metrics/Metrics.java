@@ -1,10 +1,16 @@
 package com.httpforge.metrics;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * thread-safe singleton for tracking global server metrics.
@@ -20,6 +26,77 @@ public class Metrics {
     // keep last N request durations for percentile calculation
     private static final int MAX_DURATION_SAMPLES = 10000;
 
+    // cumulative, lock-free copy of the request latencies for background readers
+    // (the recorder and cluster aggregation) that mustn't contend with request threads
+    private final LatencyHistogram requestLatencyMicros = new LatencyHistogram();
+
+    // thread pool instrumentation, fed by ThreadPoolServer
+    // time a connection spends in the executor queue before a worker picks it up
+    private final LatencyHistogram queueWaitMicros = new LatencyHistogram();
+    private final Map<String, LongAdder> rejectionsByPolicy = new ConcurrentHashMap<>();
+    private final LongAdder callerRunsCount = new LongAdder();
+    private final LongAdder callerRunsMicros = new LongAdder();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger(0);
+    // connections closed by a read/write deadline, per phase (idle, header, body, write)
+    private final Map<String, LongAdder> timeoutsByPhase = new ConcurrentHashMap<>();
+    // fan-out sub-tasks by name: duration and outcome counts
+    private final Map<String, SubtaskStats> subtasks = new ConcurrentHashMap<>();
+    // gauges are read straight from the executor, so they're always live
+    private volatile ThreadPoolExecutor threadPool;
+    // priority lanes by name, and the connections read ahead to find their lane
+    private final Map<String, LaneStats> lanes = new ConcurrentHashMap<>();
+    private final LongAdder laneTriages = new LongAdder();
+    // autoscaler: bounds, its last decision and what it was based on; max 0 = not running
+    private volatile int autoscaleMin;
+    private volatile int autoscaleMax;
+    private volatile int autoscaleTarget;
+    private volatile double autoscaleDemand;
+    private volatile double autoscaleCpu;
+    private volatile String autoscaleReason = "";
+    private final LongAdder autoscaleGrows = new LongAdder();
+    private final LongAdder autoscaleShrinks = new LongAdder();
+    // CoDel queue: true while workers take the newest task because the queue is standing
+    private volatile boolean lifoDispatch;
+    // hybrid mode: keep-alive connections waiting in the selector instead of on a worker
+    private volatile boolean idlePoller;
+    private final AtomicInteger parkedConnections = new AtomicInteger(0);
+    private final LongAdder parkResumes = new LongAdder();
+    private final LongAdder parkExpirations = new LongAdder();
+    // async handlers: requests whose connection gave its thread back until the response is ready
+    private final AtomicInteger awaitingHandler = new AtomicInteger(0);
+    private final LongAdder handlerSuspends = new LongAdder();
+    // HTTP/2 connections and the streams multiplexed over them
+    private final LongAdder http2Connections = new LongAdder();
+    private final AtomicInteger openHttp2Connections = new AtomicInteger(0);
+    private final LongAdder http2Streams = new LongAdder();
+    private final AtomicInteger openHttp2Streams = new AtomicInteger(0);
+    private final AtomicInteger peakHttp2Streams = new AtomicInteger(0);
+    private final LongAdder http2Resets = new LongAdder();
+    // TLS handshakes: full ones, ones that resumed an earlier session, and failed ones
+    private final LongAdder tlsFullHandshakes = new LongAdder();
+    private final LongAdder tlsResumedHandshakes = new LongAdder();
+    private final LongAdder tlsFailedHandshakes = new LongAdder();
+    private final LongAdder tlsAlpnH2 = new LongAdder();
+    private final LatencyHistogram tlsHandshakeMicros = new LatencyHistogram();
+    // reverse proxy, per upstream
+    private final Map<String, UpstreamStats> upstreams = new ConcurrentHashMap<>();
+    // the listening sockets: accepts per acceptor, and per second for the accept rate
+    private volatile LongAdder[] acceptedByAcceptor = new LongAdder[0];
+    private volatile int listenPort = -1;
+    private volatile int listenBacklog;
+    // the kernel's host-wide counters when the server started listening, null if unreadable
+    private volatile long[] listenCountersBaseline;
+    private final AtomicLong acceptSecond = new AtomicLong();
+    private final LongAdder acceptsThisSecond = new LongAdder();
+    private volatile long acceptsLastSecond;
+    // the other workers' numbers too, when this process is one worker of a cluster
+    private volatile ClusterMetrics cluster;
+    // startup, never reset: when a port was first bound, and the warmup before it (-1: none)
+    private final AtomicLong readyAtMillis = new AtomicLong();
+    private volatile long warmupRequests = -1;
+    private volatile long warmupMs;
+    private volatile long warmupCompileMs;
+
     private Metrics() {}
 
     public static Metrics getInstance() {
@@ -40,6 +117,7 @@ public class Metrics {
      */
     public void recordRequestEnd(long durationMs) {
         activeConnections.decrementAndGet();
+        requestLatencyMicros.record(durationMs * 1000);
 
         // keep a limited history to avoid memory issues
         synchronized (requestDurations) {
@@ -136,6 +214,760 @@ public class Metrics {
         }
     }
 
+    /**
+     * Records a connection closed because a deadline passed, keyed by phase.
+     */
+    public void recordTimeout(String phase) {
+        timeoutsByPhase.computeIfAbsent(phase, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Gets timeout counts per phase, sorted by phase name.
+     */
+    public Map<String, Long> getTimeouts() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        timeoutsByPhase.forEach((phase, count) -> snapshot.put(phase, count.sum()));
+        return snapshot;
+    }
+
+    /**
+     * Records one finished fan-out sub-task.
+     *
+     * @param name    the sub-task's name, usually the backend it called
+     * @param micros  how long it ran
+     * @param outcome success, failed or cancelled
+     */
+    public void recordSubtask(String name, long micros, String outcome) {
+        SubtaskStats stats = subtasks.computeIfAbsent(name, k -> new SubtaskStats());
+        stats.latencyMicros.record(micros);
+        if (outcome.equals("failed")) {
+            stats.failed.increment();
+        } else if (outcome.equals("cancelled")) {
+            stats.cancelled.increment();
+        }
+    }
+
+    /**
+     * Gets the fan-out sub-task stats, sorted by name.
+     */
+    public Map<String, SubtaskStats> getSubtasks() {
+        return new TreeMap<>(subtasks);
+    }
+
+    /**
+     * durations of one kind of fan-out sub-task, and how many failed or were cancelled.
+     */
+    public static final class SubtaskStats {
+        private final LatencyHistogram latencyMicros = new LatencyHistogram();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+
+        public LatencyHistogram getLatencyHistogram() {
+            return latencyMicros;
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getCancelled() {
+            return cancelled.sum();
+        }
+    }
+
+    /**
+     * Registers the executor whose pool size, active threads and queue depth are exported.
+     */
+    public void registerThreadPool(ThreadPoolExecutor executor) {
+        this.threadPool = executor;
+    }
+
+    /**
+     * Records a connection entering the executor queue.
+     * @param queueDepth queue size right after the connection was enqueued
+     */
+    public void recordEnqueue(int queueDepth) {
+        peakQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    /**
+     * Records how long a connection waited in the executor queue.
+     * @param waitMicros queue wait in microseconds
+     */
+    public void recordQueueWait(long waitMicros) {
+        queueWaitMicros.record(waitMicros);
+    }
+
+    /**
+     * Records a connection the executor couldn't take, keyed by rejection policy name.
+     */
+    public void recordRejection(String policy) {
+        rejectionsByPolicy.computeIfAbsent(policy, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records a connection handled on the accept thread under CALLER_RUNS.
+     * while this runs, nobody is calling accept(), so the time is accept-loop stall time.
+     * @param durationMicros time the accept thread spent handling the connection
+     */
+    public void recordCallerRuns(long durationMicros) {
+        callerRunsCount.increment();
+        callerRunsMicros.add(durationMicros);
+    }
+
+    /**
+     * Registers a priority lane and the executor that serves it, whose threads and queue depth
+     * are exported. a lane registered again under the same name starts over.
+     */
+    public void registerLane(String lane, ThreadPoolExecutor executor) {
+        lanes.put(lane, new LaneStats(executor));
+    }
+
+    /**
+     * Records a connection read ahead on a triage thread to find which lane it belongs in.
+     */
+    public void recordLaneTriage() {
+        laneTriages.increment();
+    }
+
+    /**
+     * Records a lane's worker picking up a connection.
+     * @param waitMicros time it waited in the lane's queue
+     */
+    public void recordLaneDispatch(String lane, long waitMicros) {
+        LaneStats stats = lanes.get(lane);
+        if (stats != null) {
+            stats.dispatched.increment();
+            stats.queueWaitMicros.record(waitMicros);
+        }
+    }
+
+    /**
+     * Records a connection a lane couldn't take and answered with a 503.
+     */
+    public void recordLaneRejection(String lane) {
+        LaneStats stats = lanes.get(lane);
+        if (stats != null) {
+            stats.rejected.increment();
+        }
+    }
+
+    /**
+     * Gets the priority lanes, sorted by name; empty when the server has only one.
+     */
+    public Map<String, LaneStats> getLanes() {
+        return new TreeMap<>(lanes);
+    }
+
+    public long getLaneTriages() {
+        return laneTriages.sum();
+    }
+
+    /**
+     * one priority lane: its executor's gauges, how long its connections waited, and how
+     * many it turned away.
+     */
+    public static final class LaneStats {
+        private final ThreadPoolExecutor executor;
+        private final LatencyHistogram queueWaitMicros = new LatencyHistogram();
+        private final LongAdder dispatched = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        LaneStats(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        public int getThreads() {
+            return executor.getPoolSize();
+        }
+
+        public int getActiveThreads() {
+            return executor.getActiveCount();
+        }
+
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        public LatencyHistogram getQueueWaitHistogram() {
+            return queueWaitMicros;
+        }
+
+        public long getDispatched() {
+            return dispatched.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        void reset() {
+            queueWaitMicros.reset();
+            dispatched.reset();
+            rejected.reset();
+        }
+    }
+
+    /**
+     * Registers the shared file of the cluster this process is a worker in, which adds the
+     * cluster-wide numbers.
+     */
+    public void registerCluster(ClusterMetrics cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Gets the cluster this process is a worker in, or null when it runs alone.
+     */
+    public ClusterMetrics getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Registers the sockets a server listens on, which adds the listen gauges. the kernel's
+     * accept queue overflow counters are exported relative to this moment.
+     */
+    public void registerListener(int port, int acceptors, int backlog) {
+        LongAdder[] counts = new LongAdder[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            counts[i] = new LongAdder();
+        }
+        acceptedByAcceptor = counts;
+        listenPort = port;
+        listenBacklog = backlog;
+        listenCountersBaseline = TcpListenStats.readHostCounters();
+        readyAtMillis.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    /**
+     * Records the synthetic traffic sent before the server started listening.
+     * @param compileMs time the JIT spent compiling meanwhile, -1 if unknown
+     */
+    public void recordWarmup(long requests, long durationMs, long compileMs) {
+        warmupMs = durationMs;
+        warmupCompileMs = compileMs;
+        warmupRequests = requests;
+    }
+
+    /**
+     * Gets the time from JVM start until a server first bound its port, or -1 before that.
+     */
+    public long getTimeToReadyMs() {
+        long readyAt = readyAtMillis.get();
+        return readyAt == 0 ? -1 : readyAt - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    public boolean hasWarmup() {
+        return warmupRequests >= 0;
+    }
+
+    public long getWarmupRequests() {
+        return warmupRequests;
+    }
+
+    public long getWarmupMs() {
+        return warmupMs;
+    }
+
+    public long getWarmupCompileMs() {
+        return warmupCompileMs;
+    }
+
+    /**
+     * Whether classes were loaded from a CDS archive (the JDK's default one, or an AppCDS
+     * archive given with -XX:SharedArchiveFile).
+     */
+    public boolean isClassDataSharing() {
+        return System.getProperty("java.vm.info", "").contains("sharing");
+    }
+
+    /**
+     * Records a connection returned by accept().
+     * @param acceptor which of the server's acceptors accepted it, from 0
+     */
+    public void recordAccepted(int acceptor) {
+        LongAdder[] counts = acceptedByAcceptor;
+        if (acceptor < counts.length) {
+            counts[acceptor].increment();
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = acceptSecond.get();
+        if (second != current && acceptSecond.compareAndSet(current, second)) {
+            // the first accept of a new second closes the one before
+            long previous = acceptsThisSecond.sumThenReset();
+            acceptsLastSecond = second == current + 1 ? previous : 0;
+        }
+        acceptsThisSecond.increment();
+    }
+
+    /**
+     * Registers the pool autoscaler and the bounds it keeps the core pool size in.
+     */
+    public void registerAutoscaler(int minThreads, int maxThreads) {
+        this.autoscaleMin = minThreads;
+        this.autoscaleMax = maxThreads;
+    }
+
+    /**
+     * Records one autoscaler decision.
+     * @param from   core pool size before
+     * @param to     core pool size after
+     * @param demand Little's law estimate of busy workers the decision was based on
+     * @param cpu    process CPU load 0..1, negative when unknown
+     * @param reason why: queue, cpu-bound, idle, demand or steady
+     */
+    public void recordAutoscale(int from, int to, double demand, double cpu, String reason) {
+        if (to > from) {
+            autoscaleGrows.increment();
+        } else if (to < from) {
+            autoscaleShrinks.increment();
+        }
+        autoscaleTarget = to;
+        autoscaleDemand = demand;
+        autoscaleCpu = cpu;
+        autoscaleReason = reason;
+    }
+
+    public boolean hasAutoscaler() {
+        return autoscaleMax > 0;
+    }
+
+    public int getAutoscaleMin() {
+        return autoscaleMin;
+    }
+
+    public int getAutoscaleMax() {
+        return autoscaleMax;
+    }
+
+    public int getAutoscaleTarget() {
+        return autoscaleTarget;
+    }
+
+    public double getAutoscaleDemand() {
+        return autoscaleDemand;
+    }
+
+    public double getAutoscaleCpu() {
+        return autoscaleCpu;
+    }
+
+    public String getAutoscaleReason() {
+        return autoscaleReason;
+    }
+
+    public long getAutoscaleGrows() {
+        return autoscaleGrows.sum();
+    }
+
+    public long getAutoscaleShrinks() {
+        return autoscaleShrinks.sum();
+    }
+
+    /**
+     * Records the CoDel queue switching between FIFO and (overloaded) LIFO dispatch.
+     */
+    public void recordDispatchMode(boolean lifo) {
+        this.lifoDispatch = lifo;
+    }
+
+    public boolean isLifoDispatch() {
+        return lifoDispatch;
+    }
+
+    /**
+     * Marks the thread pool as running in hybrid mode, which adds the idle poller gauges.
+     */
+    public void registerIdlePoller() {
+        this.idlePoller = true;
+    }
+
+    /**
+     * Records a keep-alive connection handed from a worker to the idle poller.
+     */
+    public void recordParked() {
+        parkedConnections.incrementAndGet();
+    }
+
+    /**
+     * Records a parked connection going back to a worker because bytes arrived.
+     */
+    public void recordResumed() {
+        parkedConnections.decrementAndGet();
+        parkResumes.increment();
+    }
+
+    /**
+     * Records a parked connection closed by the idle poller, after the keep-alive timeout or on shutdown.
+     */
+    public void recordParkExpired() {
+        parkedConnections.decrementAndGet();
+        parkExpirations.increment();
+    }
+
+    /**
+     * Records a connection releasing its worker while an async handler's response is pending.
+     */
+    public void recordHandlerSuspended() {
+        awaitingHandler.incrementAndGet();
+        handlerSuspends.increment();
+    }
+
+    /**
+     * Records a pending async response completing, successfully or not.
+     */
+    public void recordHandlerCompleted() {
+        awaitingHandler.decrementAndGet();
+    }
+
+    public int getAwaitingHandler() {
+        return awaitingHandler.get();
+    }
+
+    public long getHandlerSuspends() {
+        return handlerSuspends.sum();
+    }
+
+    /**
+     * Records a connection switching to HTTP/2, by prior knowledge or Upgrade.
+     */
+    public void recordHttp2Opened() {
+        http2Connections.increment();
+        openHttp2Connections.incrementAndGet();
+    }
+
+    public void recordHttp2Closed() {
+        openHttp2Connections.decrementAndGet();
+    }
+
+    /**
+     * Records a new HTTP/2 stream; open streams are tracked over all connections.
+     */
+    public void recordStreamOpened() {
+        http2Streams.increment();
+        int open = openHttp2Streams.incrementAndGet();
+        peakHttp2Streams.accumulateAndGet(open, Math::max);
+    }
+
+    public void recordStreamClosed() {
+        openHttp2Streams.decrementAndGet();
+    }
+
+    /**
+     * Records an HTTP/2 stream reset by either side, including streams refused over the limit.
+     */
+    public void recordStreamReset() {
+        http2Resets.increment();
+    }
+
+    public long getHttp2Connections() {
+        return http2Connections.sum();
+    }
+
+    public int getOpenHttp2Connections() {
+        return openHttp2Connections.get();
+    }
+
+    public long getHttp2Streams() {
+        return http2Streams.sum();
+    }
+
+    public int getOpenHttp2Streams() {
+        return openHttp2Streams.get();
+    }
+
+    public int getPeakHttp2Streams() {
+        return peakHttp2Streams.get();
+    }
+
+    public long getHttp2Resets() {
+        return http2Resets.sum();
+    }
+
+    /**
+     * Records a completed TLS handshake.
+     *
+     * @param resumed whether it resumed an earlier session (ticket or session id), skipping
+     *                the key exchange and certificate
+     * @param h2      whether the client chose HTTP/2 by ALPN
+     * @param micros  from the first handshake byte to the handshake being done
+     */
+    public void recordTlsHandshake(boolean resumed, boolean h2, long micros) {
+        if (resumed) {
+            tlsResumedHandshakes.increment();
+        } else {
+            tlsFullHandshakes.increment();
+        }
+        if (h2) {
+            tlsAlpnH2.increment();
+        }
+        tlsHandshakeMicros.record(micros);
+    }
+
+    /**
+     * Records a TLS handshake that failed, or that the client gave up on.
+     */
+    public void recordTlsHandshakeFailed() {
+        tlsFailedHandshakes.increment();
+    }
+
+    public long getTlsFullHandshakes() {
+        return tlsFullHandshakes.sum();
+    }
+
+    public long getTlsResumedHandshakes() {
+        return tlsResumedHandshakes.sum();
+    }
+
+    public long getTlsFailedHandshakes() {
+        return tlsFailedHandshakes.sum();
+    }
+
+    public long getTlsAlpnH2() {
+        return tlsAlpnH2.sum();
+    }
+
+    /**
+     * Gets the share of completed handshakes that were resumptions, 0 to 1.
+     */
+    public double getTlsResumptionRate() {
+        long resumed = tlsResumedHandshakes.sum();
+        long total = resumed + tlsFullHandshakes.sum();
+        return total == 0 ? 0 : (double) resumed / total;
+    }
+
+    public LatencyHistogram getTlsHandshakeHistogram() {
+        return tlsHandshakeMicros;
+    }
+
+    /**
+     * Records one request forwarded by the reverse proxy.
+     *
+     * @param upstream the upstream's host:port
+     * @param micros   time until the response's headers arrived, or until it failed
+     * @param failed   no response, or a 5xx one
+     */
+    public void recordUpstreamRequest(String upstream, long micros, boolean failed) {
+        UpstreamStats stats = upstreamStats(upstream);
+        stats.latencyMicros.record(micros);
+        if (failed) {
+            stats.failed.increment();
+        }
+    }
+
+    /**
+     * Records the proxy taking a connection to an upstream: an idle one from its pool, or a new one.
+     */
+    public void recordUpstreamConnection(String upstream, boolean reused) {
+        UpstreamStats stats = upstreamStats(upstream);
+        if (reused) {
+            stats.connectionsReused.increment();
+        } else {
+            stats.connectionsOpened.increment();
+        }
+    }
+
+    /**
+     * Records an upstream taken out of rotation after failing too often in a row.
+     */
+    public void recordUpstreamEjected(String upstream) {
+        upstreamStats(upstream).ejections.increment();
+    }
+
+    /**
+     * Gets the reverse proxy's upstream stats, sorted by upstream.
+     */
+    public Map<String, UpstreamStats> getUpstreams() {
+        return new TreeMap<>(upstreams);
+    }
+
+    private UpstreamStats upstreamStats(String upstream) {
+        return upstreams.computeIfAbsent(upstream, k -> new UpstreamStats());
+    }
+
+    /**
+     * one reverse proxy upstream: how long it took to answer, how often it failed or was
+     * ejected, and how well its keep-alive connections were reused.
+     */
+    public static final class UpstreamStats {
+        private final LatencyHistogram latencyMicros = new LatencyHistogram();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder ejections = new LongAdder();
+        private final LongAdder connectionsOpened = new LongAdder();
+        private final LongAdder connectionsReused = new LongAdder();
+
+        public LatencyHistogram getLatencyHistogram() {
+            return latencyMicros;
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getEjections() {
+            return ejections.sum();
+        }
+
+        public long getConnectionsOpened() {
+            return connectionsOpened.sum();
+        }
+
+        public long getConnectionsReused() {
+            return connectionsReused.sum();
+        }
+    }
+
+    public boolean hasIdlePoller() {
+        return idlePoller;
+    }
+
+    public int getParkedConnections() {
+        return parkedConnections.get();
+    }
+
+    public long getParkResumes() {
+        return parkResumes.sum();
+    }
+
+    public long getParkExpirations() {
+        return parkExpirations.sum();
+    }
+
+    public boolean hasListener() {
+        return listenPort != -1;
+    }
+
+    public int getListenBacklog() {
+        return listenBacklog;
+    }
+
+    public long getAccepted() {
+        long total = 0;
+        for (LongAdder count : acceptedByAcceptor) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the connections each acceptor accepted, in acceptor order.
+     */
+    public long[] getAcceptedByAcceptor() {
+        LongAdder[] counts = acceptedByAcceptor;
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the connections accepted during the last whole second.
+     */
+    public long getAcceptRate() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = acceptSecond.get();
+        if (second == current) {
+            return acceptsLastSecond;
+        }
+        // nothing accepted yet this second, so the one being counted is over
+        return second == current + 1 ? acceptsThisSecond.sum() : 0;
+    }
+
+    /**
+     * Gets the connections waiting in the accept queues right now, or -1 where the kernel
+     * doesn't say.
+     */
+    public long getAcceptQueueDepth() {
+        return hasListener() ? TcpListenStats.acceptQueueDepth(listenPort) : -1;
+    }
+
+    /**
+     * Gets the connections the host dropped since the server started listening because an
+     * accept queue was full (TcpExt ListenOverflows), or -1 where the kernel doesn't say.
+     * host-wide: another process's full queue counts too.
+     */
+    public long getListenOverflows() {
+        return sinceListening(0);
+    }
+
+    /**
+     * Gets ListenDrops the same way: the overflows plus SYNs dropped for other reasons.
+     */
+    public long getListenDrops() {
+        return sinceListening(1);
+    }
+
+    private long sinceListening(int counter) {
+        long[] baseline = listenCountersBaseline;
+        long[] current = baseline != null ? TcpListenStats.readHostCounters() : null;
+        return current != null ? current[counter] - baseline[counter] : -1;
+    }
+
+    public boolean hasThreadPool() {
+        return threadPool != null;
+    }
+
+    public int getPoolSize() {
+        ThreadPoolExecutor pool = threadPool;
+        return pool != null ? pool.getPoolSize() : 0;
+    }
+
+    public int getActiveThreads() {
+        ThreadPoolExecutor pool = threadPool;
+        return pool != null ? pool.getActiveCount() : 0;
+    }
+
+    public int getQueueDepth() {
+        ThreadPoolExecutor pool = threadPool;
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public int getQueueCapacity() {
+        ThreadPoolExecutor pool = threadPool;
+        return pool != null ? pool.getQueue().size() + pool.getQueue().remainingCapacity() : 0;
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * Gets the cumulative request latency histogram, in microseconds.
+     */
+    public LatencyHistogram getRequestLatencyHistogram() {
+        return requestLatencyMicros;
+    }
+
+    public LatencyHistogram getQueueWaitHistogram() {
+        return queueWaitMicros;
+    }
+
+    /**
+     * Gets rejection counts per policy, sorted by policy name.
+     */
+    public Map<String, Long> getRejections() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        rejectionsByPolicy.forEach((policy, count) -> snapshot.put(policy, count.sum()));
+        return snapshot;
+    }
+
+    public long getCallerRunsCount() {
+        return callerRunsCount.sum();
+    }
+
+    public long getCallerRunsMicros() {
+        return callerRunsMicros.sum();
+    }
+
+    public long getTotalRejections() {
+        long total = 0;
+        for (LongAdder count : rejectionsByPolicy.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
     /**
      * Resets all metrics (useful for testing).
      */
@@ -145,6 +977,46 @@ public class Metrics {
         synchronized (requestDurations) {
             requestDurations.clear();
         }
+        requestLatencyMicros.reset();
+        queueWaitMicros.reset();
+        rejectionsByPolicy.clear();
+        timeoutsByPhase.clear();
+        subtasks.clear();
+        for (LaneStats stats : lanes.values()) {
+            stats.reset();
+        }
+        laneTriages.reset();
+        callerRunsCount.reset();
+        callerRunsMicros.reset();
+        peakQueueDepth.set(0);
+        lifoDispatch = false;
+        autoscaleGrows.reset();
+        autoscaleShrinks.reset();
+        parkedConnections.set(0);
+        parkResumes.reset();
+        parkExpirations.reset();
+        awaitingHandler.set(0);
+        handlerSuspends.reset();
+        http2Connections.reset();
+        openHttp2Connections.set(0);
+        http2Streams.reset();
+        openHttp2Streams.set(0);
+        peakHttp2Streams.set(0);
+        http2Resets.reset();
+        tlsFullHandshakes.reset();
+        tlsResumedHandshakes.reset();
+        tlsFailedHandshakes.reset();
+        tlsAlpnH2.reset();
+        tlsHandshakeMicros.reset();
+        upstreams.clear();
+        for (LongAdder count : acceptedByAcceptor) {
+            count.reset();
+        }
+        acceptsThisSecond.reset();
+        acceptsLastSecond = 0;
+        if (hasListener()) {
+            listenCountersBaseline = TcpListenStats.readHostCounters();
+        }
     }
 }
 
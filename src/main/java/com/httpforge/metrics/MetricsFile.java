@@ -0,0 +1,69 @@
+package com.httpforge.metrics;
+
+/**
+ * on-disk layout shared by {@link MetricsRecorder} and {@link MetricsFileReader}.
+ *
+ * the file is a fixed-size header followed by a ring of fixed-size slots:
+ * <pre>
+ * header: magic(8) version(4) slotSize(4) slotCount(4) intervalMs(4) createdAtMillis(8) pid(8) = 64 bytes padded
+ * slot:   sequence(8) field values(8 each) crc32(8)
+ * </pre>
+ * a slot is valid when its sequence is non-zero and the CRC over the field values matches.
+ * the writer zeroes the sequence before touching a slot and writes it last, so a crash
+ * mid-write leaves at worst one slot that readers skip.
+ */
+public final class MetricsFile {
+    public static final long MAGIC = 0x4846_4D45_5452_4943L; // "HFMETRIC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 8;
+    static final int OFFSET_SLOT_SIZE = 12;
+    static final int OFFSET_SLOT_COUNT = 16;
+    static final int OFFSET_INTERVAL_MS = 20;
+    static final int OFFSET_CREATED_AT = 24;
+    static final int OFFSET_PID = 32;
+
+    /**
+     * values stored per snapshot. latencies are microseconds; percentiles cover only the
+     * interval since the previous snapshot, counters are cumulative since process start.
+     */
+    public enum Field {
+        TIMESTAMP_MS,
+        TOTAL_REQUESTS,
+        ACTIVE_CONNECTIONS,
+        INTERVAL_REQUESTS,
+        LATENCY_P50_US,
+        LATENCY_P90_US,
+        LATENCY_P99_US,
+        LATENCY_P999_US,
+        LATENCY_MAX_US,
+        POOL_SIZE,
+        ACTIVE_THREADS,
+        QUEUE_DEPTH,
+        QUEUE_WAIT_P50_US,
+        QUEUE_WAIT_P99_US,
+        REJECTIONS,
+        CALLER_RUNS,
+        HEAP_USED_BYTES,
+        GC_COUNT,
+        GC_TIME_MS,
+        THREAD_COUNT;
+
+        public static final int COUNT = values().length;
+    }
+
+    // sequence + fields + crc
+    public static final int SLOT_SIZE = 8 + Field.COUNT * 8 + 8;
+
+    private MetricsFile() {}
+
+    static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    static long fileSize(int slotCount) {
+        return HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,182 @@
+package com.httpforge.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * reads a {@link MetricsRecorder} file, e.g. after a crash, and prints it as CSV or JSON.
+ * the JSON form is what the web dashboard loads as its time series.
+ *
+ * usage: java -cp httpforge.jar com.httpforge.metrics.MetricsFileReader <file> [--csv|--json]
+ */
+public class MetricsFileReader {
+    private final long createdAtMillis;
+    private final long pid;
+    private final int intervalMs;
+    private final List<long[]> samples;
+
+    private MetricsFileReader(long createdAtMillis, long pid, int intervalMs, List<long[]> samples) {
+        this.createdAtMillis = createdAtMillis;
+        this.pid = pid;
+        this.intervalMs = intervalMs;
+        this.samples = samples;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MetricsFileReader <file> [--csv|--json]");
+            System.exit(1);
+            return;
+        }
+        MetricsFileReader reader = read(Path.of(args[0]));
+        boolean json = args.length > 1 && args[1].equals("--json");
+        System.out.println(json ? reader.toJson() : reader.toCsv());
+    }
+
+    /**
+     * reads every valid slot, oldest first. torn or corrupt slots are skipped.
+     */
+    public static MetricsFileReader read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < MetricsFile.HEADER_SIZE || mapped.getLong(MetricsFile.OFFSET_MAGIC) != MetricsFile.MAGIC) {
+                throw new IOException("Not a metrics file: " + path);
+            }
+            if (mapped.getInt(MetricsFile.OFFSET_VERSION) != MetricsFile.VERSION
+                    || mapped.getInt(MetricsFile.OFFSET_SLOT_SIZE) != MetricsFile.SLOT_SIZE) {
+                throw new IOException("Unsupported metrics file version: " + path);
+            }
+            int slotCount = mapped.getInt(MetricsFile.OFFSET_SLOT_COUNT);
+            if (channel.size() < MetricsFile.fileSize(slotCount)) {
+                throw new IOException("Truncated metrics file: " + path);
+            }
+
+            List<long[]> records = new ArrayList<>();
+            ByteBuffer slotBytes = ByteBuffer.allocate(MetricsFile.SLOT_SIZE);
+            CRC32 crc = new CRC32();
+            for (int slot = 0; slot < slotCount; slot++) {
+                int offset = MetricsFile.slotOffset(slot);
+                slotBytes.clear();
+                mapped.get(offset, slotBytes.array(), 0, MetricsFile.SLOT_SIZE);
+                long sequence = slotBytes.getLong(0);
+                if (sequence == 0) {
+                    continue;
+                }
+                crc.reset();
+                crc.update(slotBytes.array(), 8, MetricsFile.Field.COUNT * 8);
+                if (crc.getValue() != slotBytes.getLong(8 + MetricsFile.Field.COUNT * 8)) {
+                    continue;
+                }
+                // [sequence, fields...]
+                long[] record = new long[1 + MetricsFile.Field.COUNT];
+                for (int i = 0; i < record.length; i++) {
+                    record[i] = slotBytes.getLong(i * 8);
+                }
+                records.add(record);
+            }
+            records.sort(Comparator.comparingLong(r -> r[0]));
+
+            List<long[]> samples = new ArrayList<>(records.size());
+            for (long[] record : records) {
+                long[] values = new long[MetricsFile.Field.COUNT];
+                System.arraycopy(record, 1, values, 0, values.length);
+                samples.add(values);
+            }
+            return new MetricsFileReader(
+                    mapped.getLong(MetricsFile.OFFSET_CREATED_AT),
+                    mapped.getLong(MetricsFile.OFFSET_PID),
+                    mapped.getInt(MetricsFile.OFFSET_INTERVAL_MS),
+                    samples
+            );
+        }
+    }
+
+    public List<long[]> getSamples() {
+        return samples;
+    }
+
+    public long get(int sample, MetricsFile.Field field) {
+        return samples.get(sample)[field.ordinal()];
+    }
+
+    /**
+     * requests per second over the interval ending at the given sample.
+     */
+    public double throughput(int sample) {
+        long elapsed = sample == 0
+                ? intervalMs
+                : get(sample, MetricsFile.Field.TIMESTAMP_MS) - get(sample - 1, MetricsFile.Field.TIMESTAMP_MS);
+        if (elapsed <= 0) {
+            return 0.0;
+        }
+        return get(sample, MetricsFile.Field.INTERVAL_REQUESTS) * 1000.0 / elapsed;
+    }
+
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder();
+        for (MetricsFile.Field field : MetricsFile.Field.values()) {
+            csv.append(field.name().toLowerCase()).append(',');
+        }
+        csv.append("throughput_rps\n");
+        for (int i = 0; i < samples.size(); i++) {
+            for (long value : samples.get(i)) {
+                csv.append(value).append(',');
+            }
+            csv.append(String.format(Locale.ROOT, "%.2f", throughput(i))).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * dashboard-friendly JSON: latencies in milliseconds, heap in megabytes.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"pid\": ").append(pid).append(",\n");
+        json.append("  \"startedAt\": ").append(createdAtMillis).append(",\n");
+        json.append("  \"intervalMs\": ").append(intervalMs).append(",\n");
+        json.append("  \"samples\": [");
+        for (int i = 0; i < samples.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"timestamp\": ").append(get(i, MetricsFile.Field.TIMESTAMP_MS));
+            json.append(", \"throughput\": ").append(String.format(Locale.ROOT, "%.2f", throughput(i)));
+            json.append(", \"totalRequests\": ").append(get(i, MetricsFile.Field.TOTAL_REQUESTS));
+            json.append(", \"activeConnections\": ").append(get(i, MetricsFile.Field.ACTIVE_CONNECTIONS));
+            json.append(", \"p50\": ").append(millis(get(i, MetricsFile.Field.LATENCY_P50_US)));
+            json.append(", \"p90\": ").append(millis(get(i, MetricsFile.Field.LATENCY_P90_US)));
+            json.append(", \"p99\": ").append(millis(get(i, MetricsFile.Field.LATENCY_P99_US)));
+            json.append(", \"p999\": ").append(millis(get(i, MetricsFile.Field.LATENCY_P999_US)));
+            json.append(", \"max\": ").append(millis(get(i, MetricsFile.Field.LATENCY_MAX_US)));
+            json.append(", \"poolSize\": ").append(get(i, MetricsFile.Field.POOL_SIZE));
+            json.append(", \"activeThreads\": ").append(get(i, MetricsFile.Field.ACTIVE_THREADS));
+            json.append(", \"queueDepth\": ").append(get(i, MetricsFile.Field.QUEUE_DEPTH));
+            json.append(", \"queueWaitP50\": ").append(millis(get(i, MetricsFile.Field.QUEUE_WAIT_P50_US)));
+            json.append(", \"queueWaitP99\": ").append(millis(get(i, MetricsFile.Field.QUEUE_WAIT_P99_US)));
+            json.append(", \"rejections\": ").append(get(i, MetricsFile.Field.REJECTIONS));
+            json.append(", \"callerRuns\": ").append(get(i, MetricsFile.Field.CALLER_RUNS));
+            json.append(", \"heapUsedMb\": ").append(String.format(Locale.ROOT, "%.1f",
+                    get(i, MetricsFile.Field.HEAP_USED_BYTES) / (1024.0 * 1024.0)));
+            json.append(", \"gcCount\": ").append(get(i, MetricsFile.Field.GC_COUNT));
+            json.append(", \"gcTimeMs\": ").append(get(i, MetricsFile.Field.GC_TIME_MS));
+            json.append(", \"threads\": ").append(get(i, MetricsFile.Field.THREAD_COUNT));
+            json.append("}");
+        }
+        json.append(samples.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.2f", micros / 1000.0);
+    }
+}
@@ -0,0 +1,338 @@
+package com.httpforge.metrics;
+
+import com.httpforge.buffer.BufferPool;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * renders {@link Metrics} as the JSON document served at /metrics.
+ * built manually to avoid external dependencies.
+ */
+public final class MetricsJson {
+
+    private MetricsJson() {}
+
+    public static String render(Metrics metrics) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"totalRequests\": ").append(metrics.getTotalRequests()).append(",\n");
+        json.append("  \"activeConnections\": ").append(metrics.getActiveConnections()).append(",\n");
+        json.append("  \"latency\": {\n");
+        json.append("    \"min\": ").append(format(metrics.getMinLatency())).append(",\n");
+        json.append("    \"max\": ").append(format(metrics.getMaxLatency())).append(",\n");
+        json.append("    \"avg\": ").append(format(metrics.getAverageLatency())).append(",\n");
+        json.append("    \"p50\": ").append(format(metrics.getLatencyPercentile(50))).append(",\n");
+        json.append("    \"p95\": ").append(format(metrics.getLatencyPercentile(95))).append(",\n");
+        json.append("    \"p99\": ").append(format(metrics.getLatencyPercentile(99))).append("\n");
+        json.append("  },\n");
+        appendStartup(json, metrics);
+        json.append(",\n");
+        json.append("  \"timeouts\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : metrics.getTimeouts().entrySet()) {
+            json.append(first ? "" : ", ")
+                    .append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        json.append("}");
+        json.append(",\n");
+        appendBuffers(json, BufferPool.getDefault());
+        if (metrics.getHttp2Connections() > 0) {
+            json.append(",\n");
+            appendHttp2(json, metrics);
+        }
+        if (metrics.getTlsFullHandshakes() + metrics.getTlsResumedHandshakes() + metrics.getTlsFailedHandshakes() > 0) {
+            json.append(",\n");
+            appendTls(json, metrics);
+        }
+        Map<String, Metrics.UpstreamStats> upstreams = metrics.getUpstreams();
+        if (!upstreams.isEmpty()) {
+            json.append(",\n");
+            appendUpstreams(json, upstreams);
+        }
+        Map<String, Metrics.SubtaskStats> subtasks = metrics.getSubtasks();
+        if (!subtasks.isEmpty()) {
+            json.append(",\n");
+            appendSubtasks(json, subtasks);
+        }
+        if (metrics.hasListener()) {
+            json.append(",\n");
+            appendListen(json, metrics);
+        }
+        if (metrics.hasThreadPool()) {
+            json.append(",\n");
+            appendThreadPool(json, metrics);
+        }
+        Map<String, Metrics.LaneStats> lanes = metrics.getLanes();
+        if (!lanes.isEmpty()) {
+            json.append(",\n");
+            appendLanes(json, lanes, metrics.getLaneTriages());
+        }
+        ClusterMetrics cluster = metrics.getCluster();
+        if (cluster != null) {
+            json.append(",\n");
+            appendCluster(json, cluster.read());
+        }
+        json.append("\n}");
+        return json.toString();
+    }
+
+    // how long the process took to take traffic, and what went into that
+    private static void appendStartup(StringBuilder json, Metrics metrics) {
+        long timeToReady = metrics.getTimeToReadyMs();
+        json.append("  \"startup\": {\n");
+        json.append("    \"timeToReadyMs\": ").append(timeToReady < 0 ? "null" : String.valueOf(timeToReady)).append(",\n");
+        json.append("    \"classDataSharing\": ").append(metrics.isClassDataSharing()).append(",\n");
+        json.append("    \"warmup\": ");
+        if (metrics.hasWarmup()) {
+            json.append("{\"requests\": ").append(metrics.getWarmupRequests())
+                    .append(", \"durationMs\": ").append(metrics.getWarmupMs())
+                    .append(", \"compileMs\": ").append(orNull(metrics.getWarmupCompileMs())).append("}\n");
+        } else {
+            json.append("null\n");
+        }
+        json.append("  }");
+    }
+
+    // pooled connection I/O buffers, per size class
+    private static void appendBuffers(StringBuilder json, BufferPool pool) {
+        json.append("  \"buffers\": {\n");
+        json.append("    \"inUse\": ").append(pool.inUse()).append(",\n");
+        json.append("    \"leaks\": ").append(pool.isLeakDetectionEnabled() ? String.valueOf(pool.getLeaks()) : "null").append(",\n");
+        json.append("    \"classes\": [");
+        boolean first = true;
+        for (BufferPool.Stats stats : pool.stats()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("      {\"size\": ").append(stats.bufferSize)
+                    .append(", \"slabs\": ").append(stats.slabs)
+                    .append(", \"capacity\": ").append(stats.capacity)
+                    .append(", \"inUse\": ").append(stats.inUse)
+                    .append(", \"free\": ").append(stats.free)
+                    .append(", \"borrows\": ").append(stats.borrows)
+                    .append(", \"overflows\": ").append(stats.overflows).append("}");
+            first = false;
+        }
+        json.append("\n    ]\n");
+        json.append("  }");
+    }
+
+    // only once a client has spoken HTTP/2
+    private static void appendHttp2(StringBuilder json, Metrics metrics) {
+        json.append("  \"http2\": {\n");
+        json.append("    \"connections\": ").append(metrics.getHttp2Connections()).append(",\n");
+        json.append("    \"openConnections\": ").append(metrics.getOpenHttp2Connections()).append(",\n");
+        json.append("    \"streams\": ").append(metrics.getHttp2Streams()).append(",\n");
+        json.append("    \"openStreams\": ").append(metrics.getOpenHttp2Streams()).append(",\n");
+        json.append("    \"peakOpenStreams\": ").append(metrics.getPeakHttp2Streams()).append(",\n");
+        json.append("    \"resets\": ").append(metrics.getHttp2Resets()).append("\n");
+        json.append("  }");
+    }
+
+    // only once a client has connected over TLS
+    private static void appendTls(StringBuilder json, Metrics metrics) {
+        json.append("  \"tls\": {\n");
+        json.append("    \"fullHandshakes\": ").append(metrics.getTlsFullHandshakes()).append(",\n");
+        json.append("    \"resumedHandshakes\": ").append(metrics.getTlsResumedHandshakes()).append(",\n");
+        json.append("    \"resumptionRate\": ").append(format(metrics.getTlsResumptionRate())).append(",\n");
+        json.append("    \"failedHandshakes\": ").append(metrics.getTlsFailedHandshakes()).append(",\n");
+        json.append("    \"alpnH2\": ").append(metrics.getTlsAlpnH2()).append(",\n");
+        json.append("    \"handshakeMs\": ");
+        appendHistogram(json, metrics.getTlsHandshakeHistogram(), "    ");
+        json.append("\n  }");
+    }
+
+    // reverse proxy upstreams, by host:port
+    private static void appendUpstreams(StringBuilder json, Map<String, Metrics.UpstreamStats> upstreams) {
+        json.append("  \"upstreams\": {\n");
+        boolean first = true;
+        for (Map.Entry<String, Metrics.UpstreamStats> entry : upstreams.entrySet()) {
+            Metrics.UpstreamStats stats = entry.getValue();
+            json.append(first ? "" : ",\n");
+            json.append("    \"").append(entry.getKey()).append("\": {\n");
+            json.append("      \"latencyMs\": ");
+            appendHistogram(json, stats.getLatencyHistogram(), "      ");
+            json.append(",\n");
+            json.append("      \"failed\": ").append(stats.getFailed()).append(",\n");
+            json.append("      \"ejections\": ").append(stats.getEjections()).append(",\n");
+            json.append("      \"connectionsOpened\": ").append(stats.getConnectionsOpened()).append(",\n");
+            json.append("      \"connectionsReused\": ").append(stats.getConnectionsReused()).append("\n");
+            json.append("    }");
+            first = false;
+        }
+        json.append("\n  }");
+    }
+
+    // fan-out sub-tasks, by name
+    private static void appendSubtasks(StringBuilder json, Map<String, Metrics.SubtaskStats> subtasks) {
+        json.append("  \"subtasks\": {\n");
+        boolean first = true;
+        for (Map.Entry<String, Metrics.SubtaskStats> entry : subtasks.entrySet()) {
+            Metrics.SubtaskStats stats = entry.getValue();
+            json.append(first ? "" : ",\n");
+            json.append("    \"").append(entry.getKey()).append("\": {\n");
+            json.append("      \"latencyMs\": ");
+            appendHistogram(json, stats.getLatencyHistogram(), "      ");
+            json.append(",\n");
+            json.append("      \"failed\": ").append(stats.getFailed()).append(",\n");
+            json.append("      \"cancelled\": ").append(stats.getCancelled()).append("\n");
+            json.append("    }");
+            first = false;
+        }
+        json.append("\n  }");
+    }
+
+    // the pool's priority lanes; queue wait in ms like the pool's own
+    private static void appendLanes(StringBuilder json, Map<String, Metrics.LaneStats> lanes, long triaged) {
+        json.append("  \"lanes\": {\n");
+        json.append("    \"triaged\": ").append(triaged);
+        for (Map.Entry<String, Metrics.LaneStats> entry : lanes.entrySet()) {
+            Metrics.LaneStats stats = entry.getValue();
+            json.append(",\n");
+            json.append("    \"").append(entry.getKey()).append("\": {\n");
+            json.append("      \"threads\": ").append(stats.getThreads()).append(",\n");
+            json.append("      \"activeThreads\": ").append(stats.getActiveThreads()).append(",\n");
+            json.append("      \"queueDepth\": ").append(stats.getQueueDepth()).append(",\n");
+            json.append("      \"dispatched\": ").append(stats.getDispatched()).append(",\n");
+            json.append("      \"rejected\": ").append(stats.getRejected()).append(",\n");
+            json.append("      \"queueWaitMs\": ");
+            appendHistogram(json, stats.getQueueWaitHistogram(), "      ");
+            json.append("\n    }");
+        }
+        json.append("\n  }");
+    }
+
+    // every worker of the cluster, as last published to the shared file; latency in ms like the top level
+    private static void appendCluster(StringBuilder json, ClusterMetrics.Snapshot cluster) {
+        LatencyHistogram latency = cluster.getLatency();
+        json.append("  \"cluster\": {\n");
+        json.append("    \"workers\": ").append(cluster.getWorkers()).append(",\n");
+        json.append("    \"aliveWorkers\": ").append(cluster.getAliveWorkers()).append(",\n");
+        json.append("    \"totalRequests\": ").append(cluster.getTotalRequests()).append(",\n");
+        json.append("    \"requestsPerSecond\": ").append(format(cluster.getRequestsPerSecond())).append(",\n");
+        json.append("    \"activeConnections\": ").append(cluster.getActiveConnections()).append(",\n");
+        json.append("    \"rejections\": ").append(cluster.getRejections()).append(",\n");
+        json.append("    \"latency\": {");
+        json.append("\"avg\": ").append(format(latency.getMean() / 1000.0));
+        json.append(", \"p50\": ").append(format(latency.getValueAtPercentile(50) / 1000.0));
+        json.append(", \"p90\": ").append(format(latency.getValueAtPercentile(90) / 1000.0));
+        json.append(", \"p99\": ").append(format(latency.getValueAtPercentile(99) / 1000.0));
+        json.append(", \"p999\": ").append(format(latency.getValueAtPercentile(99.9) / 1000.0));
+        json.append(", \"max\": ").append(format(latency.getMax() / 1000.0)).append("},\n");
+        json.append("    \"perWorker\": [");
+        boolean first = true;
+        for (ClusterMetrics.WorkerStats worker : cluster.getWorkerStats()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("      {\"worker\": ").append(worker.worker)
+                    .append(", \"pid\": ").append(worker.pid)
+                    .append(", \"alive\": ").append(worker.isAlive())
+                    .append(", \"restarts\": ").append(worker.restarts)
+                    .append(", \"totalRequests\": ").append(worker.totalRequests)
+                    .append(", \"requestsPerSecond\": ").append(format(worker.requestsPerSecond))
+                    .append(", \"activeConnections\": ").append(worker.activeConnections)
+                    .append(", \"updatedAtMs\": ").append(worker.updatedAtMs).append("}");
+            first = false;
+        }
+        json.append("\n    ]\n");
+        json.append("  }");
+    }
+
+    // the listening sockets; the kernel's numbers are null where it doesn't give them
+    private static void appendListen(StringBuilder json, Metrics metrics) {
+        json.append("  \"listen\": {\n");
+        json.append("    \"backlog\": ").append(metrics.getListenBacklog()).append(",\n");
+        json.append("    \"accepted\": ").append(metrics.getAccepted()).append(",\n");
+        json.append("    \"acceptedPerAcceptor\": [");
+        long[] accepted = metrics.getAcceptedByAcceptor();
+        for (int i = 0; i < accepted.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(accepted[i]);
+        }
+        json.append("],\n");
+        json.append("    \"acceptsPerSecond\": ").append(metrics.getAcceptRate()).append(",\n");
+        json.append("    \"acceptQueue\": ").append(orNull(metrics.getAcceptQueueDepth())).append(",\n");
+        json.append("    \"hostListenOverflows\": ").append(orNull(metrics.getListenOverflows())).append(",\n");
+        json.append("    \"hostListenDrops\": ").append(orNull(metrics.getListenDrops())).append("\n");
+        json.append("  }");
+    }
+
+    private static String orNull(long value) {
+        return value < 0 ? "null" : String.valueOf(value);
+    }
+
+    private static void appendThreadPool(StringBuilder json, Metrics metrics) {
+        LatencyHistogram queueWait = metrics.getQueueWaitHistogram();
+
+        json.append("  \"threadPool\": {\n");
+        json.append("    \"poolSize\": ").append(metrics.getPoolSize()).append(",\n");
+        json.append("    \"activeThreads\": ").append(metrics.getActiveThreads()).append(",\n");
+        json.append("    \"queueDepth\": ").append(metrics.getQueueDepth()).append(",\n");
+        json.append("    \"queueCapacity\": ").append(metrics.getQueueCapacity()).append(",\n");
+        json.append("    \"peakQueueDepth\": ").append(metrics.getPeakQueueDepth()).append(",\n");
+        json.append("    \"dispatch\": \"").append(metrics.isLifoDispatch() ? "lifo" : "fifo").append("\",\n");
+        // queue wait is recorded in microseconds, exported in milliseconds like the request latency
+        json.append("    \"queueWaitMs\": ");
+        appendHistogram(json, queueWait, "    ");
+        json.append(",\n");
+        json.append("    \"rejections\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : metrics.getRejections().entrySet()) {
+            json.append(first ? "" : ", ")
+                    .append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        json.append("},\n");
+        json.append("    \"callerRuns\": {\n");
+        json.append("      \"count\": ").append(metrics.getCallerRunsCount()).append(",\n");
+        json.append("      \"acceptThreadBlockedMs\": ")
+                .append(format(metrics.getCallerRunsMicros() / 1000.0)).append("\n");
+        json.append("    }");
+        if (metrics.hasAutoscaler()) {
+            json.append(",\n");
+            json.append("    \"autoscaler\": {\n");
+            json.append("      \"min\": ").append(metrics.getAutoscaleMin()).append(",\n");
+            json.append("      \"max\": ").append(metrics.getAutoscaleMax()).append(",\n");
+            json.append("      \"target\": ").append(metrics.getAutoscaleTarget()).append(",\n");
+            json.append("      \"estimatedConcurrency\": ").append(format(metrics.getAutoscaleDemand())).append(",\n");
+            json.append("      \"processCpu\": ").append(format(metrics.getAutoscaleCpu())).append(",\n");
+            json.append("      \"lastDecision\": \"").append(metrics.getAutoscaleReason()).append("\",\n");
+            json.append("      \"grows\": ").append(metrics.getAutoscaleGrows()).append(",\n");
+            json.append("      \"shrinks\": ").append(metrics.getAutoscaleShrinks()).append("\n");
+            json.append("    }");
+        }
+        if (metrics.hasIdlePoller()) {
+            json.append(",\n");
+            json.append("    \"idlePoller\": {\n");
+            json.append("      \"parkedConnections\": ").append(metrics.getParkedConnections()).append(",\n");
+            json.append("      \"resumed\": ").append(metrics.getParkResumes()).append(",\n");
+            json.append("      \"expired\": ").append(metrics.getParkExpirations()).append(",\n");
+            json.append("      \"awaitingHandler\": ").append(metrics.getAwaitingHandler()).append(",\n");
+            json.append("      \"handlerSuspends\": ").append(metrics.getHandlerSuspends()).append("\n");
+            json.append("    }");
+        }
+        json.append("\n");
+        json.append("  }");
+    }
+
+    /**
+     * appends count/mean/percentiles of a microsecond histogram, converted to milliseconds.
+     */
+    static void appendHistogram(StringBuilder json, LatencyHistogram histogram, String indent) {
+        json.append("{\n");
+        json.append(indent).append("  \"count\": ").append(histogram.getCount()).append(",\n");
+        json.append(indent).append("  \"avg\": ").append(format(histogram.getMean() / 1000.0)).append(",\n");
+        json.append(indent).append("  \"p50\": ").append(micros(histogram.getValueAtPercentile(50))).append(",\n");
+        json.append(indent).append("  \"p90\": ").append(micros(histogram.getValueAtPercentile(90))).append(",\n");
+        json.append(indent).append("  \"p99\": ").append(micros(histogram.getValueAtPercentile(99))).append(",\n");
+        json.append(indent).append("  \"max\": ").append(micros(histogram.getMax())).append("\n");
+        json.append(indent).append("}");
+    }
+
+    private static String micros(long micros) {
+        return format(micros / 1000.0);
+    }
+
+    // a JSON number in any default locale; some would write a decimal comma
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -0,0 +1,230 @@
+package com.httpforge.metrics;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * snapshots {@link Metrics} into a memory-mapped ring file at a fixed interval, so the last
+ * N seconds of a node survive the process falling over (the OS flushes dirty mapped pages
+ * even if the JVM is killed). see {@link MetricsFile} for the layout.
+ *
+ * request threads never see this class: it only reads atomics and lock-free histograms
+ * from its own scheduler thread.
+ *
+ * enable with -Dhttpforge.metrics.file=/var/tmp/httpforge.metrics
+ * (optionally -Dhttpforge.metrics.slots=3600 -Dhttpforge.metrics.intervalMs=1000)
+ */
+public class MetricsRecorder implements AutoCloseable {
+    // fsync every N snapshots, so even a machine crash loses at most that many
+    private static final int FORCE_EVERY = 10;
+
+    private final Path path;
+    private final int slotCount;
+    private final long intervalMs;
+    private final Metrics metrics;
+
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private ScheduledExecutorService scheduler;
+    private long sequence;
+
+    // reused between snapshots - the recorder thread is the only writer
+    private final ByteBuffer scratch = ByteBuffer.allocate(MetricsFile.SLOT_SIZE);
+    private final CRC32 crc = new CRC32();
+    private long[] previousLatency = new long[LatencyHistogram.BUCKET_COUNT];
+    private long[] previousQueueWait = new long[LatencyHistogram.BUCKET_COUNT];
+
+    public MetricsRecorder(Path path, int slotCount, long intervalMs, Metrics metrics) {
+        if (slotCount <= 0 || intervalMs <= 0) {
+            throw new IllegalArgumentException("Slot count and interval must be positive");
+        }
+        this.path = path;
+        this.slotCount = slotCount;
+        this.intervalMs = intervalMs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * creates a recorder from system properties, or returns null when recording is off.
+     */
+    public static MetricsRecorder fromSystemProperties(Metrics metrics) {
+        String file = System.getProperty("httpforge.metrics.file");
+        if (file == null || file.isBlank()) {
+            return null;
+        }
+        return new MetricsRecorder(
+                Path.of(file),
+                Integer.getInteger("httpforge.metrics.slots", 3600),
+                Long.getLong("httpforge.metrics.intervalMs", 1000L),
+                metrics
+        );
+    }
+
+    /**
+     * maps the file and starts the snapshot thread. an existing file with the same layout
+     * is appended to, so a restart doesn't wipe the data from the crash before it.
+     */
+    public void start() throws IOException {
+        open();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::snapshotSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("Recording metrics to " + path + " (" + slotCount + " slots, every " + intervalMs + "ms)");
+    }
+
+    void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean resume = channel.size() == MetricsFile.fileSize(slotCount);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, MetricsFile.fileSize(slotCount));
+
+        if (resume && mapped.getLong(MetricsFile.OFFSET_MAGIC) == MetricsFile.MAGIC
+                && mapped.getInt(MetricsFile.OFFSET_VERSION) == MetricsFile.VERSION
+                && mapped.getInt(MetricsFile.OFFSET_SLOT_SIZE) == MetricsFile.SLOT_SIZE) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                sequence = Math.max(sequence, mapped.getLong(MetricsFile.slotOffset(slot)));
+            }
+        } else {
+            // fresh file or different layout: zero all slots, then write the header
+            for (int slot = 0; slot < slotCount; slot++) {
+                mapped.putLong(MetricsFile.slotOffset(slot), 0);
+            }
+            mapped.putLong(MetricsFile.OFFSET_MAGIC, MetricsFile.MAGIC);
+            mapped.putInt(MetricsFile.OFFSET_VERSION, MetricsFile.VERSION);
+            mapped.putInt(MetricsFile.OFFSET_SLOT_SIZE, MetricsFile.SLOT_SIZE);
+            mapped.putInt(MetricsFile.OFFSET_SLOT_COUNT, slotCount);
+        }
+        // interval, creation time and pid describe the current process
+        mapped.putInt(MetricsFile.OFFSET_INTERVAL_MS, (int) intervalMs);
+        mapped.putLong(MetricsFile.OFFSET_CREATED_AT, System.currentTimeMillis());
+        mapped.putLong(MetricsFile.OFFSET_PID, ProcessHandle.current().pid());
+        mapped.force();
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            // never let one bad snapshot kill the scheduler
+            System.err.println("Error recording metrics snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * writes one snapshot into the next slot.
+     */
+    void snapshot() {
+        long[] values = new long[MetricsFile.Field.COUNT];
+        long[] latency = metrics.getRequestLatencyHistogram().bucketCounts();
+        long[] queueWait = metrics.getQueueWaitHistogram().bucketCounts();
+        long[] latencyInterval = subtract(latency, previousLatency);
+        long[] queueWaitInterval = subtract(queueWait, previousQueueWait);
+        previousLatency = latency;
+        previousQueueWait = queueWait;
+
+        put(values, MetricsFile.Field.TIMESTAMP_MS, System.currentTimeMillis());
+        put(values, MetricsFile.Field.TOTAL_REQUESTS, metrics.getTotalRequests());
+        put(values, MetricsFile.Field.ACTIVE_CONNECTIONS, metrics.getActiveConnections());
+        put(values, MetricsFile.Field.INTERVAL_REQUESTS, sum(latencyInterval));
+        put(values, MetricsFile.Field.LATENCY_P50_US, LatencyHistogram.valueAtPercentile(latencyInterval, 50));
+        put(values, MetricsFile.Field.LATENCY_P90_US, LatencyHistogram.valueAtPercentile(latencyInterval, 90));
+        put(values, MetricsFile.Field.LATENCY_P99_US, LatencyHistogram.valueAtPercentile(latencyInterval, 99));
+        put(values, MetricsFile.Field.LATENCY_P999_US, LatencyHistogram.valueAtPercentile(latencyInterval, 99.9));
+        put(values, MetricsFile.Field.LATENCY_MAX_US, LatencyHistogram.valueAtPercentile(latencyInterval, 100));
+        put(values, MetricsFile.Field.POOL_SIZE, metrics.getPoolSize());
+        put(values, MetricsFile.Field.ACTIVE_THREADS, metrics.getActiveThreads());
+        put(values, MetricsFile.Field.QUEUE_DEPTH, metrics.getQueueDepth());
+        put(values, MetricsFile.Field.QUEUE_WAIT_P50_US, LatencyHistogram.valueAtPercentile(queueWaitInterval, 50));
+        put(values, MetricsFile.Field.QUEUE_WAIT_P99_US, LatencyHistogram.valueAtPercentile(queueWaitInterval, 99));
+        put(values, MetricsFile.Field.REJECTIONS, metrics.getTotalRejections());
+        put(values, MetricsFile.Field.CALLER_RUNS, metrics.getCallerRunsCount());
+        put(values, MetricsFile.Field.HEAP_USED_BYTES,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        put(values, MetricsFile.Field.GC_COUNT, gcCount);
+        put(values, MetricsFile.Field.GC_TIME_MS, gcTime);
+        put(values, MetricsFile.Field.THREAD_COUNT, ManagementFactory.getThreadMXBean().getThreadCount());
+
+        write(values);
+    }
+
+    /**
+     * appends a record: invalidate slot, write fields + crc, then publish the sequence.
+     */
+    void write(long[] values) {
+        long seq = ++sequence;
+        int offset = MetricsFile.slotOffset((int) ((seq - 1) % slotCount));
+
+        scratch.clear();
+        for (long value : values) {
+            scratch.putLong(value);
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, MetricsFile.Field.COUNT * 8);
+        scratch.putLong(crc.getValue());
+
+        mapped.putLong(offset, 0);
+        mapped.put(offset + 8, scratch, 0, scratch.position());
+        mapped.putLong(offset, seq);
+
+        if (seq % FORCE_EVERY == 0) {
+            mapped.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            if (mapped != null) {
+                mapped.force();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing metrics file: " + e.getMessage());
+        }
+    }
+
+    private static void put(long[] values, MetricsFile.Field field, long value) {
+        values[field.ordinal()] = value;
+    }
+
+    private static long[] subtract(long[] current, long[] previous) {
+        long[] delta = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            // a field that went backwards was reset() between the two samples; its delta is
+            // recorded as 0, not negative, and what it counted since the reset is lost
+            delta[i] = Math.max(0, current[i] - previous[i]);
+        }
+        return delta;
+    }
+
+    private static long sum(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
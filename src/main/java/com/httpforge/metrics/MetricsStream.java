@@ -0,0 +1,376 @@
+package com.httpforge.metrics;
+
+import com.httpforge.http.HttpResponse;
+import com.httpforge.websocket.WebSocket;
+import com.httpforge.websocket.WebSocketHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * live metrics for the dashboard at /metrics/stream, as server-sent events or over a WebSocket.
+ *
+ * polling /metrics costs a full render per poll per client. here one publisher thread takes a
+ * snapshot every interval, renders it once, and every subscriber is sent the same bytes: a
+ * hundred open dashboards cost one snapshot per interval and a hundred writes. a frame holds
+ * what happened during the interval (requests, throughput, latency percentiles from the
+ * histogram's bucket deltas, like {@link MetricsRecorder}) plus the current gauges.
+ *
+ * the publisher only runs while someone is subscribed. a new subscriber is sent the latest
+ * frame right away, then each new one; a slow one that misses frames just gets the newest,
+ * nothing is queued per subscriber. past the subscriber limit a new one is turned away, with
+ * a 503 or a WebSocket close, rather than each costing a thread and a connection for good.
+ *
+ * -Dhttpforge.metrics.streamIntervalMs sets the interval, default 1000, and
+ * -Dhttpforge.metrics.streamMaxSubscribers the limit, default 256.
+ */
+public final class MetricsStream implements AutoCloseable {
+    public static final int DEFAULT_MAX_SUBSCRIBERS = 256;
+
+    private static final MetricsStream DEFAULT = new MetricsStream(Metrics.getInstance(),
+            Long.getLong("httpforge.metrics.streamIntervalMs", 1000L),
+            Integer.getInteger("httpforge.metrics.streamMaxSubscribers", DEFAULT_MAX_SUBSCRIBERS));
+
+    private final Metrics metrics;
+    private final long intervalMs;
+    private final int maxSubscribers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+
+    // under the lock
+    private int subscribers;
+    private Thread publisher;
+    private boolean closed;
+    private volatile Frame latest;
+    private volatile long framesComputed;
+
+    // publisher thread only
+    private long[] previousLatency = new long[LatencyHistogram.BUCKET_COUNT];
+    private long previousRejections;
+    private long previousNanos;
+
+    public MetricsStream(Metrics metrics, long intervalMs) {
+        this(metrics, intervalMs, DEFAULT_MAX_SUBSCRIBERS);
+    }
+
+    public MetricsStream(Metrics metrics, long intervalMs, int maxSubscribers) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        if (maxSubscribers <= 0) {
+            throw new IllegalArgumentException("Subscriber limit must be positive");
+        }
+        this.metrics = metrics;
+        this.intervalMs = intervalMs;
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * the stream of the process's {@link Metrics}, the one Main serves.
+     */
+    public static MetricsStream getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * a response that streams frames as server-sent events until the client goes away, or a
+     * 503 when the stream already has as many subscribers as it takes.
+     */
+    public HttpResponse sseResponse() {
+        if (!subscribe()) {
+            return HttpResponse.builder()
+                    .status(503, "Service Unavailable")
+                    .header("Content-Type", "text/plain")
+                    .header("Retry-After", "1")
+                    .body("503 Too many metrics subscribers")
+                    .build();
+        }
+        return HttpResponse.builder()
+                .status(200, "OK")
+                .header("Content-Type", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .header("Access-Control-Allow-Origin", "*")
+                .stream(new EventStream())
+                .build();
+    }
+
+    /**
+     * serves a WebSocket connection with the same frames, one text message each. messages
+     * from the client are read and ignored. past the subscriber limit the connection is closed
+     * with 1013, try again later.
+     */
+    public WebSocketHandler webSocketHandler() {
+        return webSocket -> {
+            if (!subscribe()) {
+                webSocket.close(WebSocket.TRY_AGAIN_LATER, "Too many subscribers");
+                return;
+            }
+            Thread pusher = Thread.ofVirtual().name("metrics-stream-websocket").start(() -> {
+                try {
+                    stream(frame -> webSocket.sendFrame(frame.webSocket), webSocket::isOpen);
+                } catch (IOException e) {
+                    // closed, from either end
+                } finally {
+                    unsubscribe();
+                }
+            });
+            try {
+                while (webSocket.read() != null) {
+                    // the dashboard has nothing to say
+                }
+            } finally {
+                pusher.interrupt();
+            }
+        };
+    }
+
+    /**
+     * frames rendered since the stream was created, however many subscribers each went to.
+     */
+    public long getFramesComputed() {
+        return framesComputed;
+    }
+
+    public int getSubscribers() {
+        lock.lock();
+        try {
+            return subscribers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // whether the publisher thread is running; package-private for the tests
+    boolean isPublishing() {
+        lock.lock();
+        try {
+            return publisher != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * stops the publisher and ends every subscriber's stream.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (publisher != null) {
+                publisher.interrupt();
+            }
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * sends each new frame until the sink fails, isOpen says no, or the stream is closed. the
+     * caller has subscribed, and unsubscribes afterwards.
+     */
+    private void stream(Sink sink, BooleanSupplier isOpen) throws IOException {
+        // the latest frame straight away, if there is one
+        Frame frame = latest;
+        long seen = frame != null ? frame.sequence - 1 : 0;
+        while (isOpen.getAsBoolean()) {
+            frame = next(seen);
+            if (frame == null) {
+                return;
+            }
+            sink.send(frame);
+            seen = frame.sequence;
+        }
+    }
+
+    // a frame newer than seen, or null once closed or interrupted
+    private Frame next(long seen) {
+        lock.lock();
+        try {
+            Frame frame;
+            while ((frame = latest) == null || frame.sequence <= seen) {
+                if (closed) {
+                    return null;
+                }
+                published.await();
+            }
+            return frame;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // takes a place among the subscribers, if there's one left
+    private boolean subscribe() {
+        lock.lock();
+        try {
+            if (subscribers >= maxSubscribers) {
+                return false;
+            }
+            subscribers++;
+            if (publisher == null && !closed) {
+                publisher = Thread.ofPlatform().name("metrics-stream").daemon().start(this::publish);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unsubscribe() {
+        lock.lock();
+        try {
+            subscribers--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // one frame now, then one per interval, for as long as anyone is listening
+    private void publish() {
+        long next = System.nanoTime();
+        while (true) {
+            lock.lock();
+            try {
+                if (subscribers == 0 || closed) {
+                    publisher = null;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            Frame frame;
+            try {
+                frame = render();
+            } catch (RuntimeException e) {
+                // never let one bad snapshot end the stream
+                System.err.println("Error rendering metrics frame: " + e.getMessage());
+                frame = null;
+            }
+            if (frame != null) {
+                lock.lock();
+                try {
+                    latest = frame;
+                    published.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            next += TimeUnit.MILLISECONDS.toNanos(intervalMs);
+            try {
+                TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+            } catch (InterruptedException e) {
+                // closed: the check at the top ends it
+            }
+        }
+    }
+
+    /**
+     * one snapshot, as the JSON every subscriber is sent, encoded once per transport.
+     */
+    Frame render() {
+        long nanos = System.nanoTime();
+        long[] latency = metrics.getRequestLatencyHistogram().bucketCounts();
+        long[] interval = new long[latency.length];
+        long requests = 0;
+        for (int i = 0; i < latency.length; i++) {
+            // a reset() since the last frame can leave a bucket below where it was: clamped at
+            // zero, so that frame undercounts rather than showing a negative count
+            interval[i] = Math.max(0, latency[i] - previousLatency[i]);
+            requests += interval[i];
+        }
+        long rejections = metrics.getTotalRejections();
+        double seconds = previousNanos == 0 ? intervalMs / 1000.0 : (nanos - previousNanos) / 1e9;
+        long sequence = framesComputed + 1;
+
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"seq\": ").append(sequence);
+        json.append(", \"timestampMs\": ").append(System.currentTimeMillis());
+        json.append(", \"intervalMs\": ").append(intervalMs);
+        json.append(", \"requests\": ").append(requests);
+        json.append(", \"requestsPerSecond\": ").append(MetricsJson.format(requests / seconds));
+        json.append(", \"latencyUs\": {\"p50\": ").append(LatencyHistogram.valueAtPercentile(interval, 50));
+        json.append(", \"p90\": ").append(LatencyHistogram.valueAtPercentile(interval, 90));
+        json.append(", \"p99\": ").append(LatencyHistogram.valueAtPercentile(interval, 99));
+        json.append(", \"max\": ").append(LatencyHistogram.valueAtPercentile(interval, 100)).append('}');
+        json.append(", \"rejections\": ").append(Math.max(0, rejections - previousRejections));
+        json.append(", \"acceptsPerSecond\": ").append(metrics.getAcceptRate());
+        json.append(", \"totalRequests\": ").append(metrics.getTotalRequests());
+        json.append(", \"activeConnections\": ").append(metrics.getActiveConnections());
+        json.append(", \"poolSize\": ").append(metrics.getPoolSize());
+        json.append(", \"activeThreads\": ").append(metrics.getActiveThreads());
+        json.append(", \"queueDepth\": ").append(metrics.getQueueDepth());
+        json.append(", \"subscribers\": ").append(getSubscribers());
+        json.append('}');
+
+        previousLatency = latency;
+        previousRejections = rejections;
+        previousNanos = nanos;
+        framesComputed = sequence;
+        String data = json.toString();
+        byte[] event = ("id: " + sequence + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        return new Frame(sequence, ByteBuffer.wrap(event).asReadOnlyBuffer(), WebSocket.encodeText(data));
+    }
+
+    /**
+     * a rendered snapshot. the buffers are shared by every subscriber: send duplicates.
+     */
+    static final class Frame {
+        final long sequence;
+        final ByteBuffer event;
+        final ByteBuffer webSocket;
+
+        Frame(long sequence, ByteBuffer event, ByteBuffer webSocket) {
+            this.sequence = sequence;
+            this.event = event;
+            this.webSocket = webSocket;
+        }
+    }
+
+    private interface Sink {
+        void send(Frame frame) throws IOException;
+    }
+
+    // the body of an SSE response: frames until the client goes away. it holds the place
+    // sseResponse() took, given back by close() whether or not it was ever written
+    private final class EventStream implements HttpResponse.BodyStream {
+        private boolean subscribed = true;
+
+        @Override
+        public long transferTo(WritableByteChannel out) throws IOException {
+            long[] written = new long[1];
+            stream(frame -> {
+                ByteBuffer event = frame.event.duplicate();
+                written[0] += event.remaining();
+                while (event.hasRemaining()) {
+                    out.write(event);
+                }
+            }, () -> true);
+            return written[0];
+        }
+
+        @Override
+        public void close() {
+            if (subscribed) {
+                subscribed = false;
+                unsubscribe();
+            }
+        }
+
+        @Override
+        public boolean isLongLived() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.httpforge.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * what the kernel knows about accept queues, which the JDK doesn't expose: Linux /proc only,
+ * everything reads as -1 elsewhere.
+ *
+ * a connection that completes its handshake while the accept queue is full is dropped (and
+ * the client's SYN retried a second later, or its ACK ignored). the kernel counts those in
+ * TcpExt ListenOverflows, and ListenDrops adds SYNs dropped for other reasons; both are for
+ * the whole host, every listening socket of every process. the accept queue itself is per
+ * socket: /proc/net/tcp shows a listening socket's queued connections as its rx_queue.
+ */
+public final class TcpListenStats {
+    private static final Path NETSTAT = Path.of("/proc/net/netstat");
+    private static final Path[] TCP_TABLES = {Path.of("/proc/net/tcp"), Path.of("/proc/net/tcp6")};
+    // st column of a socket in LISTEN
+    private static final String LISTEN = "0A";
+
+    private TcpListenStats() {}
+
+    /**
+     * the host's ListenOverflows and ListenDrops counters since boot, or null when they
+     * can't be read.
+     */
+    public static long[] readHostCounters() {
+        try {
+            List<String> lines = Files.readAllLines(NETSTAT);
+            // a line of names, then a line of values, per group
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (!lines.get(i).startsWith("TcpExt:")) {
+                    continue;
+                }
+                String[] names = lines.get(i).split("\\s+");
+                String[] values = lines.get(i + 1).split("\\s+");
+                long overflows = -1;
+                long drops = -1;
+                for (int k = 1; k < names.length && k < values.length; k++) {
+                    if (names[k].equals("ListenOverflows")) {
+                        overflows = Long.parseLong(values[k]);
+                    } else if (names[k].equals("ListenDrops")) {
+                        drops = Long.parseLong(values[k]);
+                    }
+                }
+                return overflows < 0 || drops < 0 ? null : new long[]{overflows, drops};
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, or a format we don't know
+        }
+        return null;
+    }
+
+    /**
+     * connections waiting to be accepted, over every socket listening on the port (one per
+     * acceptor), or -1 when it can't be read.
+     */
+    public static long acceptQueueDepth(int port) {
+        String localPort = String.format(":%04X", port);
+        long queued = 0;
+        boolean found = false;
+        for (Path table : TCP_TABLES) {
+            try {
+                List<String> lines = Files.readAllLines(table);
+                for (int i = 1; i < lines.size(); i++) {
+                    // sl local_address rem_address st tx_queue:rx_queue ...
+                    String[] fields = lines.get(i).trim().split("\\s+");
+                    if (fields.length > 4 && fields[3].equals(LISTEN) && fields[1].endsWith(localPort)) {
+                        String queues = fields[4];
+                        queued += Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                        found = true;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // no IPv6, or not Linux
+            }
+        }
+        return found ? queued : -1;
+    }
+}
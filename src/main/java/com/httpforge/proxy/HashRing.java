@@ -0,0 +1,69 @@
+package com.httpforge.proxy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * consistent hashing: every upstream owns many points on a ring of int hashes, and a key goes
+ * to the owner of the first point at or after the key's hash. adding or removing an upstream
+ * only moves the keys next to its points, about 1/n of them, and an ejected upstream's keys
+ * spread over the others instead of all landing on its neighbour.
+ */
+final class HashRing {
+    // enough for an even spread over a handful of upstreams
+    private static final int POINTS_PER_UPSTREAM = 160;
+
+    private final int[] points;
+    private final Upstream[] owners;
+
+    HashRing(List<Upstream> upstreams) {
+        long[] sorted = new long[upstreams.size() * POINTS_PER_UPSTREAM];
+        int i = 0;
+        for (int u = 0; u < upstreams.size(); u++) {
+            for (int p = 0; p < POINTS_PER_UPSTREAM; p++) {
+                // hash in the high bits, the upstream's index in the low ones, sorted together
+                sorted[i++] = (long) hash(upstreams.get(u).name() + "#" + p) << 32 | u;
+            }
+        }
+        Arrays.sort(sorted);
+        points = new int[sorted.length];
+        owners = new Upstream[sorted.length];
+        for (i = 0; i < sorted.length; i++) {
+            points[i] = (int) (sorted[i] >> 32);
+            owners[i] = upstreams.get((int) sorted[i]);
+        }
+    }
+
+    /**
+     * the key's upstream, or the next one round the ring that's usable; null if none is.
+     */
+    Upstream pick(String key, Predicate<Upstream> usable) {
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length; i++) {
+            Upstream owner = owners[(start + i) % points.length];
+            if (usable.test(owner)) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    // FNV-1a over the chars, then murmur3's finalizer: String.hashCode() alone clusters
+    // similar keys like "/user/1" and "/user/2" next to each other
+    static int hash(String key) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
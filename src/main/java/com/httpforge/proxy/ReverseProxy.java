@@ -0,0 +1,526 @@
+package com.httpforge.proxy;
+
+import com.httpforge.http.HttpParser;
+import com.httpforge.http.HttpRequest;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * forwards requests to a set of upstream servers, for {@link com.httpforge.routing.Router#addProxyRoute}.
+ *
+ * <pre>
+ * ReverseProxy proxy = ReverseProxy.builder()
+ *         .upstream("localhost", 8081)
+ *         .upstream("localhost", 8082)
+ *         .balancing(ReverseProxy.Balancing.LEAST_OUTSTANDING)
+ *         .build();
+ * router.addProxyRoute("/api", proxy);
+ * </pre>
+ *
+ * every upstream keeps a pool of keep-alive connections, so a forwarded request normally
+ * costs no connect, and no thread: the request goes out on the handler's own thread. the
+ * upstream's response body isn't read into memory; it's copied to the client while the
+ * client's connection writes the response, through the pooled buffers, and the upstream
+ * connection goes back to its pool once the body is through.
+ *
+ * an upstream that fails several times in a row is ejected for a while, see {@link Upstream}.
+ * a request that couldn't reach its upstream is tried once more on another one, a request
+ * that may have reached it only if its method is idempotent. when nothing works the client
+ * gets a 502.
+ */
+public final class ReverseProxy implements Function<HttpRequest, HttpResponse> {
+    /**
+     * how an upstream is chosen for each request.
+     */
+    public enum Balancing {
+        /** each upstream in turn */
+        ROUND_ROBIN,
+        /** the one with the fewest requests in flight: slow upstreams get fewer */
+        LEAST_OUTSTANDING,
+        /** the same upstream for the same key (a header, or the path), e.g. for its caches */
+        CONSISTENT_HASH
+    }
+
+    // for one connection only, never forwarded (RFC 7230 section 6.1)
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE");
+    // a body running until the upstream closes
+    private static final long UNTIL_CLOSE = Long.MAX_VALUE;
+    private static final long CHUNKED = -1;
+
+    private final List<Upstream> upstreams;
+    private final Balancing balancing;
+    private final String hashHeader;
+    private final HashRing ring;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Metrics metrics = Metrics.getInstance();
+
+    private ReverseProxy(Builder builder) {
+        Config config = new Config(builder);
+        List<Upstream> list = new ArrayList<>();
+        for (String[] upstream : builder.upstreams) {
+            list.add(new Upstream(upstream[0], Integer.parseInt(upstream[1]), config));
+        }
+        this.upstreams = Collections.unmodifiableList(list);
+        this.balancing = builder.balancing;
+        this.hashHeader = builder.hashHeader;
+        this.ring = balancing == Balancing.CONSISTENT_HASH ? new HashRing(upstreams) : null;
+    }
+
+    /**
+     * the proxy -Dhttpforge.proxy.upstreams asks for, e.g. "localhost:8081,localhost:8082",
+     * with -Dhttpforge.proxy.balancing (round-robin, least-outstanding or consistent-hash)
+     * and -Dhttpforge.proxy.hashHeader; null if no upstreams are set.
+     */
+    public static ReverseProxy fromSystemProperties() {
+        String list = System.getProperty("httpforge.proxy.upstreams");
+        if (list == null || list.isBlank()) {
+            return null;
+        }
+        Builder builder = builder();
+        for (String upstream : list.split(",")) {
+            int colon = upstream.lastIndexOf(':');
+            builder.upstream(upstream.substring(0, colon).trim(), Integer.parseInt(upstream.substring(colon + 1).trim()));
+        }
+        String balancing = System.getProperty("httpforge.proxy.balancing");
+        if (balancing != null) {
+            builder.balancing(Balancing.valueOf(balancing.trim().toUpperCase(Locale.ROOT).replace('-', '_')));
+        }
+        String hashHeader = System.getProperty("httpforge.proxy.hashHeader");
+        if (hashHeader != null) {
+            builder.hashHeader(hashHeader);
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public HttpResponse apply(HttpRequest request) {
+        return forward(request);
+    }
+
+    /**
+     * forwards the request and returns the upstream's response, its body still to be read
+     * from the upstream while the response is written. the response must be written (or
+     * its body stream closed), otherwise its upstream connection is never given back.
+     */
+    public HttpResponse forward(HttpRequest request) {
+        HttpRequest upstreamRequest = upstreamRequest(request);
+        boolean idempotent = IDEMPOTENT.contains(request.getMethod());
+        Upstream tried = null;
+        for (int attempt = 0; attempt < Math.min(2, upstreams.size()); attempt++) {
+            Upstream upstream = pick(request, tried);
+            try {
+                return exchange(upstream, upstreamRequest);
+            } catch (IOException | HttpParser.HttpParseException e) {
+                System.err.println("Upstream " + upstream.name() + " failed: " + e);
+                // a refused connect never reached the upstream, anything else may have
+                if (!idempotent && !(e instanceof ConnectException)) {
+                    break;
+                }
+                tried = upstream;
+            }
+        }
+        return HttpResponse.builder()
+                .status(502, "Bad Gateway")
+                .header("Content-Type", "text/plain")
+                .body("502 Bad Gateway")
+                .build();
+    }
+
+    private HttpResponse exchange(Upstream upstream, HttpRequest request)
+            throws IOException, HttpParser.HttpParseException {
+        long start = System.nanoTime();
+        upstream.requestStarted();
+        UpstreamConnection connection = null;
+        boolean handedOver = false;
+        try {
+            HttpResponse head;
+            while (true) {
+                connection = upstream.acquire();
+                long readBefore = connection.in.getBytesRead();
+                try {
+                    connection.out.write(request);
+                    head = HttpParser.parseResponseHead(connection.in);
+                    while (head.getStatusCode() >= 100 && head.getStatusCode() < 200) {
+                        // 100 Continue and other interim responses, the final one follows
+                        head = HttpParser.parseResponseHead(connection.in);
+                    }
+                    break;
+                } catch (IOException e) {
+                    // a pooled connection the upstream closed while it sat idle fails before
+                    // any response byte: not the upstream's fault, go again on a new one
+                    if (!connection.reused || e instanceof SocketTimeoutException
+                            || connection.in.getBytesRead() != readBefore) {
+                        throw e;
+                    }
+                    connection.close();
+                    connection = null;
+                }
+            }
+            boolean failed = head.getStatusCode() >= 500;
+            metrics.recordUpstreamRequest(upstream.name(), (System.nanoTime() - start) / 1000, failed);
+            if (failed) {
+                upstream.recordFailure();
+            } else {
+                upstream.recordSuccess();
+            }
+
+            HttpResponse.Builder response = HttpResponse.builder().status(head.getStatusCode(), head.getReasonPhrase());
+            String transferEncoding = null;
+            String contentLength = null;
+            boolean reusable = true;
+            for (Map.Entry<String, String> header : head.getHeaders().entrySet()) {
+                String name = header.getKey().toLowerCase(Locale.ROOT);
+                if (name.equals("connection") && header.getValue().equalsIgnoreCase("close")) {
+                    reusable = false;
+                } else if (name.equals("transfer-encoding")) {
+                    transferEncoding = header.getValue();
+                } else if (name.equals("content-length")) {
+                    contentLength = header.getValue();
+                }
+                // the body is framed again on the way out, Content-Length only if it's ours to trust
+                if (!HOP_BY_HOP.contains(name) && !name.equals("content-length")) {
+                    response.header(header.getKey(), header.getValue());
+                }
+            }
+            // RFC 9112 6.3: Transfer-Encoding overrides Content-Length, and a message with both is
+            // one the two ends may not agree on: the Content-Length isn't forwarded, and the
+            // connection isn't used again
+            long length;
+            if (request.getMethod().equals("HEAD") || head.getStatusCode() == 204 || head.getStatusCode() == 304) {
+                length = 0;
+                if (contentLength != null) {
+                    // what a GET would have got; there's no body to frame
+                    response.header("Content-Length", contentLength);
+                }
+            } else if (transferEncoding != null) {
+                // chunked only counts as the final coding; anything else ends when the upstream closes
+                String[] codings = transferEncoding.split(",");
+                length = codings[codings.length - 1].trim().equalsIgnoreCase("chunked") ? CHUNKED : UNTIL_CLOSE;
+                reusable &= contentLength == null && length == CHUNKED;
+            } else if (contentLength != null) {
+                length = Long.parseLong(contentLength.trim());
+                if (length < 0) {
+                    throw new NumberFormatException("Negative Content-Length " + length);
+                }
+                response.header("Content-Length", contentLength.trim());
+            } else {
+                // no framing at all: the body ends when the upstream closes
+                length = UNTIL_CLOSE;
+                reusable = false;
+            }
+
+            if (length == 0) {
+                if (reusable) {
+                    upstream.release(connection);
+                } else {
+                    connection.close();
+                }
+                return response.build();
+            }
+            handedOver = true;
+            return response.stream(new UpstreamBody(upstream, connection, length, reusable)).build();
+        } catch (IOException | HttpParser.HttpParseException | NumberFormatException e) {
+            metrics.recordUpstreamRequest(upstream.name(), (System.nanoTime() - start) / 1000, true);
+            upstream.recordFailure();
+            if (connection != null) {
+                connection.close();
+            }
+            if (e instanceof NumberFormatException) {
+                throw new HttpParser.HttpParseException("Invalid Content-Length from upstream", e);
+            }
+            throw e;
+        } finally {
+            if (!handedOver) {
+                upstream.requestEnded();
+            }
+        }
+    }
+
+    // the request as it goes upstream: hop-by-hop headers dropped, the body framed by length
+    private static HttpRequest upstreamRequest(HttpRequest request) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!HOP_BY_HOP.contains(name) && !name.equals("content-length")) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        String via = request.getHeader("Via");
+        headers.put("Via", via != null ? via + ", 1.1 httpforge" : "1.1 httpforge");
+        headers.put("Connection", "keep-alive");
+        if (!request.getBody().isEmpty() || !IDEMPOTENT.contains(request.getMethod())) {
+            headers.put("Content-Length", String.valueOf(utf8Length(request.getBody())));
+        }
+        return new HttpRequest(request.getMethod(), request.getPath(), headers, request.getBody());
+    }
+
+    /**
+     * the upstream for the request, leaving out ejected ones and the one that just failed
+     * while there's any other. package-private for the tests.
+     */
+    Upstream pick(HttpRequest request, Upstream exclude) {
+        long now = System.nanoTime();
+        Upstream upstream = pick(request, u -> u != exclude && !u.isEjected(now));
+        if (upstream == null) {
+            // all ejected: better an upstream that may have recovered than a certain 502
+            upstream = pick(request, u -> u != exclude || upstreams.size() == 1);
+        }
+        return upstream;
+    }
+
+    private Upstream pick(HttpRequest request, Predicate<Upstream> usable) {
+        int size = upstreams.size();
+        switch (balancing) {
+            case ROUND_ROBIN -> {
+                int start = Math.floorMod(next.getAndIncrement(), size);
+                for (int i = 0; i < size; i++) {
+                    Upstream upstream = upstreams.get((start + i) % size);
+                    if (usable.test(upstream)) {
+                        return upstream;
+                    }
+                }
+                return null;
+            }
+            case LEAST_OUTSTANDING -> {
+                // ties go round, rather than all to the first upstream
+                int start = Math.floorMod(next.getAndIncrement(), size);
+                Upstream best = null;
+                for (int i = 0; i < size; i++) {
+                    Upstream upstream = upstreams.get((start + i) % size);
+                    if (usable.test(upstream) && (best == null || upstream.outstanding() < best.outstanding())) {
+                        best = upstream;
+                    }
+                }
+                return best;
+            }
+            default -> {
+                String key = hashHeader != null ? request.getHeader(hashHeader) : null;
+                return ring.pick(key != null ? key : request.getPath(), usable);
+            }
+        }
+    }
+
+    List<Upstream> upstreams() {
+        return upstreams;
+    }
+
+    /**
+     * closes the idle pooled connections; in-flight ones close when their response is done.
+     */
+    public void close() {
+        for (Upstream upstream : upstreams) {
+            upstream.closeIdle();
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * the upstream response's body, copied to the client when the response is written. the
+     * connection goes back to the pool only if the body was read to its end.
+     */
+    private static final class UpstreamBody implements HttpResponse.BodyStream {
+        private final Upstream upstream;
+        private final UpstreamConnection connection;
+        // bytes, CHUNKED or UNTIL_CLOSE
+        private final long length;
+        private final boolean reusable;
+        private boolean complete;
+
+        UpstreamBody(Upstream upstream, UpstreamConnection connection, long length, boolean reusable) {
+            this.upstream = upstream;
+            this.connection = connection;
+            this.length = length;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel out) throws IOException {
+            long copied;
+            if (length == CHUNKED) {
+                copied = transferChunks(out);
+            } else {
+                copied = connection.in.transferTo(out, length);
+                if (copied < length && length != UNTIL_CLOSE) {
+                    throw new EOFException("Upstream closed mid-body");
+                }
+            }
+            complete = true;
+            return copied;
+        }
+
+        // the chunks' data only; the client side frames it again
+        private long transferChunks(WritableByteChannel out) throws IOException {
+            long copied = 0;
+            try {
+                while (true) {
+                    String sizeLine = connection.in.readLine();
+                    if (sizeLine == null) {
+                        throw new EOFException("Upstream closed mid-body");
+                    }
+                    int extension = sizeLine.indexOf(';');
+                    long size = Long.parseLong((extension == -1 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                    if (size == 0) {
+                        // trailers, dropped, until the empty line
+                        String trailer;
+                        while ((trailer = connection.in.readLine()) != null && !trailer.isEmpty()) {
+                            // ignore
+                        }
+                        return copied;
+                    }
+                    long n = connection.in.transferTo(out, size);
+                    copied += n;
+                    if (n < size) {
+                        throw new EOFException("Upstream closed mid-chunk");
+                    }
+                    // the CRLF after the chunk
+                    connection.in.readLine();
+                }
+            } catch (HttpParser.HttpParseException | NumberFormatException e) {
+                throw new IOException("Invalid chunked body from upstream", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            upstream.requestEnded();
+            if (complete && reusable) {
+                upstream.release(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    // settings every upstream of one proxy shares
+    static final class Config {
+        final int connectTimeoutMs;
+        final int readTimeoutMs;
+        final int maxIdlePerUpstream;
+        final long idleTimeoutMs;
+        final int ejectAfterFailures;
+        final long ejectForMs;
+
+        private Config(Builder builder) {
+            this.connectTimeoutMs = builder.connectTimeoutMs;
+            this.readTimeoutMs = builder.readTimeoutMs;
+            this.maxIdlePerUpstream = builder.maxIdlePerUpstream;
+            this.idleTimeoutMs = builder.idleTimeoutMs;
+            this.ejectAfterFailures = builder.ejectAfterFailures;
+            this.ejectForMs = builder.ejectForMs;
+        }
+    }
+
+    public static final class Builder {
+        private final List<String[]> upstreams = new ArrayList<>();
+        private Balancing balancing = Balancing.ROUND_ROBIN;
+        private String hashHeader;
+        private int connectTimeoutMs = 1000;
+        private int readTimeoutMs = 30_000;
+        private int maxIdlePerUpstream = 64;
+        // below the idle timeout of an httpforge upstream (5s), so the proxy closes first
+        private long idleTimeoutMs = 4000;
+        private int ejectAfterFailures = 3;
+        private long ejectForMs = 10_000;
+
+        public Builder upstream(String host, int port) {
+            upstreams.add(new String[] {host, String.valueOf(port)});
+            return this;
+        }
+
+        public Builder balancing(Balancing balancing) {
+            this.balancing = balancing;
+            return this;
+        }
+
+        /**
+         * the header whose value picks the upstream with CONSISTENT_HASH, e.g. a user or
+         * session id; requests without it hash their path. the path alone when not set.
+         */
+        public Builder hashHeader(String header) {
+            this.hashHeader = header;
+            return this;
+        }
+
+        public Builder connectTimeoutMs(int millis) {
+            this.connectTimeoutMs = millis;
+            return this;
+        }
+
+        /**
+         * how long the upstream may go without sending anything, while answering.
+         */
+        public Builder readTimeoutMs(int millis) {
+            this.readTimeoutMs = millis;
+            return this;
+        }
+
+        public Builder maxIdlePerUpstream(int connections) {
+            this.maxIdlePerUpstream = connections;
+            return this;
+        }
+
+        /**
+         * a pooled connection idle for longer is closed rather than reused; keep it below the
+         * upstream's own keep-alive timeout.
+         */
+        public Builder idleTimeoutMs(long millis) {
+            this.idleTimeoutMs = millis;
+            return this;
+        }
+
+        /**
+         * ejects an upstream after this many failures in a row, for ejectForMs.
+         */
+        public Builder ejection(int failures, long ejectForMs) {
+            this.ejectAfterFailures = failures;
+            this.ejectForMs = ejectForMs;
+            return this;
+        }
+
+        public ReverseProxy build() {
+            if (upstreams.isEmpty()) {
+                throw new IllegalStateException("A reverse proxy needs at least one upstream");
+            }
+            return new ReverseProxy(this);
+        }
+    }
+}
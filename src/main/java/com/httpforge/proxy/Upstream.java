@@ -0,0 +1,147 @@
+package com.httpforge.proxy;
+
+import com.httpforge.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * one backend the proxy forwards to: its pool of idle keep-alive connections, how many
+ * requests it has in flight, and whether it's ejected.
+ *
+ * health is passive, judged from the traffic itself rather than probes: a number of failures
+ * in a row (no response, or a 5xx) ejects the upstream for a while. once the time is up it
+ * gets requests again, and the first success clears its record.
+ */
+final class Upstream {
+    private final String name;
+    private final InetSocketAddress address;
+    private final ReverseProxy.Config config;
+    private final Metrics metrics = Metrics.getInstance();
+
+    // most recently used last: taken from the end, so the warmest connection is reused and
+    // the ones at the front are the first to reach the idle timeout
+    private final ArrayDeque<UpstreamConnection> idle = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+
+    Upstream(String host, int port, ReverseProxy.Config config) {
+        this.name = host + ":" + port;
+        this.address = InetSocketAddress.createUnresolved(host, port);
+        this.config = config;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * whether it's out of rotation at the moment.
+     */
+    boolean isEjected(long nowNanos) {
+        return ejected && nowNanos - ejectedUntilNanos < 0;
+    }
+
+    void requestStarted() {
+        outstanding.incrementAndGet();
+    }
+
+    void requestEnded() {
+        outstanding.decrementAndGet();
+    }
+
+    void recordSuccess() {
+        consecutiveFailures.set(0);
+        ejected = false;
+    }
+
+    void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        // ejected once per run of failures; a failure after the ejection ran out starts another
+        if (failures >= config.ejectAfterFailures && !isEjected(System.nanoTime())) {
+            ejectedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.ejectForMs);
+            ejected = true;
+            consecutiveFailures.set(0);
+            metrics.recordUpstreamEjected(name);
+        }
+    }
+
+    /**
+     * an idle pooled connection, or a new one. connections idle for longer than the idle
+     * timeout are closed on the way, the upstream is likely to have closed them already.
+     */
+    UpstreamConnection acquire() throws IOException {
+        long now = System.nanoTime();
+        long maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(config.idleTimeoutMs);
+        lock.lock();
+        try {
+            UpstreamConnection connection;
+            while ((connection = idle.pollLast()) != null) {
+                if (now - connection.idleSinceNanos < maxIdleNanos) {
+                    connection.reused = true;
+                    metrics.recordUpstreamConnection(name, true);
+                    return connection;
+                }
+                connection.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        // resolved on every connect, so a DNS change is picked up
+        InetSocketAddress resolved = new InetSocketAddress(address.getHostString(), address.getPort());
+        UpstreamConnection connection = UpstreamConnection.open(resolved, config.connectTimeoutMs, config.readTimeoutMs);
+        metrics.recordUpstreamConnection(name, false);
+        return connection;
+    }
+
+    /**
+     * puts a connection whose response was read completely back into the pool, or closes it
+     * when the pool is full.
+     */
+    void release(UpstreamConnection connection) {
+        connection.idleSinceNanos = System.nanoTime();
+        lock.lock();
+        try {
+            if (idle.size() < config.maxIdlePerUpstream) {
+                idle.addLast(connection);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        connection.close();
+    }
+
+    int idleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void closeIdle() {
+        lock.lock();
+        try {
+            UpstreamConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
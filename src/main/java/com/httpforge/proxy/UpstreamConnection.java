@@ -0,0 +1,55 @@
+package com.httpforge.proxy;
+
+import com.httpforge.buffer.BufferPool;
+import com.httpforge.http.HttpInput;
+import com.httpforge.http.HttpOutput;
+import com.httpforge.http.StreamChannels;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * one keep-alive connection from the proxy to an upstream, read and written through pooled
+ * buffers like the client side. the socket's streams rather than its channel, so that the
+ * read timeout applies.
+ */
+final class UpstreamConnection {
+    private final Socket socket;
+    final HttpInput in;
+    final HttpOutput out;
+    // whether it came out of the pool, i.e. the upstream may have closed it in the meantime
+    boolean reused;
+    // when it went back into the pool
+    long idleSinceNanos;
+
+    private UpstreamConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        BufferPool pool = BufferPool.getDefault();
+        this.in = new HttpInput(StreamChannels.reader(socket.getInputStream()), pool);
+        this.out = new HttpOutput(StreamChannels.writer(socket.getOutputStream()), pool);
+    }
+
+    static UpstreamConnection open(InetSocketAddress address, int connectTimeoutMs, int readTimeoutMs)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            return new UpstreamConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    void close() {
+        in.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
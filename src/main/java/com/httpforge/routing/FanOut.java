@@ -0,0 +1,280 @@
+package com.httpforge.routing;
+
+import com.httpforge.http.HttpRequest;
+import com.httpforge.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * runs a handler's backend calls in parallel, so the request takes as long as the slowest
+ * call rather than the sum of all of them.
+ *
+ * <pre>
+ * try (FanOut fanOut = FanOut.open(request)) {
+ *     FanOut.Subtask&lt;String&gt; user = fanOut.fork("user", () -&gt; users.fetch(id));
+ *     FanOut.Subtask&lt;String&gt; orders = fanOut.fork("orders", () -&gt; orders.fetch(id));
+ *     fanOut.join();
+ *     return HttpResponse.ok(user.get() + orders.get());
+ * }
+ * </pre>
+ *
+ * every sub-task gets its own virtual thread, so a blocking call costs no platform thread.
+ * the scope is structured: join() returns only when all sub-tasks succeeded, and throws as
+ * soon as one fails or the deadline passes, interrupting the rest. close() doesn't return
+ * until every sub-task thread has finished, so none outlive the handler.
+ *
+ * each sub-task's duration and outcome go into {@link Metrics#recordSubtask}, under its name.
+ */
+public final class FanOut implements AutoCloseable {
+    /**
+     * deadline for a request's sub-tasks unless it asks for less, -Dhttpforge.fanout.timeoutMs.
+     */
+    public static final long DEFAULT_TIMEOUT_MS = Long.getLong("httpforge.fanout.timeoutMs", 2000);
+    /**
+     * request header a client can use to ask for a shorter deadline, in milliseconds.
+     */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private final long deadlineNanos;
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
+    private final Metrics metrics = Metrics.getInstance();
+    private final List<Subtask<?>> subtasks = new ArrayList<>();
+    // starts at 1 for the owner, so the latch can't open before join() even if every
+    // forked sub-task finishes early
+    private final AtomicInteger unfinished = new AtomicInteger(1);
+    private final CountDownLatch settled = new CountDownLatch(1);
+    private final AtomicReference<Subtask<?>> firstFailure = new AtomicReference<>();
+    private boolean joined;
+
+    private FanOut(long timeoutNanos) {
+        this.deadlineNanos = System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * a scope whose deadline comes from the request: the X-Request-Timeout header when it's
+     * shorter than the default, otherwise {@link #DEFAULT_TIMEOUT_MS}.
+     */
+    public static FanOut open(HttpRequest request) {
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        String requested = request.getHeader(TIMEOUT_HEADER);
+        if (requested != null) {
+            try {
+                long ms = Long.parseLong(requested.trim());
+                if (ms > 0) {
+                    timeoutMs = Math.min(timeoutMs, ms);
+                }
+            } catch (NumberFormatException e) {
+                // ignore a malformed header, the default still applies
+            }
+        }
+        return open(Duration.ofMillis(timeoutMs));
+    }
+
+    public static FanOut open(Duration timeout) {
+        return new FanOut(timeout.toNanos());
+    }
+
+    /**
+     * starts a sub-task on its own virtual thread. must be called by the thread that opened
+     * the scope, before join().
+     *
+     * @param name used for the thread name and the sub-task metrics, e.g. the backend called
+     */
+    public <T> Subtask<T> fork(String name, Callable<T> task) {
+        if (joined) {
+            throw new IllegalStateException("fork() after join()");
+        }
+        Subtask<T> subtask = new Subtask<>(name);
+        subtasks.add(subtask);
+        unfinished.incrementAndGet();
+        subtask.future = executor.submit(() -> run(subtask, task));
+        return subtask;
+    }
+
+    private <T> void run(Subtask<T> subtask, Callable<T> task) {
+        if (!subtask.started.compareAndSet(false, true)) {
+            // cancelled before it got here, and already settled by cancelAll()
+            return;
+        }
+        Thread.currentThread().setName("fanout-" + subtask.name);
+        long start = System.nanoTime();
+        T result = null;
+        Throwable failure = null;
+        try {
+            result = task.call();
+        } catch (Throwable e) {
+            failure = e;
+        }
+        subtask.result = result;
+        subtask.exception = failure;
+        // an interrupt from cancel() is not the sub-task's own failure
+        settle(subtask, failure == null ? State.SUCCESS : subtask.cancelled ? State.CANCELLED : State.FAILED,
+                System.nanoTime() - start);
+    }
+
+    // the sub-task's final state, on whichever thread decided it
+    private void settle(Subtask<?> subtask, State state, long elapsedNanos) {
+        subtask.elapsedNanos = elapsedNanos;
+        subtask.state = state;
+        metrics.recordSubtask(subtask.name, elapsedNanos / 1000, state.label());
+        if (state == State.FAILED && firstFailure.compareAndSet(null, subtask)) {
+            settled.countDown();
+        } else if (unfinished.decrementAndGet() == 0) {
+            settled.countDown();
+        }
+        subtask.done.countDown();
+    }
+
+    /**
+     * waits for every sub-task to succeed.
+     *
+     * @throws FanOutException when a sub-task failed or the deadline passed; the sub-tasks
+     *                         still running are cancelled first
+     * @throws InterruptedException if the handler thread is interrupted; sub-tasks are cancelled
+     */
+    public void join() throws InterruptedException {
+        if (!joined) {
+            joined = true;
+            if (unfinished.decrementAndGet() == 0) {
+                settled.countDown();
+            }
+        }
+        boolean done;
+        try {
+            done = settled.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            cancelAll();
+            throw e;
+        }
+        Subtask<?> failed = firstFailure.get();
+        if (failed != null) {
+            cancelAll();
+            throw new FanOutException(failed.name, false, failed.exception);
+        }
+        if (!done) {
+            cancelAll();
+            String unanswered = null;
+            for (Subtask<?> subtask : subtasks) {
+                if (subtask.state != State.SUCCESS) {
+                    unanswered = subtask.name;
+                    break;
+                }
+            }
+            throw new FanOutException(unanswered, true, null);
+        }
+    }
+
+    private void cancelAll() {
+        for (Subtask<?> subtask : subtasks) {
+            if (subtask.state == State.RUNNING) {
+                subtask.cancelled = true;
+                // a sub-task cancelled before its thread started never runs, so run() can't
+                // settle it; whichever of the two gets to it first does
+                if (subtask.future.cancel(true) && subtask.started.compareAndSet(false, true)) {
+                    settle(subtask, State.CANCELLED, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * cancels whatever is still running and waits for every sub-task thread to finish.
+     */
+    @Override
+    public void close() {
+        cancelAll();
+        executor.shutdownNow();
+        // the executor's own close() isn't enough: it stops tracking a thread as soon as its
+        // task is cancelled, while that thread may still be on its way out of run()
+        boolean interrupted = false;
+        for (Subtask<?> subtask : subtasks) {
+            while (true) {
+                try {
+                    subtask.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        executor.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum State {
+        RUNNING, SUCCESS, FAILED, CANCELLED;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * a forked sub-task; read it after join() returned.
+     */
+    public static final class Subtask<T> {
+        private final String name;
+        private Future<?> future;
+        private volatile State state = State.RUNNING;
+        private volatile boolean cancelled;
+        // claimed by run() when it starts, or by cancelAll() when it never will
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        // written before state, read after it
+        private T result;
+        private Throwable exception;
+        private long elapsedNanos;
+
+        private Subtask(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        /**
+         * the result of a sub-task that succeeded.
+         *
+         * @throws IllegalStateException if it failed, was cancelled or is still running
+         */
+        public T get() {
+            if (state != State.SUCCESS) {
+                throw new IllegalStateException("Sub-task " + name + " is " + state.label());
+            }
+            return result;
+        }
+
+        /**
+         * the exception of a failed sub-task, or null.
+         */
+        public Throwable exception() {
+            return state == State.FAILED ? exception : null;
+        }
+
+        /**
+         * how long the sub-task ran, once it's finished.
+         */
+        public Duration elapsed() {
+            return state == State.RUNNING ? Duration.ZERO : Duration.ofNanos(elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.httpforge.routing;
+
+/**
+ * thrown by {@link FanOut#join()} when a sub-task failed or the deadline passed before all
+ * of them finished. a handler typically answers with a 502 or 504 respectively.
+ */
+public class FanOutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String subtask;
+    private final boolean timeout;
+
+    FanOutException(String subtask, boolean timeout, Throwable cause) {
+        super(timeout ? "Deadline passed waiting for " + subtask : "Sub-task " + subtask + " failed", cause);
+        this.subtask = subtask;
+        this.timeout = timeout;
+    }
+
+    /**
+     * the sub-task that failed, or for a timeout the first one that hadn't finished.
+     */
+    public String getSubtask() {
+        return subtask;
+    }
+
+    public boolean isTimeout() {
+        return timeout;
+    }
+}
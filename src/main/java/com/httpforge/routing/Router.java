@@ -2,14 +2,39 @@ package com.httpforge.routing;
 
 import com.httpforge.http.HttpRequest;
 import com.httpforge.http.HttpResponse;
+import com.httpforge.jfr.RequestRoutedEvent;
+import com.httpforge.websocket.WebSocketHandler;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
 public class Router {
     // using Function functional interface to represent route handlers
-    private final Map<String, Function<HttpRequest, HttpResponse>> routes = new HashMap<>();
+    // method → path → handler, so a lookup needs no "METHOD /path" key string per request
+    private final Map<String, Map<String, Function<HttpRequest, HttpResponse>>> routes = new HashMap<>();
+    // handlers that return before the response is ready, e.g. while waiting on a downstream call
+    private final Map<String, Map<String, Function<HttpRequest, CompletionStage<HttpResponse>>>> asyncRoutes = new HashMap<>();
+    // path prefix → proxy, longest prefix first; only asked when no exact route matches
+    private final List<Map.Entry<String, Function<HttpRequest, HttpResponse>>> proxyRoutes = new ArrayList<>();
+    // path → handler for the connections upgraded to WebSocket there
+    private final Map<String, WebSocketHandler> webSocketRoutes = new HashMap<>();
+    // path → priority class, for the paths declared anything but DATA
+    private final Map<String, Priority> priorities = new HashMap<>();
+
+    /**
+     * which lane a request is queued in when the server is saturated, see {@link #setPriority}.
+     */
+    public enum Priority {
+        // health checks, metrics, debugging: cheap, and what tells a load balancer the node is alive
+        CONTROL,
+        // everything else
+        DATA
+    }
 
     /**
      * register a route handler for a specific HTTP method and path.
@@ -19,30 +44,183 @@ public class Router {
      * @param handler Function that processes the request and returns a response
      */
     public void addRoute(String method, String path, Function<HttpRequest, HttpResponse> handler) {
-        String key = routeKey(method, path);
-        routes.put(key, handler);
+        String upper = method.toUpperCase();
+        remove(asyncRoutes, upper, path);
+        routes.computeIfAbsent(upper, m -> new HashMap<>()).put(path, handler);
+    }
+
+    /**
+     * register a handler that doesn't block for its response.
+     *
+     * the handler returns right away with a stage that completes with the response later. the
+     * connection handler releases its thread while the stage is pending (in hybrid pool mode)
+     * and writes the response once it completes. a pending stage is cancelled when the handler
+     * deadline passes, see ConnectionTimeouts; the handler should stop its work when it sees that.
+     * the stage must support toCompletableFuture(). the handler gets a snapshot of the request
+     * (see {@link HttpRequest#snapshot()}), since its work outlives the call.
+     *
+     * @param method  HTTP method (GET, POST, etc.)
+     * @param path    Request path
+     * @param handler Function that starts processing the request and returns the pending response
+     */
+    public void addAsyncRoute(String method, String path, Function<HttpRequest, CompletionStage<HttpResponse>> handler) {
+        String upper = method.toUpperCase();
+        remove(routes, upper, path);
+        asyncRoutes.computeIfAbsent(upper, m -> new HashMap<>()).put(path, handler);
+    }
+
+    /**
+     * forward every request under a path prefix, whatever its method, e.g. to a
+     * {@link com.httpforge.proxy.ReverseProxy}. "/api" covers /api and /api/..., not /apix.
+     * exact routes come first, so with "/" everything this server doesn't answer itself
+     * is forwarded. where prefixes overlap, the longest wins.
+     *
+     * @param pathPrefix the path the forwarded requests start with
+     * @param proxy      handler for all of them, called like a sync route
+     */
+    public void addProxyRoute(String pathPrefix, Function<HttpRequest, HttpResponse> proxy) {
+        proxyRoutes.removeIf(route -> route.getKey().equals(pathPrefix));
+        proxyRoutes.add(Map.entry(pathPrefix, proxy));
+        proxyRoutes.sort((a, b) -> b.getKey().length() - a.getKey().length());
+    }
+
+    /**
+     * register a handler for WebSocket connections opened on a path. a GET that asks for the
+     * upgrade is answered with the 101 and handed to the handler; any other request for the
+     * path goes to the route registered for it as usual, so an endpoint can serve both (see
+     * /metrics/stream).
+     *
+     * @param path    Request path
+     * @param handler serves each connection for as long as it's open
+     */
+    public void addWebSocketRoute(String path, WebSocketHandler handler) {
+        webSocketRoutes.put(path, handler);
+    }
+
+    /**
+     * declares the priority class of every request for a path, whatever its method or kind of
+     * route. a server with priority lanes (see ThreadPoolServer.ThreadPoolConfig#withControlLane)
+     * serves CONTROL requests on threads of their own instead of behind a backed-up queue of
+     * DATA ones. paths never declared are DATA.
+     *
+     * @param path     Request path
+     * @param priority the lane its requests go to
+     */
+    public void setPriority(String path, Priority priority) {
+        if (priority == Priority.DATA) {
+            priorities.remove(path);
+        } else {
+            priorities.put(path, priority);
+        }
+    }
+
+    /**
+     * the priority class declared for the request's path, DATA when none was.
+     */
+    public Priority priorityOf(HttpRequest request) {
+        Priority priority = priorities.get(stripQuery(request.getPath()));
+        return priority != null ? priority : Priority.DATA;
+    }
+
+    /**
+     * the handler for a WebSocket upgrade request, or null when none is registered for its path.
+     */
+    public WebSocketHandler webSocketHandler(HttpRequest request) {
+        return webSocketRoutes.get(stripQuery(request.getPath()));
     }
 
     /**
      * Route an incoming request to the appropriate handler.
      * Returns 404 if no matching route is found.
      *
+     * An async handler is waited for on the calling thread.
+     *
      * @param request The HTTP request to route
      * @return HTTP response from the handler or 404
+     * @throws java.util.concurrent.CompletionException if an async handler failed
      */
     public HttpResponse route(HttpRequest request) {
-        String key = routeKey(request.getMethod(), request.getPath());
-        Function<HttpRequest, HttpResponse> handler = routes.get(key);
+        String method = request.getMethod().toUpperCase();
+        String path = stripQuery(request.getPath());
+        Function<HttpRequest, HttpResponse> handler = lookup(routes, method, path);
+        if (handler == null) {
+            Function<HttpRequest, CompletionStage<HttpResponse>> async = lookup(asyncRoutes, method, path);
+            if (async == null) {
+                handler = proxyFor(path);
+            }
+            emitRouted(method, path, async != null || handler != null);
+            if (async != null) {
+                return async.apply(request.snapshot()).toCompletableFuture().join();
+            }
+            return handler != null ? handler.apply(request) : notFound(request.getPath());
+        }
+        emitRouted(method, path, true);
+        return handler.apply(request);
+    }
 
-        if (handler != null) {
-            return handler.apply(request);
+    /**
+     * whether the request goes to an async handler, i.e. whether {@link #routeAsync} could
+     * return a stage that is not yet complete. lets a caller use route() otherwise, without
+     * wrapping every response in a completed stage.
+     */
+    public boolean isAsync(HttpRequest request) {
+        return lookup(asyncRoutes, request.getMethod().toUpperCase(), stripQuery(request.getPath())) != null;
+    }
+
+    /**
+     * Route an incoming request without waiting for an async handler.
+     * Sync handlers and 404s come back as an already completed stage.
+     *
+     * @param request The HTTP request to route
+     * @return the handler's pending response, or a completed one
+     */
+    public CompletionStage<HttpResponse> routeAsync(HttpRequest request) {
+        String method = request.getMethod().toUpperCase();
+        String path = stripQuery(request.getPath());
+        Function<HttpRequest, CompletionStage<HttpResponse>> async = lookup(asyncRoutes, method, path);
+        if (async != null) {
+            emitRouted(method, path, true);
+            return async.apply(request.snapshot());
         }
+        return CompletableFuture.completedFuture(route(request));
+    }
+
+    private void emitRouted(String method, String path, boolean matched) {
+        RequestRoutedEvent event = new RequestRoutedEvent();
+        if (event.shouldCommit()) {
+            event.route = method + " " + path;
+            event.matched = matched;
+            event.commit();
+        }
+    }
 
-        return notFound(request.getPath());
+    private Function<HttpRequest, HttpResponse> proxyFor(String path) {
+        for (Map.Entry<String, Function<HttpRequest, HttpResponse>> route : proxyRoutes) {
+            String prefix = route.getKey();
+            if (path.startsWith(prefix) && (path.length() == prefix.length() || prefix.endsWith("/")
+                    || path.charAt(prefix.length()) == '/')) {
+                return route.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static <H> H lookup(Map<String, Map<String, H>> table, String method, String path) {
+        Map<String, H> byPath = table.get(method);
+        return byPath != null ? byPath.get(path) : null;
+    }
+
+    private static <H> void remove(Map<String, Map<String, H>> table, String method, String path) {
+        Map<String, H> byPath = table.get(method);
+        if (byPath != null) {
+            byPath.remove(path);
+        }
     }
 
-    private String routeKey(String method, String path) {
-        return method.toUpperCase() + " " + path;
+    // routes match on the path only, "/metrics?pretty" goes to the "/metrics" handler
+    private static String stripQuery(String path) {
+        int query = path.indexOf('?');
+        return query == -1 ? path : path.substring(0, query);
     }
 
     /**
@@ -0,0 +1,150 @@
+package com.httpforge.server;
+
+import com.httpforge.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * the listening side of a server, as {@link ListenConfig} describes it: one or more sockets
+ * on the port, each with a thread blocked in accept() that hands what it accepts to the
+ * server. the first acceptor runs on the thread that calls run(), like the accept loop it
+ * replaces; the others get threads of their own.
+ */
+final class Acceptors {
+    private final String name;
+    private final ListenConfig config;
+    // ServerSocketChannel sockets, which the idle poller needs, or plain ones
+    private final boolean channels;
+    private final Consumer<Socket> onAccept;
+    private final Metrics metrics = Metrics.getInstance();
+    private final List<ServerSocket> sockets = new ArrayList<>();
+    private volatile boolean running;
+    private volatile int localPort = -1;
+
+    Acceptors(String name, ListenConfig config, boolean channels, Consumer<Socket> onAccept) {
+        this.name = name;
+        this.config = config;
+        this.channels = channels;
+        this.onAccept = onAccept;
+    }
+
+    /**
+     * binds the listening sockets: one per acceptor where SO_REUSEPORT lets them share the
+     * port, otherwise one the acceptors share.
+     */
+    void open(int port) throws IOException {
+        running = true;
+        ServerSocket first = newSocket();
+        boolean reusePort = (config.getAcceptors() > 1 || config.isReusePort())
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (config.isReusePort() && !reusePort) {
+            // sharing the port with other processes was asked for, and can't happen
+            first.close();
+            throw new IOException("SO_REUSEPORT is not supported on this platform");
+        }
+        if (reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        bind(first, port);
+        int bound = first.getLocalPort();
+        for (int i = 1; i < config.getAcceptors(); i++) {
+            if (!reusePort) {
+                sockets.add(first);
+                continue;
+            }
+            ServerSocket socket = newSocket();
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            bind(socket, bound);
+        }
+        localPort = bound;
+        metrics.registerListener(bound, config.getAcceptors(), config.getBacklog());
+    }
+
+    /**
+     * accepts until close(), on this thread and one more per extra acceptor.
+     */
+    void run() {
+        for (int i = 1; i < sockets.size(); i++) {
+            int acceptor = i;
+            Thread.ofPlatform().name(name + "-acceptor-" + i).start(() -> accept(acceptor));
+        }
+        accept(0);
+    }
+
+    /**
+     * whether each acceptor has a socket of its own.
+     */
+    boolean isReusePort() {
+        return config.isReusePort() || sockets.size() > 1 && sockets.get(0) != sockets.get(1);
+    }
+
+    int getLocalPort() {
+        return localPort;
+    }
+
+    void close() {
+        running = false;
+        for (ServerSocket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+        // the acceptor threads end on their own, once whatever they're running returns
+    }
+
+    private ServerSocket newSocket() throws IOException {
+        ServerSocket socket = channels ? ServerSocketChannel.open().socket() : new ServerSocket();
+        if (config.getReceiveBufferSize() > 0) {
+            // before bind, so the window scale in the SYN-ACK allows for it
+            socket.setReceiveBufferSize(config.getReceiveBufferSize());
+        }
+        return socket;
+    }
+
+    private void bind(ServerSocket socket, int port) throws IOException {
+        try {
+            socket.bind(new InetSocketAddress(port), config.getBacklog());
+        } catch (IOException e) {
+            socket.close();
+            close();
+            throw e;
+        }
+        sockets.add(socket);
+    }
+
+    private void accept(int acceptor) {
+        ServerSocket serverSocket = sockets.get(acceptor);
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+                continue;
+            }
+            metrics.recordAccepted(acceptor);
+            try {
+                socket.setTcpNoDelay(config.isTcpNoDelay());
+                if (config.getSendBufferSize() > 0) {
+                    socket.setSendBufferSize(config.getSendBufferSize());
+                }
+            } catch (SocketException e) {
+                // reset before we got to it; the handler finds out on its first read
+            }
+            onAccept.accept(socket);
+        }
+    }
+}
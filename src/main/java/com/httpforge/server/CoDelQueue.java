@@ -0,0 +1,321 @@
+package com.httpforge.server;
+
+import com.httpforge.metrics.Metrics;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * executor queue that sheds by queueing delay instead of by length (CoDel-style, with
+ * adaptive LIFO).
+ *
+ * a full queue is a poor overload signal: with a deep queue, work waits for seconds before
+ * anything is rejected, and by then the client has given up. this queue watches for a
+ * standing queue instead. if it hasn't been empty for a whole interval, the pool can't keep
+ * up. while that lasts:
+ * <ul>
+ *   <li>workers take the newest task (LIFO), which still has a chance to meet its deadline</li>
+ *   <li>tasks that have waited longer than the target are shed from the old end, see {@code shed}</li>
+ * </ul>
+ * once the queue drains it goes back to FIFO and sheds nothing. a full queue is still
+ * refused by offer(), so the executor's RejectionPolicy applies as before.
+ *
+ * ThreadPoolExecutor only adds threads above core when offer() fails, and this queue rarely
+ * fills up. so while the queue is standing and the pool is below its maximum, offer() refuses
+ * and the executor starts another worker before anything is shed.
+ *
+ * only the worker-side take() and poll(timeout) apply the discipline; poll() and the
+ * other Queue methods see a plain FIFO, so DISCARD_OLDEST still finds the oldest task.
+ */
+class CoDelQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final ArrayDeque<Runnable> deque;
+    private final int capacity;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final Consumer<Runnable> shed;
+    // System.nanoTime, or the tests' clock; tasks' enqueue times must come from the same one
+    private final LongSupplier clock;
+    private final Metrics metrics = Metrics.getInstance();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile ThreadPoolExecutor executor;
+    // guarded by lock
+    private long lastEmptyNanos;
+    // written under the lock, read without it in offer()
+    private volatile boolean lifo;
+
+    /**
+     * @param shed called on the dequeuing worker, outside the lock, for every task dropped
+     *             for waiting too long
+     */
+    CoDelQueue(int capacity, long targetMs, long intervalMs, Consumer<Runnable> shed) {
+        this(capacity, targetMs, intervalMs, shed, System::nanoTime);
+    }
+
+    /**
+     * with a clock of its own instead of System.nanoTime. package-private for the tests.
+     */
+    CoDelQueue(int capacity, long targetMs, long intervalMs, Consumer<Runnable> shed, LongSupplier clock) {
+        this.deque = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.shed = shed;
+        this.clock = clock;
+        this.lastEmptyNanos = clock.getAsLong();
+    }
+
+    /**
+     * the executor draining this queue, so offer() can let it grow under a standing queue.
+     */
+    void attach(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        // read outside our lock: the executor takes its own lock and calls size() while holding it
+        ThreadPoolExecutor pool = executor;
+        if (lifo && pool != null && pool.getPoolSize() < pool.getMaximumPoolSize()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return deque.size() < capacity && enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        offer(task, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (deque.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under the lock, with room in the queue
+    private boolean enqueue(Runnable task) {
+        if (deque.isEmpty()) {
+            lastEmptyNanos = clock.getAsLong();
+        }
+        deque.addLast(task);
+        notEmpty.signal();
+        return true;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        List<Runnable> dropped = new ArrayList<>(0);
+        Runnable task;
+        lock.lockInterruptibly();
+        try {
+            while ((task = dequeue(dropped)) == null && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+            for (Runnable stale : dropped) {
+                shed.accept(stale);
+            }
+        }
+        return task;
+    }
+
+    // under the lock: the next task for a worker, shedding stale ones while overloaded
+    private Runnable dequeue(List<Runnable> dropped) {
+        if (deque.isEmpty()) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        boolean overloaded = now - lastEmptyNanos > intervalNanos;
+        if (overloaded) {
+            Runnable oldest;
+            while ((oldest = deque.peekFirst()) != null && now - enqueuedAt(oldest, now) > targetNanos) {
+                dropped.add(deque.pollFirst());
+            }
+        }
+        if (overloaded != lifo) {
+            lifo = overloaded;
+            metrics.recordDispatchMode(overloaded);
+        }
+        Runnable task = overloaded ? deque.pollLast() : deque.pollFirst();
+        if (deque.isEmpty()) {
+            drained(now);
+        }
+        if (task != null || !dropped.isEmpty()) {
+            notFull.signalAll();
+        }
+        return task;
+    }
+
+    // under the lock: the queue just emptied, so it isn't standing any more. LIFO ends here
+    // too, not on the next dequeue: until then offer() would keep refusing and the executor
+    // would start a thread for every task, with idle workers and nothing queued
+    private void drained(long now) {
+        lastEmptyNanos = now;
+        if (lifo) {
+            lifo = false;
+            metrics.recordDispatchMode(false);
+        }
+    }
+
+    private static long enqueuedAt(Runnable task, long now) {
+        // anything that isn't a connection can't be answered with a 503, so it never looks stale
+        return task instanceof ConnectionTask ? ((ConnectionTask) task).getEnqueuedAtNanos() : now;
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            Runnable task = deque.pollFirst();
+            if (task != null) {
+                if (deque.isEmpty()) {
+                    drained(clock.getAsLong());
+                }
+                notFull.signal();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return deque.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            boolean removed = deque.remove(o);
+            if (removed) {
+                if (deque.isEmpty()) {
+                    drained(clock.getAsLong());
+                }
+                notFull.signal();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return deque.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - deque.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            deque.clear();
+            drained(clock.getAsLong());
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            Runnable task;
+            while (n < maxElements && (task = deque.pollFirst()) != null) {
+                c.add(task);
+                n++;
+            }
+            if (deque.isEmpty()) {
+                drained(clock.getAsLong());
+            }
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * a snapshot, oldest first; it doesn't support remove().
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            return List.copyOf(deque).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
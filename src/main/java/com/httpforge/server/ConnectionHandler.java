@@ -1,70 +1,330 @@
 package com.httpforge.server;
 
+import com.httpforge.buffer.BufferPool;
+import com.httpforge.http.HttpInput;
+import com.httpforge.http.HttpOutput;
 import com.httpforge.http.HttpParser;
 import com.httpforge.http.HttpRequest;
 import com.httpforge.http.HttpResponse;
+import com.httpforge.http.StreamChannels;
+import com.httpforge.http2.Http2Connection;
+import com.httpforge.jfr.ConnectionAcceptedEvent;
+import com.httpforge.jfr.ConnectionClosedEvent;
+import com.httpforge.jfr.HandlerExecutedEvent;
+import com.httpforge.jfr.RequestParsedEvent;
+import com.httpforge.jfr.ResponseWrittenEvent;
 import com.httpforge.metrics.Metrics;
 import com.httpforge.routing.Router;
+import com.httpforge.tls.TlsChannel;
+import com.httpforge.tls.TlsContext;
+import com.httpforge.tracing.SpanRing;
+import com.httpforge.tracing.Tracer;
+import com.httpforge.websocket.WebSocket;
+import com.httpforge.websocket.WebSocketHandler;
 
+import javax.net.ssl.SSLException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 /**
  * Implements persistent connections per HTTP/1.1 specification.
  */
 public class ConnectionHandler {
-    // this is the time we wait for the next request on a keep-alive connection
-    private static final int IDLE_TIMEOUT_MS = 5000; // 5 seconds
+    // one stdout line per request; -Dhttpforge.accessLog=false when benchmarking in-process
+    private static final boolean ACCESS_LOG = !"false".equals(System.getProperty("httpforge.accessLog"));
 
     private final Router router;
     private final Socket socket;
+    private final long acceptedAtNanos;
+    private final long queueWaitNanos;
+    private final Tracer tracer = Tracer.getInstance();
+    // hybrid mode: where the connection waits between requests instead of blocking this thread
+    private final IdleConnectionPoller poller;
+    private final ConnectionTimeouts timeouts;
+    // null for plain HTTP
+    private final TlsContext tlsContext;
+    // the one deadline armed for the current phase, and which phase fired if one did
+    private HashedWheelTimer.Timeout deadline;
+    private volatile ConnectionTimeouts.Phase expiredPhase;
+    private final Runnable headersComplete = () -> arm(ConnectionTimeouts.Phase.BODY);
+    // one expiry task per phase, made once instead of on every arm()
+    private final Runnable[] expiries = new Runnable[ConnectionTimeouts.Phase.values().length];
+    // after a switch to HTTP/2: idle while no stream is open, body while a frame comes in
+    private final Http2Connection.Listener http2Listener = new Http2Connection.Listener() {
+        @Override
+        public void awaitingFrame(boolean idle) {
+            if (idle) {
+                arm(ConnectionTimeouts.Phase.IDLE);
+            } else {
+                disarm();
+            }
+        }
+
+        @Override
+        public void readingFrame() {
+            arm(ConnectionTimeouts.Phase.BODY);
+        }
+
+        @Override
+        public void responded(HttpRequest request, HttpResponse response, long durationMs) {
+            logRequest(request, response, durationMs);
+        }
+    };
+
+    // per connection, kept across handle() calls when the connection is parked in between
+    private ConnectionClosedEvent closedEvent;
+    private HttpInput in;
+    private HttpOutput out;
+    // what out writes to, the socket or TLS over it
+    private WritableByteChannel output;
+    private TlsChannel tls;
+    private long handleStartNanos;
+
+    // the request in flight; fields rather than locals so that an async response can be
+    // written by a later handle() call, after this one gave its thread back
+    private HttpRequest request;
+    private long requestStartMillis;
+    private long requestStartNanos;
+    private HandlerExecutedEvent handlerEvent;
+    private CompletableFuture<HttpResponse> pending;
+    private volatile boolean handlerTimedOut;
+
+    // JFR events are cheap when no recording is running, but not free: these live in fields
+    // (an async response is written by a later handle() call), so escape analysis can't remove
+    // them and each request allocates its events whether or not anything records them
+    private RequestParsedEvent parsedEvent;
+    private long firstByteNanos;
+    private long bytesWritten;
+    private int requestsServed;
+    // off for warmup traffic, which nobody wants in the log
+    private boolean accessLog = ACCESS_LOG;
+    // reused for every sampled request on this connection
+    private final long[] phaseNanos = new long[SpanRing.Phase.COUNT];
+
+    // priority lanes: once a connection has been triaged, a request for another lane than the
+    // one this handler runs on is handed to the gate, which queues it in the right one
+    private BiConsumer<ConnectionHandler, Router.Priority> laneGate;
+    // the lane of the thread running this handler, null while triaging
+    private Router.Priority lane;
+    // the request was read before the hand-off, the next handle() routes it without reading
+    private boolean admitted;
 
     public ConnectionHandler(Socket socket, Router router) {
+        this(socket, router, System.nanoTime(), 0);
+    }
+
+    /**
+     * @param tlsContext terminates TLS on this connection, or null for plain HTTP
+     */
+    public ConnectionHandler(Socket socket, Router router, TlsContext tlsContext) {
+        this(socket, router, System.nanoTime(), 0, null, ConnectionTimeouts.getDefault(), tlsContext);
+    }
+
+    /**
+     * @param acceptedAtNanos System.nanoTime() when accept() returned the socket
+     * @param queueWaitNanos  time the connection waited in a queue before reaching this handler
+     */
+    public ConnectionHandler(Socket socket, Router router, long acceptedAtNanos, long queueWaitNanos) {
+        this(socket, router, acceptedAtNanos, queueWaitNanos, null, ConnectionTimeouts.getDefault(),
+                TlsContext.getDefault());
+    }
+
+    /**
+     * @param poller when set, the connection is parked there between requests and handle()
+     *               returns; the poller calls back into handle() when the next request arrives.
+     *               the socket must come from a channel
+     * @param timeouts read and write deadlines; while parked, the poller applies the idle one
+     * @param tlsContext terminates TLS on this connection, or null for plain HTTP
+     */
+    ConnectionHandler(Socket socket, Router router, long acceptedAtNanos, long queueWaitNanos,
+                      IdleConnectionPoller poller, ConnectionTimeouts timeouts, TlsContext tlsContext) {
         this.socket = socket;
         this.router = router;
+        this.acceptedAtNanos = acceptedAtNanos;
+        this.queueWaitNanos = queueWaitNanos;
+        this.poller = poller;
+        this.timeouts = timeouts;
+        this.tlsContext = tlsContext;
+        for (ConnectionTimeouts.Phase phase : ConnectionTimeouts.Phase.values()) {
+            expiries[phase.ordinal()] = () -> expire(phase);
+        }
     }
 
     /**
      * Parse → Route → Respond → Check Keep-Alive → Repeat or Close
+     * with a poller: Parse → Route → Respond → Park, and again from the top once resumed.
+     * an async handler's pending response is waited for on this thread, or with a poller,
+     * handle() returns and is called again to write the response once it's ready.
      */
     public void handle() {
         // it's a singleton, so get the instance
         Metrics metrics = Metrics.getInstance();
+        boolean parked = false;
+        // handed to a virtual thread, which closes it
+        boolean detached = false;
 
         try {
-            socket.setSoTimeout(IDLE_TIMEOUT_MS); // idle timeout for keep-alive
-            InputStream in = socket.getInputStream();
-            OutputStream out = socket.getOutputStream();
+            if (in == null) {
+                handleStartNanos = System.nanoTime();
+                closedEvent = new ConnectionClosedEvent();
+                closedEvent.begin();
+                emitAccepted();
+                // a channel reads and writes the pooled direct buffers without a copy; a plain
+                // socket's streams are adapted, which copies through a byte[]
+                SocketChannel channel = socket.getChannel();
+                BufferPool pool = BufferPool.getDefault();
+                ReadableByteChannel reader = channel != null ? channel : StreamChannels.reader(socket.getInputStream());
+                WritableByteChannel writer = channel != null ? channel : StreamChannels.writer(socket.getOutputStream());
+                if (tlsContext != null) {
+                    // the handshake runs on the first read, under the idle deadline
+                    tls = tlsContext.open(reader, writer, pool);
+                    in = new HttpInput(tls, pool);
+                    output = tls;
+                } else {
+                    in = new HttpInput(reader, pool);
+                    output = writer;
+                }
+                out = new HttpOutput(output, pool);
+                in.setFirstByteListener(this::onFirstByte);
+            }
 
             boolean keepAlive = true;
             while (keepAlive) {
+                long bytesBefore = in.getBytesRead();
                 try {
-                    // parse request - don't start timing until we have a valid request
-                    HttpRequest request = HttpParser.parse(in);
+                    CompletableFuture<HttpResponse> future = pending;
+                    HttpResponse response = null;
+                    if (future == null) {
+                        if (admitted) {
+                            // read by the thread that handed it over
+                            admitted = false;
+                        } else {
+                            // parse request - don't start timing until we have a valid request
+                            parsedEvent = new RequestParsedEvent();
+                            // idle first: a pipelined request already buffered moves straight on to header
+                            arm(ConnectionTimeouts.Phase.IDLE);
+                            in.awaitNextRequest();
+                            request = HttpParser.parse(in, headersComplete);
+                            disarm();
+                            emitParsed(request, in.getBytesRead() - bytesBefore);
+                            if (laneGate != null) {
+                                Router.Priority priority = router.priorityOf(request);
+                                if (priority != lane) {
+                                    lane = priority;
+                                    admitted = true;
+                                    // another thread may be running this handler once the gate returns
+                                    laneGate.accept(this, priority);
+                                    parked = true;
+                                    return;
+                                }
+                            }
+                        }
+                        if (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request)) {
+                            serveHttp2(request);
+                            break;
+                        }
+                        WebSocketHandler webSocket = WebSocket.isUpgrade(request) ? router.webSocketHandler(request) : null;
+                        if (webSocket != null) {
+                            openWebSocket(request, webSocket);
+                            detached = true;
+                            return;
+                        }
+
+                        requestStartMillis = System.currentTimeMillis();
+                        requestStartNanos = System.nanoTime();
+                        metrics.recordRequestStart();
 
-                    long startTime = System.currentTimeMillis();
-                    metrics.recordRequestStart();
+                        handlerEvent = new HandlerExecutedEvent();
+                        handlerEvent.begin();
+                        if (router.isAsync(request)) {
+                            future = router.routeAsync(request).toCompletableFuture();
+                            if (!future.isDone()) {
+                                armHandlerDeadline(future);
+                                if (poller != null) {
+                                    suspend(future, metrics);
+                                    parked = true;
+                                    return;
+                                }
+                            }
+                        } else {
+                            // no completed stage to wrap it in
+                            response = router.route(request);
+                        }
+                    }
+                    pending = null;
+                    if (response == null) {
+                        response = await(future, metrics);
+                    }
+                    long startTime = requestStartMillis;
+                    long startNanos = requestStartNanos;
+                    long handlerDoneNanos = System.nanoTime();
+                    handlerEvent.end();
+                    if (handlerEvent.shouldCommit()) {
+                        handlerEvent.route = request.getMethod() + " " + request.getPath();
+                        handlerEvent.status = response.getStatusCode();
+                        handlerEvent.commit();
+                    }
+
+                    HttpResponse.BodyStream bodyStream = response.getBodyStream();
+                    if (bodyStream != null && bodyStream.isLongLived()) {
+                        // an event stream: served once it starts, the client ends it
+                        long duration = System.currentTimeMillis() - startTime;
+                        metrics.recordRequestEnd(duration);
+                        logRequest(request, response, duration);
+                        requestsServed++;
+                        closedEvent.reason = "stream-end";
+                        HttpResponse streamed = response;
+                        detach(() -> bytesWritten += detachedOutput().write(streamed, "close"));
+                        detached = true;
+                        return;
+                    }
 
                     // Check if client wants to keep connection alive
                     String connectionHeader = request.getHeader("Connection");
                     boolean clientWantsKeepAlive = connectionHeader != null &&
                                                    connectionHeader.equalsIgnoreCase("keep-alive");
 
-                    HttpResponse response = router.route(request);
-
-                    // Add Connection header to response based on client's request
-                    if (clientWantsKeepAlive) {
-                        response = addConnectionHeader(response, "keep-alive");
-                    } else {
-                        response = addConnectionHeader(response, "close");
+                    // Connection header on the response based on client's request; written
+                    // by HttpOutput, so the handler's response needn't be copied to add it
+                    if (!clientWantsKeepAlive) {
                         keepAlive = false;
                     }
 
-                    out.write(response.toBytes());
-                    out.flush();
+                    ResponseWrittenEvent writtenEvent = new ResponseWrittenEvent();
+                    writtenEvent.begin();
+                    arm(ConnectionTimeouts.Phase.WRITE);
+                    long bytes = out.write(response, clientWantsKeepAlive ? "keep-alive" : "close");
+                    disarm();
+                    bytesWritten += bytes;
+                    requestsServed++;
+                    writtenEvent.end();
+                    if (writtenEvent.shouldCommit()) {
+                        writtenEvent.route = request.getMethod() + " " + request.getPath();
+                        writtenEvent.status = response.getStatusCode();
+                        writtenEvent.bytes = bytes;
+                        writtenEvent.requestDuration = System.nanoTime() - startNanos;
+                        writtenEvent.commit();
+                    }
+
+                    if (tracer.shouldSample()) {
+                        // accept and queue time only belong to the first request on a connection
+                        boolean first = requestsServed == 1;
+                        phaseNanos[SpanRing.Phase.ACCEPT.ordinal()] =
+                                first ? handleStartNanos - acceptedAtNanos - queueWaitNanos : 0;
+                        phaseNanos[SpanRing.Phase.QUEUE.ordinal()] = first ? queueWaitNanos : 0;
+                        phaseNanos[SpanRing.Phase.PARSE.ordinal()] = startNanos - firstByteNanos;
+                        phaseNanos[SpanRing.Phase.HANDLER.ordinal()] = handlerDoneNanos - startNanos;
+                        phaseNanos[SpanRing.Phase.WRITE.ordinal()] = System.nanoTime() - handlerDoneNanos;
+                        tracer.record(request, response.getStatusCode(), startTime, phaseNanos);
+                    }
 
                     // record successful request completion
                     long duration = System.currentTimeMillis() - startTime;
@@ -73,39 +333,292 @@ public class ConnectionHandler {
                     // log request details: method, path, status code, duration
                     logRequest(request, response, duration);
 
-                } catch (java.net.SocketTimeoutException e) {
-                    // Idle timeout reached, close connection
-                    // don't record metrics - this is just an idle keep-alive timeout
-                    System.out.println("Connection idle timeout, closing");
-                    keepAlive = false;
+                    // nothing else has arrived yet: give this thread back until something does
+                    if (keepAlive && poller != null && !in.hasBuffered() && (tls == null || !tls.hasBuffered())
+                            && poller.park(this)) {
+                        parked = true;
+                        return;
+                    }
+
                 } catch (HttpParser.HttpParseException e) {
-                    System.err.println("Parse error: " + e.getMessage());
                     keepAlive = false;
+                    if (timedOut(metrics)) {
+                        break;
+                    }
+                    if (in.getBytesRead() == bytesBefore) {
+                        // client closed between requests: a normal end of a keep-alive connection
+                        break;
+                    }
+                    System.err.println("Parse error: " + e.getMessage());
+                    closedEvent.reason = "parse-error";
                 } catch (IOException e) {
-                    // Connection closed by client or other I/O error
+                    // Connection closed by client, by one of our deadlines, or other I/O error
                     keepAlive = false;
+                    if (!timedOut(metrics)) {
+                        closedEvent.reason = e instanceof SSLException ? "tls-error" : "io-error";
+                    }
                 }
             }
         } catch (IOException e) {
             System.err.println("Error setting up connection: " + e.getMessage());
         } finally {
+            if (!parked && !detached) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * the connection speaks HTTP/2 from here on, and keeps this thread until it ends: its
+     * streams are served on threads of their own, this one reads their frames.
+     */
+    private void serveHttp2(HttpRequest request) throws IOException {
+        Http2Connection http2 = new Http2Connection(in, out, router, http2Listener);
+        closedEvent.reason = "http2-end";
+        if (Http2Connection.isPreface(request)) {
+            http2.servePriorKnowledge();
+        } else {
+            http2.serveUpgrade(request);
+        }
+    }
+
+    /**
+     * answers the upgrade and hands the connection to the WebSocket handler, which keeps it
+     * for as long as the client stays.
+     */
+    private void openWebSocket(HttpRequest request, WebSocketHandler handler) throws IOException {
+        bytesWritten += out.write(WebSocket.handshakeResponse(request), null);
+        WebSocket webSocket = new WebSocket(request.snapshot(), in, detachedOutput());
+        requestsServed++;
+        closedEvent.reason = "websocket-end";
+        detach(() -> {
+            try {
+                handler.onOpen(webSocket);
+            } finally {
+                if (webSocket.isOpen()) {
+                    // the handler returned without closing: tell the client, if it's still there
+                    try {
+                        webSocket.close(WebSocket.GOING_AWAY, "");
+                    } catch (IOException e) {
+                        // it isn't
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * carries on with the connection on a virtual thread of its own, which closes it when done:
+     * for what lasts as long as the client stays (a WebSocket session, an event stream) and
+     * would otherwise hold one of the workers all that time. reads have no deadline any more,
+     * the client may stay quiet for as long as it likes; writes go through
+     * {@link #detachedOutput()}, each under the write deadline.
+     */
+    private void detach(DetachedWork work) {
+        Thread.ofVirtual().name("detached-connection").start(() -> {
             try {
-                socket.close();
+                work.run();
             } catch (IOException e) {
-                System.err.println("Error closing socket: " + e.getMessage());
+                // the client went away, or stopped reading and the write deadline closed it
+                timedOut(Metrics.getInstance());
+            } catch (RuntimeException e) {
+                System.err.println("Detached connection failed: " + e);
+            } finally {
+                close();
             }
+        });
+    }
+
+    /**
+     * an output for a detached connection that arms the write deadline around every write, so
+     * a client that stops reading is closed rather than holding its thread (and, for a
+     * WebSocket, every sender's lock) forever.
+     */
+    private HttpOutput detachedOutput() {
+        return new HttpOutput(new DeadlineChannel(output), BufferPool.getDefault());
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * have the next request read on the calling thread, and handed to the gate with its
+     * priority class instead of being routed there; requests after it that are for another
+     * lane than the last go to the gate too.
+     */
+    void triage(BiConsumer<ConnectionHandler, Router.Priority> gate) {
+        laneGate = gate;
+        lane = null;
+    }
+
+    /**
+     * the lane of the thread about to run this handler, when it's put there without triage:
+     * requests for that lane are served right there, one for another lane goes to the gate.
+     */
+    void setLane(BiConsumer<ConnectionHandler, Router.Priority> gate, Router.Priority lane) {
+        laneGate = gate;
+        this.lane = lane;
+    }
+
+    /**
+     * whether the next handle() writes an async response rather than reading a request.
+     */
+    boolean isAwaitingResponse() {
+        return pending != null;
+    }
+
+    SocketChannel getChannel() {
+        return socket.getChannel();
+    }
+
+    /**
+     * closes a connection the poller is holding, without a request in flight.
+     * may be called before handle() ever ran, when the client never sent a request.
+     */
+    void closeParked(String reason) {
+        if (closedEvent != null) {
+            closedEvent.reason = reason;
         }
+        close();
     }
 
-    private HttpResponse addConnectionHeader(HttpResponse response, String value) {
-        Map<String, String> headers = response.getHeaders();
-        headers.put("Connection", value);
-        return new HttpResponse(
-            response.getStatusCode(),
-            response.getReasonPhrase(),
-            headers,
-            response.getBody()
-        );
+    /**
+     * gives the thread back while an async response is pending; the poller hands the
+     * connection to a worker again once it completes. the caller must not touch the
+     * connection after this, the completion can already be running elsewhere.
+     */
+    private void suspend(CompletableFuture<HttpResponse> future, Metrics metrics) {
+        pending = future;
+        metrics.recordHandlerSuspended();
+        future.whenComplete((response, failure) -> {
+            metrics.recordHandlerCompleted();
+            if (!poller.resume(this)) {
+                closeParked("shutdown");
+            }
+        });
+    }
+
+    // cancels the handler's work when it takes too long; await() answers with a 504
+    private void armHandlerDeadline(CompletableFuture<HttpResponse> future) {
+        disarm();
+        deadline = timeouts.schedule(ConnectionTimeouts.Phase.HANDLER, () -> {
+            handlerTimedOut = true;
+            future.cancel(true);
+        });
+    }
+
+    // the response of a completed (or on this thread, soon to complete) handler, or an error response
+    private HttpResponse await(CompletableFuture<HttpResponse> future, Metrics metrics) {
+        try {
+            return future.join();
+        } catch (CancellationException | CompletionException e) {
+            if (handlerTimedOut) {
+                handlerTimedOut = false;
+                metrics.recordTimeout(ConnectionTimeouts.Phase.HANDLER.label());
+                return HttpResponse.builder()
+                        .status(504, "Gateway Timeout")
+                        .header("Content-Type", "text/plain")
+                        .body("504 Gateway Timeout")
+                        .build();
+            }
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("Handler failed: " + cause);
+            return HttpResponse.internalServerError();
+        } finally {
+            disarm();
+        }
+    }
+
+    /**
+     * arms the deadline for the phase the connection is entering, replacing the previous one.
+     */
+    private void arm(ConnectionTimeouts.Phase phase) {
+        disarm();
+        deadline = timeouts.schedule(phase, expiries[phase.ordinal()]);
+    }
+
+    private void disarm() {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    // on the timer thread: closing the socket wakes the worker blocked in read() or write()
+    private void expire(ConnectionTimeouts.Phase phase) {
+        expiredPhase = phase;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    // whether the failure the worker just saw was one of our deadlines closing the socket
+    private boolean timedOut(Metrics metrics) {
+        ConnectionTimeouts.Phase phase = expiredPhase;
+        if (phase == null) {
+            return false;
+        }
+        // don't record request metrics - the request never completed
+        System.out.println("Connection " + phase.label() + " timeout, closing");
+        metrics.recordTimeout(phase.label());
+        closedEvent.reason = phase.label() + "-timeout";
+        return true;
+    }
+
+    private void close() {
+        disarm();
+        if (tls != null) {
+            tls.close();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing socket: " + e.getMessage());
+        }
+        if (in != null) {
+            in.close();
+        }
+        if (closedEvent != null) {
+            closedEvent.end();
+            if (closedEvent.shouldCommit()) {
+                closedEvent.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+                closedEvent.requests = requestsServed;
+                closedEvent.bytesRead = in != null ? in.getBytesRead() : 0;
+                closedEvent.bytesWritten = bytesWritten;
+                if (closedEvent.reason == null) {
+                    closedEvent.reason = "connection-close";
+                }
+                closedEvent.commit();
+            }
+        }
+    }
+
+    private void emitAccepted() {
+        ConnectionAcceptedEvent event = new ConnectionAcceptedEvent();
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+            event.commit();
+        }
+    }
+
+    // parsing "starts" when the first byte of the request arrives, not when we start waiting for it
+    private void onFirstByte() {
+        firstByteNanos = System.nanoTime();
+        arm(ConnectionTimeouts.Phase.HEADER);
+        parsedEvent.begin();
+    }
+
+    private void emitParsed(HttpRequest request, long bytes) {
+        parsedEvent.end();
+        if (parsedEvent.shouldCommit()) {
+            parsedEvent.method = request.getMethod();
+            parsedEvent.path = request.getPath();
+            parsedEvent.bytes = bytes;
+            parsedEvent.commit();
+        }
     }
 
     /**
@@ -113,6 +626,9 @@ public class ConnectionHandler {
      * Format: [METHOD] /path -> STATUS (duration ms)
      */
     private void logRequest(HttpRequest request, HttpResponse response, long durationMs) {
+        if (!accessLog) {
+            return;
+        }
         System.out.printf("[%s] %s -> %d %s (%dms)%n",
             request.getMethod(),
             request.getPath(),
@@ -121,5 +637,43 @@ public class ConnectionHandler {
             durationMs
         );
     }
-}
 
+    void disableAccessLog() {
+        accessLog = false;
+    }
+
+    // what a detached connection's thread does before it closes the connection
+    private interface DetachedWork {
+        void run() throws IOException;
+    }
+
+    // a detached connection's writes; its writers hold a lock or are alone, so one deadline
+    // at a time is all there is
+    private final class DeadlineChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+
+        DeadlineChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            arm(ConnectionTimeouts.Phase.WRITE);
+            try {
+                return channel.write(src);
+            } finally {
+                disarm();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // the connection closes it
+        }
+    }
+}
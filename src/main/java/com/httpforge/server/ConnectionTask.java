@@ -0,0 +1,55 @@
+package com.httpforge.server;
+
+import java.net.Socket;
+import java.util.function.Consumer;
+
+/**
+ * a connection waiting in the ThreadPoolServer queue.
+ * we hand these to execute() instead of lambdas via submit(), so the queue holds objects
+ * we can inspect: how long they've waited, and which socket to answer when one is dropped.
+ * in hybrid mode a connection coming back from the idle poller carries its existing handler.
+ */
+class ConnectionTask implements Runnable {
+    private final Socket socket;
+    private final ConnectionHandler handler;
+    private final long enqueuedAtNanos;
+    private final Consumer<ConnectionTask> body;
+
+    ConnectionTask(Socket socket, Consumer<ConnectionTask> body) {
+        this(socket, null, body);
+    }
+
+    ConnectionTask(Socket socket, ConnectionHandler handler, Consumer<ConnectionTask> body) {
+        this(socket, handler, body, System.nanoTime());
+    }
+
+    /**
+     * enqueued at a given time, on the clock of the queue it goes into.
+     */
+    ConnectionTask(Socket socket, ConnectionHandler handler, Consumer<ConnectionTask> body, long enqueuedAtNanos) {
+        this.socket = socket;
+        this.handler = handler;
+        this.body = body;
+        this.enqueuedAtNanos = enqueuedAtNanos;
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * the handler of a resumed keep-alive connection, null for a newly accepted one.
+     */
+    ConnectionHandler getHandler() {
+        return handler;
+    }
+
+    long getEnqueuedAtNanos() {
+        return enqueuedAtNanos;
+    }
+
+    @Override
+    public void run() {
+        body.accept(this);
+    }
+}
@@ -0,0 +1,99 @@
+package com.httpforge.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * per-phase connection deadlines, in milliseconds; 0 turns a phase off.
+ *
+ * <ul>
+ *   <li>idle - waiting for the first byte of the next request on a keep-alive connection</li>
+ *   <li>header - from that first byte to the end of the headers (slowloris)</li>
+ *   <li>body - reading the request body (slow POST)</li>
+ *   <li>write - writing a response the client isn't reading</li>
+ *   <li>handler - waiting for an async handler's response; it's cancelled and the client gets a 504</li>
+ * </ul>
+ *
+ * deadlines run on one shared {@link HashedWheelTimer} rather than SO_TIMEOUT, so they don't
+ * need a thread blocked on the socket: the blocking handler and the idle poller both use it.
+ * when a deadline passes the connection is closed, which also wakes a thread blocked on it.
+ *
+ * defaults can be overridden with -Dhttpforge.timeout.idle=5000, .header, .body,
+ * .write and .handler.
+ */
+public final class ConnectionTimeouts {
+
+    public enum Phase {
+        IDLE, HEADER, BODY, WRITE, HANDLER;
+
+        /**
+         * lowercase name, as used in metrics and close reasons.
+         */
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    public static final long DEFAULT_IDLE_MS = 5000;
+    public static final long DEFAULT_HEADER_MS = 10_000;
+    public static final long DEFAULT_BODY_MS = 30_000;
+    public static final long DEFAULT_WRITE_MS = 10_000;
+    public static final long DEFAULT_HANDLER_MS = 30_000;
+
+    private static final ConnectionTimeouts DEFAULT = fromSystemProperties();
+
+    private final long[] millis = new long[Phase.values().length];
+
+    public ConnectionTimeouts(long idleMs, long headerMs, long bodyMs, long writeMs) {
+        this(idleMs, headerMs, bodyMs, writeMs, DEFAULT_HANDLER_MS);
+    }
+
+    public ConnectionTimeouts(long idleMs, long headerMs, long bodyMs, long writeMs, long handlerMs) {
+        millis[Phase.IDLE.ordinal()] = idleMs;
+        millis[Phase.HEADER.ordinal()] = headerMs;
+        millis[Phase.BODY.ordinal()] = bodyMs;
+        millis[Phase.WRITE.ordinal()] = writeMs;
+        millis[Phase.HANDLER.ordinal()] = handlerMs;
+    }
+
+    /**
+     * the deadlines every server uses unless given others, read once from system properties.
+     */
+    public static ConnectionTimeouts getDefault() {
+        return DEFAULT;
+    }
+
+    public static ConnectionTimeouts fromSystemProperties() {
+        return new ConnectionTimeouts(
+                Long.getLong("httpforge.timeout.idle", DEFAULT_IDLE_MS),
+                Long.getLong("httpforge.timeout.header", DEFAULT_HEADER_MS),
+                Long.getLong("httpforge.timeout.body", DEFAULT_BODY_MS),
+                Long.getLong("httpforge.timeout.write", DEFAULT_WRITE_MS),
+                Long.getLong("httpforge.timeout.handler", DEFAULT_HANDLER_MS));
+    }
+
+    public long getMillis(Phase phase) {
+        return millis[phase.ordinal()];
+    }
+
+    /**
+     * runs onExpiry on the shared timer thread after this phase's deadline, or returns null
+     * when the phase is turned off.
+     */
+    HashedWheelTimer.Timeout schedule(Phase phase, Runnable onExpiry) {
+        long ms = getMillis(phase);
+        return ms > 0 ? TimerHolder.TIMER.schedule(onExpiry, ms, TimeUnit.MILLISECONDS) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "idle=" + getMillis(Phase.IDLE) + "ms, header=" + getMillis(Phase.HEADER) +
+                "ms, body=" + getMillis(Phase.BODY) + "ms, write=" + getMillis(Phase.WRITE) +
+                "ms, handler=" + getMillis(Phase.HANDLER) + "ms";
+    }
+
+    // started on first use, shared by every connection in the process
+    private static final class TimerHolder {
+        // 100ms ticks, 512 buckets: one rotation covers ~51s, longer deadlines just take more rounds
+        static final HashedWheelTimer TIMER = new HashedWheelTimer("connection-timer", 100, TimeUnit.MILLISECONDS, 512);
+    }
+}
@@ -0,0 +1,225 @@
+package com.httpforge.server;
+
+import com.httpforge.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * holds idle keep-alive connections for ThreadPoolServer's hybrid mode.
+ *
+ * a worker that has written a response parks the connection here instead of blocking in
+ * read() until the next request. one selector thread watches every parked socket and hands a
+ * connection back to the pool as soon as bytes (or EOF) arrive, so workers are only busy while
+ * a request is actually being processed. connections parked longer than the idle deadline
+ * are closed here, off the shared timer wheel. a connection whose async handler has completed
+ * comes back through here too, see resume().
+ *
+ * the sockets stay ordinary blocking sockets for the workers: a channel is switched to
+ * non-blocking while it's registered and back to blocking before it's re-dispatched.
+ */
+class IdleConnectionPoller implements Runnable {
+    private final Selector selector;
+    private final ConnectionTimeouts timeouts;
+    private final Consumer<ConnectionHandler> dispatcher;
+    private final Metrics metrics = Metrics.getInstance();
+    // workers never touch the selector; registration happens on the poller thread
+    private final Queue<ConnectionHandler> pending = new ConcurrentLinkedQueue<>();
+    // idle deadlines fire on the timer thread and are handled here, so only this thread
+    // ever decides between resuming and closing a parked connection
+    private final Queue<Parked> expired = new ConcurrentLinkedQueue<>();
+    // connections whose async response is ready to be written
+    private final Queue<ConnectionHandler> completed = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param dispatcher called on the poller thread with a connection that has bytes to read
+     */
+    IdleConnectionPoller(ConnectionTimeouts timeouts, Consumer<ConnectionHandler> dispatcher) throws IOException {
+        this.selector = Selector.open();
+        this.timeouts = timeouts;
+        this.dispatcher = dispatcher;
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, "idle-poller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * takes over an idle connection. after this returns true the caller must not use the
+     * socket again; false means the poller is shutting down and the caller keeps it.
+     */
+    boolean park(ConnectionHandler handler) {
+        if (!running) {
+            return false;
+        }
+        metrics.recordParked();
+        pending.add(handler);
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * hands back a connection whose async handler has completed, to be dispatched like one
+     * that became readable. called on whatever thread completed the response, so it only
+     * queues; false means the poller is shutting down and the caller must close it.
+     */
+    boolean resume(ConnectionHandler handler) {
+        if (!running) {
+            return false;
+        }
+        completed.add(handler);
+        selector.wakeup();
+        return true;
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerPending();
+                dispatchReady();
+                dispatchCompleted();
+                expireIdle();
+            }
+        } catch (IOException e) {
+            System.err.println("Idle poller failed: " + e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPending() {
+        ConnectionHandler handler;
+        while ((handler = pending.poll()) != null) {
+            SocketChannel channel = handler.getChannel();
+            try {
+                channel.configureBlocking(false);
+                Parked parked = new Parked(handler);
+                parked.key = channel.register(selector, SelectionKey.OP_READ, parked);
+                parked.deadline = timeouts.schedule(ConnectionTimeouts.Phase.IDLE, () -> {
+                    expired.add(parked);
+                    selector.wakeup();
+                });
+            } catch (IOException e) {
+                metrics.recordParkExpired();
+                handler.closeParked("io-error");
+            }
+        }
+    }
+
+    private void dispatchReady() throws IOException {
+        // a channel can't go back to blocking mode while it's still registered, and a
+        // cancelled key is only dropped by the next select - hence selectNow() before resuming.
+        // that select can find more ready keys, so repeat until it doesn't
+        while (!selector.selectedKeys().isEmpty()) {
+            List<Parked> ready = new ArrayList<>(selector.selectedKeys().size());
+            for (SelectionKey key : selector.selectedKeys()) {
+                key.cancel();
+                Parked parked = (Parked) key.attachment();
+                parked.done = true;
+                if (parked.deadline != null) {
+                    parked.deadline.cancel();
+                }
+                ready.add(parked);
+            }
+            selector.selectedKeys().clear();
+            selector.selectNow();
+
+            for (Parked parked : ready) {
+                metrics.recordResumed();
+                try {
+                    parked.handler.getChannel().configureBlocking(true);
+                } catch (IOException e) {
+                    parked.handler.closeParked("io-error");
+                    continue;
+                }
+                dispatcher.accept(parked.handler);
+            }
+        }
+    }
+
+    private void dispatchCompleted() {
+        ConnectionHandler handler;
+        while ((handler = completed.poll()) != null) {
+            dispatcher.accept(handler);
+        }
+    }
+
+    private void expireIdle() {
+        Parked parked;
+        while ((parked = expired.poll()) != null) {
+            // the deadline can fire just as the connection became readable and was resumed
+            if (!parked.done) {
+                parked.done = true;
+                parked.key.cancel();
+                metrics.recordParkExpired();
+                metrics.recordTimeout(ConnectionTimeouts.Phase.IDLE.label());
+                parked.handler.closeParked("idle-timeout");
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Parked parked = (Parked) key.attachment();
+            if (key.isValid() && !parked.done) {
+                parked.done = true;
+                if (parked.deadline != null) {
+                    parked.deadline.cancel();
+                }
+                metrics.recordParkExpired();
+                parked.handler.closeParked("shutdown");
+            }
+        }
+        ConnectionHandler handler;
+        while ((handler = pending.poll()) != null) {
+            metrics.recordParkExpired();
+            handler.closeParked("shutdown");
+        }
+        while ((handler = completed.poll()) != null) {
+            handler.closeParked("shutdown");
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing selector: " + e.getMessage());
+        }
+    }
+
+    private static final class Parked {
+        final ConnectionHandler handler;
+        // poller thread only
+        SelectionKey key;
+        HashedWheelTimer.Timeout deadline;
+        boolean done;
+
+        Parked(ConnectionHandler handler) {
+            this.handler = handler;
+        }
+    }
+}
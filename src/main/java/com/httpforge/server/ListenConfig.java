@@ -0,0 +1,126 @@
+package com.httpforge.server;
+
+/**
+ * how a server listens: how many sockets accept on its port, how long their accept queues
+ * are, and the options every accepted connection gets.
+ *
+ * with one acceptor, a burst of connects is accepted one at a time by one thread, and while
+ * that thread is busy (CALLER_RUNS runs a request on it) nothing is accepted at all; what
+ * doesn't fit in the accept queue meanwhile is dropped by the kernel and the client retries
+ * its SYN a second later. with several, each has its own listening socket on the same port
+ * (SO_REUSEPORT, Linux 3.9+ and the BSDs) and its own queue, and the kernel spreads new
+ * connections over them. where SO_REUSEPORT isn't available, the acceptors share one socket.
+ *
+ * from system properties:
+ * <ul>
+ *   <li>httpforge.listen.acceptors - listening sockets, each with an accept thread, default 1</li>
+ *   <li>httpforge.listen.backlog - accept queue length per socket, default 1024; the kernel
+ *       caps it at net.core.somaxconn</li>
+ *   <li>httpforge.listen.tcpNoDelay - disable Nagle on accepted connections, default true</li>
+ *   <li>httpforge.listen.receiveBuffer, httpforge.listen.sendBuffer - socket buffer sizes in
+ *       bytes, default the OS's (which autotunes them)</li>
+ *   <li>httpforge.listen.reusePort - SO_REUSEPORT even with one acceptor, so other processes
+ *       can listen on the port too (the workers of a cluster); default false</li>
+ * </ul>
+ */
+public final class ListenConfig {
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    private final int acceptors;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    // 0 = leave it to the OS
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private final boolean reusePort;
+
+    private ListenConfig(int acceptors, int backlog, boolean tcpNoDelay, int receiveBufferSize, int sendBufferSize,
+                         boolean reusePort) {
+        if (acceptors <= 0 || backlog <= 0 || receiveBufferSize < 0 || sendBufferSize < 0) {
+            throw new IllegalArgumentException("Acceptors and backlog must be positive, buffer sizes not negative");
+        }
+        this.acceptors = acceptors;
+        this.backlog = backlog;
+        this.tcpNoDelay = tcpNoDelay;
+        this.receiveBufferSize = receiveBufferSize;
+        this.sendBufferSize = sendBufferSize;
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * one acceptor, a 1024 connection backlog, TCP_NODELAY, the OS's buffer sizes.
+     */
+    public static ListenConfig defaults() {
+        return new ListenConfig(1, DEFAULT_BACKLOG, true, 0, 0, false);
+    }
+
+    public static ListenConfig fromSystemProperties() {
+        return new ListenConfig(
+                Integer.getInteger("httpforge.listen.acceptors", 1),
+                Integer.getInteger("httpforge.listen.backlog", DEFAULT_BACKLOG),
+                !"false".equals(System.getProperty("httpforge.listen.tcpNoDelay")),
+                Integer.getInteger("httpforge.listen.receiveBuffer", 0),
+                Integer.getInteger("httpforge.listen.sendBuffer", 0),
+                Boolean.getBoolean("httpforge.listen.reusePort"));
+    }
+
+    /**
+     * the settings every server uses unless given others, read from system properties on
+     * first use.
+     */
+    public static ListenConfig getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public ListenConfig withAcceptors(int acceptors) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, receiveBufferSize, sendBufferSize, reusePort);
+    }
+
+    public ListenConfig withBacklog(int backlog) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, receiveBufferSize, sendBufferSize, reusePort);
+    }
+
+    public ListenConfig withTcpNoDelay(boolean tcpNoDelay) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, receiveBufferSize, sendBufferSize, reusePort);
+    }
+
+    /**
+     * set on the listening socket, so connections have it from the handshake on: a receive
+     * window over 64 KiB has to be announced in the SYN-ACK.
+     */
+    public ListenConfig withReceiveBufferSize(int bytes) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, bytes, sendBufferSize, reusePort);
+    }
+
+    public ListenConfig withSendBufferSize(int bytes) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, receiveBufferSize, bytes, reusePort);
+    }
+
+    /**
+     * SO_REUSEPORT on the listening socket even with one acceptor, so that other processes
+     * can bind the same port. it's always on with several.
+     */
+    public ListenConfig withReusePort(boolean reusePort) {
+        return new ListenConfig(acceptors, backlog, tcpNoDelay, receiveBufferSize, sendBufferSize, reusePort);
+    }
+
+    public int getAcceptors() { return acceptors; }
+    public int getBacklog() { return backlog; }
+    public boolean isTcpNoDelay() { return tcpNoDelay; }
+    public int getReceiveBufferSize() { return receiveBufferSize; }
+    public int getSendBufferSize() { return sendBufferSize; }
+    public boolean isReusePort() { return reusePort; }
+
+    @Override
+    public String toString() {
+        return acceptors + (acceptors == 1 ? " acceptor" : " acceptors") + ", backlog " + backlog
+                + (tcpNoDelay ? ", nodelay" : "")
+                + (receiveBufferSize > 0 ? ", rcvbuf " + receiveBufferSize : "")
+                + (sendBufferSize > 0 ? ", sndbuf " + sendBufferSize : "")
+                + (reusePort ? ", reuseport" : "");
+    }
+
+    private static final class DefaultHolder {
+        static final ListenConfig DEFAULT = fromSystemProperties();
+    }
+}
@@ -0,0 +1,163 @@
+package com.httpforge.server;
+
+import com.httpforge.metrics.LatencyHistogram;
+import com.httpforge.metrics.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resizes a ThreadPoolServer pool while it runs, instead of fixing it at an I/O- or
+ * CPU-bound preset.
+ *
+ * every interval it takes the request rate and mean request latency since the last sample,
+ * and by Little's law rate × latency is how many workers are busy on average. the target is
+ * that plus headroom. on top of that:
+ * <ul>
+ *   <li>connections waiting in the queue mean the pool is too small; grow by a quarter
+ *       (at least one thread) - unless the process is already using the CPU, in which case
+ *       more threads would only add context switches, so hold</li>
+ *   <li>shrink at most an eighth per interval, and never below the workers busy right now</li>
+ * </ul>
+ * the result, clamped to [min, max], becomes the core pool size. the maximum pool size stays
+ * at the upper bound, as burst room when the queue fills between samples.
+ */
+class PoolAutoscaler {
+    static final long DEFAULT_INTERVAL_MS = 250;
+    // above this process CPU share, a queue means CPU-bound work: don't add threads
+    static final double CPU_CEILING = 0.85;
+    private static final double HEADROOM = 1.25;
+
+    private final ThreadPoolExecutor executor;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long intervalMs;
+    private final Metrics metrics = Metrics.getInstance();
+    private final com.sun.management.OperatingSystemMXBean os =
+            ManagementFactory.getPlatformMXBean(com.sun.management.OperatingSystemMXBean.class);
+    private ScheduledExecutorService scheduler;
+
+    // previous sample, scheduler thread only
+    private long lastNanos;
+    private long lastCount;
+    private long lastSum;
+
+    PoolAutoscaler(ThreadPoolExecutor executor, int minThreads, int maxThreads, long intervalMs) {
+        if (minThreads <= 0 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("Need 0 < minThreads <= maxThreads");
+        }
+        this.executor = executor;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.intervalMs = intervalMs;
+    }
+
+    void start() {
+        // core may never exceed max, so which bound moves first depends on the direction
+        int core = Math.max(minThreads, Math.min(maxThreads, executor.getCorePoolSize()));
+        if (core < executor.getCorePoolSize()) {
+            executor.setCorePoolSize(core);
+            executor.setMaximumPoolSize(maxThreads);
+        } else {
+            executor.setMaximumPoolSize(maxThreads);
+            executor.setCorePoolSize(core);
+        }
+        metrics.registerAutoscaler(minThreads, maxThreads);
+
+        LatencyHistogram latency = metrics.getRequestLatencyHistogram();
+        lastNanos = System.nanoTime();
+        lastCount = latency.getCount();
+        lastSum = latency.getSum();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pool-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sampleSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            // a bad sample must not cancel the schedule
+            System.err.println("Autoscaler sample failed: " + e);
+        }
+    }
+
+    private void sample() {
+        LatencyHistogram latency = metrics.getRequestLatencyHistogram();
+        long now = System.nanoTime();
+        long count = latency.getCount();
+        long sum = latency.getSum();
+        double seconds = (now - lastNanos) / 1e9;
+        long requests = count - lastCount;
+        double rate = seconds > 0 ? requests / seconds : 0;
+        double meanSeconds = requests > 0 ? (sum - lastSum) / (double) requests / 1e6 : 0;
+        lastNanos = now;
+        lastCount = count;
+        lastSum = sum;
+
+        double cpu = os.getProcessCpuLoad();
+        int current = executor.getCorePoolSize();
+        Decision decision = decide(current, minThreads, maxThreads, rate * meanSeconds,
+                executor.getQueue().size(), executor.getActiveCount(), cpu);
+
+        if (decision.target != current) {
+            // new threads start as connections arrive; surplus ones exit when they next go idle
+            executor.setCorePoolSize(decision.target);
+        }
+        metrics.recordAutoscale(current, decision.target, rate * meanSeconds, cpu, decision.reason);
+    }
+
+    /**
+     * the next core pool size; pure, so the policy can be tested without a pool.
+     *
+     * @param demand Little's law estimate of busy workers: request rate × mean latency
+     * @param cpu    process CPU load 0..1, negative when unknown
+     */
+    static Decision decide(int current, int min, int max, double demand, int queued, int busy, double cpu) {
+        int fromDemand = (int) Math.ceil(demand * HEADROOM);
+        int target;
+        String reason;
+        if (queued > 0) {
+            if (cpu >= CPU_CEILING) {
+                target = current;
+                reason = "cpu-bound";
+            } else {
+                target = Math.max(fromDemand, current + Math.max(1, current / 4));
+                reason = "queue";
+            }
+        } else if (fromDemand < current) {
+            target = Math.max(Math.max(fromDemand, busy), current - Math.max(1, current / 8));
+            reason = "idle";
+        } else {
+            target = fromDemand;
+            reason = "demand";
+        }
+        target = Math.max(min, Math.min(max, target));
+        if (target == current && !reason.equals("cpu-bound")) {
+            reason = "steady";
+        }
+        return new Decision(target, reason);
+    }
+
+    static final class Decision {
+        final int target;
+        final String reason;
+
+        Decision(int target, String reason) {
+            this.target = target;
+            this.reason = reason;
+        }
+    }
+}
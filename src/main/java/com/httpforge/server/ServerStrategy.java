@@ -7,4 +7,8 @@ public interface ServerStrategy {
     // stop is used to gracefully shut down the server
     void stop();
     String getName();
+    // the port actually bound, e.g. when started on port 0; -1 until start() has bound it
+    default int getLocalPort() {
+        return -1;
+    }
 }
@@ -1,45 +1,43 @@
 package com.httpforge.server;
 
+import com.httpforge.metrics.Metrics;
 import com.httpforge.routing.Router;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
 
 public class SingleThreadServer implements ServerStrategy {
     private final int port;
     private final Router router;
-    // running flag is volatile, because it may be accessed by multiple threads
-    // volatile ensures visibility of updates across threads. so changes made in stop() are seen by the start() loop
-    private volatile boolean running = false;
-    // ServerSocket listens on a port and accepts new connections
-    // it's different from regular Socket, which represents a single connection
-    private ServerSocket serverSocket;
+    private final ListenConfig listen;
+    // volatile, because stop() and getLocalPort() are called from other threads
+    // the listening socket(s) accept new connections; each accepted Socket is a single connection
+    private volatile Acceptors acceptors;
 
     public SingleThreadServer(int port, Router router) {
+        this(port, router, ListenConfig.getDefault());
+    }
+
+    /**
+     * @param listen backlog and socket options; always one acceptor, it's the single thread
+     */
+    public SingleThreadServer(int port, Router router, ListenConfig listen) {
         this.port = port;
         this.router = router;
+        this.listen = listen.withAcceptors(1);
     }
 
     public void start() throws IOException {
-        running = true;
-        serverSocket = new ServerSocket(port);
-        System.out.println(">> Single-threaded server started on port " + port);
-
-        while (running) {
-            try {
-                // internally, a file descriptor is binded to the port
-                // and it has a backlog queue of incoming connections
-                // when a client connects(SYN -> SYC+ACK -> ACK), accept() returns a new Socket for that connection
-                // but the serverSocket continues to listen for new connections
-                Socket clientSocket = serverSocket.accept();
-                handleRequest(clientSocket);
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
-                }
-            }
-        }
+        // internally, a file descriptor is binded to the port
+        // and it has a backlog queue of incoming connections
+        // when a client connects(SYN -> SYC+ACK -> ACK), accept() returns a new Socket for that connection
+        // but the listening socket continues to listen for new connections
+        Acceptors acceptors = new Acceptors("single-thread", listen, false, this::handleRequest);
+        acceptors.open(port);
+        this.acceptors = acceptors;
+        System.out.println(">> Single-threaded server started on port " + acceptors.getLocalPort() + ", "
+                + Metrics.getInstance().getTimeToReadyMs() + "ms from JVM start");
+        acceptors.run();
     }
 
     /**
@@ -53,16 +51,18 @@ public class SingleThreadServer implements ServerStrategy {
      * stops the server gracefully.
      */
     public void stop() {
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+        Acceptors acceptors = this.acceptors;
+        if (acceptors != null) {
+            acceptors.close();
         }
     }
 
+    @Override
+    public int getLocalPort() {
+        Acceptors acceptors = this.acceptors;
+        return acceptors != null ? acceptors.getLocalPort() : -1;
+    }
+
     @Override
     public String getName() {
         return "Single-threaded Server";
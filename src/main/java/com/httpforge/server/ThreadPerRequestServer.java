@@ -1,55 +1,58 @@
 package com.httpforge.server;
 
+import com.httpforge.metrics.Metrics;
 import com.httpforge.routing.Router;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
 
 public class ThreadPerRequestServer implements ServerStrategy {
     private final int port;
     private final Router router;
-    private volatile boolean running = false;
-    private ServerSocket serverSocket;
+    private final ListenConfig listen;
+    private volatile Acceptors acceptors;
 
     public ThreadPerRequestServer(int port, Router router) {
+        this(port, router, ListenConfig.getDefault());
+    }
+
+    public ThreadPerRequestServer(int port, Router router, ListenConfig listen) {
         this.port = port;
         this.router = router;
+        this.listen = listen;
     }
 
     public void start() throws IOException {
-        running = true;
-        serverSocket = new ServerSocket(port);
-        System.out.println(">> Thread-per-request server started on port " + port);
-
-        while (running) {
-            try {
-                Socket clientSocket = serverSocket.accept();
-                // we spawn a new thread for each incoming connection
-                new Thread(() -> handleRequest(clientSocket)).start();
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
-                }
-            }
-        }
+        Acceptors acceptors = new Acceptors("thread-per-request", listen, false, clientSocket -> {
+            long acceptedAtNanos = System.nanoTime();
+            // we spawn a new thread for each incoming connection
+            new Thread(() -> handleRequest(clientSocket, acceptedAtNanos)).start();
+        });
+        acceptors.open(port);
+        this.acceptors = acceptors;
+        System.out.println(">> Thread-per-request server started on port " + acceptors.getLocalPort() + " (" + listen + "), "
+                + Metrics.getInstance().getTimeToReadyMs() + "ms from JVM start");
+        acceptors.run();
     }
 
-    private void handleRequest(Socket socket) {
-        new ConnectionHandler(socket, router).handle();
+    private void handleRequest(Socket socket, long acceptedAtNanos) {
+        // thread startup shows up as the accept phase in traces
+        new ConnectionHandler(socket, router, acceptedAtNanos, 0).handle();
     }
 
     public void stop() {
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+        Acceptors acceptors = this.acceptors;
+        if (acceptors != null) {
+            acceptors.close();
         }
     }
 
+    @Override
+    public int getLocalPort() {
+        Acceptors acceptors = this.acceptors;
+        return acceptors != null ? acceptors.getLocalPort() : -1;
+    }
+
     @Override
     public String getName() {
         return "Thread-per-request Server";
@@ -1,21 +1,37 @@
 package com.httpforge.server;
 
 import com.httpforge.http.HttpResponse;
+import com.httpforge.jfr.RequestRejectedEvent;
+import com.httpforge.metrics.Metrics;
 import com.httpforge.routing.Router;
+import com.httpforge.routing.Router.Priority;
+import com.httpforge.tls.TlsContext;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ThreadPoolServer implements ServerStrategy {
+    // lane names in the metrics
+    private static final String CONTROL_LANE = "control";
+    private static final String DATA_LANE = "data";
+
     private final int port;
     private final Router router;
     private final ThreadPoolConfig config;
-    private volatile boolean running = false;
-    private ServerSocket serverSocket;
+    private final Metrics metrics = Metrics.getInstance();
+    private final ListenConfig listen;
+    private volatile Acceptors acceptors;
     private ThreadPoolExecutor executorService;
+    // priority lanes: reserved threads for the router's CONTROL routes; null when off
+    private ThreadPoolExecutor controlLane;
+    private IdleConnectionPoller poller;
+    private PoolAutoscaler autoscaler;
+    private final ConnectionTimeouts timeouts = ConnectionTimeouts.getDefault();
+    // null for plain HTTP
+    private final TlsContext tls;
 
     /**
      * configuration for thread pool behavior
@@ -26,18 +42,42 @@ public class ThreadPoolServer implements ServerStrategy {
         private final int queueSize;
         // rejection policy defines how to handle overload situations
         private final RejectionPolicy rejectionPolicy;
+        // hybrid mode: idle keep-alive connections wait in a selector, not on a worker
+        private final boolean idlePoller;
+        // queue-delay shedding; 0 = plain FIFO queue, shed only when full
+        private final long codelTargetMs;
+        private final long codelIntervalMs;
+        // live resizing between these bounds; 0 = fixed at the sizes above
+        private final int autoscaleMin;
+        private final int autoscaleMax;
+        // reserved threads and queue for CONTROL requests; 0 = one lane for everything
+        private final int controlThreads;
+        private final int controlQueueSize;
 
         public enum RejectionPolicy {
             ABORT,          // reject with 503 (fail fast)
-            CALLER_RUNS,    // backpressure: slow down client by running in accept thread(the main thread)
+            CALLER_RUNS,    // backpressure: slow down client by running in the accept thread that got it
             DISCARD_OLDEST  // drop oldest queued request, when newer request is more crucial
         }
 
         private ThreadPoolConfig(int corePoolSize, int maxPoolSize, int queueSize, RejectionPolicy policy) {
+            this(corePoolSize, maxPoolSize, queueSize, policy, false, 0, 0, 0, 0, 0, 0);
+        }
+
+        private ThreadPoolConfig(int corePoolSize, int maxPoolSize, int queueSize, RejectionPolicy policy,
+                                 boolean idlePoller, long codelTargetMs, long codelIntervalMs,
+                                 int autoscaleMin, int autoscaleMax, int controlThreads, int controlQueueSize) {
             this.corePoolSize = corePoolSize;
             this.maxPoolSize = maxPoolSize;
             this.queueSize = queueSize;
             this.rejectionPolicy = policy;
+            this.idlePoller = idlePoller;
+            this.codelTargetMs = codelTargetMs;
+            this.codelIntervalMs = codelIntervalMs;
+            this.autoscaleMin = autoscaleMin;
+            this.autoscaleMax = autoscaleMax;
+            this.controlThreads = controlThreads;
+            this.controlQueueSize = controlQueueSize;
         }
 
         /**
@@ -91,10 +131,69 @@ public class ThreadPoolServer implements ServerStrategy {
             return new ThreadPoolConfig(corePoolSize, maxPoolSize, queueSize, policy);
         }
 
+        /**
+         * hybrid mode: a worker handles one request, then hands the idle keep-alive connection
+         * to a selector thread and moves on. the connection is queued for a worker again only
+         * when its next request starts arriving, so idle clients no longer pin workers.
+         */
+        public ThreadPoolConfig withIdlePoller() {
+            return new ThreadPoolConfig(corePoolSize, maxPoolSize, queueSize, rejectionPolicy,
+                    true, codelTargetMs, codelIntervalMs, autoscaleMin, autoscaleMax, controlThreads, controlQueueSize);
+        }
+
+        /**
+         * sheds by queueing delay instead of waiting for a full queue: once the queue hasn't
+         * been empty for intervalMs, workers switch to LIFO and connections that have waited
+         * longer than targetMs get a 503. 5ms / 100ms is a reasonable start.
+         */
+        public ThreadPoolConfig withCoDel(long targetMs, long intervalMs) {
+            if (targetMs <= 0 || intervalMs <= 0) {
+                throw new IllegalArgumentException("CoDel target and interval must be positive");
+            }
+            return new ThreadPoolConfig(corePoolSize, maxPoolSize, queueSize, rejectionPolicy,
+                    idlePoller, targetMs, intervalMs, autoscaleMin, autoscaleMax, controlThreads, controlQueueSize);
+        }
+
+        /**
+         * resizes the pool while running instead of sticking to this preset's sizes: a
+         * controller samples request rate, latency, queue depth and CPU a few times a second
+         * and moves the core pool size within [minThreads, maxThreads].
+         */
+        public ThreadPoolConfig withAutoscaler(int minThreads, int maxThreads) {
+            if (minThreads <= 0 || maxThreads < minThreads) {
+                throw new IllegalArgumentException("Need 0 < minThreads <= maxThreads");
+            }
+            return new ThreadPoolConfig(corePoolSize, maxPoolSize, queueSize, rejectionPolicy,
+                    idlePoller, codelTargetMs, codelIntervalMs, minThreads, maxThreads, controlThreads, controlQueueSize);
+        }
+
+        /**
+         * priority lanes: requests for the router's CONTROL paths (see Router#setPriority) get
+         * threads and a queue of their own, so health checks and /metrics are answered while
+         * the pool is saturated and sheds everything else. a connection is queued before its
+         * request is read, so while the pool is backed up new connections have their first
+         * request read on a virtual thread and are then queued in the lane it belongs to.
+         */
+        public ThreadPoolConfig withControlLane(int threads, int laneQueueSize) {
+            if (threads <= 0 || laneQueueSize <= 0) {
+                throw new IllegalArgumentException("Control lane threads and queue size must be positive");
+            }
+            return new ThreadPoolConfig(corePoolSize, maxPoolSize, queueSize, rejectionPolicy,
+                    idlePoller, codelTargetMs, codelIntervalMs, autoscaleMin, autoscaleMax, threads, laneQueueSize);
+        }
+
         public int getCorePoolSize() { return corePoolSize; }
         public int getMaxPoolSize() { return maxPoolSize; }
         public int getQueueSize() { return queueSize; }
         public RejectionPolicy getRejectionPolicy() { return rejectionPolicy; }
+        public boolean hasIdlePoller() { return idlePoller; }
+        public boolean hasCoDel() { return codelTargetMs > 0; }
+        public long getCoDelTargetMs() { return codelTargetMs; }
+        public long getCoDelIntervalMs() { return codelIntervalMs; }
+        public boolean hasAutoscaler() { return autoscaleMax > 0; }
+        public boolean hasControlLane() { return controlThreads > 0; }
+        public int getControlThreads() { return controlThreads; }
+        public int getControlQueueSize() { return controlQueueSize; }
 
         public boolean isElastic() {
             return maxPoolSize > corePoolSize;
@@ -106,14 +205,37 @@ public class ThreadPoolServer implements ServerStrategy {
     }
 
     public ThreadPoolServer(int port, Router router, ThreadPoolConfig config) {
+        this(port, router, config, TlsContext.getDefault());
+    }
+
+    /**
+     * @param tls terminates TLS on every connection, or null for plain HTTP
+     */
+    public ThreadPoolServer(int port, Router router, ThreadPoolConfig config, TlsContext tls) {
+        this(port, router, config, tls, ListenConfig.getDefault());
+    }
+
+    /**
+     * @param listen how many sockets accept on the port, and the options accepted connections get
+     */
+    public ThreadPoolServer(int port, Router router, ThreadPoolConfig config, TlsContext tls, ListenConfig listen) {
         this.port = port;
         this.router = router;
         this.config = config;
+        this.tls = tls;
+        this.listen = listen;
     }
 
     public void start() throws IOException {
-        running = true;
-        serverSocket = new ServerSocket(port);
+        // the poller needs channels, so accept through them; workers still see plain sockets
+        Acceptors acceptors = new Acceptors("pool", listen, config.idlePoller, this::dispatch);
+        acceptors.open(port);
+        this.acceptors = acceptors;
+        if (config.idlePoller) {
+            poller = new IdleConnectionPoller(timeouts, this::resume);
+            poller.start();
+            metrics.registerIdlePoller();
+        }
 
         RejectedExecutionHandler rejectionHandler = createRejectionHandler(config.rejectionPolicy);
 
@@ -122,43 +244,177 @@ public class ThreadPoolServer implements ServerStrategy {
                 config.maxPoolSize,
                 60L,
                 TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(config.queueSize),
+                createQueue(),
                 rejectionHandler
         );
+        if (executorService.getQueue() instanceof CoDelQueue) {
+            ((CoDelQueue) executorService.getQueue()).attach(executorService);
+        }
+        metrics.registerThreadPool(executorService);
+        if (config.hasControlLane()) {
+            AtomicInteger threads = new AtomicInteger();
+            controlLane = new ThreadPoolExecutor(
+                    config.controlThreads,
+                    config.controlThreads,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.controlQueueSize),
+                    r -> new Thread(r, "control-lane-" + threads.incrementAndGet()),
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
+            metrics.registerLane(CONTROL_LANE, controlLane);
+            metrics.registerLane(DATA_LANE, executorService);
+        }
+        if (config.hasAutoscaler()) {
+            autoscaler = new PoolAutoscaler(executorService, config.autoscaleMin, config.autoscaleMax,
+                    PoolAutoscaler.DEFAULT_INTERVAL_MS);
+            autoscaler.start();
+        }
 
         printStartupInfo();
+        acceptors.run();
+    }
 
-        while (running) {
+    // called on an acceptor thread for each new connection
+    private void dispatch(Socket clientSocket) {
+        // hybrid mode: a new connection waits for its first request in the poller too,
+        // otherwise a client that connects and says nothing pins a worker
+        if (poller != null && poller.park(new ConnectionHandler(clientSocket, router, System.nanoTime(), 0, poller, timeouts, tls))) {
+            return;
+        }
+        if (controlLane != null && isBackedUp()) {
+            triage(new ConnectionHandler(clientSocket, router, System.nanoTime(), 0, poller, timeouts, tls));
+            return;
+        }
+        try {
+            // execute() rather than submit(): the queue then holds our ConnectionTask,
+            // not an opaque FutureTask, so rejection handlers can still reach the socket
+            executorService.execute(new ConnectionTask(clientSocket, this::runQueued));
+            metrics.recordEnqueue(executorService.getQueue().size());
+        } catch (RejectedExecutionException e) {
+            // only happens with AbortPolicy - send 503
+            handleOverload(clientSocket, "queue-full");
+        }
+    }
+
+    // whether a connection queued now would wait: nothing's queued only while a thread is free
+    private boolean isBackedUp() {
+        return !executorService.getQueue().isEmpty()
+                || executorService.getActiveCount() >= executorService.getMaximumPoolSize();
+    }
+
+    /**
+     * reads the connection's next request on a virtual thread of its own, so that it's known
+     * which lane to queue it in: a health check mustn't wait behind the backed-up data queue
+     * only to find out it's a health check. the read runs under the usual idle and header
+     * deadlines, a slow client ties up nothing but its virtual thread.
+     */
+    private void triage(ConnectionHandler handler) {
+        metrics.recordLaneTriage();
+        handler.triage(this::admit);
+        Thread.ofVirtual().name("lane-triage").start(handler::handle);
+    }
+
+    // the gate: called with a connection whose request has been read but not routed
+    private void admit(ConnectionHandler handler, Priority priority) {
+        if (priority == Priority.CONTROL) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                try {
-                    executorService.submit(() -> handleRequest(clientSocket));
-                } catch (RejectedExecutionException e) {
-                    // only happens with AbortPolicy - send 503
-                    handleOverload(clientSocket);
-                }
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
-                }
+                controlLane.execute(new ConnectionTask(handler.getSocket(), handler, this::runControl));
+            } catch (RejectedExecutionException e) {
+                metrics.recordLaneRejection(CONTROL_LANE);
+                handleOverload(handler.getSocket(), "control-queue-full");
+                handler.closeParked("queue-full");
             }
+            return;
+        }
+        try {
+            executorService.execute(new ConnectionTask(handler.getSocket(), handler, this::runQueued));
+            metrics.recordEnqueue(executorService.getQueue().size());
+        } catch (RejectedExecutionException e) {
+            handleOverload(handler.getSocket(), "queue-full");
+            handler.closeParked("queue-full");
+        }
+    }
+
+    private BlockingQueue<Runnable> createQueue() {
+        if (config.hasCoDel()) {
+            return new CoDelQueue(config.queueSize, config.codelTargetMs, config.codelIntervalMs, this::shed);
+        }
+        return new ArrayBlockingQueue<>(config.queueSize);
+    }
+
+    // a connection the CoDel queue dropped for waiting longer than the target
+    private void shed(Runnable task) {
+        metrics.recordRejection("CODEL");
+        if (controlLane != null) {
+            metrics.recordLaneRejection(DATA_LANE);
+        }
+        dropQueued((ConnectionTask) task, "queue-delay");
+    }
+
+    // a queued connection dropped before a worker got to it: a 503, and a resumed or triaged
+    // one's handler closed too, so its deadline, buffers and TLS state aren't left behind
+    private void dropQueued(ConnectionTask task, String reason) {
+        handleOverload(task.getSocket(), reason);
+        if (task.getHandler() != null) {
+            task.getHandler().closeParked(reason);
         }
     }
 
     private RejectedExecutionHandler createRejectionHandler(ThreadPoolConfig.RejectionPolicy policy) {
+        RejectedExecutionHandler handler = createPolicyHandler(policy);
+        // count every rejection under the policy that handled it
+        return (task, executor) -> {
+            metrics.recordRejection(policy.name());
+            if (controlLane != null) {
+                metrics.recordLaneRejection(DATA_LANE);
+            }
+            handler.rejectedExecution(task, executor);
+        };
+    }
+
+    private RejectedExecutionHandler createPolicyHandler(ThreadPoolConfig.RejectionPolicy policy) {
         switch (policy) {
             case ABORT:
                 // throws RejectedExecutionException - we handle it with 503
                 return new ThreadPoolExecutor.AbortPolicy();
 
             case CALLER_RUNS:
-                // backpressure: execute in the calling thread (accept thread)
-                // This slows down accepting new connections when overloaded
-                return new ThreadPoolExecutor.CallerRunsPolicy();
+                // backpressure: execute in the calling thread (an accept thread)
+                // This slows down accepting new connections when overloaded; with several
+                // acceptors only the one that got this connection stops accepting
+                return (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        return;
+                    }
+                    ConnectionTask connection = (ConnectionTask) task;
+                    if (connection.getHandler() != null) {
+                        // a resumed or triaged connection: the caller is the poller's selector
+                        // thread or a triage thread, not an acceptor. running a request on the
+                        // poller would stall every parked connection and idle expiry, and there's
+                        // no accept loop to slow down, so it's shed like under ABORT instead;
+                        // the caller answers the 503 and closes the handler
+                        throw new RejectedExecutionException("Queue full, connection shed");
+                    }
+                    long start = System.nanoTime();
+                    handleRequest(connection.getSocket());
+                    // this acceptor isn't calling accept() while we're in here, so this is accept stall time
+                    metrics.recordCallerRuns((System.nanoTime() - start) / 1000);
+                };
 
             case DISCARD_OLDEST:
                 // drop the oldest task in queue and try again
-                return new ThreadPoolExecutor.DiscardOldestPolicy();
+                // unlike DiscardOldestPolicy, the dropped client gets a 503 instead of a leaked socket
+                return (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        return;
+                    }
+                    Runnable oldest = executor.getQueue().poll();
+                    if (oldest instanceof ConnectionTask) {
+                        dropQueued((ConnectionTask) oldest, "discarded-oldest");
+                    }
+                    executor.execute(task);
+                };
 
             default:
                 return new ThreadPoolExecutor.AbortPolicy();
@@ -169,20 +425,91 @@ public class ThreadPoolServer implements ServerStrategy {
         System.out.println("╔═══════════════════════════════════════════════════════════╗");
         System.out.println("║       Thread Pool Server Started                        ║");
         System.out.println("╠═══════════════════════════════════════════════════════════╣");
-        System.out.println("║ Port:              " + String.format("%-35s", port) + "║");
+        System.out.println("║ Port:              " + String.format("%-35s", acceptors.getLocalPort()) + "║");
+        System.out.println("║ Acceptors:         " + String.format("%-35s", listen.getAcceptors()
+                + (acceptors.isReusePort() ? " (SO_REUSEPORT)" : "")) + "║");
+        System.out.println("║ Listen Backlog:    " + String.format("%-35s", listen.getBacklog()) + "║");
+        System.out.println("║ Time to Ready:     " + String.format("%-35s", metrics.getTimeToReadyMs() + "ms from JVM start") + "║");
         System.out.println("║ Core Pool Size:    " + String.format("%-35s", config.corePoolSize) + "║");
         System.out.println("║ Max Pool Size:     " + String.format("%-35s", config.maxPoolSize) + "║");
         System.out.println("║ Queue Size:        " + String.format("%-35s", config.queueSize) + "║");
         System.out.println("║ Elastic:           " + String.format("%-35s", config.isElastic()) + "║");
         System.out.println("║ Rejection Policy:  " + String.format("%-35s", config.rejectionPolicy) + "║");
+        System.out.println("║ Idle Poller:       " + String.format("%-35s", config.idlePoller) + "║");
+        System.out.println("║ Autoscaler:        " + String.format("%-35s", config.hasAutoscaler()
+                ? config.autoscaleMin + "-" + config.autoscaleMax + " threads" : "off") + "║");
+        System.out.println("║ CoDel:             " + String.format("%-35s", config.hasCoDel()
+                ? "target " + config.codelTargetMs + "ms, interval " + config.codelIntervalMs + "ms" : "off") + "║");
+        System.out.println("║ Control Lane:      " + String.format("%-35s", config.hasControlLane()
+                ? config.controlThreads + " threads, queue " + config.controlQueueSize : "off") + "║");
         System.out.println("╚═══════════════════════════════════════════════════════════╝");
     }
 
+    private void runQueued(ConnectionTask task) {
+        long waitNanos = System.nanoTime() - task.getEnqueuedAtNanos();
+        metrics.recordQueueWait(waitNanos / 1000);
+        if (controlLane != null) {
+            metrics.recordLaneDispatch(DATA_LANE, waitNanos / 1000);
+        }
+        ConnectionHandler handler = task.getHandler();
+        if (handler == null) {
+            handler = new ConnectionHandler(task.getSocket(), router, task.getEnqueuedAtNanos(), waitNanos, poller, timeouts, tls);
+            if (controlLane != null) {
+                // its requests are read here, and a control one is handed over like a resumed one's
+                handler.setLane(this::admit, Priority.DATA);
+            }
+        }
+        handler.handle();
+    }
+
+    // a CONTROL request off the control lane's queue; always a triaged connection
+    private void runControl(ConnectionTask task) {
+        metrics.recordLaneDispatch(CONTROL_LANE, (System.nanoTime() - task.getEnqueuedAtNanos()) / 1000);
+        task.getHandler().handle();
+    }
+
     private void handleRequest(Socket socket) {
-        new ConnectionHandler(socket, router).handle();
+        new ConnectionHandler(socket, router, System.nanoTime(), 0, poller, timeouts, tls).handle();
     }
 
-    private void handleOverload(Socket socket) {
+    // called on the poller thread when a parked connection has its next request coming in
+    private void resume(ConnectionHandler handler) {
+        if (controlLane != null && !handler.isAwaitingResponse()) {
+            if (isBackedUp()) {
+                triage(handler);
+                return;
+            }
+            // a data worker reads it; it's handed on from there if it turns out to be for the control lane
+            handler.setLane(this::admit, Priority.DATA);
+        }
+        try {
+            executorService.execute(new ConnectionTask(handler.getSocket(), handler, this::runQueued));
+            metrics.recordEnqueue(executorService.getQueue().size());
+        } catch (RejectedExecutionException e) {
+            handleOverload(handler.getSocket(), "queue-full");
+            // its deadline, pooled buffers and TLS state go with it
+            handler.closeParked("queue-full");
+        }
+    }
+
+    private void handleOverload(Socket socket, String reason) {
+        RequestRejectedEvent event = new RequestRejectedEvent();
+        if (event.shouldCommit()) {
+            event.policy = config.rejectionPolicy.name();
+            event.reason = reason;
+            event.commit();
+        }
+        if (tls != null) {
+            // a plaintext 503 on a TLS connection is garbage to the client: before the
+            // handshake it expects a ServerHello, after it a record. closing is all it can read
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing rejected connection: " + e.getMessage());
+            }
+            System.out.println("Rejected TLS connection, closed without a response");
+            return;
+        }
         try (socket; OutputStream out = socket.getOutputStream()) {
             HttpResponse response = HttpResponse.serviceUnavailable();
             out.write(response.toBytes());
@@ -194,7 +521,24 @@ public class ThreadPoolServer implements ServerStrategy {
     }
 
     public void stop() {
-        running = false;
+        Acceptors acceptors = this.acceptors;
+        if (acceptors != null) {
+            // first, so nothing new is dispatched to a pool that's shutting down
+            acceptors.close();
+        }
+
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+
+        // first, so no parked connection is resumed into a pool that's shutting down
+        if (poller != null) {
+            poller.stop();
+        }
+
+        if (controlLane != null) {
+            controlLane.shutdown();
+        }
 
         if (executorService != null) {
             executorService.shutdown();
@@ -211,21 +555,23 @@ public class ThreadPoolServer implements ServerStrategy {
             }
         }
 
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
-        }
-
         System.out.println("Thread pool server stopped");
     }
 
+    @Override
+    public int getLocalPort() {
+        Acceptors acceptors = this.acceptors;
+        return acceptors != null ? acceptors.getLocalPort() : -1;
+    }
+
     @Override
     public String getName() {
         return "Thread Pool Server (pool=" + config.corePoolSize +
-                "-" + config.maxPoolSize + ", queue=" + config.queueSize + ")";
+                "-" + config.maxPoolSize + ", queue=" + config.queueSize +
+                (config.idlePoller ? ", idle poller" : "") +
+                (config.hasCoDel() ? ", codel" : "") +
+                (config.hasAutoscaler() ? ", autoscale " + config.autoscaleMin + "-" + config.autoscaleMax : "") +
+                (config.hasControlLane() ? ", control lane " + config.controlThreads : "") + ")";
     }
 
     // for monitoring
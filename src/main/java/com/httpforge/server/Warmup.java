@@ -0,0 +1,318 @@
+package com.httpforge.server;
+
+import com.httpforge.routing.Router;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * synthetic traffic through the real request path before a server takes real traffic, so
+ * the first real requests don't run interpreted.
+ *
+ * a freshly started JVM runs HttpParser, Router and HttpResponse in the interpreter until
+ * each method has been called a few thousand times, then in C1 code, and only after some
+ * ten thousand calls in C2 code; until then latency is several times what it will be. here
+ * a few keep-alive clients send a request mix over loopback to a private listening socket,
+ * each connection served by a {@link ConnectionHandler} with the server's router, in rounds,
+ * until the JIT has had nothing left to compile for a round (or the time limit is up). the
+ * server's own port isn't bound until this returns.
+ *
+ * from system properties:
+ * <ul>
+ *   <li>httpforge.warmup - run it, default false</li>
+ *   <li>httpforge.warmup.mix - weighted requests, default "GET /:4,GET /echo:2,POST /data:1";
+ *       POSTs carry a 512 byte body. avoid routes with side effects or sleeps</li>
+ *   <li>httpforge.warmup.connections - client connections, default 4</li>
+ *   <li>httpforge.warmup.minRequests - never fewer, default 20000: enough calls for C2</li>
+ *   <li>httpforge.warmup.maxMs - give up waiting for the JIT after this, default 15000</li>
+ * </ul>
+ */
+public final class Warmup {
+    public static final String DEFAULT_MIX = "GET /:4,GET /echo:2,POST /data:1";
+    static final int ROUND_REQUESTS = 5_000;
+    // a round that compiled less than this counts as the JIT being done
+    private static final long QUIET_COMPILE_MS = 10;
+    private static final byte[] POST_BODY = "x".repeat(512).getBytes(StandardCharsets.US_ASCII);
+
+    private final List<byte[]> requests;
+    private final int connections;
+    private final long minRequests;
+    private final long maxMs;
+
+    /**
+     * @param mix comma separated "METHOD /path" entries, each optionally ":weight"
+     */
+    public Warmup(String mix, int connections, long minRequests, long maxMs) {
+        if (connections <= 0 || minRequests < 0 || maxMs <= 0) {
+            throw new IllegalArgumentException("Connections and max time must be positive, min requests not negative");
+        }
+        this.requests = parseMix(mix);
+        this.connections = connections;
+        this.minRequests = minRequests;
+        this.maxMs = maxMs;
+    }
+
+    /**
+     * the warmup the system properties ask for, or null when it's off.
+     */
+    public static Warmup fromSystemProperties() {
+        if (!Boolean.getBoolean("httpforge.warmup")) {
+            return null;
+        }
+        return new Warmup(
+                System.getProperty("httpforge.warmup.mix", DEFAULT_MIX),
+                Integer.getInteger("httpforge.warmup.connections", 4),
+                Long.getLong("httpforge.warmup.minRequests", 20_000L),
+                Long.getLong("httpforge.warmup.maxMs", 15_000L));
+    }
+
+    /**
+     * sends the mix through the router until the JIT goes quiet. a request that fails or
+     * gets a 5xx fails the warmup: a route that can't serve its warmup traffic is a bad sign.
+     */
+    public Result run(Router router) throws IOException {
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        boolean jitTimed = jit != null && jit.isCompilationTimeMonitoringSupported();
+        long compileAtStart = jitTimed ? jit.getTotalCompilationTime() : 0;
+        long start = System.nanoTime();
+        long deadline = start + maxMs * 1_000_000L;
+        long sent = 0;
+        int rounds = 0;
+        boolean quiet = false;
+
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connections);
+            // ends when the socket is closed
+            Thread.ofPlatform().name("warmup-acceptor").daemon().start(() -> serve(server, router));
+            List<Client> clients = new ArrayList<>();
+            try {
+                for (int i = 0; i < connections; i++) {
+                    clients.add(new Client(server.getLocalPort(), i));
+                }
+                long compiled = jitTimed ? jit.getTotalCompilationTime() : 0;
+                while (System.nanoTime() < deadline && (sent < minRequests || !quiet)) {
+                    sent += round(clients);
+                    rounds++;
+                    long nowCompiled = jitTimed ? jit.getTotalCompilationTime() : 0;
+                    // without compile times to go by, the minimum is all there is
+                    quiet = !jitTimed || nowCompiled - compiled < QUIET_COMPILE_MS;
+                    compiled = nowCompiled;
+                }
+            } finally {
+                for (Client client : clients) {
+                    client.close();
+                }
+            }
+        }
+        long compileMs = jitTimed ? jit.getTotalCompilationTime() - compileAtStart : -1;
+        return new Result(sent, rounds, (System.nanoTime() - start) / 1_000_000, compileMs, quiet);
+    }
+
+    // one round: every client sends its share of the requests at the same time
+    private long round(List<Client> clients) throws IOException {
+        long perClient = Math.max(1, ROUND_REQUESTS / clients.size());
+        AtomicLong sent = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        for (Client client : clients) {
+            threads.add(Thread.ofPlatform().name("warmup-client").start(() -> {
+                try {
+                    for (long i = 0; i < perClient; i++) {
+                        client.exchange(requests.get((int) ((client.next++) % requests.size())));
+                        sent.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Warmup interrupted");
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return sent.get();
+    }
+
+    private static void serve(ServerSocket server, Router router) {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                ConnectionHandler handler = new ConnectionHandler(socket, router, null);
+                handler.disableAccessLog();
+                Thread.ofPlatform().name("warmup-connection").daemon().start(handler::handle);
+            }
+        } catch (IOException e) {
+            // closed when the warmup is done
+        }
+    }
+
+    static List<byte[]> parseMix(String mix) {
+        List<byte[]> requests = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int weight = 1;
+            int colon = entry.lastIndexOf(':');
+            if (colon > entry.indexOf(' ')) {
+                weight = Integer.parseInt(entry.substring(colon + 1).trim());
+                entry = entry.substring(0, colon).trim();
+            }
+            String[] parts = entry.split("\\s+");
+            if (parts.length != 2 || !parts[1].startsWith("/") || weight <= 0) {
+                throw new IllegalArgumentException("Bad warmup request, expected \"METHOD /path[:weight]\": " + entry);
+            }
+            byte[] request = request(parts[0].toUpperCase(), parts[1]);
+            for (int i = 0; i < weight; i++) {
+                requests.add(request);
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("Empty warmup mix");
+        }
+        return requests;
+    }
+
+    private static byte[] request(String method, String path) {
+        boolean body = method.equals("POST") || method.equals("PUT");
+        String head = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: httpforge-warmup\r\nConnection: keep-alive\r\n"
+                + (body ? "Content-Type: text/plain\r\nContent-Length: " + POST_BODY.length + "\r\n" : "") + "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        if (!body) {
+            return headBytes;
+        }
+        byte[] request = new byte[headBytes.length + POST_BODY.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(POST_BODY, 0, request, headBytes.length, POST_BODY.length);
+        return request;
+    }
+
+    /**
+     * what a warmup did. compileMs is -1 where the JVM doesn't time compilation.
+     */
+    public static final class Result {
+        public final long requests;
+        public final int rounds;
+        public final long durationMs;
+        public final long compileMs;
+        // false: stopped by the time limit while the JIT was still busy
+        public final boolean converged;
+
+        Result(long requests, int rounds, long durationMs, long compileMs, boolean converged) {
+            this.requests = requests;
+            this.rounds = rounds;
+            this.durationMs = durationMs;
+            this.compileMs = compileMs;
+            this.converged = converged;
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests in " + rounds + " rounds, " + durationMs + "ms"
+                    + (compileMs >= 0 ? ", " + compileMs + "ms compiling" : "")
+                    + (converged ? "" : ", stopped at the time limit");
+        }
+    }
+
+    // one keep-alive connection; reads each response whole before the next request
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        long next;
+
+        Client(int port, int index) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10_000);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+            // the clients don't all start at the same request
+            next = index;
+        }
+
+        void exchange(byte[] request) throws IOException {
+            out.write(request);
+            String status = readLine();
+            if (status.length() < 12 || !status.startsWith("HTTP/1.1 ") || status.charAt(9) == '5') {
+                throw new IOException("Warmup request failed: " + status);
+            }
+            long contentLength = 0;
+            boolean chunked = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                String lower = line.toLowerCase();
+                if (lower.startsWith("content-length:")) {
+                    contentLength = Long.parseLong(line.substring(15).trim());
+                } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                    chunked = true;
+                }
+            }
+            if (!chunked) {
+                skip(contentLength);
+                return;
+            }
+            long size;
+            while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                skip(size + 2);
+            }
+            // trailers, then the blank line
+            while (!readLine().isEmpty()) {
+                // ignored
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new IOException("Warmup connection closed by the server");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void skip(long bytes) throws IOException {
+            while (bytes > 0) {
+                long skipped = in.skip(bytes);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        throw new IOException("Warmup connection closed by the server");
+                    }
+                    skipped = 1;
+                }
+                bytes -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.httpforge.tls;
+
+import com.httpforge.buffer.BufferPool;
+import com.httpforge.buffer.PooledBuffer;
+import com.httpforge.metrics.Metrics;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TLS over a connection's channels, with an SSLEngine: what {@link com.httpforge.http.HttpInput}
+ * and {@link com.httpforge.http.HttpOutput} read and write instead of the socket. the engine
+ * doesn't care how the bytes move, so this works on a socket channel, on a plain socket's
+ * streams, and on a connection that waits in the idle poller between requests.
+ *
+ * records read from the socket and their decrypted data sit in pooled buffers, and like
+ * HttpInput's they only hold a buffer while there's something in it: an idle connection
+ * holds none. the large size class is needed, a record can be 16 KiB plus its overhead.
+ *
+ * reads come from one thread. writes may come from several (HTTP/2 streams), and the reading
+ * thread writes too when the handshake needs an answer, so wrapping and writing the records
+ * happens under a lock.
+ */
+public final class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final ReadableByteChannel netReader;
+    private final WritableByteChannel netWriter;
+    private final BufferPool pool;
+    private final Metrics metrics = Metrics.getInstance();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // records read and not yet unwrapped, and data unwrapped and not yet read: in read mode,
+    // null while empty
+    private PooledBuffer netIn;
+    private PooledBuffer appIn;
+    private boolean handshaken;
+    // when the first handshake byte arrived, 0 until then
+    private long handshakeStartNanos;
+    private long handshakeStartMillis;
+    private volatile boolean open = true;
+
+    TlsChannel(SSLEngine engine, ReadableByteChannel netReader, WritableByteChannel netWriter, BufferPool pool) {
+        this.engine = engine;
+        this.netReader = netReader;
+        this.netWriter = netWriter;
+        this.pool = pool;
+    }
+
+    /**
+     * the protocol ALPN settled on, e.g. "h2"; empty when there was no ALPN, null before the
+     * handshake.
+     */
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * whether bytes have been read from the socket that no one has read from here yet, so
+     * waiting for the socket to become readable could wait forever.
+     */
+    public boolean hasBuffered() {
+        return appIn != null || netIn != null;
+    }
+
+    /**
+     * does the handshake unless it's done. it runs on the first read or write anyway.
+     *
+     * @return false if the client closed the connection without starting one
+     */
+    public boolean handshake() throws IOException {
+        if (handshaken) {
+            return true;
+        }
+        try {
+            engine.beginHandshake();
+            if (!driveHandshake()) {
+                if (handshakeStartNanos == 0) {
+                    // a connect and nothing else, like a TCP health check
+                    return false;
+                }
+                throw new EOFException("Client closed the connection during the TLS handshake");
+            }
+        } catch (IOException e) {
+            if (handshakeStartNanos != 0) {
+                metrics.recordTlsHandshakeFailed();
+            }
+            if (e instanceof SSLException) {
+                // tell the client why, if the engine has an alert for it
+                try {
+                    wrapAndWrite(EMPTY, true);
+                } catch (IOException alsoClosed) {
+                    // it's going either way
+                }
+            }
+            throw e;
+        }
+        handshaken = true;
+        // a resumed session is the earlier one, created before this handshake began
+        boolean resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+        metrics.recordTlsHandshake(resumed, "h2".equals(engine.getApplicationProtocol()),
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - handshakeStartNanos));
+        return true;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!handshaken && !handshake()) {
+            return -1;
+        }
+        while (appIn == null) {
+            if (unwrap() == -1) {
+                return -1;
+            }
+            // a handshake message instead of data: a key update, or a TLS 1.2 renegotiation
+            if (isHandshaking() && !driveHandshake()) {
+                return -1;
+            }
+        }
+        ByteBuffer app = appIn.buffer();
+        int n = Math.min(app.remaining(), dst.remaining());
+        int limit = app.limit();
+        app.limit(app.position() + n);
+        dst.put(app);
+        app.limit(limit);
+        if (!app.hasRemaining()) {
+            appIn.release();
+            appIn = null;
+        }
+        return n;
+    }
+
+    /**
+     * encrypts all of src and writes it.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!handshaken && !handshake()) {
+            throw new ClosedChannelException();
+        }
+        int total = src.remaining();
+        while (src.hasRemaining()) {
+            wrapAndWrite(src, false);
+        }
+        return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * sends close_notify, best effort, and gives the buffers back. the socket is the
+     * caller's to close.
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            if (handshaken) {
+                engine.closeOutbound();
+                wrapAndWrite(EMPTY, true);
+            }
+        } catch (IOException e) {
+            // the client is gone already
+        } finally {
+            if (netIn != null) {
+                netIn.release();
+                netIn = null;
+            }
+            if (appIn != null) {
+                appIn.release();
+                appIn = null;
+            }
+        }
+    }
+
+    // until the engine stops asking; false if the client closed the connection first
+    private boolean driveHandshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> runDelegatedTasks();
+                case NEED_WRAP -> wrapAndWrite(EMPTY, false);
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    if (unwrap() == -1) {
+                        return false;
+                    }
+                }
+                default -> {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private boolean isHandshaking() {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    // the certificate signature and key agreement; on this thread, it's blocked on them anyway
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * unwraps the next record into appIn, reading from the socket until a whole one is there.
+     *
+     * @return the bytes of data it held (0 for a handshake message), or -1 at end of stream
+     */
+    private int unwrap() throws IOException {
+        while (true) {
+            if (netIn != null) {
+                if (appIn == null) {
+                    appIn = pool.acquire(BufferPool.LARGE);
+                    appIn.buffer().flip();
+                }
+                ByteBuffer app = appIn.buffer().compact();
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(netIn.buffer(), app);
+                } finally {
+                    app.flip();
+                }
+                if (!netIn.buffer().hasRemaining()) {
+                    netIn.release();
+                    netIn = null;
+                }
+                if (!app.hasRemaining()) {
+                    appIn.release();
+                    appIn = null;
+                }
+                switch (result.getStatus()) {
+                    case OK:
+                        return result.bytesProduced();
+                    case CLOSED:
+                        // close_notify
+                        return -1;
+                    case BUFFER_OVERFLOW:
+                        // can't happen: data is only unwrapped once the last record's was read
+                        throw new SSLException("No room to decrypt a TLS record");
+                    default:
+                        // BUFFER_UNDERFLOW: only part of a record so far
+                        break;
+                }
+            }
+            if (readRecords() == -1) {
+                return -1;
+            }
+        }
+    }
+
+    // one read from the socket, after the unread bytes of a partial record
+    private int readRecords() throws IOException {
+        if (netIn == null) {
+            netIn = pool.acquire(BufferPool.LARGE);
+            netIn.buffer().flip();
+        }
+        ByteBuffer net = netIn.buffer().compact();
+        int n;
+        try {
+            n = netReader.read(net);
+        } finally {
+            net.flip();
+        }
+        if (n > 0 && handshakeStartNanos == 0) {
+            handshakeStartNanos = System.nanoTime();
+            handshakeStartMillis = System.currentTimeMillis();
+        }
+        if (!net.hasRemaining()) {
+            netIn.release();
+            netIn = null;
+        }
+        return n;
+    }
+
+    /**
+     * wraps src into records and writes them, as many records per write as fit the buffer: a
+     * large response goes out in 48 KiB writes, and a handshake flight (ServerHello through
+     * Finished) in one. an empty src wraps whatever handshake messages the engine has.
+     *
+     * @param bestEffort one write only: an alert or close_notify on a connection that's being
+     *                   closed, possibly from the idle poller while its channel is non-blocking
+     */
+    private void wrapAndWrite(ByteBuffer src, boolean bestEffort) throws IOException {
+        writeLock.lock();
+        PooledBuffer pooled = pool.acquire(BufferPool.LARGE);
+        try {
+            ByteBuffer net = pooled.buffer();
+            int packetSize = engine.getSession().getPacketBufferSize();
+            while (net.remaining() >= packetSize) {
+                SSLEngineResult result = engine.wrap(src, net);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    if (src.hasRemaining() && result.bytesProduced() == 0 && net.position() == 0) {
+                        throw new SSLException("TLS connection is closed");
+                    }
+                    break;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("Can't wrap a TLS record: " + result.getStatus());
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                boolean more = src.hasRemaining()
+                        || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+                if (!more || result.bytesConsumed() + result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+            net.flip();
+            while (net.hasRemaining()) {
+                if (netWriter.write(net) == 0 && bestEffort) {
+                    break;
+                }
+            }
+        } finally {
+            pooled.release();
+            writeLock.unlock();
+        }
+    }
+}
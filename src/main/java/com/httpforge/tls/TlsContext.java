@@ -0,0 +1,134 @@
+package com.httpforge.tls;
+
+import com.httpforge.buffer.BufferPool;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+
+/**
+ * the server's certificate and TLS settings, shared by every connection: one per process.
+ *
+ * resumption lets a returning client skip the key exchange and the certificate, a round trip
+ * and most of the handshake's CPU. the JDK resumes with stateless session tickets (TLS 1.3,
+ * and TLS 1.2 clients that ask for them), which cost the server no memory; older TLS 1.2
+ * clients resume by session id, from the cache sized here. a session can be resumed for the
+ * session timeout, an hour rather than the JDK's day, which bounds how long a stolen ticket
+ * or cached secret is worth anything.
+ *
+ * ALPN offers h2 first: a client that picks it gets HTTP/2 on this connection without an
+ * Upgrade, see {@link com.httpforge.http2.Http2Connection}.
+ *
+ * from system properties:
+ * <ul>
+ *   <li>httpforge.tls.keyStore - PKCS12 or JKS file with the key and certificate chain; no TLS when unset</li>
+ *   <li>httpforge.tls.keyStorePassword - for the store and the key</li>
+ *   <li>httpforge.tls.sessionCacheSize - sessions kept for resumption by id, default 20000</li>
+ *   <li>httpforge.tls.sessionTimeout - seconds a session can be resumed for, default 3600</li>
+ *   <li>httpforge.tls.alpn - protocols offered, in order of preference, default h2,http/1.1</li>
+ * </ul>
+ */
+public final class TlsContext {
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20_000;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+    public static final List<String> DEFAULT_ALPN = List.of("h2", "http/1.1");
+
+    private final SSLContext sslContext;
+    private final String[] applicationProtocols;
+
+    /**
+     * @param sessionCacheSize      sessions kept for resumption by session id, 0 for no limit
+     * @param sessionTimeoutSeconds how long a session can be resumed for
+     * @param applicationProtocols  offered by ALPN in order of preference; empty for no ALPN
+     */
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeoutSeconds,
+                      List<String> applicationProtocols) {
+        this.sslContext = sslContext;
+        this.applicationProtocols = applicationProtocols.toArray(new String[0]);
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * the default settings, with the key and certificate chain from a key store.
+     */
+    public static TlsContext fromKeyStore(Path keyStore, char[] password) throws IOException, GeneralSecurityException {
+        return fromKeyStore(keyStore, password, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS, DEFAULT_ALPN);
+    }
+
+    public static TlsContext fromKeyStore(Path keyStore, char[] password, int sessionCacheSize,
+                                          int sessionTimeoutSeconds, List<String> applicationProtocols)
+            throws IOException, GeneralSecurityException {
+        // the type is detected from the file
+        KeyStore store = KeyStore.getInstance(keyStore.toFile(), password);
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(store, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+        return new TlsContext(sslContext, sessionCacheSize, sessionTimeoutSeconds, applicationProtocols);
+    }
+
+    /**
+     * the context -Dhttpforge.tls.keyStore asks for, or null when it isn't set.
+     *
+     * @throws IllegalStateException when the key store can't be loaded
+     */
+    public static TlsContext fromSystemProperties() {
+        String keyStore = System.getProperty("httpforge.tls.keyStore");
+        if (keyStore == null || keyStore.isBlank()) {
+            return null;
+        }
+        String alpn = System.getProperty("httpforge.tls.alpn");
+        try {
+            return fromKeyStore(Path.of(keyStore),
+                    System.getProperty("httpforge.tls.keyStorePassword", "").toCharArray(),
+                    Integer.getInteger("httpforge.tls.sessionCacheSize", DEFAULT_SESSION_CACHE_SIZE),
+                    Integer.getInteger("httpforge.tls.sessionTimeout", DEFAULT_SESSION_TIMEOUT_SECONDS),
+                    alpn == null ? DEFAULT_ALPN : alpn.isBlank() ? List.of() : List.of(alpn.split("\\s*,\\s*")));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Can't load TLS key store " + keyStore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * the context every server uses unless given another, read from system properties on first
+     * use; null when TLS isn't configured.
+     */
+    public static TlsContext getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * the server side of a new connection over the given socket channels. the handshake
+     * happens on the first read or write.
+     */
+    public TlsChannel open(ReadableByteChannel in, WritableByteChannel out, BufferPool pool) {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        if (applicationProtocols.length > 0) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setApplicationProtocols(applicationProtocols);
+            engine.setSSLParameters(parameters);
+        }
+        return new TlsChannel(engine, in, out, pool);
+    }
+
+    // loaded on first use, so a bad key store fails the server that asked for it
+    private static final class DefaultHolder {
+        static final TlsContext DEFAULT = fromSystemProperties();
+    }
+}
@@ -0,0 +1,157 @@
+package com.httpforge.tracing;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * fixed-size ring of recent sampled requests, preallocated as parallel arrays.
+ * writers claim a slot with one atomic increment and never block each other; the
+ * per-slot sequence works like a seqlock so readers can skip slots being overwritten.
+ * nothing here allocates on the write path except what the caller already owns.
+ */
+public class SpanRing {
+    private final int capacity;
+    private final AtomicLong nextSequence = new AtomicLong();
+    // sequence of the record currently in each slot, -1 while a writer is filling it
+    private final AtomicLongArray slotSequence;
+
+    private final long[] traceIdHigh;
+    private final long[] traceIdLow;
+    private final long[] startedAtMillis;
+    private final String[] methods;
+    private final String[] paths;
+    private final int[] statuses;
+    // phase durations in nanoseconds, indexed by slot * PHASE_COUNT + phase.ordinal()
+    private final long[] phaseNanos;
+
+    public SpanRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slotSequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slotSequence.set(i, -1);
+        }
+        this.traceIdHigh = new long[capacity];
+        this.traceIdLow = new long[capacity];
+        this.startedAtMillis = new long[capacity];
+        this.methods = new String[capacity];
+        this.paths = new String[capacity];
+        this.statuses = new int[capacity];
+        this.phaseNanos = new long[capacity * Phase.COUNT];
+    }
+
+    /**
+     * records one request. phases must have {@link Phase#COUNT} entries.
+     */
+    public void record(long traceHigh, long traceLow, long startedAt, String method, String path,
+                       int status, long[] phases) {
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence % capacity);
+
+        slotSequence.set(slot, -1);
+        // keeps the plain writes below from becoming visible before the -1 does
+        VarHandle.storeStoreFence();
+        traceIdHigh[slot] = traceHigh;
+        traceIdLow[slot] = traceLow;
+        startedAtMillis[slot] = startedAt;
+        methods[slot] = method;
+        paths[slot] = path;
+        statuses[slot] = status;
+        System.arraycopy(phases, 0, phaseNanos, slot * Phase.COUNT, Phase.COUNT);
+        // volatile write publishes the plain writes above
+        slotSequence.set(slot, sequence);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getRecordedCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * copies out the slowest requests currently in the ring, slowest first.
+     */
+    public List<Trace> slowest(int limit) {
+        List<Trace> traces = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            long before = slotSequence.get(slot);
+            if (before < 0) {
+                continue;
+            }
+            long[] phases = new long[Phase.COUNT];
+            System.arraycopy(phaseNanos, slot * Phase.COUNT, phases, 0, Phase.COUNT);
+            Trace trace = new Trace(traceIdHigh[slot], traceIdLow[slot], startedAtMillis[slot],
+                    methods[slot], paths[slot], statuses[slot], phases);
+            // the plain reads above must be done before the sequence is read again
+            VarHandle.loadLoadFence();
+            // a writer got in while we were copying, the record is torn
+            if (slotSequence.get(slot) != before) {
+                continue;
+            }
+            traces.add(trace);
+        }
+        traces.sort(Comparator.comparingLong(Trace::totalNanos).reversed());
+        return traces.size() > limit ? new ArrayList<>(traces.subList(0, limit)) : traces;
+    }
+
+    /**
+     * request phases, in the order a request goes through them.
+     */
+    public enum Phase {
+        ACCEPT,   // accept() returned -> handed to a thread
+        QUEUE,    // waiting in the executor queue
+        PARSE,    // first byte -> request parsed
+        HANDLER,  // route lookup + handler
+        WRITE;    // serialize + flush
+
+        public static final int COUNT = values().length;
+    }
+
+    /**
+     * a copied-out ring record.
+     */
+    public static class Trace {
+        public final long traceIdHigh;
+        public final long traceIdLow;
+        public final long startedAtMillis;
+        public final String method;
+        public final String path;
+        public final int status;
+        private final long[] phaseNanos;
+
+        Trace(long traceIdHigh, long traceIdLow, long startedAtMillis, String method, String path,
+              int status, long[] phaseNanos) {
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            this.startedAtMillis = startedAtMillis;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.phaseNanos = phaseNanos;
+        }
+
+        public String traceId() {
+            return TraceId.toHex(traceIdHigh, traceIdLow);
+        }
+
+        public long phaseNanos(Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        public long totalNanos() {
+            long total = 0;
+            for (long nanos : phaseNanos) {
+                total += nanos;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.httpforge.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 128-bit W3C trace id, kept as two longs so recording it doesn't allocate.
+ * see https://www.w3.org/TR/trace-context/#traceparent-header
+ */
+public final class TraceId {
+
+    private TraceId() {}
+
+    /**
+     * extracts the trace id from a traceparent header: {version}-{trace-id}-{parent-id}-{flags}
+     * e.g. "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"
+     *
+     * @return {high, low} or null when the header is missing or malformed
+     */
+    public static long[] fromTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() < 55 || traceparent.charAt(2) != '-'
+                || traceparent.charAt(35) != '-') {
+            return null;
+        }
+        try {
+            long high = Long.parseUnsignedLong(traceparent.substring(3, 19), 16);
+            long low = Long.parseUnsignedLong(traceparent.substring(19, 35), 16);
+            // all-zero trace id is invalid per spec
+            if (high == 0 && low == 0) {
+                return null;
+            }
+            return new long[] {high, low};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static long[] generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new long[] {random.nextLong(), random.nextLong() | 1};
+    }
+
+    public static String toHex(long high, long low) {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -0,0 +1,104 @@
+package com.httpforge.tracing;
+
+import com.httpforge.http.HttpRequest;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * samples requests into a {@link SpanRing} for tail-latency debugging.
+ * the sampling decision is a single random draw, so unsampled requests pay nothing else:
+ * no header lookup, no id generation, no ring write.
+ *
+ * configure with -Dhttpforge.trace.sampleRate=0.01 (0 disables) and -Dhttpforge.trace.ringSize=1024
+ */
+public class Tracer {
+    private static final Tracer INSTANCE = new Tracer(
+            Double.parseDouble(System.getProperty("httpforge.trace.sampleRate", "0.01")),
+            Integer.getInteger("httpforge.trace.ringSize", 1024)
+    );
+
+    private final double sampleRate;
+    private final SpanRing ring;
+
+    public Tracer(double sampleRate, int ringSize) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+        this.ring = new SpanRing(ringSize);
+    }
+
+    public static Tracer getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean shouldSample() {
+        return sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * records a sampled request. the trace id comes from the traceparent header when present.
+     *
+     * @param phaseNanos phase durations indexed by {@link SpanRing.Phase#ordinal()}
+     */
+    public void record(HttpRequest request, int status, long startedAtMillis, long[] phaseNanos) {
+        long[] traceId = TraceId.fromTraceparent(request.getHeader("traceparent"));
+        if (traceId == null) {
+            traceId = TraceId.generate();
+        }
+        ring.record(traceId[0], traceId[1], startedAtMillis, request.getMethod(), request.getPath(),
+                status, phaseNanos);
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public SpanRing getRing() {
+        return ring;
+    }
+
+    /**
+     * renders the slowest recent traces with their phase breakdown in milliseconds.
+     */
+    public String toJson(int limit) {
+        List<SpanRing.Trace> traces = ring.slowest(limit);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"sampleRate\": ").append(sampleRate).append(",\n");
+        json.append("  \"ringSize\": ").append(ring.getCapacity()).append(",\n");
+        json.append("  \"sampled\": ").append(ring.getRecordedCount()).append(",\n");
+        json.append("  \"traces\": [");
+        for (int i = 0; i < traces.size(); i++) {
+            SpanRing.Trace trace = traces.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"traceId\": \"").append(trace.traceId()).append("\", ");
+            json.append("\"method\": \"").append(trace.method).append("\", ");
+            json.append("\"path\": \"").append(escape(trace.path)).append("\", ");
+            json.append("\"status\": ").append(trace.status).append(", ");
+            json.append("\"startedAt\": ").append(trace.startedAtMillis).append(", ");
+            json.append("\"totalMs\": ").append(millis(trace.totalNanos())).append(", ");
+            json.append("\"phasesMs\": {");
+            for (SpanRing.Phase phase : SpanRing.Phase.values()) {
+                json.append(phase.ordinal() == 0 ? "" : ", ")
+                        .append('"').append(phase.name().toLowerCase()).append("\": ")
+                        .append(millis(trace.phaseNanos(phase)));
+            }
+            json.append("}}");
+        }
+        json.append(traces.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
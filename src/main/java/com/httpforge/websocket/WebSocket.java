@@ -0,0 +1,382 @@
+package com.httpforge.websocket;
+
+import com.httpforge.http.HttpInput;
+import com.httpforge.http.HttpOutput;
+import com.httpforge.http.HttpRequest;
+import com.httpforge.http.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * the server end of a WebSocket connection (RFC 6455), from the 101 on. no extensions, so no
+ * permessage-deflate: a frame is its payload and a few bytes of header.
+ *
+ * one thread reads (the session's, see {@link WebSocketHandler}); any thread may send, frames
+ * go out whole under a lock. pings are answered and the close handshake is done by read(), so
+ * a session that only pushes still has to read for those to happen.
+ *
+ * a frame the server sends isn't masked and doesn't depend on the connection, so a message
+ * for many clients can be encoded once with {@link #encodeText} and written to each as is.
+ */
+public final class WebSocket {
+    public static final int NORMAL_CLOSURE = 1000;
+    public static final int GOING_AWAY = 1001;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int INVALID_DATA = 1007;
+    public static final int MESSAGE_TOO_BIG = 1009;
+    public static final int TRY_AGAIN_LATER = 1013;
+    // a client message, reassembled from its fragments, larger than this closes the connection
+    public static final int MAX_MESSAGE_BYTES = 1 << 20;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int CONTINUATION = 0x0;
+    private static final int TEXT = 0x1;
+    private static final int BINARY = 0x2;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private final HttpRequest request;
+    private final HttpInput in;
+    private final HttpOutput out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // reader thread only
+    private final byte[] header = new byte[8];
+    private final byte[] mask = new byte[4];
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    // writer, under the lock
+    private final byte[] frameHeader = new byte[10];
+    private volatile boolean closeSent;
+
+    /**
+     * @param request the upgrade request, kept for the session: a snapshot, not the recycled one
+     */
+    public WebSocket(HttpRequest request, HttpInput in, HttpOutput out) {
+        this.request = request;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * whether the request asks to open a WebSocket: a GET with Upgrade: websocket, a key and
+     * version 13, the only one there is.
+     */
+    public static boolean isUpgrade(HttpRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return false;
+        }
+        String upgrade = request.getHeader("Upgrade");
+        String connection = request.getHeader("Connection");
+        return upgrade != null && upgrade.trim().equalsIgnoreCase("websocket")
+                && connection != null && hasToken(connection, "upgrade")
+                && request.getHeader("Sec-WebSocket-Key") != null
+                && "13".equals(trim(request.getHeader("Sec-WebSocket-Version")));
+    }
+
+    /**
+     * the 101 that accepts an upgrade request; the connection speaks WebSocket after it.
+     */
+    public static HttpResponse handshakeResponse(HttpRequest request) {
+        return HttpResponse.builder()
+                .status(101, "Switching Protocols")
+                .header("Upgrade", "websocket")
+                .header("Connection", "Upgrade")
+                .header("Sec-WebSocket-Accept", acceptKey(request.getHeader("Sec-WebSocket-Key").trim()))
+                .build();
+    }
+
+    // base64(SHA-1(key + GUID)): proof to the client that this server understood the handshake
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always there", e);
+        }
+    }
+
+    /**
+     * the request that opened the connection, e.g. for its path's query or a cookie.
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * whether messages can still be sent: false once either side started closing.
+     */
+    public boolean isOpen() {
+        return !closeSent;
+    }
+
+    /**
+     * the next message from the client. pings are answered along the way, pongs ignored.
+     *
+     * @return the message, or null when the client closed the connection (the close has been
+     *         answered), or a protocol error made this side close it
+     */
+    public Message read() throws IOException {
+        int messageType = -1;
+        message.reset();
+        while (true) {
+            readFully(header, 2);
+            boolean fin = (header[0] & 0x80) != 0;
+            int opcode = header[0] & 0x0F;
+            boolean masked = (header[1] & 0x80) != 0;
+            long length = header[1] & 0x7F;
+            if ((header[0] & 0x70) != 0 || !masked) {
+                // no extension was agreed on, and a client must mask everything it sends
+                return failed(PROTOCOL_ERROR, !masked ? "Unmasked frame" : "Reserved bits set");
+            }
+            if (length == 126) {
+                readFully(header, 2);
+                length = (header[0] & 0xFF) << 8 | header[1] & 0xFF;
+            } else if (length == 127) {
+                readFully(header, 8);
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = length << 8 | header[i] & 0xFF;
+                }
+            }
+            readFully(mask, 4);
+
+            if (opcode >= CLOSE) {
+                if (!fin || length > MAX_CONTROL_PAYLOAD) {
+                    return failed(PROTOCOL_ERROR, "Fragmented or oversized control frame");
+                }
+                byte[] payload = readPayload((int) length);
+                switch (opcode) {
+                    case CLOSE -> {
+                        // echo the code back, which completes the close handshake
+                        int code = payload.length >= 2 ? (payload[0] & 0xFF) << 8 | payload[1] & 0xFF : NORMAL_CLOSURE;
+                        close(code, "");
+                        return null;
+                    }
+                    case PING -> {
+                        if (!closeSent) {
+                            send(PONG, payload, 0, payload.length);
+                        }
+                    }
+                    case PONG -> {
+                        // unsolicited, or an answer to a ping this side never sends
+                    }
+                    default -> {
+                        return failed(PROTOCOL_ERROR, "Unknown opcode " + opcode);
+                    }
+                }
+                continue;
+            }
+
+            if (opcode == CONTINUATION ? messageType == -1 : opcode > BINARY || messageType != -1) {
+                return failed(PROTOCOL_ERROR, "Unexpected opcode " + opcode);
+            }
+            if (message.size() + length > MAX_MESSAGE_BYTES) {
+                return failed(MESSAGE_TOO_BIG, "Message too big");
+            }
+            if (opcode != CONTINUATION) {
+                messageType = opcode;
+            }
+            byte[] payload = readPayload((int) length);
+            message.write(payload, 0, payload.length);
+            if (fin) {
+                byte[] data = message.toByteArray();
+                if (messageType == TEXT) {
+                    try {
+                        String text = StandardCharsets.UTF_8.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPORT)
+                                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                .decode(ByteBuffer.wrap(data))
+                                .toString();
+                        return new Message(text, null);
+                    } catch (CharacterCodingException e) {
+                        return failed(INVALID_DATA, "Text message isn't UTF-8");
+                    }
+                }
+                return new Message(null, data);
+            }
+        }
+    }
+
+    public void sendText(String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        send(TEXT, payload, 0, payload.length);
+    }
+
+    public void sendBinary(byte[] data) throws IOException {
+        send(BINARY, data, 0, data.length);
+    }
+
+    /**
+     * sends a frame made by {@link #encodeText}; the buffer's position is left alone, so the
+     * same one can be sent to every connection.
+     */
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        writeLock.lock();
+        try {
+            if (closeSent) {
+                throw new IOException("WebSocket is closed");
+            }
+            out.write(frame.duplicate());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * a whole text message as one frame, ready to send on any connection.
+     */
+    public static ByteBuffer encodeText(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[10];
+        int headerLength = putHeader(header, TEXT, payload.length);
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+        frame.put(header, 0, headerLength).put(payload).flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * starts the close handshake, or answers the client's. nothing can be sent afterwards; the
+     * connection itself closes when the session's handler returns.
+     */
+    public void close(int code, String reason) throws IOException {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_CONTROL_PAYLOAD - 2);
+        byte[] payload = new byte[2 + length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, length);
+        writeLock.lock();
+        try {
+            if (closeSent) {
+                return;
+            }
+            writeFrame(CLOSE, payload, 0, payload.length);
+            closeSent = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void send(int opcode, byte[] payload, int offset, int length) throws IOException {
+        writeLock.lock();
+        try {
+            if (closeSent) {
+                throw new IOException("WebSocket is closed");
+            }
+            writeFrame(opcode, payload, offset, length);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // with the lock held
+    private void writeFrame(int opcode, byte[] payload, int offset, int length) throws IOException {
+        int headerLength = putHeader(frameHeader, opcode, length);
+        out.write(frameHeader, 0, headerLength);
+        out.write(payload, offset, length);
+    }
+
+    // a final, unmasked frame's header; returns its length
+    private static int putHeader(byte[] header, int opcode, int length) {
+        header[0] = (byte) (0x80 | opcode);
+        if (length <= MAX_CONTROL_PAYLOAD) {
+            header[1] = (byte) length;
+            return 2;
+        }
+        if (length <= 0xFFFF) {
+            header[1] = 126;
+            header[2] = (byte) (length >> 8);
+            header[3] = (byte) length;
+            return 4;
+        }
+        header[1] = 127;
+        long value = length;
+        for (int i = 9; i >= 2; i--) {
+            header[i] = (byte) value;
+            value >>= 8;
+        }
+        return 10;
+    }
+
+    // closes with the error, like the RFC asks, and reads as the end of the session
+    private Message failed(int code, String reason) throws IOException {
+        close(code, reason);
+        return null;
+    }
+
+    private byte[] readPayload(int length) throws IOException {
+        byte[] payload = new byte[length];
+        readFully(payload, length);
+        for (int i = 0; i < length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+        return payload;
+    }
+
+    private void readFully(byte[] dst, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(dst, read, length - read);
+            if (n == -1) {
+                throw new EOFException("Client closed the WebSocket connection");
+            }
+            read += n;
+        }
+    }
+
+    private static boolean hasToken(String header, String token) {
+        for (String value : header.split(",")) {
+            if (value.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : null;
+    }
+
+    /**
+     * a message from the client, text or binary.
+     */
+    public static final class Message {
+        private final String text;
+        private final byte[] data;
+
+        Message(String text, byte[] data) {
+            this.text = text;
+            this.data = data;
+        }
+
+        public boolean isText() {
+            return text != null;
+        }
+
+        /**
+         * the text of a text message, null for a binary one.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * the bytes of a binary message, null for a text one.
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.httpforge.websocket;
+
+import java.io.IOException;
+
+/**
+ * serves a WebSocket connection, see {@link com.httpforge.routing.Router#addWebSocketRoute}.
+ *
+ * it runs on a virtual thread of its own for as long as the session lasts, so a session never
+ * holds one of the server's workers, and the connection closes when it returns. it reads with
+ * {@link WebSocket#read()} until that returns null; other threads may send meanwhile.
+ */
+@FunctionalInterface
+public interface WebSocketHandler {
+    void onOpen(WebSocket webSocket) throws IOException;
+}
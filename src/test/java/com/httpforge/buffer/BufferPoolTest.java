@@ -0,0 +1,116 @@
+package com.httpforge.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void testPicksTheSmallestSizeClassThatFits() {
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.OFF);
+
+        PooledBuffer small = pool.acquire(100);
+        PooledBuffer medium = pool.acquire(BufferPool.SMALL + 1);
+        PooledBuffer large = pool.acquire(BufferPool.LARGE);
+
+        assertEquals(BufferPool.SMALL, small.capacity());
+        assertEquals(BufferPool.MEDIUM, medium.capacity());
+        assertEquals(BufferPool.LARGE, large.capacity());
+        assertTrue(small.buffer().isDirect());
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(BufferPool.LARGE + 1));
+    }
+
+    @Test
+    void testReleasedBufferIsReusedAndCleared() {
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.OFF);
+
+        PooledBuffer first = pool.acquire(BufferPool.SMALL);
+        first.buffer().put((byte) 42);
+        first.release();
+        PooledBuffer second = pool.acquire(BufferPool.SMALL);
+
+        assertSame(first, second);
+        assertEquals(0, second.buffer().position());
+        assertEquals(BufferPool.SMALL, second.buffer().remaining());
+        assertEquals(1, pool.inUse());
+        assertEquals(2, pool.stats()[0].borrows);
+    }
+
+    @Test
+    void testBufferReleasedOnAShortLivedThreadComesBack() throws InterruptedException {
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.OFF);
+        List<PooledBuffer> borrowed = new ArrayList<>();
+        Thread thread = new Thread(() -> pool.acquire(BufferPool.MEDIUM).release());
+        thread.start();
+        thread.join();
+
+        // the whole slab is free for everyone else, the exited thread kept nothing
+        int perSlab = BufferPool.SLAB_BYTES / BufferPool.MEDIUM;
+        assertEquals(perSlab, pool.stats()[1].free);
+        for (int i = 0; i < perSlab; i++) {
+            borrowed.add(pool.acquire(BufferPool.MEDIUM));
+        }
+        assertEquals(0, pool.stats()[1].overflows);
+        borrowed.forEach(PooledBuffer::release);
+    }
+
+    @Test
+    void testOverflowsToTheHeapWhenSlabsRunOut() {
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.OFF);
+        int perSlab = BufferPool.SLAB_BYTES / BufferPool.LARGE;
+
+        List<PooledBuffer> borrowed = new ArrayList<>();
+        for (int i = 0; i < perSlab; i++) {
+            borrowed.add(pool.acquire(BufferPool.LARGE));
+        }
+        PooledBuffer extra = pool.acquire(BufferPool.LARGE);
+
+        assertFalse(extra.buffer().isDirect());
+        BufferPool.Stats stats = pool.stats()[2];
+        assertEquals(1, stats.slabs);
+        assertEquals(perSlab, stats.capacity);
+        assertEquals(perSlab + 1, stats.inUse);
+        assertEquals(1, stats.overflows);
+
+        extra.release();
+        borrowed.forEach(PooledBuffer::release);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    void testDoubleReleaseThrows() {
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.OFF);
+        PooledBuffer buffer = pool.acquire(BufferPool.SMALL);
+        buffer.release();
+
+        assertThrows(IllegalStateException.class, buffer::release);
+    }
+
+    @Test
+    void testUnreleasedBufferIsCountedAsLeak() throws InterruptedException {
+        Semaphore leaked = new Semaphore(0);
+        BufferPool pool = new BufferPool(1, BufferPool.LeakDetection.ON, leaked::release);
+        pool.acquire(BufferPool.SMALL).release();
+        borrowAndDrop(pool);
+
+        // a GC finds the dropped buffer; the cleaner then counts it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        do {
+            System.gc();
+        } while (!leaked.tryAcquire(100, TimeUnit.MILLISECONDS) && System.nanoTime() < deadline);
+
+        assertEquals(1, pool.getLeaks());
+        assertEquals(0, pool.inUse());
+    }
+
+    // in its own frame, so nothing on the test's stack keeps the buffer reachable
+    private static void borrowAndDrop(BufferPool pool) {
+        pool.acquire(BufferPool.MEDIUM);
+    }
+}
@@ -0,0 +1,100 @@
+package com.httpforge.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * a real two-worker cluster: separate JVMs on one port.
+ */
+class ClusterSupervisorTest {
+
+    @Test
+    void testWorkersServeOnePortAndAreRestarted() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        Path file = Files.createTempFile("httpforge-cluster", ".metrics");
+        ClusterSupervisor supervisor = new ClusterSupervisor(2, "single", port, file);
+        Thread thread = new Thread(() -> {
+            try {
+                supervisor.start();
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        thread.start();
+        try {
+            // both up, and publishing
+            awaitTrue(() -> metrics(port).contains("\"aliveWorkers\": 2,"));
+            for (int i = 0; i < 10; i++) {
+                assertTrue(get(port, "/").startsWith("HTTP/1.1 200 OK"));
+            }
+
+            long killed = supervisor.getWorkerPids()[0];
+            ProcessHandle.of(killed).ifPresent(ProcessHandle::destroyForcibly);
+
+            // a new process in its place, and whichever worker answers knows about the restart
+            awaitTrue(() -> {
+                long pid = supervisor.getWorkerPids()[0];
+                return pid != -1 && pid != killed && metrics(port).contains("\"aliveWorkers\": 2,");
+            });
+            String json = metrics(port);
+            assertTrue(json.contains("{\"worker\": 0, \"pid\": " + supervisor.getWorkerPids()[0]), json);
+            assertTrue(json.contains("\"restarts\": 1,"), json);
+        } finally {
+            supervisor.stop();
+            thread.join(15_000);
+        }
+        assertFalse(Files.exists(file));
+        for (long pid : supervisor.getWorkerPids()) {
+            assertEquals(-1, pid);
+        }
+    }
+
+    @Test
+    void testWorkerCommand() throws IOException {
+        ClusterSupervisor supervisor = new ClusterSupervisor(2, "pool", 8085, Path.of("/tmp/cluster.metrics"));
+
+        String command = String.join(" ", supervisor.command(1));
+
+        assertTrue(command.contains(" -Dhttpforge.port=8085 -Dhttpforge.listen.reusePort=true -Dhttpforge.cluster.worker=1 "
+                + "-Dhttpforge.cluster.metricsFile=/tmp/cluster.metrics -cp "), command);
+        assertTrue(command.endsWith(" com.httpforge.Main pool"), command);
+    }
+
+    // the /metrics body from whichever worker the connection lands on, or "" if none answers
+    private static String metrics(int port) {
+        try {
+            return get(port, "/metrics");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static String get(int port, String path) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(3000);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -1,5 +1,6 @@
 package com.httpforge.http;
 
+import com.httpforge.buffer.BufferPool;
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -104,5 +105,125 @@ class HttpParserTest {
         assertEquals(4, request.getHeaders().size());
         assertEquals("keep-alive", request.getHeader("Connection"));
     }
-}
 
+    @Test
+    void testPipelinedRequestsShareOneInput() throws IOException, HttpParser.HttpParseException {
+        String rawRequests = "POST /first HTTP/1.1\r\n" +
+                            "Content-Length: 3\r\n" +
+                            "\r\n" +
+                            "abc" +
+                            "GET /second HTTP/1.1\r\n" +
+                            "\r\n";
+
+        ByteArrayInputStream stream = new ByteArrayInputStream(rawRequests.getBytes(StandardCharsets.UTF_8));
+        try (HttpInput input = new HttpInput(StreamChannels.reader(stream), BufferPool.getDefault())) {
+            HttpRequest first = HttpParser.parse(input, null);
+            assertEquals("/first", first.getPath());
+            assertEquals("abc", first.getBody());
+            // the second request arrived with the first and must not be lost with its buffer
+            assertTrue(input.hasBuffered());
+
+            HttpRequest second = HttpParser.parse(input, null);
+            assertEquals("/second", second.getPath());
+            assertEquals("", second.getBody());
+            assertFalse(input.hasBuffered());
+        }
+    }
+
+    @Test
+    void testConnectionRecyclesItsRequest() throws IOException, HttpParser.HttpParseException {
+        String oneRequest = "GET /same HTTP/1.1\r\n" +
+                           "Host: localhost\r\n" +
+                           "X-Custom: 42\r\n" +
+                           "\r\n";
+
+        ByteArrayInputStream stream = new ByteArrayInputStream((oneRequest + oneRequest).getBytes(StandardCharsets.UTF_8));
+        try (HttpInput input = new HttpInput(StreamChannels.reader(stream), BufferPool.getDefault())) {
+            HttpRequest first = HttpParser.parse(input, null);
+            String path = first.getPath();
+            String custom = first.getHeader("X-Custom");
+            HttpRequest snapshot = first.snapshot();
+
+            HttpRequest second = HttpParser.parse(input, null);
+
+            assertTrue(second.isRecycled());
+            assertSame(first, second);
+            // identical bytes on a keep-alive connection give back the same Strings
+            assertSame(path, second.getPath());
+            assertSame(custom, second.getHeader("X-Custom"));
+            assertEquals(2, second.getHeaders().size());
+            assertFalse(snapshot.isRecycled());
+            assertEquals("/same", snapshot.getPath());
+        }
+    }
+
+    @Test
+    void testLargeRequestLeavesNothingLargeBehind() throws IOException, HttpParser.HttpParseException {
+        String body = "b".repeat(64 * 1024);
+        String rawRequests = "POST /upload HTTP/1.1\r\n" +
+                            "X-Long: " + "h".repeat(2000) + "\r\n" +
+                            "Content-Length: " + body.length() + "\r\n" +
+                            "\r\n" +
+                            body +
+                            "GET /next HTTP/1.1\r\n" +
+                            "\r\n";
+
+        ByteArrayInputStream stream = new ByteArrayInputStream(rawRequests.getBytes(StandardCharsets.UTF_8));
+        try (HttpInput input = new HttpInput(StreamChannels.reader(stream), BufferPool.getDefault())) {
+            HttpRequest first = HttpParser.parse(input, null);
+            assertEquals(body, first.getBody());
+            assertEquals(2000, first.getHeader("X-Long").length());
+            // what the connection keeps while it waits for the next request is back to its usual size
+            assertTrue(input.line().length <= 256, "line buffer: " + input.line().length);
+
+            assertEquals("/next", HttpParser.parse(input, null).getPath());
+        }
+    }
+
+    @Test
+    void testSnapshotDoesNotChangeWithTheNextRequest() throws IOException, HttpParser.HttpParseException {
+        String rawRequests = "GET /first HTTP/1.1\r\n" +
+                            "Accept: text/html\r\n" +
+                            "\r\n" +
+                            "GET /second HTTP/1.1\r\n" +
+                            "Accept: application/json\r\n" +
+                            "Extra: yes\r\n" +
+                            "\r\n";
+
+        ByteArrayInputStream stream = new ByteArrayInputStream(rawRequests.getBytes(StandardCharsets.UTF_8));
+        try (HttpInput input = new HttpInput(StreamChannels.reader(stream), BufferPool.getDefault())) {
+            HttpRequest first = HttpParser.parse(input, null).snapshot();
+            HttpRequest second = HttpParser.parse(input, null);
+
+            assertEquals("/first", first.getPath());
+            assertEquals("text/html", first.getHeader("accept"));
+            assertNull(first.getHeader("Extra"));
+            assertEquals("/second", second.getPath());
+            assertEquals("application/json", second.getHeader("Accept"));
+            assertEquals("yes", second.getHeader("Extra"));
+        }
+    }
+
+    @Test
+    void testParseLowerCaseMethodAndExtraSpaces() throws IOException, HttpParser.HttpParseException {
+        String rawRequest = "post   /x  HTTP/1.1 \r\n" +
+                           "Name :  value  \r\n" +
+                           "\r\n";
+
+        HttpRequest request = HttpParser.parse(new ByteArrayInputStream(rawRequest.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("POST", request.getMethod());
+        assertEquals("/x", request.getPath());
+        assertEquals("value", request.getHeader("Name"));
+        assertFalse(request.isRecycled());
+    }
+
+    @Test
+    void testLineLongerThanTheLargestBufferIsRejected() {
+        String rawRequest = "GET /" + "a".repeat(BufferPool.LARGE) + " HTTP/1.1\r\n\r\n";
+
+        ByteArrayInputStream input = new ByteArrayInputStream(rawRequest.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(HttpParser.HttpParseException.class, () -> HttpParser.parse(input));
+    }
+}
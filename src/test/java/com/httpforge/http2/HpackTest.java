@@ -0,0 +1,87 @@
+package com.httpforge.http2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * the decoder against the examples of RFC 7541 appendix C, and the encoder against the decoder.
+ */
+class HpackTest {
+
+    private static List<String> decode(HpackDecoder decoder, String hex) throws Http2Exception {
+        byte[] block = HexFormat.of().parseHex(hex);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, 0, block.length, (name, value) -> fields.add(name + ": " + value));
+        return fields;
+    }
+
+    @Test
+    void testDecodesRequestsSharingTheDynamicTable() throws Http2Exception {
+        // C.3: three requests on one connection, without Huffman coding
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"),
+                decode(decoder, "828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                        "cache-control: no-cache"),
+                decode(decoder, "828684be58086e6f2d6361636865"));
+        assertEquals(List.of(":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com",
+                        "custom-key: custom-value"),
+                decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    void testDecodesHuffmanCodedStrings() throws Http2Exception {
+        // C.4, the same requests with Huffman coding
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"),
+                decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(List.of(":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com",
+                        "custom-key: custom-value"),
+                decode(new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE),
+                        "828785418cf1e3c2e5f23a6ba0ab90f4ff408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    @Test
+    void testRejectsInvalidIndex() {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+        Http2Exception e = assertThrows(Http2Exception.class, () -> decode(decoder, "be"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.getErrorCode());
+        assertTrue(e.isConnectionError());
+    }
+
+    @Test
+    void testEncodedBlocksDecodeAndRepeatedHeadersShrink() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+        ByteArrayOutputStream first = encodeResponse(encoder, "12");
+        ByteArrayOutputStream second = encodeResponse(encoder, "345");
+
+        assertEquals(List.of(":status: 200", "content-type: text/plain", "content-length: 12", "x-served-by: httpforge"),
+                decode(decoder, HexFormat.of().formatHex(first.toByteArray())));
+        assertEquals(List.of(":status: 200", "content-type: text/plain", "content-length: 345", "x-served-by: httpforge"),
+                decode(decoder, HexFormat.of().formatHex(second.toByteArray())));
+        // :status, content-type and x-served-by are one byte each the second time, the
+        // unindexed content-length is its name index, length and digits
+        assertEquals(1 + 1 + (2 + 1 + 3) + 1, second.size());
+    }
+
+    private static ByteArrayOutputStream encodeResponse(HpackEncoder encoder, String contentLength) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.beginBlock(block);
+        encoder.encode(":status", "200", block);
+        encoder.encode("content-type", "text/plain", block);
+        encoder.encode("content-length", contentLength, block);
+        encoder.encode("x-served-by", "httpforge", block);
+        return block;
+    }
+}
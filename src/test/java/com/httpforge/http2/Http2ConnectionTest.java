@@ -0,0 +1,193 @@
+package com.httpforge.http2;
+
+import com.httpforge.Main;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ConnectionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * h2c end to end: the JDK client upgrades and multiplexes, a raw socket speaks prior knowledge.
+ */
+class Http2ConnectionTest {
+    private static final int SLOW_MS = 200;
+
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Metrics.getInstance().reset();
+        Router router = Main.createRouter();
+        router.addRoute("GET", "/slow", request -> {
+            try {
+                Thread.sleep(SLOW_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return HttpResponse.ok("slow " + request.getPath() + "\n");
+        });
+        serverSocket = new ServerSocket(0);
+        acceptThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    Thread.ofVirtual().start(() -> new ConnectionHandler(socket, router).handle());
+                }
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        });
+        acceptThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        serverSocket.close();
+        acceptThread.join(5000);
+    }
+
+    @Test
+    void testUpgradedConnectionMultiplexesConcurrentRequests() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        String base = "http://localhost:" + serverSocket.getLocalPort();
+
+        // the first request upgrades the connection, the rest are streams on it
+        java.net.http.HttpResponse<String> first = client.send(HttpRequest.newBuilder(URI.create(base + "/")).build(),
+                java.net.http.HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, first.statusCode());
+        assertEquals(HttpClient.Version.HTTP_2, first.version());
+        assertEquals("Welcome to HTTPForge!\n", first.body());
+
+        int requests = 50;
+        long start = System.nanoTime();
+        List<CompletableFuture<java.net.http.HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create(base + "/slow?n=" + i)).build(),
+                    java.net.http.HttpResponse.BodyHandlers.ofString()));
+        }
+        for (int i = 0; i < requests; i++) {
+            java.net.http.HttpResponse<String> response = responses.get(i).join();
+            assertEquals(200, response.statusCode());
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals("slow /slow?n=" + i + "\n", response.body());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // in parallel on one connection, not one after the other
+        assertTrue(elapsedMs < requests * SLOW_MS / 4, "took " + elapsedMs + "ms");
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(1, metrics.getHttp2Connections());
+        assertEquals(requests + 1, metrics.getHttp2Streams());
+        assertTrue(metrics.getPeakHttp2Streams() > 1);
+    }
+
+    @Test
+    void testPriorKnowledgeRequestWithBody() throws Exception {
+        try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            HpackEncoder encoder = new HpackEncoder();
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.beginBlock(block);
+            encoder.encode(":method", "POST", block);
+            encoder.encode(":scheme", "http", block);
+            encoder.encode(":path", "/data", block);
+            encoder.encode(":authority", "localhost", block);
+            // END_HEADERS, the body follows in two DATA frames
+            writeFrame(out, 0x1, 0x4, 1, block.toByteArray());
+            writeFrame(out, 0x0, 0, 1, "hello ".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 0x0, 0x1, 1, "h2".getBytes(StandardCharsets.US_ASCII));
+
+            HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+            List<String> headers = new ArrayList<>();
+            StringBuilder body = new StringBuilder();
+            boolean settingsAcked = false;
+            boolean ended = false;
+            while (!ended) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (type == 0x4 && (flags & 0x1) != 0) {
+                    settingsAcked = true;
+                } else if (type == 0x1) {
+                    assertEquals(1, streamId);
+                    decoder.decode(payload, 0, length, (name, value) -> headers.add(name + ": " + value));
+                } else if (type == 0x0) {
+                    assertEquals(1, streamId);
+                    body.append(new String(payload, StandardCharsets.UTF_8));
+                    ended = (flags & 0x1) != 0;
+                }
+            }
+
+            assertTrue(settingsAcked);
+            assertTrue(headers.contains(":status: 200"), headers.toString());
+            assertEquals("Received POST data:\nhello h2", body.toString());
+        }
+    }
+
+    @Test
+    void testFrameOnStreamZeroEndsConnectionWithGoAway() throws Exception {
+        try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            writeFrame(out, 0x0, 0, 0, new byte[] {1, 2, 3});
+
+            int errorCode = -1;
+            while (errorCode == -1) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (type == 0x7) {
+                    errorCode = payload[7];
+                }
+            }
+
+            assertEquals(Http2Exception.PROTOCOL_ERROR, errorCode);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        byte[] header = {
+                (byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+                (byte) type, (byte) flags,
+                (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId
+        };
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+}
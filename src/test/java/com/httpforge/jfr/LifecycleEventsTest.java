@@ -0,0 +1,110 @@
+package com.httpforge.jfr;
+
+import com.httpforge.Main;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ConnectionHandler;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * one request through a real connection, recorded: every lifecycle event is there, with its
+ * fields filled in.
+ */
+class LifecycleEventsTest {
+    private static final List<String> EVENTS = List.of(
+            "com.httpforge.ConnectionAccepted", "com.httpforge.RequestParsed", "com.httpforge.RequestRouted",
+            "com.httpforge.HandlerExecuted", "com.httpforge.ResponseWritten", "com.httpforge.ConnectionClosed");
+
+    @Test
+    void testOneRequestEmitsEveryEvent() throws Exception {
+        Path file = Files.createTempFile("httpforge-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : EVENTS) {
+                // thresholds off, so a fast request is recorded too
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            serveOneRequest();
+            recording.stop();
+            recording.dump(file);
+
+            Map<String, RecordedEvent> byName = new HashMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                byName.putIfAbsent(event.getEventType().getName(), event);
+            }
+            for (String event : EVENTS) {
+                assertNotNull(byName.get(event), "no " + event + " in " + byName.keySet());
+            }
+
+            assertNotNull(byName.get("com.httpforge.ConnectionAccepted").getString("remoteAddress"));
+
+            RecordedEvent parsed = byName.get("com.httpforge.RequestParsed");
+            assertEquals("GET", parsed.getString("method"));
+            assertEquals("/echo", parsed.getString("path"));
+            assertTrue(parsed.getLong("bytes") > 0);
+
+            RecordedEvent routed = byName.get("com.httpforge.RequestRouted");
+            assertEquals("GET /echo", routed.getString("route"));
+            assertTrue(routed.getBoolean("matched"));
+
+            RecordedEvent handled = byName.get("com.httpforge.HandlerExecuted");
+            assertEquals("GET /echo", handled.getString("route"));
+            assertEquals(200, handled.getInt("status"));
+
+            RecordedEvent written = byName.get("com.httpforge.ResponseWritten");
+            assertEquals(200, written.getInt("status"));
+            assertTrue(written.getLong("bytes") > 0);
+            assertTrue(written.getLong("requestDuration") > 0);
+
+            RecordedEvent closed = byName.get("com.httpforge.ConnectionClosed");
+            assertEquals(1, closed.getInt("requests"));
+            assertEquals(written.getLong("bytes"), closed.getLong("bytesWritten"));
+            assertEquals(parsed.getLong("bytes"), closed.getLong("bytesRead"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // GET /echo with Connection: close, read to the end; the handler has closed when this returns
+    private static void serveOneRequest() throws IOException, InterruptedException {
+        Router router = Main.createRouter();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try {
+                    new ConnectionHandler(serverSocket.accept(), router).handle();
+                } catch (IOException e) {
+                    // socket closed
+                }
+            });
+            server.start();
+            try (Socket client = new Socket("localhost", serverSocket.getLocalPort())) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                out.write("GET /echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                InputStream in = client.getInputStream();
+                String response = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+                assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            }
+            server.join(5000);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.httpforge.loadgen;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComparisonHarnessTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("httpforge-runs");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static String result(double throughput, double p99, long bytesPerRequest, double successRate) {
+        return "{\n  \"strategy\": \"pool\",\n  \"successRate\": " + successRate + ",\n"
+                + "  \"allocatedBytesPerRequest\": " + bytesPerRequest + ",\n"
+                + "  \"load\": {\n    \"throughput\": " + throughput + ",\n"
+                + "    \"serviceTimeMs\": {\"count\": 10, \"p50\": 1.00, \"p99\": 1.00},\n"
+                + "    \"latencyMs\": {\"count\": 10, \"p50\": 1.00, \"p99\": " + p99 + "}\n  }\n}";
+    }
+
+    @Test
+    void testRunsEveryStrategyOnAnEphemeralPort() throws Exception {
+        ComparisonHarness harness = new ComparisonHarness(
+                List.of("thread", "pool"), List.of(2), 300, 100, "/", dir.resolve("runs"));
+        List<Path> files = harness.runAll();
+
+        assertEquals(2, files.size());
+        String pool = Files.readString(dir.resolve("runs").resolve("pool_c2.json"));
+        assertTrue(pool.contains("\"strategy\": \"pool\""));
+        assertTrue(pool.contains("\"concurrency\": 2"));
+        assertTrue(pool.contains("\"allocatedBytesPerRequest\""));
+        assertTrue(pool.contains("\"gcTimeMs\""));
+        assertTrue(pool.contains("\"latencyMs\""));
+        assertFalse(pool.contains("\"requests\": 0,"));
+
+        String index = Files.readString(dir.resolve("runs").resolve("index.json"));
+        assertTrue(index.contains("\"thread_c2.json\", \"pool_c2.json\""));
+    }
+
+    @Test
+    void testUnchangedRunHasNoRegressions() throws IOException {
+        Files.createDirectories(dir.resolve("base"));
+        Files.createDirectories(dir.resolve("current"));
+        Files.writeString(dir.resolve("base/pool_c10.json"), result(1000, 20, 4000, 100));
+        Files.writeString(dir.resolve("current/pool_c10.json"), result(960, 21, 4100, 100));
+
+        BaselineComparison comparison = BaselineComparison.compare(dir.resolve("current"), dir.resolve("base"), 10);
+
+        assertFalse(comparison.hasRegressions(), comparison.report());
+        assertEquals(4, comparison.getDeltas().size());
+    }
+
+    @Test
+    void testRegressionsBeyondThresholdAreFlagged() throws IOException {
+        Files.createDirectories(dir.resolve("base"));
+        Files.createDirectories(dir.resolve("current"));
+        Files.writeString(dir.resolve("base/pool_c10.json"), result(1000, 20, 4000, 100));
+        Files.writeString(dir.resolve("current/pool_c10.json"), result(800, 35, 4000, 100));
+        Files.writeString(dir.resolve("current/pool_c50.json"), result(800, 35, 4000, 100));
+
+        BaselineComparison comparison = BaselineComparison.compare(dir.resolve("current"), dir.resolve("base"), 10);
+
+        assertTrue(comparison.hasRegressions());
+        List<String> flagged = comparison.getDeltas().stream().filter(d -> d.regression).map(d -> d.metric).toList();
+        assertEquals(List.of("throughput", "p99Ms"), flagged);
+        assertTrue(comparison.report().contains("pool_c50.json: no baseline"));
+    }
+
+    @Test
+    void testMissingFieldsAndRunsAreErrors() throws IOException {
+        Files.createDirectories(dir.resolve("base"));
+        Files.createDirectories(dir.resolve("current"));
+        Files.writeString(dir.resolve("base/pool_c10.json"), result(1000, 20, 4000, 100));
+        Files.writeString(dir.resolve("base/thread_c10.json"), result(1000, 20, 4000, 100));
+        // a renamed field must not read as zero and pass
+        Files.writeString(dir.resolve("current/pool_c10.json"),
+                result(1000, 20, 4000, 100).replace("\"throughput\"", "\"requestsPerSecond\""));
+
+        BaselineComparison comparison = BaselineComparison.compare(dir.resolve("current"), dir.resolve("base"), 10);
+
+        assertFalse(comparison.hasRegressions());
+        assertTrue(comparison.hasErrors());
+        assertEquals(List.of("thread_c10.json: in the baseline, but no current result",
+                "pool_c10: no throughput in the current result"), comparison.getErrors());
+        assertEquals(3, comparison.getDeltas().size());
+        assertTrue(comparison.report().endsWith("2 error(s)"), comparison.report());
+    }
+}
@@ -0,0 +1,210 @@
+package com.httpforge.loadgen;
+
+import com.httpforge.http.HttpResponse;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ConnectionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    // the real connection handling, on an ephemeral port
+    private void serveRouter() {
+        Router router = new Router();
+        router.addRoute("GET", "/", request -> HttpResponse.builder().body("hello").build());
+        router.addRoute("POST", "/data", request -> HttpResponse.builder().status(201, "Created").body(request.getBody()).build());
+        executor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    executor.execute(() -> new ConnectionHandler(socket, router).handle());
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    // answers every request head it sees, without waiting for the previous answer to be read
+    private void servePipelined() {
+        byte[] response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII);
+        executor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    executor.execute(() -> {
+                        try (socket) {
+                            InputStream in = socket.getInputStream();
+                            OutputStream out = socket.getOutputStream();
+                            int matched = 0;
+                            int b;
+                            while ((b = in.read()) != -1) {
+                                matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+                                if (matched == 4) {
+                                    out.write(response);
+                                    out.flush();
+                                    matched = 0;
+                                }
+                            }
+                        } catch (IOException e) {
+                            // client went away
+                        }
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    private LoadConfig.Builder target(String path) {
+        return LoadConfig.builder().host("localhost").port(serverSocket.getLocalPort()).path(path).timeoutMs(5000);
+    }
+
+    @Test
+    void testClosedLoopKeepAlive() throws Exception {
+        serveRouter();
+        LoadResult result = new LoadGenerator(target("/").connections(4).maxRequests(200).build()).run();
+
+        assertEquals(200, result.getCompleted());
+        assertEquals(0, result.getErrorCount());
+        assertEquals(200L, (long) result.getStatusCodes().get(200));
+        // keep-alive: one connection per client, not one per request
+        assertEquals(4, result.getConnects());
+        assertTrue(result.getThroughput() > 0);
+    }
+
+    @Test
+    void testConnectionPerRequest() throws Exception {
+        serveRouter();
+        LoadResult result = new LoadGenerator(target("/").connections(2).keepAlive(false).maxRequests(20).build()).run();
+
+        assertEquals(20, result.getCompleted());
+        assertEquals(0, result.getErrorCount());
+        assertTrue(result.getConnects() >= 20);
+    }
+
+    @Test
+    void testPostBody() throws Exception {
+        serveRouter();
+        LoadResult result = new LoadGenerator(target("/data").method("POST").body("payload")
+                .connections(1).maxRequests(5).build()).run();
+
+        assertEquals(5L, (long) result.getStatusCodes().get(201));
+    }
+
+    @Test
+    void testOpenLoopHoldsTheRate() throws Exception {
+        serveRouter();
+        LoadConfig config = target("/").mode(LoadConfig.Mode.OPEN).rate(200).connections(2).durationMs(500).build();
+        LoadResult result = new LoadGenerator(config).run();
+
+        // ~100 requests in 500ms; allow for scheduler jitter on a busy machine
+        assertTrue(result.getCompleted() >= 80 && result.getCompleted() <= 110, "completed " + result.getCompleted());
+        assertEquals(0, result.getErrorCount());
+    }
+
+    @Test
+    void testPipelining() throws Exception {
+        servePipelined();
+        LoadResult result = new LoadGenerator(target("/").connections(2).pipelineDepth(8).maxRequests(500).build()).run();
+
+        assertEquals(500, result.getCompleted());
+        assertEquals(0, result.getErrorCount());
+        assertEquals(2, result.getConnects());
+    }
+
+    @Test
+    void testConnectErrorsAreCounted() throws Exception {
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        LoadResult result = new LoadGenerator(LoadConfig.builder().port(port).connections(1).durationMs(100).build()).run();
+
+        assertEquals(0, result.getCompleted());
+        assertTrue(result.getErrors().getOrDefault("connect", 0L) > 0);
+    }
+
+    @Test
+    void testJsonHasCorrectedLatency() throws Exception {
+        serveRouter();
+        String json = new LoadGenerator(target("/").connections(1).maxRequests(10).build()).run().toJson();
+
+        assertTrue(json.contains("\"requests\": 10"));
+        assertTrue(json.contains("\"serviceTimeMs\""));
+        assertTrue(json.contains("\"latencyMs\""));
+        assertTrue(json.contains("\"200\": 10"));
+    }
+
+    @Test
+    void testStalledServerIsVisibleInCorrectedLatency() {
+        // closed loop, 10 req/s per connection: one 1s stall hides ~10 requests that never got sent
+        LoadConfig config = LoadConfig.builder().connections(1).rate(10).build();
+        LoadResult result = new LoadResult(config);
+        for (int i = 0; i < 99; i++) {
+            result.recordResponse(200, 0, 0, 0, 1_000_000);
+        }
+        result.recordResponse(200, 0, 0, 0, 1_000_000_000);
+
+        assertTrue(result.getServiceTime().getValueAtPercentile(90) < 2_000);
+        assertTrue(result.getLatency().getValueAtPercentile(95) > 100_000);
+        assertTrue(result.getLatency().getCount() > result.getServiceTime().getCount());
+    }
+
+    @Test
+    void testResponseReaderHandlesChunkedAndClose() throws IOException {
+        String responses = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n"
+                + "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 4\r\nConnection: close\r\n\r\nbusy";
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(responses.getBytes(StandardCharsets.US_ASCII)));
+
+        reader.next();
+        assertEquals(200, reader.getStatus());
+        assertFalse(reader.isCloseAfter());
+
+        reader.next();
+        assertEquals(503, reader.getStatus());
+        assertTrue(reader.isCloseAfter());
+    }
+
+    @Test
+    void testArgsAndValidation() {
+        LoadConfig config = LoadConfig.fromArgs(new String[] {
+                "--url", "http://127.0.0.1:9090/hello?x=1", "--mode", "open", "-R", "500", "-c", "5", "-d", "2s"});
+
+        assertEquals("127.0.0.1", config.getHost());
+        assertEquals(9090, config.getPort());
+        assertEquals("/hello?x=1", config.getPath());
+        assertEquals(2000, config.getDurationMs());
+        assertEquals(10_000_000L, config.expectedIntervalNanos());
+
+        assertThrows(IllegalArgumentException.class, () -> LoadConfig.builder().mode(LoadConfig.Mode.OPEN).build());
+        assertThrows(IllegalArgumentException.class, () -> LoadConfig.builder().keepAlive(false).pipelineDepth(4).build());
+    }
+}
@@ -0,0 +1,40 @@
+package com.httpforge.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SoakBenchmarkTest {
+
+    @Test
+    void testSamplesIdleConnectionsAndProcessStats() throws Exception {
+        SoakBenchmark soak = SoakBenchmark.fromArgs(new String[] {
+                "--server", "thread", "--connections", "50", "--ramp", "200ms",
+                "--idle-interval", "300ms", "--active", "1", "--rate", "50",
+                "--duration", "1500ms", "--sample", "500ms"});
+        String json = soak.run();
+
+        assertTrue(json.contains("\"server\": \"thread\""));
+        assertTrue(json.contains("\"idleConnections\": 50"));
+        assertTrue(json.contains("\"openConnections\": 50"), json);
+        assertTrue(json.contains("\"activeErrors\": 0}"), json);
+        assertFalse(json.contains("\"threads\": -1"), "process stats missing on this platform: " + json);
+    }
+
+    @Test
+    void testRejectsUnknownFlag() {
+        assertThrows(IllegalArgumentException.class, () -> SoakBenchmark.fromArgs(new String[] {"--idle", "10"}));
+        assertThrows(IllegalArgumentException.class, () -> SoakBenchmark.fromArgs(new String[] {"--duration"}));
+    }
+
+    @Test
+    void testProcessStatsOfCurrentJvm() {
+        ProcessStats stats = ProcessStats.of(ProcessHandle.current().pid());
+        if (stats.threads == -1) {
+            return; // no /proc
+        }
+        assertTrue(stats.rssBytes > 0);
+        assertTrue(stats.threads > 0);
+        assertTrue(stats.fds > 0);
+    }
+}
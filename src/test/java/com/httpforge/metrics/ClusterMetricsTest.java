@@ -0,0 +1,125 @@
+package com.httpforge.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * workers publishing into one file, each through a mapping of its own as separate processes
+ * would.
+ */
+class ClusterMetricsTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Metrics.getInstance().reset();
+        file = Files.createTempFile("httpforge-cluster", ".metrics");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Metrics.getInstance().registerCluster(null);
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testWorkersAreMerged() throws IOException {
+        Metrics metrics = Metrics.getInstance();
+        try (ClusterMetrics supervisor = ClusterMetrics.create(file, 3);
+             ClusterMetrics first = ClusterMetrics.open(file);
+             ClusterMetrics second = ClusterMetrics.open(file)) {
+            record(metrics, 3, 20);
+            first.takeOver(0);
+            first.publish(0, metrics);
+            record(metrics, 1, 100);
+            second.takeOver(2);
+            second.publish(2, metrics);
+
+            ClusterMetrics.Snapshot snapshot = supervisor.read();
+
+            assertEquals(3, snapshot.getWorkers());
+            // worker 1 never published
+            assertEquals(2, snapshot.getAliveWorkers());
+            assertEquals(3 + 4, snapshot.getTotalRequests());
+            assertEquals(7, snapshot.getLatency().getCount());
+            assertEquals(100_000, snapshot.getLatency().getMax(), 100_000 * 0.04);
+            assertEquals(20_000, snapshot.getLatency().getValueAtPercentile(50), 20_000 * 0.04);
+            assertEquals(0, snapshot.getWorkerStats().get(1).pid);
+            assertEquals(ProcessHandle.current().pid(), snapshot.getWorkerStats().get(2).pid);
+        }
+    }
+
+    @Test
+    void testReplacementCarriesOnFromTheDeadWorker() throws IOException {
+        Metrics metrics = Metrics.getInstance();
+        try (ClusterMetrics supervisor = ClusterMetrics.create(file, 1)) {
+            try (ClusterMetrics dead = ClusterMetrics.open(file)) {
+                record(metrics, 5, 10);
+                dead.takeOver(0);
+                dead.publish(0, metrics);
+            }
+            supervisor.recordRestart(0);
+            // the new process starts from zero
+            metrics.reset();
+            try (ClusterMetrics replacement = ClusterMetrics.open(file)) {
+                replacement.takeOver(0);
+                record(metrics, 2, 10);
+                replacement.publish(0, metrics);
+            }
+
+            ClusterMetrics.Snapshot snapshot = supervisor.read();
+
+            assertEquals(7, snapshot.getTotalRequests());
+            assertEquals(7, snapshot.getLatency().getCount());
+            assertEquals(1, snapshot.getWorkerStats().get(0).restarts);
+        }
+    }
+
+    @Test
+    void testMetricsJsonHasTheClusterBlock() throws IOException {
+        Metrics metrics = Metrics.getInstance();
+        try (ClusterMetrics supervisor = ClusterMetrics.create(file, 2)) {
+            try (ClusterMetrics worker = ClusterMetrics.open(file)) {
+                record(metrics, 2, 10);
+                worker.takeOver(1);
+                worker.publish(1, metrics);
+                metrics.registerCluster(worker);
+
+                String json = MetricsJson.render(metrics);
+
+                assertTrue(json.contains("\"cluster\": {"), json);
+                assertTrue(json.contains("\"workers\": 2,"), json);
+                assertTrue(json.contains("\"aliveWorkers\": 1,"), json);
+                assertTrue(json.contains("{\"worker\": 1, \"pid\": " + ProcessHandle.current().pid() + ", \"alive\": true"), json);
+            }
+            // the worker's block is the file the supervisor sees
+            assertEquals(2, supervisor.read().getTotalRequests());
+        }
+    }
+
+    @Test
+    void testOpenRejectsOtherFiles() throws IOException {
+        Files.write(file, new byte[ClusterMetrics.HEADER_SIZE]);
+        try {
+            ClusterMetrics.open(file).close();
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Not a cluster metrics file"));
+        }
+    }
+
+    private static void record(Metrics metrics, int requests, long durationMs) {
+        for (int i = 0; i < requests; i++) {
+            metrics.recordRequestStart();
+            metrics.recordRequestEnd(durationMs);
+        }
+    }
+}
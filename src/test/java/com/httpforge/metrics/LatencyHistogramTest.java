@@ -0,0 +1,78 @@
+package com.httpforge.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean());
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(20, histogram.getCount());
+        assertEquals(10, histogram.getValueAtPercentile(50));
+        assertEquals(20, histogram.getValueAtPercentile(100));
+        assertEquals(10.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1ms..100ms in microseconds
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(50_000, histogram.getValueAtPercentile(50), 50_000 * 0.04);
+        assertEquals(99_000, histogram.getValueAtPercentile(99), 99_000 * 0.04);
+        assertEquals(100_000, histogram.getMax());
+    }
+
+    @Test
+    void testBucketBoundariesAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(LatencyHistogram.highestEquivalentValue(i - 1) + 1,
+                    LatencyHistogram.lowestEquivalentValue(i));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testCoordinatedOmissionCorrectionBackfillsSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // one 100ms stall in a client that expects to send every 10ms
+        histogram.recordWithExpectedInterval(100, 10);
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(10, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    void testMergeAddsCounts() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(5);
+        b.record(500);
+        b.record(700);
+
+        a.add(b.bucketCounts(), b.getSum(), b.getMax());
+
+        assertEquals(3, a.getCount());
+        assertEquals(700, a.getMax());
+        assertEquals(1205, a.getSum());
+    }
+}
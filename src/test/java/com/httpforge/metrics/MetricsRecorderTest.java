@@ -0,0 +1,117 @@
+package com.httpforge.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRecorderTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Metrics.getInstance().reset();
+        file = Files.createTempFile("httpforge", ".metrics");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testSnapshotsRoundTrip() throws IOException {
+        Metrics metrics = Metrics.getInstance();
+        try (MetricsRecorder recorder = new MetricsRecorder(file, 8, 1000, metrics)) {
+            recorder.open();
+            for (int i = 0; i < 3; i++) {
+                metrics.recordRequestStart();
+                metrics.recordRequestEnd(20);
+            }
+            recorder.snapshot();
+            metrics.recordRequestStart();
+            metrics.recordRequestEnd(100);
+            recorder.snapshot();
+        }
+
+        MetricsFileReader reader = MetricsFileReader.read(file);
+
+        assertEquals(2, reader.getSamples().size());
+        assertEquals(3, reader.get(0, MetricsFile.Field.TOTAL_REQUESTS));
+        assertEquals(3, reader.get(0, MetricsFile.Field.INTERVAL_REQUESTS));
+        assertEquals(20_000, reader.get(0, MetricsFile.Field.LATENCY_P50_US), 20_000 * 0.04);
+        // the second snapshot only covers the 100ms request
+        assertEquals(1, reader.get(1, MetricsFile.Field.INTERVAL_REQUESTS));
+        assertEquals(100_000, reader.get(1, MetricsFile.Field.LATENCY_P50_US), 100_000 * 0.04);
+        assertTrue(reader.toJson().contains("\"samples\""));
+        assertTrue(reader.toCsv().startsWith("timestamp_ms,total_requests,"));
+    }
+
+    @Test
+    void testRingWrapsKeepingNewestInOrder() throws IOException {
+        try (MetricsRecorder recorder = new MetricsRecorder(file, 4, 1000, Metrics.getInstance())) {
+            recorder.open();
+            for (long i = 1; i <= 10; i++) {
+                recorder.write(valuesWithTotal(i));
+            }
+        }
+
+        MetricsFileReader reader = MetricsFileReader.read(file);
+
+        assertEquals(4, reader.getSamples().size());
+        assertEquals(7, reader.get(0, MetricsFile.Field.TOTAL_REQUESTS));
+        assertEquals(10, reader.get(3, MetricsFile.Field.TOTAL_REQUESTS));
+    }
+
+    @Test
+    void testReopenAppendsAfterExistingRecords() throws IOException {
+        try (MetricsRecorder recorder = new MetricsRecorder(file, 8, 1000, Metrics.getInstance())) {
+            recorder.open();
+            recorder.write(valuesWithTotal(1));
+            recorder.write(valuesWithTotal(2));
+        }
+        try (MetricsRecorder recorder = new MetricsRecorder(file, 8, 1000, Metrics.getInstance())) {
+            recorder.open();
+            recorder.write(valuesWithTotal(3));
+        }
+
+        MetricsFileReader reader = MetricsFileReader.read(file);
+
+        assertEquals(3, reader.getSamples().size());
+        assertEquals(3, reader.get(2, MetricsFile.Field.TOTAL_REQUESTS));
+    }
+
+    @Test
+    void testCorruptSlotIsSkipped() throws IOException {
+        try (MetricsRecorder recorder = new MetricsRecorder(file, 4, 1000, Metrics.getInstance())) {
+            recorder.open();
+            recorder.write(valuesWithTotal(1));
+            recorder.write(valuesWithTotal(2));
+        }
+        // flip a byte inside the first slot's fields, as a torn write would
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(MetricsFile.slotOffset(0) + 8 + 8);
+            raf.write(0x7f);
+        }
+
+        MetricsFileReader reader = MetricsFileReader.read(file);
+
+        assertEquals(1, reader.getSamples().size());
+        assertEquals(2, reader.get(0, MetricsFile.Field.TOTAL_REQUESTS));
+    }
+
+    private static long[] valuesWithTotal(long total) {
+        long[] values = new long[MetricsFile.Field.COUNT];
+        values[MetricsFile.Field.TIMESTAMP_MS.ordinal()] = total * 1000;
+        values[MetricsFile.Field.TOTAL_REQUESTS.ordinal()] = total;
+        return values;
+    }
+}
@@ -0,0 +1,205 @@
+package com.httpforge.metrics;
+
+import com.httpforge.routing.Router;
+import com.httpforge.server.ThreadPoolServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * /metrics/stream end to end: many subscribers on a server with two workers.
+ */
+class MetricsStreamTest {
+    private static final int SUBSCRIBERS = 20;
+
+    private MetricsStream stream;
+    private ThreadPoolServer server;
+    private Thread serverThread;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Metrics.getInstance().reset();
+        stream = new MetricsStream(Metrics.getInstance(), 100, SUBSCRIBERS);
+        Router router = new Router();
+        router.addRoute("GET", "/stream", request -> stream.sseResponse());
+        router.addWebSocketRoute("/stream", stream.webSocketHandler());
+        server = new ThreadPoolServer(0, router, ThreadPoolServer.ThreadPoolConfig.fixed(2, 10));
+        serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                // stopped
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        stream.close();
+        server.stop();
+        serverThread.join(5000);
+    }
+
+    @Test
+    void testSubscribersShareOneFramePerInterval() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<Stream<String>> bodies = new ArrayList<>();
+        Map<String, String> dataById = new HashMap<>();
+        try {
+            // more open streams than the server has workers
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                HttpResponse<Stream<String>> response = client.send(request("http"),
+                        HttpResponse.BodyHandlers.ofLines());
+                assertEquals(200, response.statusCode());
+                assertEquals("text/event-stream", response.headers().firstValue("Content-Type").orElse(null));
+                bodies.add(response.body());
+            }
+            for (Stream<String> body : bodies) {
+                Iterator<String> lines = body.iterator();
+                for (int event = 0; event < 3; event++) {
+                    String id = lines.next();
+                    String data = lines.next();
+                    assertTrue(id.startsWith("id: "), id);
+                    assertTrue(data.startsWith("data: {\"seq\": " + id.substring(4) + ","), data);
+                    assertEquals("", lines.next());
+                    // every subscriber got the same bytes for the same frame
+                    String first = dataById.putIfAbsent(id, data);
+                    assertTrue(first == null || first.equals(data));
+                }
+            }
+            assertEquals(SUBSCRIBERS, stream.getSubscribers());
+            // 60 events read, from a handful of frames
+            assertTrue(stream.getFramesComputed() < SUBSCRIBERS, "frames: " + stream.getFramesComputed());
+        } finally {
+            bodies.forEach(Stream::close);
+        }
+
+        // the next write finds each of them gone, then the publisher stops
+        awaitTrue(() -> stream.getSubscribers() == 0);
+        awaitTrue(() -> !stream.isPublishing());
+    }
+
+    @Test
+    void testSubscribersBeyondTheLimitAreTurnedAway() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<Stream<String>> bodies = new ArrayList<>();
+        try {
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                bodies.add(client.send(request("http"), HttpResponse.BodyHandlers.ofLines()).body());
+            }
+
+            HttpResponse<String> refused = client.send(request("http"), HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, refused.statusCode());
+            CompletableFuture<Integer> closed = new CompletableFuture<>();
+            HttpClient.newHttpClient().newWebSocketBuilder()
+                    .buildAsync(URI.create("ws://localhost:" + server.getLocalPort() + "/stream"), new WebSocket.Listener() {
+                        @Override
+                        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+                            closed.complete(statusCode);
+                            return null;
+                        }
+                    })
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(1013, (int) closed.get(5, TimeUnit.SECONDS));
+            assertEquals(SUBSCRIBERS, stream.getSubscribers());
+
+            // one leaves, and its place is taken again
+            bodies.remove(0).close();
+            awaitTrue(() -> stream.getSubscribers() < SUBSCRIBERS);
+            HttpResponse<Stream<String>> admitted = client.send(request("http"), HttpResponse.BodyHandlers.ofLines());
+            bodies.add(admitted.body());
+            assertEquals(200, admitted.statusCode());
+        } finally {
+            bodies.forEach(Stream::close);
+        }
+        awaitTrue(() -> stream.getSubscribers() == 0);
+    }
+
+    @Test
+    void testEventStreamOverHttp2() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+
+        HttpResponse<Stream<String>> response = client.send(request("http"), HttpResponse.BodyHandlers.ofLines());
+
+        assertEquals(HttpClient.Version.HTTP_2, response.version());
+        try (Stream<String> body = response.body()) {
+            Iterator<String> lines = body.iterator();
+            for (int event = 0; event < 2; event++) {
+                assertTrue(lines.next().startsWith("id: "));
+                assertTrue(lines.next().startsWith("data: {"));
+                assertEquals("", lines.next());
+            }
+        }
+    }
+
+    @Test
+    void testWebSocketGetsFramesUntilClosed() throws Exception {
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        CompletableFuture<Integer> closed = new CompletableFuture<>();
+        WebSocket webSocket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + server.getLocalPort() + "/stream"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        messages.add(data.toString());
+                        webSocket.request(1);
+                        return null;
+                    }
+
+                    @Override
+                    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+                        closed.complete(statusCode);
+                        return null;
+                    }
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        String first = messages.poll(5, TimeUnit.SECONDS);
+        String second = messages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.startsWith("{\"seq\": "), first);
+        assertTrue(second.contains("\"requestsPerSecond\": "), second);
+
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "bye").get(5, TimeUnit.SECONDS);
+        // answered with the same code
+        assertEquals(WebSocket.NORMAL_CLOSURE, (int) closed.get(5, TimeUnit.SECONDS));
+        awaitTrue(() -> stream.getSubscribers() == 0);
+    }
+
+    private HttpRequest request(String scheme) {
+        return HttpRequest.newBuilder(URI.create(scheme + "://localhost:" + server.getLocalPort() + "/stream")).build();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -3,6 +3,11 @@ package com.httpforge.metrics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MetricsTest {
@@ -160,5 +165,67 @@ class MetricsTest {
         assertEquals(0, metrics.getActiveConnections());
         assertEquals(0.0, metrics.getAverageLatency());
     }
-}
 
+    @Test
+    void testThreadPoolCounters() {
+        Metrics metrics = Metrics.getInstance();
+
+        metrics.recordRejection("ABORT");
+        metrics.recordRejection("ABORT");
+        metrics.recordRejection("CALLER_RUNS");
+        metrics.recordCallerRuns(1500);
+        metrics.recordQueueWait(2000);
+        metrics.recordEnqueue(7);
+        metrics.recordEnqueue(3);
+
+        assertEquals(2, (long) metrics.getRejections().get("ABORT"));
+        assertEquals(1, (long) metrics.getRejections().get("CALLER_RUNS"));
+        assertEquals(1, metrics.getCallerRunsCount());
+        assertEquals(1500, metrics.getCallerRunsMicros());
+        assertEquals(1, metrics.getQueueWaitHistogram().getCount());
+        assertEquals(7, metrics.getPeakQueueDepth());
+
+        metrics.reset();
+
+        assertTrue(metrics.getRejections().isEmpty());
+        assertEquals(0, metrics.getQueueWaitHistogram().getCount());
+        assertEquals(0, metrics.getPeakQueueDepth());
+    }
+
+    @Test
+    void testJsonIncludesThreadPoolSection() {
+        Metrics metrics = Metrics.getInstance();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                2, 2, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(10));
+        try {
+            metrics.registerThreadPool(executor);
+            metrics.recordRejection("ABORT");
+
+            String json = MetricsJson.render(metrics);
+
+            assertTrue(json.contains("\"threadPool\""));
+            assertTrue(json.contains("\"queueCapacity\": 10"));
+            assertTrue(json.contains("\"ABORT\": 1"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testJsonNumbersDontFollowTheDefaultLocale() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.recordRequestStart();
+        metrics.recordRequestEnd(3);
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            String json = MetricsJson.render(metrics);
+
+            assertTrue(json.contains("\"avg\": 3.00"), json);
+            assertFalse(json.matches("(?s).*: [0-9]+,[0-9].*"), json);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.httpforge.proxy;
+
+import com.httpforge.http.HttpRequest;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ConnectionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * the proxy in front of two more httpforge instances, all in this JVM.
+ */
+class ReverseProxyTest {
+    private final List<ServerSocket> servers = new ArrayList<>();
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    void testRoundRobinReusesKeepAliveConnections() throws Exception {
+        int a = upstream("a");
+        int b = upstream("b");
+        ReverseProxy proxy = ReverseProxy.builder().upstream("localhost", a).upstream("localhost", b).build();
+        int front = front(proxy);
+
+        List<String> answers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            java.net.http.HttpResponse<String> response = get(front, "/who");
+            assertEquals(200, response.statusCode());
+            assertEquals("1.1 httpforge", response.headers().firstValue("X-Via").orElse(null));
+            answers.add(response.body());
+        }
+
+        for (int i = 0; i < answers.size(); i++) {
+            assertNotEquals(answers.get(i), answers.get((i + 1) % answers.size()));
+        }
+        // one connection per upstream, then the pool
+        Map<String, Metrics.UpstreamStats> upstreams = Metrics.getInstance().getUpstreams();
+        assertEquals(2, upstreams.size());
+        for (Metrics.UpstreamStats stats : upstreams.values()) {
+            assertEquals(1, stats.getConnectionsOpened());
+            assertEquals(4, stats.getConnectionsReused());
+            assertEquals(5, stats.getLatencyHistogram().getCount());
+        }
+        proxy.close();
+    }
+
+    @Test
+    void testBodiesPassThroughIntact() throws Exception {
+        int upstream = upstream("big");
+        ReverseProxy proxy = ReverseProxy.builder().upstream("localhost", upstream).build();
+        int front = front(proxy);
+
+        String sent = "x".repeat(10_000) + "é";
+        java.net.http.HttpResponse<String> echoed = client.send(java.net.http.HttpRequest
+                        .newBuilder(URI.create("http://localhost:" + front + "/data"))
+                        .POST(java.net.http.HttpRequest.BodyPublishers.ofString(sent)).build(),
+                java.net.http.HttpResponse.BodyHandlers.ofString());
+        assertEquals("Received POST data:\n" + sent, echoed.body());
+
+        // larger than any pooled buffer, so it's relayed piece by piece
+        java.net.http.HttpResponse<String> large = get(front, "/large");
+        assertEquals(200, large.statusCode());
+        assertEquals(300_000, large.body().length());
+        assertEquals("0123456789".repeat(30_000), large.body());
+        proxy.close();
+    }
+
+    @Test
+    void testChunkedUpstreamResponseIsRelayed() throws Exception {
+        int upstream = rawUpstream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n"
+                + "5\r\nhello\r\n7;ext=1\r\n, chunk\r\n0\r\nX-Trailer: t\r\n\r\n");
+        ReverseProxy proxy = ReverseProxy.builder().upstream("localhost", upstream).build();
+        int front = front(proxy);
+
+        java.net.http.HttpResponse<String> response = get(front, "/anything");
+        assertEquals(200, response.statusCode());
+        assertEquals("hello, chunk", response.body());
+        proxy.close();
+    }
+
+    @Test
+    void testContentLengthNextToChunkedIsNotForwarded() throws Exception {
+        // both framings: the chunked one wins, the stale length mustn't frame the relayed body
+        int upstream = rawUpstream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Length: 3\r\n\r\n"
+                + "5\r\nhello\r\n7\r\n, chunk\r\n0\r\n\r\n");
+        ReverseProxy proxy = ReverseProxy.builder().upstream("localhost", upstream).build();
+        int front = front(proxy);
+
+        java.net.http.HttpResponse<String> response = get(front, "/anything");
+        assertEquals(200, response.statusCode());
+        assertEquals("hello, chunk", response.body());
+        assertTrue(response.headers().firstValue("Content-Length").isEmpty(), response.headers().toString());
+        proxy.close();
+    }
+
+    // not httpforge: a server that answers one request with these bytes, and then closes
+    private int rawUpstream(String response) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        servers.add(server);
+        Thread.ofVirtual().start(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream in = socket.getInputStream();
+                // the request ends with the empty line, there's no body
+                int matched = 0;
+                while (matched < 4) {
+                    int c = in.read();
+                    matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : (c == '\r' ? 1 : 0);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (IOException e) {
+                // the test fails on the client side
+            }
+        });
+        return server.getLocalPort();
+    }
+
+    @Test
+    void testConsistentHashKeepsAKeyOnOneUpstream() throws Exception {
+        int a = upstream("a");
+        int b = upstream("b");
+        int c = upstream("c");
+        ReverseProxy proxy = ReverseProxy.builder()
+                .upstream("localhost", a).upstream("localhost", b).upstream("localhost", c)
+                .balancing(ReverseProxy.Balancing.CONSISTENT_HASH)
+                .hashHeader("X-User")
+                .build();
+        int front = front(proxy);
+
+        Map<String, String> seen = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int user = 0; user < 20; user++) {
+                String body = client.send(java.net.http.HttpRequest
+                                .newBuilder(URI.create("http://localhost:" + front + "/who"))
+                                .header("X-User", "user-" + user).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString()).body();
+                String first = seen.putIfAbsent("user-" + user, body);
+                assertTrue(first == null || first.equals(body), "user-" + user + " moved from " + first + " to " + body);
+            }
+        }
+        // and the keys are spread, not all on one upstream
+        assertTrue(new java.util.HashSet<>(seen.values()).size() > 1, seen.toString());
+        proxy.close();
+    }
+
+    @Test
+    void testDeadUpstreamIsEjectedAndRequestsStillSucceed() throws Exception {
+        int live = upstream("live");
+        ServerSocket closed = new ServerSocket(0);
+        int dead = closed.getLocalPort();
+        closed.close();
+        ReverseProxy proxy = ReverseProxy.builder()
+                .upstream("localhost", live).upstream("localhost", dead)
+                .ejection(2, 60_000)
+                .build();
+        int front = front(proxy);
+
+        for (int i = 0; i < 10; i++) {
+            java.net.http.HttpResponse<String> response = get(front, "/who");
+            assertEquals(200, response.statusCode());
+            assertEquals("live", response.body());
+        }
+
+        Metrics.UpstreamStats stats = Metrics.getInstance().getUpstreams().get("localhost:" + dead);
+        assertEquals(1, stats.getEjections());
+        // the two failures that ejected it, then it gets nothing
+        assertEquals(2, stats.getFailed());
+        proxy.close();
+    }
+
+    @Test
+    void testLeastOutstandingPrefersTheIdleUpstream() {
+        ReverseProxy proxy = ReverseProxy.builder()
+                .upstream("localhost", 1).upstream("localhost", 2).upstream("localhost", 3)
+                .balancing(ReverseProxy.Balancing.LEAST_OUTSTANDING)
+                .build();
+        List<Upstream> upstreams = proxy.upstreams();
+        upstreams.get(0).requestStarted();
+        upstreams.get(0).requestStarted();
+        upstreams.get(2).requestStarted();
+        HttpRequest request = new HttpRequest("GET", "/", Map.of(), "");
+
+        for (int i = 0; i < 5; i++) {
+            assertSame(upstreams.get(1), proxy.pick(request, null));
+        }
+        // the one that just failed is left out while there's another
+        assertSame(upstreams.get(2), proxy.pick(request, upstreams.get(1)));
+    }
+
+    private java.net.http.HttpResponse<String> get(int port, String path) throws Exception {
+        return client.send(java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+                java.net.http.HttpResponse.BodyHandlers.ofString());
+    }
+
+    // an httpforge instance answering /who with its name
+    private int upstream(String name) throws IOException {
+        return serve(router -> {
+            router.addRoute("GET", "/who", request -> HttpResponse.builder()
+                    .status(200, "OK")
+                    .header("X-Via", String.valueOf(request.getHeader("Via")))
+                    .body(name)
+                    .build());
+            router.addRoute("POST", "/data", request -> HttpResponse.ok("Received POST data:\n" + request.getBody()));
+            String large = "0123456789".repeat(30_000);
+            router.addRoute("GET", "/large", request -> HttpResponse.ok(large));
+        });
+    }
+
+    private int front(ReverseProxy proxy) throws IOException {
+        return serve(router -> router.addProxyRoute("/", proxy));
+    }
+
+    private int serve(Consumer<Router> routes) throws IOException {
+        Router router = new Router();
+        routes.accept(router);
+        ServerSocket server = new ServerSocket(0);
+        servers.add(server);
+        Thread.ofVirtual().start(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> new ConnectionHandler(socket, router).handle());
+                }
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        });
+        return server.getLocalPort();
+    }
+}
@@ -0,0 +1,144 @@
+package com.httpforge.routing;
+
+import com.httpforge.http.HttpRequest;
+import com.httpforge.metrics.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutTest {
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+    private static String sleepThen(long ms, String value) throws InterruptedException {
+        Thread.sleep(ms);
+        return value;
+    }
+
+    @Test
+    void testSubtasksRunInParallel() throws Exception {
+        long start = System.nanoTime();
+        try (FanOut fanOut = FanOut.open(Duration.ofSeconds(2))) {
+            FanOut.Subtask<String> a = fanOut.fork("a", () -> sleepThen(100, "A"));
+            FanOut.Subtask<String> b = fanOut.fork("b", () -> sleepThen(100, "B"));
+            FanOut.Subtask<String> c = fanOut.fork("c", () -> sleepThen(100, "C"));
+            fanOut.join();
+
+            assertEquals("ABC", a.get() + b.get() + c.get());
+            assertTrue(a.elapsed().toMillis() >= 100);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // the slowest call, not the sum of 300ms
+        assertTrue(elapsedMs < 250, "took " + elapsedMs + "ms");
+    }
+
+    @Test
+    void testFailureCancelsTheRest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        FanOut.Subtask<String> slow;
+        try (FanOut fanOut = FanOut.open(Duration.ofSeconds(5))) {
+            slow = fanOut.fork("slow", () -> {
+                started.countDown();
+                try {
+                    return sleepThen(5000, "never");
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            });
+            fanOut.fork("broken", () -> {
+                // fail once the slow one is running, so there is something to interrupt
+                started.await();
+                throw new IllegalStateException("backend down");
+            });
+
+            FanOutException e = assertThrows(FanOutException.class, fanOut::join);
+            assertEquals("broken", e.getSubtask());
+            assertFalse(e.isTimeout());
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // close() waited for the cancelled sub-task to finish
+        assertTrue(interrupted.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(FanOut.State.CANCELLED, slow.state());
+        assertThrows(IllegalStateException.class, slow::get);
+
+        Map<String, Metrics.SubtaskStats> stats = Metrics.getInstance().getSubtasks();
+        assertEquals(1, stats.get("broken").getFailed());
+        assertEquals(1, stats.get("slow").getCancelled());
+    }
+
+    @Test
+    void testEveryCancelledSubtaskIsSettled() throws Exception {
+        List<FanOut.Subtask<String>> slow = new ArrayList<>();
+        try (FanOut fanOut = FanOut.open(Duration.ofSeconds(5))) {
+            fanOut.fork("broken", () -> {
+                throw new IllegalStateException("backend down");
+            });
+            // some of these are cancelled before their thread ever starts
+            for (int i = 0; i < 200; i++) {
+                slow.add(fanOut.fork("slow", () -> sleepThen(5000, "never")));
+            }
+
+            FanOutException e = assertThrows(FanOutException.class, fanOut::join);
+            assertEquals("broken", e.getSubtask());
+        }
+        for (FanOut.Subtask<String> subtask : slow) {
+            assertEquals(FanOut.State.CANCELLED, subtask.state());
+        }
+        assertEquals(200, Metrics.getInstance().getSubtasks().get("slow").getCancelled());
+    }
+
+    @Test
+    void testDeadlineFromRequestHeader() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(FanOut.TIMEOUT_HEADER, "100");
+        HttpRequest request = new HttpRequest("GET", "/aggregate", headers, "");
+
+        long start = System.nanoTime();
+        try (FanOut fanOut = FanOut.open(request)) {
+            fanOut.fork("fast", () -> "ok");
+            fanOut.fork("stuck", () -> sleepThen(5000, "never"));
+
+            FanOutException e = assertThrows(FanOutException.class, fanOut::join);
+            assertTrue(e.isTimeout());
+            assertEquals("stuck", e.getSubtask());
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMs < 1000, "took " + elapsedMs + "ms");
+    }
+
+    @Test
+    void testSubtaskTimingsAreRecorded() throws Exception {
+        try (FanOut fanOut = FanOut.open(Duration.ofSeconds(2))) {
+            fanOut.fork("db", () -> sleepThen(30, "row"));
+            fanOut.fork("db", () -> sleepThen(30, "row"));
+            fanOut.join();
+        }
+
+        Metrics.SubtaskStats db = Metrics.getInstance().getSubtasks().get("db");
+        assertEquals(2, db.getLatencyHistogram().getCount());
+        assertTrue(db.getLatencyHistogram().getMax() >= 30_000);
+        assertEquals(0, db.getFailed());
+    }
+
+    @Test
+    void testForkAfterJoinIsRejected() throws Exception {
+        try (FanOut fanOut = FanOut.open(Duration.ofSeconds(1))) {
+            fanOut.join();
+            assertThrows(IllegalStateException.class, () -> fanOut.fork("late", () -> "x"));
+        }
+    }
+}
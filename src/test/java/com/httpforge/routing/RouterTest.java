@@ -6,6 +6,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -111,5 +113,76 @@ class RouterTest {
 
         assertEquals("User-Agent: TestClient/1.0", response.getBody());
     }
-}
 
+    @Test
+    void testRouteIgnoresQueryString() {
+        router.addRoute("GET", "/search", request -> HttpResponse.ok("Search"));
+
+        HttpResponse response = router.route(new HttpRequest("GET", "/search?q=forge", new HashMap<>(), ""));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("Search", response.getBody());
+    }
+
+    @Test
+    void testAsyncRouteIsNotWaitedFor() {
+        CompletableFuture<HttpResponse> downstream = new CompletableFuture<>();
+        router.addAsyncRoute("GET", "/slow", request -> downstream);
+
+        CompletionStage<HttpResponse> response = router.routeAsync(new HttpRequest("GET", "/slow", new HashMap<>(), ""));
+
+        assertFalse(response.toCompletableFuture().isDone());
+        downstream.complete(HttpResponse.ok("Done"));
+        assertEquals("Done", response.toCompletableFuture().join().getBody());
+    }
+
+    @Test
+    void testRouteAsyncCompletesSyncRoutesAndMisses() {
+        router.addRoute("GET", "/sync", request -> HttpResponse.ok("Sync"));
+
+        CompletableFuture<HttpResponse> sync = router.routeAsync(new HttpRequest("GET", "/sync", new HashMap<>(), "")).toCompletableFuture();
+        CompletableFuture<HttpResponse> missing = router.routeAsync(new HttpRequest("GET", "/missing", new HashMap<>(), "")).toCompletableFuture();
+
+        assertEquals("Sync", sync.getNow(null).getBody());
+        assertEquals(404, missing.getNow(null).getStatusCode());
+    }
+
+    @Test
+    void testRouteWaitsForAsyncHandler() {
+        router.addAsyncRoute("GET", "/async", request ->
+            CompletableFuture.supplyAsync(() -> HttpResponse.ok("Later")));
+
+        assertEquals("Later", router.route(new HttpRequest("GET", "/async", new HashMap<>(), "")).getBody());
+    }
+
+    @Test
+    void testLaterRegistrationReplacesEarlierOfOtherKind() {
+        router.addAsyncRoute("GET", "/x", request -> CompletableFuture.completedFuture(HttpResponse.ok("Async")));
+        router.addRoute("GET", "/x", request -> HttpResponse.ok("Sync"));
+
+        assertEquals("Sync", router.route(new HttpRequest("GET", "/x", new HashMap<>(), "")).getBody());
+    }
+
+    @Test
+    void testIsAsyncOnlyForAsyncRoutes() {
+        router.addAsyncRoute("GET", "/async", request -> CompletableFuture.completedFuture(HttpResponse.ok("Async")));
+        router.addRoute("GET", "/sync", request -> HttpResponse.ok("Sync"));
+
+        assertTrue(router.isAsync(new HttpRequest("get", "/async?x=1", new HashMap<>(), "")));
+        assertFalse(router.isAsync(new HttpRequest("GET", "/sync", new HashMap<>(), "")));
+        assertFalse(router.isAsync(new HttpRequest("POST", "/async", new HashMap<>(), "")));
+    }
+
+    @Test
+    void testPriorityIsByPathAndDefaultsToData() {
+        router.addRoute("GET", "/health", request -> HttpResponse.ok("OK"));
+        router.setPriority("/health", Router.Priority.CONTROL);
+
+        assertEquals(Router.Priority.CONTROL, router.priorityOf(new HttpRequest("GET", "/health?verbose", new HashMap<>(), "")));
+        assertEquals(Router.Priority.CONTROL, router.priorityOf(new HttpRequest("HEAD", "/health", new HashMap<>(), "")));
+        assertEquals(Router.Priority.DATA, router.priorityOf(new HttpRequest("GET", "/healthz", new HashMap<>(), "")));
+
+        router.setPriority("/health", Router.Priority.DATA);
+        assertEquals(Router.Priority.DATA, router.priorityOf(new HttpRequest("GET", "/health", new HashMap<>(), "")));
+    }
+}
@@ -0,0 +1,119 @@
+package com.httpforge.server;
+
+import com.httpforge.Main;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.metrics.MetricsJson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AcceptorsTest {
+    private static final int CONNECTIONS = 200;
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+    @Test
+    void testConnectionsAreSpreadOverTheAcceptors() throws Exception {
+        Queue<Boolean> noDelay = new ConcurrentLinkedQueue<>();
+        Acceptors acceptors = new Acceptors("test", ListenConfig.defaults().withAcceptors(4).withBacklog(64), false, socket -> {
+            try (socket) {
+                noDelay.add(socket.getTcpNoDelay());
+                socket.getOutputStream().write('!');
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        acceptors.open(0);
+        Thread thread = new Thread(acceptors::run);
+        thread.start();
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                try (Socket client = new Socket("localhost", acceptors.getLocalPort())) {
+                    client.setSoTimeout(2000);
+                    assertEquals('!', client.getInputStream().read());
+                }
+            }
+        } finally {
+            acceptors.close();
+            thread.join(5000);
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        assertTrue(acceptors.isReusePort());
+        assertEquals(CONNECTIONS, noDelay.size());
+        assertFalse(noDelay.contains(false));
+        assertEquals(CONNECTIONS, metrics.getAccepted());
+        assertEquals(64, metrics.getListenBacklog());
+        long[] perAcceptor = metrics.getAcceptedByAcceptor();
+        assertEquals(4, perAcceptor.length);
+        for (long accepted : perAcceptor) {
+            // the kernel hashes each connection to one of the four sockets
+            assertTrue(accepted > 0, "accepted: " + accepted);
+        }
+        assertTrue(metrics.getAcceptRate() <= CONNECTIONS);
+    }
+
+    @Test
+    void testThreadPoolServerWithSeveralAcceptors() throws Exception {
+        ThreadPoolServer server = new ThreadPoolServer(0, Main.createRouter(), ThreadPoolServer.ThreadPoolConfig.fixed(2, 10),
+                null, ListenConfig.defaults().withAcceptors(3));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                // stopped
+            }
+        });
+        serverThread.start();
+        try {
+            while (server.getLocalPort() <= 0) {
+                Thread.sleep(5);
+            }
+            for (int i = 0; i < 30; i++) {
+                // a new connection each time
+                try (Socket client = new Socket("localhost", server.getLocalPort())) {
+                    client.setSoTimeout(2000);
+                    client.getOutputStream().write("GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                            .getBytes(StandardCharsets.US_ASCII));
+                    String response = new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+                    assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+                }
+            }
+        } finally {
+            server.stop();
+            serverThread.join(5000);
+        }
+
+        assertEquals(30, Metrics.getInstance().getAccepted());
+        String json = MetricsJson.render(Metrics.getInstance());
+        assertTrue(json.contains("\"listen\": {"), json);
+        assertTrue(json.contains("\"accepted\": 30,"), json);
+        assertTrue(json.contains("\"backlog\": " + ListenConfig.DEFAULT_BACKLOG + ","), json);
+    }
+
+    @Test
+    void testListenConfigRejectsBadValues() {
+        ListenConfig config = ListenConfig.defaults();
+        for (Runnable bad : new Runnable[]{() -> config.withAcceptors(0), () -> config.withBacklog(-1),
+                () -> config.withReceiveBufferSize(-1)}) {
+            try {
+                bad.run();
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+        assertEquals("2 acceptors, backlog 1024, nodelay, sndbuf 65536",
+                config.withAcceptors(2).withSendBufferSize(65536).toString());
+    }
+}
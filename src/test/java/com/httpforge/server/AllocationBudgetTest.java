@@ -0,0 +1,157 @@
+package com.httpforge.server;
+
+import com.httpforge.Main;
+import com.httpforge.routing.Router;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * bytes allocated per request on the connection thread, per request path, against a
+ * declared budget. requests go through the real ConnectionHandler over loopback; only the
+ * server thread is measured, so the client side of the test doesn't count.
+ *
+ * budgets are what the code does today plus about a quarter, for JIT differences between
+ * machines; any more and a path could double its garbage before this noticed. when a
+ * change makes a path cheaper, lower its budget in the same commit so the gain can't
+ * quietly regress.
+ */
+class AllocationBudgetTest {
+    private static final int WARMUP_REQUESTS = 3000;
+    private static final int MEASURED_REQUESTS = 2000;
+
+    private static final String BROWSER_HEADERS =
+            "Host: localhost\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.9\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Connection: keep-alive\r\n";
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+    private Socket client;
+    private OutputStream out;
+    private InputStream in;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "JVM can't measure per-thread allocation");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Router router = Main.createRouter();
+        serverSocket = new ServerSocket(0);
+        // a platform thread: allocation is tracked per OS thread
+        serverThread = new Thread(() -> {
+            try {
+                new ConnectionHandler(serverSocket.accept(), router).handle();
+            } catch (IOException e) {
+                // socket closed by tearDown
+            }
+        }, "allocation-budget-server");
+        serverThread.start();
+
+        client = new Socket("localhost", serverSocket.getLocalPort());
+        client.setTcpNoDelay(true);
+        out = client.getOutputStream();
+        in = new BufferedInputStream(client.getInputStream());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        client.close();
+        serverSocket.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    void testGetRootKeepAlive() throws IOException {
+        assertWithinBudget("GET / keep-alive",
+                "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n", 832);
+    }
+
+    @Test
+    void testGetEchoBrowserHeaders() throws IOException {
+        assertWithinBudget("GET /echo browser headers",
+                "GET /echo HTTP/1.1\r\n" + BROWSER_HEADERS + "\r\n", 1728);
+    }
+
+    @Test
+    void testPostOneKilobyte() throws IOException {
+        String body = "x".repeat(1024);
+        assertWithinBudget("POST /data 1 KiB",
+                "POST /data HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n" +
+                "Content-Type: text/plain\r\nContent-Length: 1024\r\n\r\n" + body, 5120);
+    }
+
+    @Test
+    void testNotFound() throws IOException {
+        assertWithinBudget("GET /missing 404",
+                "GET /missing HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n", 1536);
+    }
+
+    private void assertWithinBudget(String path, String request, long budgetBytes) throws IOException {
+        byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            exchange(bytes);
+        }
+
+        // the server thread is parked in read() between exchanges, so its counter is stable here
+        long before = threads.getThreadAllocatedBytes(serverThread.threadId());
+        for (int i = 0; i < MEASURED_REQUESTS; i++) {
+            exchange(bytes);
+        }
+        long after = threads.getThreadAllocatedBytes(serverThread.threadId());
+
+        long perRequest = (after - before) / MEASURED_REQUESTS;
+        assertTrue(perRequest <= budgetBytes,
+                path + " allocates " + perRequest + " B/request, budget is " + budgetBytes);
+    }
+
+    // one request, then the whole response off the wire
+    private void exchange(byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+
+        int contentLength = 0;
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String header = line.toString().trim();
+                if (header.isEmpty()) {
+                    break;
+                }
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    contentLength = Integer.parseInt(header.substring(15).trim());
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+        if (b == -1) {
+            fail("Server closed the connection");
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() == -1) {
+                fail("Server closed the connection mid-body");
+            }
+        }
+    }
+}
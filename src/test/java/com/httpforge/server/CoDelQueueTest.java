@@ -0,0 +1,121 @@
+package com.httpforge.server;
+
+import com.httpforge.metrics.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoDelQueueTest {
+    private final List<Runnable> shed = new ArrayList<>();
+    // the queue's clock, moved on by the tests rather than by sleeping
+    private final AtomicLong now = new AtomicLong();
+    // 5ms target, 50ms interval
+    private final CoDelQueue queue = new CoDelQueue(10, 5, 50, shed::add, now::get);
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+    private ConnectionTask task() {
+        return new ConnectionTask(new Socket(), null, t -> { }, now.get());
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void testFifoWhileQueueKeepsDraining() throws InterruptedException {
+        ConnectionTask first = task();
+        ConnectionTask second = task();
+        queue.offer(first);
+        queue.offer(second);
+
+        assertSame(first, queue.take());
+        assertSame(second, queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(shed.isEmpty());
+        assertFalse(Metrics.getInstance().isLifoDispatch());
+    }
+
+    @Test
+    void testStandingQueueShedsStaleAndServesNewest() throws InterruptedException {
+        List<ConnectionTask> stale = List.of(task(), task(), task());
+        stale.forEach(queue::offer);
+        // the queue hasn't been empty for longer than the interval, and everything in it
+        // has waited longer than the target
+        advance(80);
+        ConnectionTask fresh = task();
+        ConnectionTask freshest = task();
+        queue.offer(fresh);
+        queue.offer(freshest);
+
+        assertSame(freshest, queue.take());
+        assertEquals(stale, shed);
+        assertTrue(Metrics.getInstance().isLifoDispatch());
+        assertSame(fresh, queue.take());
+
+        // drained: next time round it's FIFO again
+        ConnectionTask a = task();
+        ConnectionTask b = task();
+        queue.offer(a);
+        queue.offer(b);
+        assertSame(a, queue.take());
+        assertFalse(Metrics.getInstance().isLifoDispatch());
+    }
+
+    @Test
+    void testDrainedAfterOverloadLetsWorkersTakeTasksAgain() throws InterruptedException {
+        // never started, so it's below its maximum: a standing queue would make offer() refuse
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 4, 1, TimeUnit.SECONDS, queue);
+        queue.attach(pool);
+        queue.offer(task());
+        advance(80);
+        queue.offer(task());
+        queue.offer(task());
+        queue.take();
+        assertTrue(Metrics.getInstance().isLifoDispatch());
+
+        // the last take empties the queue while it's still overloaded
+        queue.take();
+
+        assertFalse(Metrics.getInstance().isLifoDispatch());
+        assertTrue(queue.offer(task()));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void testFullQueueIsRefused() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(task()));
+        }
+        assertFalse(queue.offer(task()));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(10, queue.size());
+    }
+
+    @Test
+    void testPlainPollIsOldestFirst() throws InterruptedException {
+        ConnectionTask oldest = task();
+        queue.offer(oldest);
+        advance(80);
+        queue.offer(task());
+
+        // DISCARD_OLDEST relies on this even while overloaded
+        assertSame(oldest, queue.poll());
+        assertTrue(shed.isEmpty());
+    }
+
+    @Test
+    void testTimedPollReturnsNullWhenEmpty() throws InterruptedException {
+        assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,185 @@
+package com.httpforge.server;
+
+import com.httpforge.Main;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * each phase's deadline closes a connection that stalls in that phase, and only that phase.
+ */
+class ConnectionTimeoutsTest {
+    private static final Pattern CONTENT_LENGTH = Pattern.compile("(?i)content-length:\\s*(\\d+)");
+    private static final ConnectionTimeouts SHORT = new ConnectionTimeouts(300, 300, 300, 300, 300);
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+    private Socket client;
+    private final CompletableFuture<HttpResponse> never = new CompletableFuture<>();
+    private final Flood flood = new Flood();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Metrics.getInstance().reset();
+        Router router = Main.createRouter();
+        router.addAsyncRoute("GET", "/never", request -> never);
+        router.addRoute("GET", "/flood", request -> HttpResponse.builder().stream(flood).build());
+        serverSocket = new ServerSocket(0);
+        serverThread = new Thread(() -> {
+            try {
+                new ConnectionHandler(serverSocket.accept(), router, System.nanoTime(), 0, null, SHORT, null).handle();
+            } catch (IOException e) {
+                // socket closed by tearDown
+            }
+        });
+        serverThread.start();
+        client = new Socket("localhost", serverSocket.getLocalPort());
+        client.setSoTimeout(3000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        client.close();
+        serverSocket.close();
+        serverThread.join(5000);
+    }
+
+    private void send(String data) throws IOException {
+        OutputStream out = client.getOutputStream();
+        out.write(data.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    // reads whatever the server sends until it closes; fails if it doesn't within the socket timeout
+    private String readUntilClosed() throws IOException {
+        InputStream in = client.getInputStream();
+        StringBuilder received = new StringBuilder();
+        try {
+            int b;
+            while ((b = in.read()) != -1) {
+                received.append((char) b);
+            }
+        } catch (java.net.SocketException e) {
+            // reset instead of FIN - closed all the same
+        }
+        return received.toString();
+    }
+
+    @Test
+    void testIdleConnectionIsClosed() throws Exception {
+        assertEquals("", readUntilClosed());
+        serverThread.join(2000);
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("idle"));
+    }
+
+    @Test
+    void testSlowHeadersAreCut() throws Exception {
+        send("GET / HTTP/1.1\r\nHost: localhost\r\n");
+        assertEquals("", readUntilClosed());
+        serverThread.join(2000);
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("header"));
+    }
+
+    @Test
+    void testSlowBodyIsCut() throws Exception {
+        send("POST /data HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\nonly ten b");
+        assertEquals("", readUntilClosed());
+        serverThread.join(2000);
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("body"));
+    }
+
+    @Test
+    void testSlowAsyncHandlerGetsGatewayTimeout() throws Exception {
+        send("GET /never HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertTrue(readUntilClosed().startsWith("HTTP/1.1 504 Gateway Timeout"));
+        serverThread.join(2000);
+        // the handler can see that nobody is waiting for its response any more
+        assertTrue(never.isCancelled());
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("handler"));
+    }
+
+    @Test
+    void testStreamToAClientThatStopsReadingIsCut() throws Exception {
+        // detached from the worker, the stream's writes are still under the write deadline
+        send("GET /flood HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        // the detached thread records the timeout, then ends
+        Thread writer = flood.writer.get(5, TimeUnit.SECONDS);
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("write"));
+    }
+
+    @Test
+    void testRequestsWithinDeadlinesAreServed() throws Exception {
+        // three requests, each sent once the last was answered: the idle timer is re-armed each
+        // time, then the connection idles out
+        for (int i = 0; i < 3; i++) {
+            send("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+            assertTrue(readResponse().startsWith("HTTP/1.1 200 OK"));
+        }
+        assertEquals("", readUntilClosed());
+        serverThread.join(2000);
+        assertEquals(Long.valueOf(1), Metrics.getInstance().getTimeouts().get("idle"));
+        assertNull(Metrics.getInstance().getTimeouts().get("header"));
+    }
+
+    // one response: headers up to the blank line, then Content-Length bytes of body
+    private String readResponse() throws IOException {
+        InputStream in = client.getInputStream();
+        StringBuilder received = new StringBuilder();
+        while (received.indexOf("\r\n\r\n") < 0) {
+            int b = in.read();
+            if (b == -1) {
+                fail("closed mid-response: " + received);
+            }
+            received.append((char) b);
+        }
+        Matcher length = CONTENT_LENGTH.matcher(received);
+        assertTrue(length.find(), received.toString());
+        received.append(new String(in.readNBytes(Integer.parseInt(length.group(1))), StandardCharsets.US_ASCII));
+        return received.toString();
+    }
+
+    // an endless event stream, written as fast as the socket takes it
+    private static final class Flood implements HttpResponse.BodyStream {
+        // the detached connection's thread, once it starts writing
+        final CompletableFuture<Thread> writer = new CompletableFuture<>();
+
+        @Override
+        public long transferTo(WritableByteChannel out) throws IOException {
+            writer.complete(Thread.currentThread());
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            while (true) {
+                chunk.clear();
+                out.write(chunk);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isLongLived() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.httpforge.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTest {
+
+    // 10ms ticks, 8 buckets: one rotation is 80ms, so longer delays exercise the round count
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+
+    @AfterEach
+    void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    void testFiresAfterDelayNotBefore() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = timer.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMs >= 50, "fired after " + elapsedMs + "ms");
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    void testDelaysLongerThanOneRotationFireInOrder() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        // 250ms is three rotations plus a bit; it hashes to the same bucket as 10ms would
+        timer.schedule(() -> { order.add(250); done.countDown(); }, 250, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(90); done.countDown(); }, 90, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(20); done.countDown(); }, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(20, 90, 250), order);
+    }
+
+    @Test
+    void testCancelledTimeoutNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout cancelled = timer.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void testCancelAfterExpiryFails() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout = timer.schedule(fired::countDown, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    void testManyScheduledAndCancelled() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(500);
+        for (int i = 0; i < 1000; i++) {
+            HashedWheelTimer.Timeout timeout = timer.schedule(fired::countDown, 20 + i % 100, TimeUnit.MILLISECONDS);
+            if (i % 2 == 0) {
+                timeout.cancel();
+            }
+        }
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertEquals(0, timer.pendingTimeouts());
+    }
+}
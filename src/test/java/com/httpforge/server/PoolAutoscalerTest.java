@@ -0,0 +1,65 @@
+package com.httpforge.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PoolAutoscalerTest {
+
+    @Test
+    void testGrowsWhileConnectionsQueue() {
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(8, 2, 64, 4.0, 5, 8, 0.3);
+
+        // a quarter more, since demand alone would say 5
+        assertEquals(10, decision.target);
+        assertEquals("queue", decision.reason);
+    }
+
+    @Test
+    void testGrowsStraightToDemandWhenItIsHigher() {
+        // 40 busy on average → 50 with headroom
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(8, 2, 64, 40.0, 3, 8, 0.3);
+
+        assertEquals(50, decision.target);
+    }
+
+    @Test
+    void testHoldsWhenQueueingIsCpuBound() {
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(8, 2, 64, 40.0, 20, 8, 0.95);
+
+        assertEquals(8, decision.target);
+        assertEquals("cpu-bound", decision.reason);
+    }
+
+    @Test
+    void testShrinksGraduallyWhenIdle() {
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(32, 2, 64, 0.0, 0, 0, 0.1);
+
+        // an eighth per interval, not straight down to the minimum
+        assertEquals(28, decision.target);
+        assertEquals("idle", decision.reason);
+    }
+
+    @Test
+    void testNeverShrinksBelowBusyWorkers() {
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(32, 2, 64, 1.0, 0, 31, 0.1);
+
+        assertEquals(31, decision.target);
+    }
+
+    @Test
+    void testClampsToBounds() {
+        assertEquals(64, PoolAutoscaler.decide(60, 2, 64, 200.0, 10, 60, 0.2).target);
+        assertEquals(4, PoolAutoscaler.decide(4, 4, 64, 0.0, 0, 0, 0.0).target);
+        assertEquals("steady", PoolAutoscaler.decide(4, 4, 64, 0.0, 0, 0, 0.0).reason);
+    }
+
+    @Test
+    void testSteadyWhenDemandMatches() {
+        // 8 busy × 1.25 = 10
+        PoolAutoscaler.Decision decision = PoolAutoscaler.decide(10, 2, 64, 8.0, 0, 8, 0.5);
+
+        assertEquals(10, decision.target);
+        assertEquals("steady", decision.reason);
+    }
+}
@@ -0,0 +1,304 @@
+package com.httpforge.server;
+
+import com.httpforge.Main;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadPoolServerTest {
+    private static final String REQUEST = "GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n";
+
+    private ThreadPoolServer server;
+    private Thread serverThread;
+    private final List<Socket> clients = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.stop();
+        serverThread.join(5000);
+    }
+
+    private void start(ThreadPoolServer.ThreadPoolConfig config) throws InterruptedException {
+        start(config, Main.createRouter());
+    }
+
+    private void start(ThreadPoolServer.ThreadPoolConfig config, Router router) throws InterruptedException {
+        server = new ThreadPoolServer(0, router, config);
+        serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                // stopped
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", server.getLocalPort());
+        socket.setSoTimeout(2000);
+        clients.add(socket);
+        return socket;
+    }
+
+    // sends one request and reads the response up to and including its body
+    private String exchange(Socket socket) throws IOException {
+        send(socket, REQUEST);
+        return readResponse(socket);
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String readResponse(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        String status = reader.readLine();
+        int contentLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            read += reader.read(body, read, contentLength - read);
+        }
+        return status;
+    }
+
+    @Test
+    void testIdleConnectionsDoNotPinWorkers() throws Exception {
+        // two workers; without the poller the third keep-alive connection would wait
+        // for one of the first two to hit the idle timeout
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(2, 10).withIdlePoller());
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Socket socket = connect();
+            sockets.add(socket);
+            assertEquals("HTTP/1.1 200 OK", exchange(socket));
+        }
+        // every connection is idle again and still open; each one can be reused
+        for (Socket socket : sockets) {
+            assertEquals("HTTP/1.1 200 OK", exchange(socket));
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        assertTrue(metrics.hasIdlePoller());
+        // new connections wait for their first request in the poller as well
+        assertEquals(16, metrics.getParkResumes());
+        // the response can reach us a moment before the worker parks the connection
+        awaitParked(8);
+    }
+
+    @Test
+    void testParkedConnectionClosedByClientIsReleased() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 10).withIdlePoller());
+
+        Socket first = connect();
+        assertEquals("HTTP/1.1 200 OK", exchange(first));
+        first.close();
+
+        // the close wakes the poller, the worker sees EOF and drops the connection
+        Socket second = connect();
+        assertEquals("HTTP/1.1 200 OK", exchange(second));
+        awaitParked(1);
+    }
+
+    @Test
+    void testAsyncHandlersDoNotHoldWorkers() throws Exception {
+        // one worker: the eight responses are pending at the same time, not one after another
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 10).withIdlePoller());
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Socket socket = connect();
+            sockets.add(socket);
+            send(socket, "GET /hello-async HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+        }
+        for (Socket socket : sockets) {
+            assertEquals("HTTP/1.1 200 OK", readResponse(socket));
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(8, metrics.getHandlerSuspends());
+        assertEquals(0, metrics.getAwaitingHandler());
+        // and the connections are reusable afterwards
+        assertEquals("HTTP/1.1 200 OK", exchange(sockets.get(0)));
+    }
+
+    @Test
+    void testControlLaneAnswersWhileThePoolIsSaturated() throws Exception {
+        // one worker and 20 queued /hello requests of 20ms each: 400ms before it gets to anything new
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 30).withControlLane(1, 4));
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Socket socket = connect();
+            sockets.add(socket);
+            send(socket, "GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        }
+        awaitQueued(15);
+
+        String metrics = get("/metrics");
+
+        assertTrue(metrics.startsWith("HTTP/1.1 200 OK"), metrics);
+        // answered ahead of the data queue, not after it
+        Matcher data = Pattern.compile("\"data\": \\{\\s*\"threads\": 1,\\s*\"activeThreads\": 1,\\s*\"queueDepth\": (\\d+),")
+                .matcher(metrics);
+        assertTrue(data.find(), metrics);
+        assertTrue(Integer.parseInt(data.group(1)) > 0, metrics);
+        assertTrue(metrics.contains("\"control\": {\n      \"threads\": 1,\n      \"activeThreads\": 1,\n      \"queueDepth\": 0,\n      \"dispatched\": 1,"), metrics);
+        for (Socket socket : sockets) {
+            assertEquals("HTTP/1.1 200 OK", readResponse(socket));
+        }
+        Metrics.LaneStats lane = Metrics.getInstance().getLanes().get("data");
+        assertEquals(20, lane.getDispatched());
+        assertEquals(0, lane.getRejected());
+    }
+
+    @Test
+    void testControlLaneKeepsOnlyControlRequests() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 30).withControlLane(1, 4), slowRouter());
+        Socket busy = connect();
+        send(busy, "GET /slow HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        awaitActive();
+
+        // triaged onto the control lane, then handed back to the data lane for its /hello
+        Socket socket = connect();
+        send(socket, "GET /health HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+        assertEquals("HTTP/1.1 200 OK", readResponse(socket));
+        assertEquals("HTTP/1.1 200 OK", exchange(socket));
+        assertEquals("HTTP/1.1 200 OK", readResponse(busy));
+
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(1, metrics.getLaneTriages());
+        assertEquals(1, metrics.getLanes().get("control").getDispatched());
+        assertEquals(2, metrics.getLanes().get("data").getDispatched());
+    }
+
+    @Test
+    void testUntriagedConnectionHandsControlRequestsOver() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 30).withControlLane(1, 4));
+        // the pool is idle: no triage, the connection goes straight to a data worker
+        Socket socket = connect();
+        assertEquals("HTTP/1.1 200 OK", exchange(socket));
+
+        send(socket, "GET /health HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+        assertEquals("HTTP/1.1 200 OK", readResponse(socket));
+        assertEquals("HTTP/1.1 200 OK", exchange(socket));
+
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(0, metrics.getLaneTriages());
+        assertEquals(1, metrics.getLanes().get("control").getDispatched());
+        assertEquals(2, metrics.getLanes().get("data").getDispatched());
+    }
+
+    @Test
+    void testControlLaneRejectsWhenFull() throws Exception {
+        // one control thread and a one-slot queue: of three slow control requests, one is turned away
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 30).withControlLane(1, 1), slowRouter());
+        Socket busy = connect();
+        send(busy, "GET /slow HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        awaitActive();
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Socket socket = connect();
+            sockets.add(socket);
+            send(socket, "GET /slow-health HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        }
+
+        int unavailable = 0;
+        for (Socket socket : sockets) {
+            String status = readResponse(socket);
+            if (status.startsWith("HTTP/1.1 503")) {
+                unavailable++;
+            } else {
+                assertEquals("HTTP/1.1 200 OK", status);
+            }
+        }
+        assertEquals(1, unavailable);
+        assertEquals(1, Metrics.getInstance().getLanes().get("control").getRejected());
+        assertEquals(0, Metrics.getInstance().getLanes().get("data").getRejected());
+    }
+
+    // a data route and a control route that each hold their thread for 300ms
+    private static Router slowRouter() {
+        Router router = Main.createRouter();
+        router.addRoute("GET", "/slow", request -> sleep(300));
+        router.addRoute("GET", "/slow-health", request -> sleep(300));
+        router.setPriority("/slow-health", Router.Priority.CONTROL);
+        return router;
+    }
+
+    private static HttpResponse sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return HttpResponse.ok("slept\n");
+    }
+
+    // a whole response on a connection of its own
+    private String get(String path) throws IOException {
+        Socket socket = connect();
+        send(socket, "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void awaitQueued(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (Metrics.getInstance().getQueueDepth() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(Metrics.getInstance().getQueueDepth() >= expected);
+    }
+
+    private static void awaitActive() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (Metrics.getInstance().getActiveThreads() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, Metrics.getInstance().getActiveThreads());
+    }
+
+    private static void awaitParked(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (Metrics.getInstance().getParkedConnections() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, Metrics.getInstance().getParkedConnections());
+    }
+}
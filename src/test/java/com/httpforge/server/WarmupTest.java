@@ -0,0 +1,80 @@
+package com.httpforge.server;
+
+import com.httpforge.Main;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.metrics.MetricsJson;
+import com.httpforge.routing.Router;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmupTest {
+
+    @Test
+    void testMixGoesThroughTheRouter() throws IOException {
+        Router router = Main.createRouter();
+        AtomicLong posts = new AtomicLong();
+        router.addRoute("POST", "/count", request -> {
+            posts.incrementAndGet();
+            assertEquals(512, request.getBody().length());
+            return HttpResponse.ok("counted");
+        });
+
+        Warmup.Result result = new Warmup("GET /:3, POST /count", 2, 1, 2000).run(router);
+
+        assertTrue(result.requests >= Warmup.ROUND_REQUESTS, result.toString());
+        assertEquals(result.rounds * (long) Warmup.ROUND_REQUESTS, result.requests);
+        // one request in four
+        assertEquals(result.requests / 4, posts.get());
+    }
+
+    @Test
+    void testServerErrorFailsTheWarmup() {
+        Router router = new Router();
+        router.addRoute("GET", "/broken", request -> new HttpResponse(500, "Internal Server Error", new HashMap<>(), "no\n"));
+        try {
+            new Warmup("GET /broken", 1, 1, 2000).run(router);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Warmup request failed: HTTP/1.1 500"), expected.getMessage());
+        }
+    }
+
+    @Test
+    void testParseMix() {
+        List<byte[]> requests = Warmup.parseMix("get /a:2, POST /b");
+
+        assertEquals(3, requests.size());
+        String first = new String(requests.get(0), StandardCharsets.US_ASCII);
+        assertTrue(first.startsWith("GET /a HTTP/1.1\r\n"), first);
+        assertTrue(first.contains("Connection: keep-alive\r\n"), first);
+        assertSame(requests.get(0), requests.get(1));
+        assertTrue(new String(requests.get(2), StandardCharsets.US_ASCII).contains("Content-Length: 512\r\n"));
+        for (String bad : new String[]{"", "GET", "GET a", "GET /a:0"}) {
+            try {
+                Warmup.parseMix(bad);
+                fail("accepted " + bad);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test
+    void testStartupInMetrics() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.recordWarmup(20_000, 1500, 1200);
+
+        String json = MetricsJson.render(metrics);
+
+        assertTrue(json.contains("\"warmup\": {\"requests\": 20000, \"durationMs\": 1500, \"compileMs\": 1200}"), json);
+        assertTrue(json.contains("\"classDataSharing\": "), json);
+    }
+}
@@ -0,0 +1,225 @@
+package com.httpforge.tls;
+
+import com.httpforge.Main;
+import com.httpforge.http.HttpResponse;
+import com.httpforge.metrics.Metrics;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ThreadPoolServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TLS end to end, with a self-signed certificate made by keytool for the test run.
+ */
+class TlsTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String LARGE = "0123456789".repeat(20_000);
+
+    private static Path keyStore;
+    private static SSLContext clientContext;
+
+    private ThreadPoolServer server;
+    private Thread serverThread;
+
+    @BeforeAll
+    static void createCertificate() throws Exception {
+        Path dir = Files.createTempDirectory("httpforge-tls");
+        keyStore = dir.resolve("server.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(keytool.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, keytool.waitFor(), output);
+
+        // the client trusts exactly that certificate
+        KeyStore trusted = KeyStore.getInstance(keyStore.toFile(), PASSWORD);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+    }
+
+    @AfterAll
+    static void deleteCertificate() throws IOException {
+        Files.deleteIfExists(keyStore);
+        Files.deleteIfExists(keyStore.getParent());
+    }
+
+    @BeforeEach
+    void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        server.stop();
+        serverThread.join(5000);
+    }
+
+    @Test
+    void testRepeatClientResumesItsSession() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(2, 10));
+
+        for (int i = 0; i < 3; i++) {
+            // a new client, and connection, each time; the session cache is the SSLContext's
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .sslContext(clientContext)
+                    .build();
+            java.net.http.HttpResponse<String> response = client.send(request("/"),
+                    java.net.http.HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("Welcome to HTTPForge!\n", response.body());
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(1, metrics.getTlsFullHandshakes());
+        assertEquals(2, metrics.getTlsResumedHandshakes());
+        assertEquals(0, metrics.getTlsFailedHandshakes());
+        assertEquals(3, metrics.getTlsHandshakeHistogram().getCount());
+    }
+
+    @Test
+    void testLargeResponseSpansManyRecords() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(2, 10));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .sslContext(clientContext)
+                .build();
+
+        java.net.http.HttpResponse<String> response = client.send(request("/large"),
+                java.net.http.HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(LARGE, response.body());
+    }
+
+    @Test
+    void testAlpnSelectsHttp2() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(4, 10));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .sslContext(clientContext)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            java.net.http.HttpResponse<String> response = client.send(request("/hello"),
+                    java.net.http.HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        assertEquals(1, metrics.getTlsAlpnH2());
+        assertEquals(1, metrics.getHttp2Connections());
+        assertEquals(3, metrics.getHttp2Streams());
+    }
+
+    @Test
+    void testKeepAliveConnectionParksBetweenRequests() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(1, 10).withIdlePoller());
+
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getLocalPort())) {
+            socket.setSoTimeout(3000);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            for (int i = 0; i < 3; i++) {
+                send(socket.getOutputStream(), "GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+                assertEquals("HTTP/1.1 200 OK", readResponse(reader));
+            }
+            // waited in the selector before the handshake and between requests
+            Metrics metrics = Metrics.getInstance();
+            assertEquals(3, metrics.getParkResumes());
+            assertEquals(1, metrics.getTlsFullHandshakes());
+        }
+    }
+
+    @Test
+    void testPlainHttpOnTlsPortIsRefused() throws Exception {
+        start(ThreadPoolServer.ThreadPoolConfig.fixed(2, 10));
+
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            socket.setSoTimeout(3000);
+            send(socket.getOutputStream(), "GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            // perhaps an alert, then the connection closes; never an HTTP response
+            byte[] answer = in.readAllBytes();
+            assertFalse(new String(answer, StandardCharsets.US_ASCII).contains("HTTP/1.1"));
+        }
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (Metrics.getInstance().getTlsFailedHandshakes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, Metrics.getInstance().getTlsFailedHandshakes());
+    }
+
+    private void start(ThreadPoolServer.ThreadPoolConfig config) throws Exception {
+        Router router = Main.createRouter();
+        router.addRoute("GET", "/large", request -> HttpResponse.ok(LARGE));
+        server = new ThreadPoolServer(0, router, config, TlsContext.fromKeyStore(keyStore, PASSWORD));
+        serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                // stopped
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("https://localhost:" + server.getLocalPort() + path)).build();
+    }
+
+    private static void send(OutputStream out, String request) throws IOException {
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    // the status line, after reading the whole response
+    private static String readResponse(BufferedReader reader) throws IOException {
+        String status = reader.readLine();
+        int contentLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            read += reader.read(body, read, contentLength - read);
+        }
+        return status;
+    }
+}
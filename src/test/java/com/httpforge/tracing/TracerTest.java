@@ -0,0 +1,85 @@
+package com.httpforge.tracing;
+
+import com.httpforge.http.HttpRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TracerTest {
+
+    private static long[] phases(long accept, long queue, long parse, long handler, long write) {
+        return new long[] {accept, queue, parse, handler, write};
+    }
+
+    @Test
+    void testTraceparentIsParsed() {
+        long[] id = TraceId.fromTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+
+        assertNotNull(id);
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", TraceId.toHex(id[0], id[1]));
+    }
+
+    @Test
+    void testInvalidTraceparentIsIgnored() {
+        assertNull(TraceId.fromTraceparent(null));
+        assertNull(TraceId.fromTraceparent("garbage"));
+        assertNull(TraceId.fromTraceparent("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        assertNull(TraceId.fromTraceparent("00-zzf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+    }
+
+    @Test
+    void testZeroSampleRateNeverSamples() {
+        Tracer tracer = new Tracer(0.0, 16);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(tracer.shouldSample());
+        }
+    }
+
+    @Test
+    void testRecordUsesTraceparentId() {
+        Tracer tracer = new Tracer(1.0, 16);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("traceparent", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+
+        tracer.record(new HttpRequest("GET", "/hello", headers, ""), 200, 0, phases(1, 2, 3, 4, 5));
+
+        List<SpanRing.Trace> traces = tracer.getRing().slowest(10);
+        assertEquals(1, traces.size());
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", traces.get(0).traceId());
+        assertEquals(15, traces.get(0).totalNanos());
+        assertEquals(4, traces.get(0).phaseNanos(SpanRing.Phase.HANDLER));
+    }
+
+    @Test
+    void testRingKeepsMostRecentAndSortsSlowestFirst() {
+        SpanRing ring = new SpanRing(4);
+        for (int i = 1; i <= 10; i++) {
+            ring.record(0, i, 0, "GET", "/" + i, 200, phases(0, 0, 0, i * 100L, 0));
+        }
+
+        List<SpanRing.Trace> slowest = ring.slowest(2);
+
+        assertEquals(10, ring.getRecordedCount());
+        assertEquals(2, slowest.size());
+        assertEquals("/10", slowest.get(0).path);
+        assertEquals("/9", slowest.get(1).path);
+        assertEquals(4, ring.slowest(100).size());
+    }
+
+    @Test
+    void testJsonContainsPhaseBreakdown() {
+        Tracer tracer = new Tracer(1.0, 4);
+        tracer.record(new HttpRequest("GET", "/hello", new HashMap<>(), ""), 200, 0,
+                phases(0, 1_000_000, 0, 20_000_000, 0));
+
+        String json = tracer.toJson(5);
+
+        assertTrue(json.contains("\"queue\": 1.000"));
+        assertTrue(json.contains("\"handler\": 20.000"));
+        assertTrue(json.contains("\"totalMs\": 21.000"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.httpforge.websocket;
+
+import com.httpforge.http.HttpResponse;
+import com.httpforge.routing.Router;
+import com.httpforge.server.ConnectionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * the protocol on the wire, against an echo handler, with a client written out by hand.
+ */
+class WebSocketTest {
+    private static final int TEXT = 0x1;
+    private static final int CONTINUATION = 0x0;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+
+    private ServerSocket server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Router router = new Router();
+        router.addRoute("GET", "/echo", request -> HttpResponse.ok("not upgraded"));
+        router.addWebSocketRoute("/echo", webSocket -> {
+            WebSocket.Message message;
+            while ((message = webSocket.read()) != null) {
+                webSocket.sendText(message.getText());
+            }
+        });
+        server = new ServerSocket(0);
+        Thread.ofVirtual().start(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> new ConnectionHandler(socket, router).handle());
+                }
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void testAcceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocket.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void testPingFragmentsAndCloseHandshake() throws IOException {
+        try (Socket socket = open()) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.write(frame(true, PING, "are you there"));
+            assertFrame(in, PONG, "are you there");
+
+            // a message in two fragments, with a ping in between
+            out.write(frame(false, TEXT, "hello, "));
+            out.write(frame(true, PING, ""));
+            out.write(frame(true, CONTINUATION, "wörld"));
+            assertFrame(in, PONG, "");
+            assertFrame(in, TEXT, "hello, wörld");
+
+            // a message large enough for the 16-bit length
+            String large = "x".repeat(60_000);
+            out.write(frame(true, TEXT, large));
+            assertFrame(in, TEXT, large);
+
+            out.write(frame(true, CLOSE, "\u0003è"));
+            assertFrame(in, CLOSE, "\u0003è");
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testUnmaskedFrameIsAProtocolError() throws IOException {
+        try (Socket socket = open()) {
+            byte[] unmasked = {(byte) 0x81, 2, 'h', 'i'};
+            socket.getOutputStream().write(unmasked);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] payload = readFrame(in, CLOSE);
+            assertEquals(WebSocket.PROTOCOL_ERROR, (payload[0] & 0xFF) << 8 | payload[1] & 0xFF);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testRequestWithoutUpgradeGoesToTheRoute() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            socket.setSoTimeout(3000);
+            socket.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+            assertTrue(response.endsWith("not upgraded"), response);
+        }
+    }
+
+    // connected and upgraded
+    private Socket open() throws IOException {
+        Socket socket = new Socket("localhost", server.getLocalPort());
+        socket.setSoTimeout(3000);
+        socket.getOutputStream().write(("GET /echo HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                + "Connection: keep-alive, Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char) in.readUnsignedByte());
+        }
+        assertTrue(head.toString().startsWith("HTTP/1.1 101 Switching Protocols\r\n"), head.toString());
+        assertTrue(head.toString().contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"), head.toString());
+        return socket;
+    }
+
+    // a client frame, masked as a client's must be
+    private static byte[] frame(boolean fin, int opcode, String text) {
+        byte[] payload = opcode == CLOSE ? text.getBytes(StandardCharsets.ISO_8859_1) : text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write((fin ? 0x80 : 0) | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length);
+        }
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        frame.write(mask, 0, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i & 3]);
+        }
+        return frame.toByteArray();
+    }
+
+    private static void assertFrame(DataInputStream in, int opcode, String expected) throws IOException {
+        byte[] payload = readFrame(in, opcode);
+        assertEquals(expected, new String(payload, opcode == CLOSE ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readFrame(DataInputStream in, int opcode) throws IOException {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        assertEquals(0x80 | opcode, first);
+        // the server never masks
+        assertEquals(0, second & 0x80);
+        int length = second & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+}
@@ -4,10 +4,18 @@ import { LatencyCharts } from "./components/LatencyCharts";
 import { LatencyDistribution } from "./components/LatencyDistribution";
 import { SuccessRateChart } from "./components/SuccessRateChart";
 import { ComparisonTable } from "./components/ComparisonTable";
+import { TimeSeriesChart } from "./components/TimeSeriesChart";
+import { RunResourcesTable } from "./components/RunResourcesTable";
+import { LiveMetricsPanel } from "./components/LiveMetricsPanel";
 import { COLORS } from "./data/benchmarkData";
+import { runSeries, useBenchmarkRuns } from "./data/runs";
 import { Github } from "griddy-icons";
 
 export default function BenchmarkDashboard() {
+  // harness output replaces the checked-in numbers when present
+  const runs = useBenchmarkRuns();
+  const series = runs ? runSeries(runs) : null;
+
   return (
     <div className="min-h-screen bg-white">
       {/* GitHub Link */}
@@ -67,11 +75,15 @@ export default function BenchmarkDashboard() {
           />
         </div>
 
+        <LiveMetricsPanel />
+
         {/* Charts */}
-        <ThroughputChart />
-        <LatencyCharts />
+        <ThroughputChart data={series?.throughput} />
+        <LatencyCharts p50={series?.p50Latency} p99={series?.p99Latency} />
         <LatencyDistribution />
-        <SuccessRateChart />
+        <SuccessRateChart data={series?.successRate} />
+        {runs && <RunResourcesTable runs={runs} />}
+        <TimeSeriesChart />
 
         {/* Architecture Bottlenecks */}
         <div className="mb-6">
@@ -10,8 +10,15 @@ import {
 } from "recharts";
 import { CustomTooltip } from "./CustomTooltip";
 import { p50LatencyData, p99LatencyData, COLORS } from "../data/benchmarkData";
+import type { StrategySeries } from "../data/runs";
 
-export function LatencyCharts() {
+export function LatencyCharts({
+  p50 = p50LatencyData,
+  p99 = p99LatencyData,
+}: {
+  p50?: StrategySeries;
+  p99?: StrategySeries;
+}) {
   return (
     <div className="grid grid-cols-1 lg:grid-cols-2 gap-4 mt-6 mb-6">
       {/* p50 Latency */}
@@ -26,7 +33,7 @@ export function LatencyCharts() {
           </p>
         </div>
         <ResponsiveContainer width="100%" height={300}>
-          <LineChart data={p50LatencyData}>
+          <LineChart data={p50}>
             <CartesianGrid strokeDasharray="3 3" stroke="#f3f4f6" />
             <XAxis
               label={{
@@ -100,7 +107,7 @@ export function LatencyCharts() {
           style={{ padding: 0, margin: 0 }}
         >
           <LineChart
-            data={p99LatencyData}
+            data={p99}
             margin={{ top: 0, right: 0, bottom: 0, left: 0 }}
           >
             <CartesianGrid strokeDasharray="3 3" stroke="#f3f4f6" />
@@ -0,0 +1,89 @@
+import { useEffect, useState } from "react";
+import { MetricCard } from "./MetricCard";
+
+// one frame of /metrics/stream, see MetricsStream on the server
+export interface LiveFrame {
+  seq: number;
+  timestampMs: number;
+  intervalMs: number;
+  requests: number;
+  requestsPerSecond: number;
+  latencyUs: { p50: number; p90: number; p99: number; max: number };
+  rejections: number;
+  totalRequests: number;
+  activeConnections: number;
+  poolSize: number;
+  activeThreads: number;
+  queueDepth: number;
+  subscribers: number;
+}
+
+// served by a running httpforge; the dev server or a static host has none
+export const METRICS_STREAM_URL = "/metrics/stream";
+
+// the latest frame, or null until one arrives (or forever, with no server behind the url)
+export function useLiveMetrics(url: string = METRICS_STREAM_URL) {
+  const [frame, setFrame] = useState<LiveFrame | null>(null);
+
+  useEffect(() => {
+    const source = new EventSource(url);
+    source.onmessage = (event) => setFrame(JSON.parse(event.data));
+    // EventSource reconnects by itself; a static host answers with html, so stop there
+    source.onerror = () => {
+      if (source.readyState === EventSource.CLOSED) setFrame(null);
+    };
+    return () => source.close();
+  }, [url]);
+
+  return frame;
+}
+
+function formatMs(micros: number): string {
+  return (micros / 1000).toFixed(micros < 10_000 ? 2 : 0);
+}
+
+// the server this page is served from, live; hidden when there isn't one
+export function LiveMetricsPanel({ url }: { url?: string }) {
+  const frame = useLiveMetrics(url);
+  if (!frame) return null;
+
+  return (
+    <div className="mb-12">
+      <div className="mb-4">
+        <h2 className="font-mono text-xl font-medium text-gray-900 mb-2">
+          Live
+        </h2>
+        <p className="font-mono text-xs text-gray-500">
+          pushed every {frame.intervalMs} ms from {METRICS_STREAM_URL}, one
+          snapshot shared by all {frame.subscribers} viewer(s)
+        </p>
+      </div>
+      <div className="grid grid-cols-1 md:grid-cols-2 lg:grid-cols-4 gap-4">
+        <MetricCard
+          title="throughput"
+          value={frame.requestsPerSecond.toFixed(0)}
+          unit="req/s"
+          subtitle={`${frame.totalRequests.toLocaleString()} total`}
+        />
+        <MetricCard
+          title="p99 latency"
+          value={formatMs(frame.latencyUs.p99)}
+          unit="ms"
+          subtitle={`p50 ${formatMs(frame.latencyUs.p50)} ms, max ${formatMs(frame.latencyUs.max)} ms`}
+        />
+        <MetricCard
+          title="workers"
+          value={`${frame.activeThreads}/${frame.poolSize}`}
+          unit="busy"
+          subtitle={`${frame.queueDepth} queued, ${frame.rejections} rejected`}
+        />
+        <MetricCard
+          title="in flight"
+          value={String(frame.activeConnections)}
+          unit="req"
+          subtitle="requests being served"
+        />
+      </div>
+    </div>
+  );
+}
@@ -0,0 +1,88 @@
+import type { RunResult } from "../data/runs";
+import { COLORS } from "../data/benchmarkData";
+
+function formatBytes(bytes: number): string {
+  if (bytes >= 1024 * 1024) return `${(bytes / (1024 * 1024)).toFixed(1)} MiB`;
+  if (bytes >= 1024) return `${(bytes / 1024).toFixed(1)} KiB`;
+  return `${bytes} B`;
+}
+
+// cpu, allocation and gc per harness run - not part of the checked-in numbers
+export function RunResourcesTable({ runs }: { runs: RunResult[] }) {
+  const sorted = [...runs].sort(
+    (a, b) =>
+      a.strategy.localeCompare(b.strategy) || a.concurrency - b.concurrency
+  );
+  const first = sorted[0];
+
+  return (
+    <div className="bg-white border border-gray-200 mb-6">
+      <div className="mb-4 p-4">
+        <h2 className="font-mono text-xl font-medium text-gray-900 mb-2">
+          Resource Usage per Run
+        </h2>
+        <p className="font-mono text-xs text-gray-500">
+          in-process harness runs on {first.cores} core(s), java{" "}
+          {first.javaVersion}. cpu, allocation and gc cover the whole jvm,
+          load generator included.
+        </p>
+      </div>
+      <div className="overflow-x-auto">
+        <table className="w-full">
+          <thead>
+            <tr className="border-b-2 border-gray-300 font-mono text-xs text-gray-700">
+              <th className="text-left py-4 px-4 font-semibold">strategy</th>
+              <th className="text-right py-4 px-4 font-semibold">c</th>
+              <th className="text-right py-4 px-4 font-semibold">req/s</th>
+              <th className="text-right py-4 px-4 font-semibold">p99 (corrected)</th>
+              <th className="text-right py-4 px-4 font-semibold">errors</th>
+              <th className="text-right py-4 px-4 font-semibold">cpu</th>
+              <th className="text-right py-4 px-4 font-semibold">alloc/req</th>
+              <th className="text-right py-4 px-4 font-semibold">gc</th>
+            </tr>
+          </thead>
+          <tbody className="font-mono text-xs">
+            {sorted.map((run) => (
+              <tr
+                key={`${run.strategy}-${run.concurrency}`}
+                className="border-b border-gray-100 hover:bg-gray-50"
+              >
+                <td className="py-3 px-4 text-gray-900">
+                  <div className="flex items-center gap-2">
+                    <div
+                      className="w-2 h-2 rounded-full"
+                      style={{
+                        backgroundColor:
+                          COLORS[run.strategy as keyof typeof COLORS] ?? "#6b7280",
+                      }}
+                    ></div>
+                    {run.strategy}
+                  </div>
+                </td>
+                <td className="py-3 px-4 text-right">{run.concurrency}</td>
+                <td className="py-3 px-4 text-right">
+                  {run.load.throughput.toFixed(1)}
+                </td>
+                <td className="py-3 px-4 text-right">
+                  {run.load.latencyMs.p99.toFixed(1)} ms
+                </td>
+                <td className="py-3 px-4 text-right">
+                  {Object.values(run.load.errors).reduce((a, b) => a + b, 0)}
+                </td>
+                <td className="py-3 px-4 text-right">
+                  {run.cpuUtilization.toFixed(1)}%
+                </td>
+                <td className="py-3 px-4 text-right">
+                  {formatBytes(run.allocatedBytesPerRequest)}
+                </td>
+                <td className="py-3 px-4 text-right">
+                  {run.gcCount} / {run.gcTimeMs} ms
+                </td>
+              </tr>
+            ))}
+          </tbody>
+        </table>
+      </div>
+    </div>
+  );
+}
@@ -10,8 +10,13 @@ import {
 } from "recharts";
 import { CustomTooltip } from "./CustomTooltip";
 import { successRateData, COLORS } from "../data/benchmarkData";
+import type { StrategySeries } from "../data/runs";
 
-export function SuccessRateChart() {
+export function SuccessRateChart({
+  data = successRateData,
+}: {
+  data?: StrategySeries;
+}) {
   return (
     <div className="bg-white border border-gray-200 mb-6">
       <div className="mb-6 p-4">
@@ -32,7 +37,7 @@ export function SuccessRateChart() {
         style={{ padding: 0, margin: 0 }}
       >
         <AreaChart
-          data={successRateData}
+          data={data}
           margin={{ top: 0, right: 0, bottom: 0, left: 0 }}
         >
           <defs>
@@ -10,8 +10,13 @@ import {
 } from "recharts";
 import { CustomTooltip } from "./CustomTooltip";
 import { throughputData, COLORS } from "../data/benchmarkData";
+import type { StrategySeries } from "../data/runs";
 
-export function ThroughputChart() {
+export function ThroughputChart({
+  data = throughputData,
+}: {
+  data?: StrategySeries;
+}) {
   return (
     <div className="bg-white border border-gray-200">
       <div className="mb-6 p-4">
@@ -31,7 +36,7 @@ export function ThroughputChart() {
         style={{ padding: 0, margin: 0 }}
       >
         <AreaChart
-          data={throughputData}
+          data={data}
           margin={{ top: 0, right: 0, bottom: 0, left: 0 }}
         >
           <defs>
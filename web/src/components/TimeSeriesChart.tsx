@@ -0,0 +1,138 @@
+import {
+  LineChart,
+  Line,
+  XAxis,
+  YAxis,
+  CartesianGrid,
+  Tooltip,
+  Legend,
+  ResponsiveContainer,
+} from "recharts";
+import { useMetricsTimeSeries } from "../data/timeseries";
+import { COLORS, METRIC_COLORS } from "../data/benchmarkData";
+
+export function TimeSeriesChart() {
+  const series = useMetricsTimeSeries();
+  if (!series || series.samples.length === 0) {
+    return null;
+  }
+
+  const start = series.samples[0].timestamp;
+  const data = series.samples.map((sample) => ({
+    ...sample,
+    t: Math.round((sample.timestamp - start) / 1000),
+  }));
+
+  return (
+    <div className="bg-white border border-gray-200 mt-6 mb-6">
+      <div className="mb-6 p-4">
+        <h2 className="font-mono text-xl font-medium text-gray-900 mb-2">
+          Recorded Time Series
+        </h2>
+        <p className="font-mono text-xs text-gray-600 leading-relaxed">
+          per-second snapshots from the on-disk metrics recorder (pid{" "}
+          {series.pid}, {series.samples.length} samples). latency percentiles
+          cover each interval, not the whole run.
+        </p>
+      </div>
+      <div className="grid grid-cols-1 lg:grid-cols-2 gap-4">
+        <ResponsiveContainer width="100%" height={300}>
+          <LineChart data={data}>
+            <CartesianGrid strokeDasharray="3 3" stroke="#f3f4f6" />
+            <XAxis
+              dataKey="t"
+              tick={{ fontFamily: "monospace", fontSize: 11 }}
+              label={{
+                value: "seconds",
+                position: "insideBottom",
+                offset: -10,
+                style: { fontFamily: "monospace", fontSize: 11 },
+              }}
+            />
+            <YAxis tick={{ fontFamily: "monospace", fontSize: 11 }} />
+            <Tooltip />
+            <Legend
+              wrapperStyle={{
+                fontFamily: "monospace",
+                fontSize: 12,
+                paddingTop: "20px",
+              }}
+            />
+            <Line
+              type="monotone"
+              dataKey="throughput"
+              stroke={COLORS.pool}
+              strokeWidth={2}
+              name="req/s"
+              dot={false}
+            />
+            <Line
+              type="monotone"
+              dataKey="queueDepth"
+              stroke={METRIC_COLORS.neutral}
+              strokeWidth={2}
+              name="queue depth"
+              dot={false}
+            />
+          </LineChart>
+        </ResponsiveContainer>
+        <ResponsiveContainer width="100%" height={300}>
+          <LineChart data={data}>
+            <CartesianGrid strokeDasharray="3 3" stroke="#f3f4f6" />
+            <XAxis
+              dataKey="t"
+              tick={{ fontFamily: "monospace", fontSize: 11 }}
+              label={{
+                value: "seconds",
+                position: "insideBottom",
+                offset: -10,
+                style: { fontFamily: "monospace", fontSize: 11 },
+              }}
+            />
+            <YAxis
+              tick={{ fontFamily: "monospace", fontSize: 11 }}
+              label={{
+                value: "latency (ms)",
+                angle: -90,
+                position: "insideLeft",
+                style: { fontFamily: "monospace", fontSize: 11 },
+              }}
+            />
+            <Tooltip />
+            <Legend
+              wrapperStyle={{
+                fontFamily: "monospace",
+                fontSize: 12,
+                paddingTop: "20px",
+              }}
+            />
+            <Line
+              type="monotone"
+              dataKey="p50"
+              stroke={COLORS.single}
+              strokeWidth={2}
+              name="p50"
+              dot={false}
+            />
+            <Line
+              type="monotone"
+              dataKey="p99"
+              stroke={COLORS.thread}
+              strokeWidth={2}
+              name="p99"
+              dot={false}
+            />
+            <Line
+              type="monotone"
+              dataKey="queueWaitP99"
+              stroke={METRIC_COLORS.bad}
+              strokeWidth={2}
+              name="queue wait p99"
+              dot={false}
+            />
+          </LineChart>
+        </ResponsiveContainer>
+      </div>
+    </div>
+  );
+}
@@ -0,0 +1,107 @@
+import { useEffect, useState } from "react";
+
+export interface LatencySummary {
+  count: number;
+  mean: number;
+  p50: number;
+  p75: number;
+  p90: number;
+  p95: number;
+  p99: number;
+  p999: number;
+  p9999: number;
+  max: number;
+}
+
+// one file as written by `ComparisonHarness`
+export interface RunResult {
+  strategy: string;
+  server: string;
+  concurrency: number;
+  timestamp: number;
+  javaVersion: string;
+  cores: number;
+  successRate: number;
+  cpuMs: number;
+  cpuUtilization: number;
+  allocatedBytes: number;
+  allocatedBytesPerRequest: number;
+  gcCount: number;
+  gcTimeMs: number;
+  load: {
+    target: string;
+    mode: string;
+    connections: number;
+    durationMs: number;
+    requests: number;
+    throughput: number;
+    errors: Record<string, number>;
+    statusCodes: Record<string, number>;
+    serviceTimeMs: LatencySummary;
+    latencyMs: LatencySummary;
+  };
+}
+
+// one row per concurrency level, one key per strategy - the shape the charts already use
+export type StrategySeries = Array<{ concurrency: number } & Record<string, number>>;
+
+// written next to the run files by the harness:
+//   java -cp target/httpforge-1.0-SNAPSHOT.jar com.httpforge.loadgen.ComparisonHarness
+export const RUNS_INDEX_URL = "/data/runs/index.json";
+
+// loads every run listed in the index, or null when the harness hasn't been run
+export function useBenchmarkRuns(indexUrl: string = RUNS_INDEX_URL) {
+  const [runs, setRuns] = useState<RunResult[] | null>(null);
+
+  useEffect(() => {
+    let cancelled = false;
+    const base = indexUrl.substring(0, indexUrl.lastIndexOf("/") + 1);
+    fetch(indexUrl)
+      .then((res) => (res.ok ? res.json() : null))
+      .then((index: { runs: string[] } | null) => {
+        if (!index || !Array.isArray(index.runs)) {
+          return null;
+        }
+        return Promise.all(
+          index.runs.map((file) =>
+            fetch(base + file).then((res) => res.json() as Promise<RunResult>)
+          )
+        );
+      })
+      .then((loaded) => {
+        if (!cancelled && loaded && loaded.length > 0) {
+          setRuns(loaded);
+        }
+      })
+      .catch(() => {
+        // no harness output, the dashboard keeps the checked-in numbers
+      });
+    return () => {
+      cancelled = true;
+    };
+  }, [indexUrl]);
+
+  return runs;
+}
+
+export function toSeries(
+  runs: RunResult[],
+  pick: (run: RunResult) => number
+): StrategySeries {
+  const rows = new Map<number, { concurrency: number } & Record<string, number>>();
+  for (const run of runs) {
+    const row = rows.get(run.concurrency) ?? { concurrency: run.concurrency };
+    row[run.strategy] = pick(run);
+    rows.set(run.concurrency, row);
+  }
+  return Array.from(rows.values()).sort((a, b) => a.concurrency - b.concurrency);
+}
+
+export function runSeries(runs: RunResult[]) {
+  return {
+    throughput: toSeries(runs, (run) => run.load.throughput),
+    p50Latency: toSeries(runs, (run) => run.load.serviceTimeMs.p50),
+    p99Latency: toSeries(runs, (run) => run.load.latencyMs.p99),
+    successRate: toSeries(runs, (run) => run.successRate),
+  };
+}
@@ -0,0 +1,61 @@
+import { useEffect, useState } from "react";
+
+// one sample as written by `MetricsFileReader --json`
+export interface MetricsSample {
+  timestamp: number;
+  throughput: number;
+  totalRequests: number;
+  activeConnections: number;
+  p50: number;
+  p90: number;
+  p99: number;
+  p999: number;
+  max: number;
+  poolSize: number;
+  activeThreads: number;
+  queueDepth: number;
+  queueWaitP50: number;
+  queueWaitP99: number;
+  rejections: number;
+  callerRuns: number;
+  heapUsedMb: number;
+  gcCount: number;
+  gcTimeMs: number;
+  threads: number;
+}
+
+export interface MetricsTimeSeries {
+  pid: number;
+  startedAt: number;
+  intervalMs: number;
+  samples: MetricsSample[];
+}
+
+// drop a reader export here to chart it:
+//   java -cp target/httpforge-1.0-SNAPSHOT.jar com.httpforge.metrics.MetricsFileReader \
+//     httpforge.metrics --json > web/public/data/metrics-timeseries.json
+export const TIMESERIES_URL = "/data/metrics-timeseries.json";
+
+// loads the recorded time series, or null when no export is present
+export function useMetricsTimeSeries(url: string = TIMESERIES_URL) {
+  const [series, setSeries] = useState<MetricsTimeSeries | null>(null);
+
+  useEffect(() => {
+    let cancelled = false;
+    fetch(url)
+      .then((res) => (res.ok ? res.json() : null))
+      .then((data: MetricsTimeSeries | null) => {
+        if (!cancelled && data && Array.isArray(data.samples)) {
+          setSeries(data);
+        }
+      })
+      .catch(() => {
+        // no export yet, the panel just stays hidden
+      });
+    return () => {
+      cancelled = true;
+    };
+  }, [url]);
+
+  return series;
+}